@@ -8,6 +8,7 @@
  */
 package com.parse;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import bolts.Continuation;
@@ -15,10 +16,39 @@ import bolts.Task;
 
 /**
  * {@code AbstractParseQueryController} is an abstract implementation of
- * {@link ParseQueryController}, which implements {@link ParseQueryController#getFirstAsync}.
+ * {@link ParseQueryController}, which implements {@link ParseQueryController#getFirstAsync}, and
+ * implements paged {@code find} queries by passing all of the results to the page callback once
+ * they're received.
  */
 /** package */ abstract class AbstractQueryController implements ParseQueryController {
 
+  @Override
+  public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state, ParseUser user,
+      final int pageSize, final FindPageCallback<T> pageCallback, Task<Void> cancellationToken) {
+    return findAsync(state, user, cancellationToken).onSuccess(
+        new Continuation<List<T>, List<T>>() {
+      @Override
+      public List<T> then(Task<List<T>> task) throws Exception {
+        callbackInPages(task.getResult(), pageSize, pageCallback);
+        return task.getResult();
+      }
+    });
+  }
+
+  /**
+   * Passes results that were received all at once to {@code pageCallback}, {@code pageSize} of them
+   * at a time.
+   */
+  /* package */ static <T extends ParseObject> void callbackInPages(List<T> results, int pageSize,
+      FindPageCallback<T> pageCallback) {
+    if (pageCallback == null) {
+      return;
+    }
+    for (int i = 0; i < results.size(); i += pageSize) {
+      pageCallback.done(new ArrayList<>(results.subList(i, Math.min(i + pageSize, results.size()))));
+    }
+  }
+
   @Override
   public <T extends ParseObject> Task<T> getFirstAsync(ParseQuery.State<T> state, ParseUser user,
       Task<Void> cancellationToken) {
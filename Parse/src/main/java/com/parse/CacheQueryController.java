@@ -45,6 +45,36 @@ import bolts.Task;
     return runCommandWithPolicyAsync(callbacks, state.cachePolicy());
   }
 
+  @Override
+  public <T extends ParseObject> Task<List<T>> findAsync(
+      final ParseQuery.State<T> state,
+      final ParseUser user,
+      final int pageSize,
+      final FindPageCallback<T> pageCallback,
+      final Task<Void> cancellationToken) {
+    final String sessionToken = user != null ? user.getSessionToken() : null;
+    CommandDelegate<List<T>> callbacks = new CommandDelegate<List<T>>() {
+      @Override
+      public Task<List<T>> runOnNetworkAsync(boolean retry) {
+        return networkController.findAsync(
+            state, sessionToken, retry, pageSize, pageCallback, cancellationToken);
+      }
+
+      @Override
+      public Task<List<T>> runFromCacheAsync() {
+        return findFromCacheAsync(state, sessionToken).onSuccess(
+            new Continuation<List<T>, List<T>>() {
+          @Override
+          public List<T> then(Task<List<T>> task) throws Exception {
+            callbackInPages(task.getResult(), pageSize, pageCallback);
+            return task.getResult();
+          }
+        });
+      }
+    };
+    return runCommandWithPolicyAsync(callbacks, state.cachePolicy());
+  }
+
   @Override
   public <T extends ParseObject> Task<Integer> countAsync(
       final ParseQuery.State<T> state,
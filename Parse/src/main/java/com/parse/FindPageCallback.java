@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.List;
+
+/**
+ * A {@code FindPageCallback} is used to receive the results of a {@link ParseQuery} a page at a
+ * time, while the rest of the results are still being downloaded.
+ * <p/>
+ * The {@code done} function is run in the UI thread once for each page, in the order of the
+ * results. After the last page, the {@link FindCallback} or {@link bolts.Task} of the find is
+ * completed with all of the results, or with the error that stopped the find.
+ * <p/>
+ * For example, this sample code shows objects of class {@code "MyClass"} as soon as the first 20
+ * of them are received:
+ * <p/>
+ * <pre>
+ * ParseQuery&lt;ParseObject&gt; query = ParseQuery.getQuery(&quot;MyClass&quot;);
+ * query.findInBackground(new FindCallback&lt;ParseObject&gt;() {
+ *   public void done(List&lt;ParseObject&gt; objects, ParseException e) {
+ *     // All of the results, or the error.
+ *   }
+ * }, 20, new FindPageCallback&lt;ParseObject&gt;() {
+ *   public void done(List&lt;ParseObject&gt; page) {
+ *     appendObjects(page);
+ *   }
+ * });
+ * </pre>
+ */
+// FYI, this does not extend ParseCallback2 since it does not match the usual signature
+// done(T, ParseException), but is done(T).
+public interface FindPageCallback<T extends ParseObject> {
+  /**
+   * Override this function with the code you want to run when a page of results is received.
+   *
+   * @param page
+   *          The next results, in the query's order.
+   */
+  void done(List<T> page);
+}
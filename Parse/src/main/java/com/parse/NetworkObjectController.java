@@ -11,19 +11,36 @@ package com.parse;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import bolts.Continuation;
 import bolts.Task;
+import bolts.TaskCompletionSource;
 
 /** package */ class NetworkObjectController implements ParseObjectController {
 
   private ParseHttpClient client;
   private ParseObjectCoder coder;
+  // Null unless saves and deletes of single objects are batched.
+  private CommandBatcher batcher;
 
   public NetworkObjectController(ParseHttpClient client) {
+    this(client, 0);
+  }
+
+  /**
+   * @param batchInterval How long saves and deletes of single objects wait to be sent in a batch
+   *                      with others, in milliseconds, or 0 to send each of them on its own.
+   */
+  public NetworkObjectController(ParseHttpClient client, long batchInterval) {
     this.client = client;
     this.coder = ParseObjectCoder.get();
+    if (batchInterval > 0) {
+      this.batcher = new CommandBatcher(client, batchInterval);
+    }
   }
 
   @Override
@@ -65,7 +82,7 @@ import bolts.Task;
         objectJSON,
         sessionToken);
     command.enableRetrying();
-    return command.executeAsync(client).onSuccess(new Continuation<JSONObject, ParseObject.State>() {
+    return executeAsync(command, sessionToken).onSuccess(new Continuation<JSONObject, ParseObject.State>() {
       @Override
       public ParseObject.State then(Task<JSONObject> task) throws Exception {
         JSONObject result = task.getResult();
@@ -126,7 +143,7 @@ import bolts.Task;
         state, sessionToken);
     command.enableRetrying();
 
-    return command.executeAsync(client).makeVoid();
+    return executeAsync(command, sessionToken).makeVoid();
   }
 
   @Override
@@ -152,4 +169,102 @@ import bolts.Task;
     }
     return tasks;
   }
+
+  private Task<JSONObject> executeAsync(ParseRESTObjectCommand command, String sessionToken) {
+    if (batcher == null) {
+      return command.executeAsync(client);
+    }
+    return batcher.executeAsync(command, sessionToken);
+  }
+
+  /**
+   * Collects the commands of concurrent saves and deletes, and sends the ones with the same session
+   * token together once the batch interval has passed, or once there are as many as fit in one
+   * {@code /batch} request.
+   */
+  private static class CommandBatcher {
+
+    private static class Batch {
+      private final List<ParseRESTObjectCommand> commands = new ArrayList<>();
+      private final List<TaskCompletionSource<JSONObject>> tcss = new ArrayList<>();
+    }
+
+    private final ParseHttpClient client;
+    private final long interval;
+
+    private final Object lock = new Object();
+    // The batches that are waiting to be sent, by session token. Guarded by lock.
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    public CommandBatcher(ParseHttpClient client, long interval) {
+      this.client = client;
+      this.interval = interval;
+    }
+
+    public Task<JSONObject> executeAsync(ParseRESTObjectCommand command, final String sessionToken) {
+      TaskCompletionSource<JSONObject> tcs = new TaskCompletionSource<>();
+      Batch full = null;
+      synchronized (lock) {
+        Batch batch = batches.get(sessionToken);
+        if (batch == null) {
+          final Batch newBatch = new Batch();
+          batches.put(sessionToken, newBatch);
+          ParseExecutors.scheduled().schedule(new Runnable() {
+            @Override
+            public void run() {
+              synchronized (lock) {
+                if (batches.get(sessionToken) != newBatch) {
+                  // It was sent when it filled up.
+                  return;
+                }
+                batches.remove(sessionToken);
+              }
+              send(newBatch, sessionToken);
+            }
+          }, interval, TimeUnit.MILLISECONDS);
+          batch = newBatch;
+        }
+        batch.commands.add(command);
+        batch.tcss.add(tcs);
+        if (batch.commands.size() >= ParseRESTObjectBatchCommand.COMMAND_OBJECT_BATCH_MAX_SIZE) {
+          batches.remove(sessionToken);
+          full = batch;
+        }
+      }
+      if (full != null) {
+        send(full, sessionToken);
+      }
+      return tcs.getTask();
+    }
+
+    private void send(Batch batch, String sessionToken) {
+      List<Task<JSONObject>> tasks;
+      try {
+        // A batch of one command is sent on its own.
+        tasks = ParseRESTObjectBatchCommand.executeBatch(client, batch.commands, sessionToken);
+      } catch (RuntimeException e) {
+        // Nothing else would complete the commands of a batch that was sent by the timer.
+        for (TaskCompletionSource<JSONObject> tcs : batch.tcss) {
+          tcs.setError(e);
+        }
+        return;
+      }
+      for (int i = 0; i < tasks.size(); i++) {
+        final TaskCompletionSource<JSONObject> tcs = batch.tcss.get(i);
+        tasks.get(i).continueWith(new Continuation<JSONObject, Void>() {
+          @Override
+          public Void then(Task<JSONObject> task) throws Exception {
+            if (task.isCancelled()) {
+              tcs.setCancelled();
+            } else if (task.isFaulted()) {
+              tcs.setError(task.getError());
+            } else {
+              tcs.setResult(task.getResult());
+            }
+            return null;
+          }
+        });
+      }
+    }
+  }
 }
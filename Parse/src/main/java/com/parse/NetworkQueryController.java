@@ -35,6 +35,13 @@ import bolts.Task;
     return findAsync(state, sessionToken, true, cancellationToken);
   }
 
+  @Override
+  public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state, ParseUser user,
+      int pageSize, FindPageCallback<T> pageCallback, Task<Void> cancellationToken) {
+    String sessionToken = user != null ? user.getSessionToken() : null;
+    return findAsync(state, sessionToken, true, pageSize, pageCallback, cancellationToken);
+  }
+
   @Override
   public <T extends ParseObject> Task<Integer> countAsync(
       ParseQuery.State<T> state, ParseUser user, Task<Void> cancellationToken) {
@@ -52,27 +59,72 @@ import bolts.Task;
       String sessionToken,
       boolean shouldRetry,
       Task<Void> ct) {
+    return findAsync(state, sessionToken, shouldRetry, 0, null, ct);
+  }
+
+  /**
+   * Retrieves a list of {@link ParseObject}s that satisfy this query from the source, and passes
+   * them to {@code pageCallback} in pages while they're received.
+   *
+   * @return A list of all {@link ParseObject}s obeying the conditions set in this query.
+   */
+  /* package */ <T extends ParseObject> Task<List<T>> findAsync(
+      final ParseQuery.State<T> state,
+      String sessionToken,
+      boolean shouldRetry,
+      final int pageSize,
+      final FindPageCallback<T> pageCallback,
+      Task<Void> ct) {
     final long queryStart = System.nanoTime();
 
-    final ParseRESTCommand command = ParseRESTQueryCommand.findCommand(state, sessionToken);
+    final ParseRESTQueryCommand command = ParseRESTQueryCommand.findCommand(state, sessionToken);
     if (shouldRetry) {
       command.enableRetrying();
     }
 
+    // The whole response is only needed to cache it, or to know the class of the results when it's
+    // redirected, so otherwise the results are decoded while the response is read.
+    ParseQuery.CachePolicy policy = state.cachePolicy();
+    final boolean isCached = policy != null && policy != ParseQuery.CachePolicy.IGNORE_CACHE;
+    final boolean isStreamed =
+        !isCached && !state.extraOptions().containsKey("redirectClassNameForKey");
+    final PageCollector<T> pages = isStreamed && pageCallback != null
+        ? new PageCollector<>(pageSize, pageCallback)
+        : null;
+    if (isStreamed) {
+      command.decodeResultsWith(new ParseRESTQueryCommand.ResultDecoder<T>() {
+        @Override
+        public T decode(int index, JSONObject element) throws JSONException {
+          T object = convertFindResult(state, state.className(), element);
+          if (pages != null) {
+            pages.add(index, object);
+          }
+          return object;
+        }
+      });
+    }
+
     final long querySent = System.nanoTime();
     return command.executeAsync(restClient, ct).onSuccess(new Continuation<JSONObject, List<T>>() {
       @Override
       public List<T> then(Task<JSONObject> task) throws Exception {
         JSONObject json = task.getResult();
         // Cache the results, unless we are ignoring the cache
-        ParseQuery.CachePolicy policy = state.cachePolicy();
-        if (policy != null && (policy != ParseQuery.CachePolicy.IGNORE_CACHE)) {
+        if (isCached) {
           ParseKeyValueCache.saveToKeyValueCache(command.getCacheKey(), json.toString());
         }
 
         long queryReceived = System.nanoTime();
 
-        List<T> response = convertFindResponse(state, task.getResult());
+        List<T> response = isStreamed
+            ? command.<T>getDecodedResults()
+            : convertFindResponse(state, json);
+
+        if (pages != null) {
+          pages.finish(response);
+        } else if (pageCallback != null) {
+          callbackInPages(response, pageSize, pageCallback);
+        }
 
         long objectsParsed = System.nanoTime();
 
@@ -121,6 +173,75 @@ import bolts.Task;
     });
   }
 
+  /**
+   * Collects the results that are decoded while a response is read into pages for a
+   * {@link FindPageCallback}.
+   * <p/>
+   * When the request is retried, the results of the new response that were already passed to the
+   * callback aren't passed again. If they aren't the same objects as before, the results no longer
+   * match the pages, so the find fails.
+   */
+  private static class PageCollector<T extends ParseObject> {
+    private final int pageSize;
+    private final FindPageCallback<T> callback;
+
+    private List<T> page = new ArrayList<>();
+    // The objectIds of the results that were passed to the callback, by any response to the command.
+    private final List<String> deliveredObjectIds = new ArrayList<>();
+    // Whether a retried response started with different objects than the ones passed.
+    private boolean isInconsistent = false;
+
+    public PageCollector(int pageSize, FindPageCallback<T> callback) {
+      this.pageSize = pageSize;
+      this.callback = callback;
+    }
+
+    // Called with each result of a response, in order, on the thread reading it.
+    public synchronized void add(int index, T object) {
+      if (index == 0) {
+        // The request was retried, and the results of the new response start over.
+        page = new ArrayList<>();
+        isInconsistent = false;
+      }
+      if (index < deliveredObjectIds.size()) {
+        if (!ParseTextUtils.equals(deliveredObjectIds.get(index), object.getObjectId())) {
+          isInconsistent = true;
+        }
+        return;
+      }
+      if (isInconsistent) {
+        return;
+      }
+      page.add(object);
+      if (page.size() >= pageSize) {
+        flush();
+      }
+    }
+
+    /**
+     * Passes the last page once the response that has {@code results} has been read.
+     *
+     * @throws ParseException If the results don't match the pages that were passed.
+     */
+    public synchronized void finish(List<T> results) throws ParseException {
+      if (isInconsistent || results.size() < deliveredObjectIds.size()) {
+        throw new ParseException(ParseException.OTHER_CAUSE,
+            "The results of the query changed while its request was retried.");
+      }
+      flush();
+    }
+
+    private void flush() {
+      if (!page.isEmpty()) {
+        callback.done(page);
+        for (T object : page) {
+          deliveredObjectIds.add(object.getObjectId());
+        }
+        page = new ArrayList<>();
+      }
+    }
+  }
+
   // Converts the JSONArray that represents the results of a find command to an
   // ArrayList<ParseObject>.
   /* package */ <T extends ParseObject> List<T> convertFindResponse(ParseQuery.State<T> state,
@@ -135,22 +256,27 @@ import bolts.Task;
         resultClassName = state.className();
       }
       for (int i = 0; i < results.length(); ++i) {
-        JSONObject data = results.getJSONObject(i);
-        T object = ParseObject.fromJSON(data, resultClassName, ParseDecoder.get(), state.selectedKeys());
-        answer.add(object);
-
-        /*
-         * If there was a $relatedTo constraint on the query, then add any results to the list of
-         * known objects in the relation for offline caching
-         */
-        ParseQuery.RelationConstraint relation =
-            (ParseQuery.RelationConstraint) state.constraints().get("$relatedTo");
-        if (relation != null) {
-          relation.getRelation().addKnownObject(object);
-        }
+        answer.add(convertFindResult(state, resultClassName, results.getJSONObject(i)));
       }
     }
 
     return answer;
   }
+
+  // Converts one of the results of a find command to a ParseObject.
+  private <T extends ParseObject> T convertFindResult(ParseQuery.State<T> state,
+      String resultClassName, JSONObject data) {
+    T object = ParseObject.fromJSON(data, resultClassName, ParseDecoder.get(), state.selectedKeys());
+
+    /*
+     * If there was a $relatedTo constraint on the query, then add any results to the list of
+     * known objects in the relation for offline caching
+     */
+    ParseQuery.RelationConstraint relation =
+        (ParseQuery.RelationConstraint) state.constraints().get("$relatedTo");
+    if (relation != null) {
+      relation.getRelation().addKnownObject(object);
+    }
+    return object;
+  }
 }
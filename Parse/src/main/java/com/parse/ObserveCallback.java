@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+/**
+ * An {@code ObserveCallback} is used to run code whenever the results of a {@link ParseQuery} that
+ * is observed with {@link ParseQuery#observe(ObserveCallback)} change.
+ * <p/>
+ * The {@code done} function is first called with all of the query's results, and then again each
+ * time objects in the Local Datastore are saved, pinned, unpinned or deleted in a way that changes
+ * them. It is run in the UI thread.
+ * <p/>
+ * For example, this sample code keeps a list of objects of class {@code "MyClass"} up to date:
+ * <p/>
+ * <pre>
+ * ParseQuery&lt;ParseObject&gt; query = ParseQuery.getQuery(&quot;MyClass&quot;).fromLocalDatastore();
+ * ParseQueryObserver&lt;ParseObject&gt; observer = query.observe(new ObserveCallback&lt;ParseObject&gt;() {
+ *   public void done(ParseQueryObserver.Changes&lt;ParseObject&gt; changes, ParseException e) {
+ *     if (e == null) {
+ *       showObjects(changes.getResults());
+ *     }
+ *   }
+ * });
+ * </pre>
+ */
+public interface ObserveCallback<T extends ParseObject>
+    extends ParseCallback2<ParseQueryObserver.Changes<T>, ParseException> {
+  /**
+   * Override this function with the code you want to run when the query's results change.
+   *
+   * @param changes
+   *          The query's results and how they changed, or null if it did not succeed.
+   * @param e
+   *          The exception raised by the query, or null if it succeeded.
+   */
+  @Override
+  void done(ParseQueryObserver.Changes<T> changes, ParseException e);
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the JSON that {@link OfflineStore} keeps for each pinned object in a compact binary
+ * format, and decodes it again. Each key is written once, in a dictionary at the start of the
+ * object, and referred to by its index after that. Numbers, booleans, dates and pointers are
+ * written as typed values instead of as text, so decoding doesn't have to tokenize anything.
+ * <p/>
+ * The format is:
+ * <pre>
+ * object  := VERSION varint(keyCount) string* value
+ * string  := varint(byteCount) utf8Bytes
+ * value   := NULL | FALSE | TRUE | INTEGER zigzagVarint | DOUBLE 8 bytes | STRING string
+ *          | ARRAY varint(count) value* | OBJECT varint(count) (varint(keyIndex) value)*
+ *          | DATE 8 bytes | DATE_STRING 8 bytes | POINTER string string | OFFLINE_OBJECT string
+ * </pre>
+ * Decoding gives back JSON that is equivalent to what was encoded, so the rest of the store can
+ * work with either format.
+ */
+/** package */ class OfflineBinaryCoder {
+
+  private static final byte VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INTEGER = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte STRING = 5;
+  private static final byte ARRAY = 6;
+  private static final byte OBJECT = 7;
+  // {"__type": "Date", "iso": ...}
+  private static final byte DATE = 8;
+  // A string that holds a date, such as createdAt.
+  private static final byte DATE_STRING = 9;
+  // {"__type": "Pointer", "className": ..., "objectId": ...}
+  private static final byte POINTER = 10;
+  // {"__type": "OfflineObject", "uuid": ...}
+  private static final byte OFFLINE_OBJECT = 11;
+
+  // The length of the strings ParseDateFormat creates, such as 2015-01-01T00:00:00.000Z.
+  private static final int DATE_STRING_LENGTH = 24;
+
+  /**
+   * Reads the data of a pinned object from {@code column}, in whichever format it was stored.
+   *
+   * @return The JSON of the object, or {@code null} if the column is {@code NULL}.
+   */
+  /* package */ static JSONObject read(Cursor cursor, int column) throws JSONException {
+    switch (cursor.getType(column)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return null;
+      case Cursor.FIELD_TYPE_BLOB:
+        return decode(cursor.getBlob(column));
+      default:
+        return new JSONObject(cursor.getString(column));
+    }
+  }
+
+  /**
+   * Puts the data of a pinned object in {@code values}, as text if {@code compact} is false and
+   * in the binary format otherwise.
+   */
+  /* package */ static void write(ContentValues values, String key, JSONObject json,
+      boolean compact) throws JSONException {
+    if (compact) {
+      values.put(key, encode(json));
+    } else {
+      values.put(key, json.toString());
+    }
+  }
+
+  /**
+   * Encodes a JSONObject in the binary format.
+   */
+  /* package */ static byte[] encode(JSONObject json) throws JSONException {
+    Writer body = new Writer();
+    Map<String, Integer> keys = new HashMap<>();
+    List<String> keyList = new ArrayList<>();
+    writeValue(body, json, keys, keyList);
+
+    Writer out = new Writer();
+    out.write(VERSION);
+    out.writeVarint(keyList.size());
+    for (String key : keyList) {
+      out.writeString(key);
+    }
+    body.copyTo(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes bytes created by {@link #encode(JSONObject)}.
+   */
+  /* package */ static JSONObject decode(byte[] bytes) throws JSONException {
+    Reader in = new Reader(bytes);
+    byte version = in.read();
+    if (version != VERSION) {
+      throw new JSONException("Unknown version: " + version);
+    }
+    String[] keys = new String[(int) in.readVarint()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = in.readString();
+    }
+    Object value = readValue(in, keys);
+    if (!(value instanceof JSONObject)) {
+      throw new JSONException("Expected an object, got: " + value);
+    }
+    return (JSONObject) value;
+  }
+
+  private static void writeValue(Writer out, Object value, Map<String, Integer> keys,
+      List<String> keyList) throws JSONException {
+    if (value == null || value == JSONObject.NULL) {
+      out.write(NULL);
+    } else if (value instanceof Boolean) {
+      out.write((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      out.write(INTEGER);
+      long n = ((Number) value).longValue();
+      out.writeVarint((n << 1) ^ (n >> 63));
+    } else if (value instanceof Number) {
+      out.write(DOUBLE);
+      // Go through the string, so values such as floats come back the same as they would from text.
+      double d = value instanceof Double
+          ? (Double) value : Double.parseDouble(value.toString());
+      out.writeLong(Double.doubleToLongBits(d));
+    } else if (value instanceof String) {
+      String string = (String) value;
+      Date date = parseDateString(string);
+      if (date != null) {
+        out.write(DATE_STRING);
+        out.writeLong(date.getTime());
+      } else {
+        out.write(STRING);
+        out.writeString(string);
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      out.write(ARRAY);
+      out.writeVarint(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        writeValue(out, array.opt(i), keys, keyList);
+      }
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      if (!writeSpecialObject(out, object)) {
+        out.write(OBJECT);
+        out.writeVarint(object.length());
+        Iterator<String> iterator = object.keys();
+        while (iterator.hasNext()) {
+          String key = iterator.next();
+          Integer index = keys.get(key);
+          if (index == null) {
+            index = keyList.size();
+            keys.put(key, index);
+            keyList.add(key);
+          }
+          out.writeVarint(index);
+          writeValue(out, object.opt(key), keys, keyList);
+        }
+      }
+    } else {
+      throw new JSONException("Unable to encode value: " + value);
+    }
+  }
+
+  /**
+   * Writes dates and pointers as typed values.
+   *
+   * @return Whether the object was written.
+   */
+  private static boolean writeSpecialObject(Writer out, JSONObject object) {
+    String type = object.optString("__type", null);
+    if ("Date".equals(type) && object.length() == 2) {
+      Date date = parseDateString(object.optString("iso", null));
+      if (date != null) {
+        out.write(DATE);
+        out.writeLong(date.getTime());
+        return true;
+      }
+    } else if ("Pointer".equals(type) && object.length() == 3) {
+      Object className = object.opt("className");
+      Object objectId = object.opt("objectId");
+      if (className instanceof String && objectId instanceof String) {
+        out.write(POINTER);
+        out.writeString((String) className);
+        out.writeString((String) objectId);
+        return true;
+      }
+    } else if ("OfflineObject".equals(type) && object.length() == 2) {
+      Object uuid = object.opt("uuid");
+      if (uuid instanceof String) {
+        out.write(OFFLINE_OBJECT);
+        out.writeString((String) uuid);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The date in {@code string}, if formatting the date gives back exactly the same string.
+   */
+  private static Date parseDateString(String string) {
+    if (string == null || string.length() != DATE_STRING_LENGTH || string.charAt(10) != 'T'
+        || string.charAt(DATE_STRING_LENGTH - 1) != 'Z') {
+      return null;
+    }
+    ParseDateFormat format = ParseDateFormat.getInstance();
+    Date date = format.parse(string);
+    if (date == null || !string.equals(format.format(date))) {
+      return null;
+    }
+    return date;
+  }
+
+  private static Object readValue(Reader in, String[] keys) throws JSONException {
+    byte tag = in.read();
+    switch (tag) {
+      case NULL:
+        return JSONObject.NULL;
+      case FALSE:
+        return false;
+      case TRUE:
+        return true;
+      case INTEGER: {
+        long zigzag = in.readVarint();
+        long n = (zigzag >>> 1) ^ -(zigzag & 1);
+        // Match the types that parsing the text would give.
+        if (n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE) {
+          return (int) n;
+        }
+        return n;
+      }
+      case DOUBLE:
+        return Double.longBitsToDouble(in.readLong());
+      case STRING:
+        return in.readString();
+      case ARRAY: {
+        int count = (int) in.readVarint();
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < count; i++) {
+          array.put(readValue(in, keys));
+        }
+        return array;
+      }
+      case OBJECT: {
+        int count = (int) in.readVarint();
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < count; i++) {
+          int index = (int) in.readVarint();
+          if (index < 0 || index >= keys.length) {
+            throw new JSONException("Unknown key: " + index);
+          }
+          object.put(keys[index], readValue(in, keys));
+        }
+        return object;
+      }
+      case DATE: {
+        JSONObject object = new JSONObject();
+        object.put("__type", "Date");
+        object.put("iso", ParseDateFormat.getInstance().format(new Date(in.readLong())));
+        return object;
+      }
+      case DATE_STRING:
+        return ParseDateFormat.getInstance().format(new Date(in.readLong()));
+      case POINTER: {
+        JSONObject object = new JSONObject();
+        object.put("__type", "Pointer");
+        object.put("className", in.readString());
+        object.put("objectId", in.readString());
+        return object;
+      }
+      case OFFLINE_OBJECT: {
+        JSONObject object = new JSONObject();
+        object.put("__type", "OfflineObject");
+        object.put("uuid", in.readString());
+        return object;
+      }
+      default:
+        throw new JSONException("Unknown type: " + tag);
+    }
+  }
+
+  private static class Writer extends ByteArrayOutputStream {
+
+    private void write(byte b) {
+      super.write(b);
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        super.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      super.write((int) value);
+    }
+
+    private void writeLong(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        super.write((int) (value >>> shift));
+      }
+    }
+
+    private void writeString(String string) {
+      byte[] bytes;
+      try {
+        bytes = string.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        // UTF-8 is always supported.
+        throw new RuntimeException(e);
+      }
+      writeVarint(bytes.length);
+      super.write(bytes, 0, bytes.length);
+    }
+
+    private void copyTo(Writer out) {
+      out.write(buf, 0, count);
+    }
+  }
+
+  private static class Reader {
+    private final byte[] bytes;
+    private int position = 0;
+
+    private Reader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private void require(int count) throws JSONException {
+      if (count < 0 || position + count > bytes.length) {
+        throw new JSONException("Unexpected end of data");
+      }
+    }
+
+    private byte read() throws JSONException {
+      require(1);
+      return bytes[position++];
+    }
+
+    private long readVarint() throws JSONException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = read();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new JSONException("Malformed varint");
+    }
+
+    private long readLong() throws JSONException {
+      require(8);
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | (bytes[position++] & 0xFF);
+      }
+      return value;
+    }
+
+    private String readString() throws JSONException {
+      long length = readVarint();
+      if (length > Integer.MAX_VALUE) {
+        throw new JSONException("Malformed string");
+      }
+      require((int) length);
+      String string;
+      try {
+        string = new String(bytes, position, (int) length, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        // UTF-8 is always supported.
+        throw new RuntimeException(e);
+      }
+      position += length;
+      return string;
+    }
+  }
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bolts.Task;
+
+/**
+ * Keeps track of the keys that are indexed with
+ * {@link Parse.Configuration.Builder#localIndex(String, String...)} and converts their values to
+ * the rows that are stored in the IndexedValues table, or in the GeoIndex table for
+ * {@link ParseGeoPoint}s. Keys that are indexed with
+ * {@link Parse.Configuration.Builder#localTextIndex(String, String...)} are kept in the same way,
+ * but their text is stored in the full-text TextIndex table instead.
+ *
+ * A key is only used to answer queries once it is "ready", meaning every object of its class that
+ * is in the database has rows for it. New keys become ready after {@link OfflineStore} has indexed
+ * the objects that were pinned before the key was configured.
+ */
+/** package */ class OfflineIndexes {
+
+  /**
+   * The types of values that can be indexed, as stored in the type column. Values of different
+   * types are never equal to each other, so they're kept apart even if SQLite would compare them.
+   */
+  /* package */ static final int TYPE_STRING = 1;
+  /* package */ static final int TYPE_NUMBER = 2;
+  /* package */ static final int TYPE_BOOLEAN = 3;
+  /* package */ static final int TYPE_DATE = 4;
+  /* package */ static final int TYPE_POINTER = 5;
+
+  /**
+   * The type of {@link ParseGeoPoint}s, which are stored in the GeoIndex table instead of in
+   * IndexedValues. They can't be compared with the operators that IndexedValues is used for.
+   */
+  /* package */ static final int TYPE_GEOPOINT = 6;
+
+  /**
+   * A single value as it's stored in the index.
+   */
+  /* package */ static class Value {
+    private final int type;
+    private final Object value;
+
+    private Value(int type, Object value) {
+      this.type = type;
+      this.value = value;
+    }
+
+    public int type() {
+      return type;
+    }
+
+    /**
+     * @return The SQL for the value. Numbers are written into the SQL directly, strings are bound as
+     * arguments.
+     */
+    public String toSql(List<String> args) {
+      if (value instanceof String) {
+        args.add((String) value);
+        return "?";
+      }
+      return value.toString();
+    }
+
+    /* package */ void putInto(ContentValues values) {
+      if (type == TYPE_GEOPOINT) {
+        ParseGeoPoint point = (ParseGeoPoint) value;
+        values.put(OfflineSQLiteOpenHelper.KEY_LATITUDE, point.getLatitude());
+        values.put(OfflineSQLiteOpenHelper.KEY_LONGITUDE, point.getLongitude());
+        return;
+      }
+      values.put(OfflineSQLiteOpenHelper.KEY_TYPE, type);
+      if (value instanceof String) {
+        values.put(OfflineSQLiteOpenHelper.KEY_VALUE, (String) value);
+      } else if (value instanceof Long) {
+        values.put(OfflineSQLiteOpenHelper.KEY_VALUE, (Long) value);
+      } else {
+        values.put(OfflineSQLiteOpenHelper.KEY_VALUE, (Double) value);
+      }
+    }
+  }
+
+  /**
+   * Text-indexed keys are recorded in the IndexedKeys table with this prefix, which can't start a
+   * key, so they're kept apart from the keys with the same name in IndexedValues.
+   */
+  private static final String TEXT_KEY_PREFIX = "$text:";
+
+  /**
+   * Adds a row to TextIndexedValues. The arguments are the UUID, class name and key.
+   */
+  private static final String INSERT_TEXT_ROW_SQL = "INSERT INTO " +
+      OfflineSQLiteOpenHelper.TABLE_TEXT_INDEXED_VALUES + " (" +
+      OfflineSQLiteOpenHelper.KEY_UUID + ", " + OfflineSQLiteOpenHelper.KEY_CLASS_NAME + ", " +
+      OfflineSQLiteOpenHelper.KEY_KEY + ") VALUES (?, ?, ?)";
+
+  /**
+   * Adds the text of the TextIndexedValues row that was just added. The argument is the text.
+   */
+  private static final String INSERT_TEXT_SQL = "INSERT INTO " +
+      OfflineSQLiteOpenHelper.TABLE_TEXT_INDEX + " (" + OfflineSQLiteOpenHelper.KEY_DOCID + ", " +
+      OfflineSQLiteOpenHelper.KEY_VALUE + ") VALUES (last_insert_rowid(), ?)";
+
+  private final Object lock = new Object();
+
+  // className -> keys that should be indexed.
+  private final Map<String, Set<String>> configuredKeys;
+
+  // className -> keys that should be indexed for full-text search.
+  private final Map<String, Set<String>> configuredTextKeys;
+
+  // className -> keys that can be used to answer queries. Guarded by lock.
+  private final Map<String, Set<String>> readyKeys = new HashMap<>();
+
+  // className -> text keys that can be used to answer queries. Guarded by lock.
+  private final Map<String, Set<String>> readyTextKeys = new HashMap<>();
+
+  /* package */ OfflineIndexes() {
+    this(Collections.<String, Set<String>>emptyMap());
+  }
+
+  /* package */ OfflineIndexes(Map<String, Set<String>> configuredKeys) {
+    this(configuredKeys, Collections.<String, Set<String>>emptyMap());
+  }
+
+  /* package */ OfflineIndexes(Map<String, Set<String>> configuredKeys,
+      Map<String, Set<String>> configuredTextKeys) {
+    this.configuredKeys = copyKeys(configuredKeys);
+    this.configuredTextKeys = copyKeys(configuredTextKeys);
+  }
+
+  private static Map<String, Set<String>> copyKeys(Map<String, Set<String>> keys) {
+    Map<String, Set<String>> copy = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : keys.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        copy.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+      }
+    }
+    return Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * @return {@code true} if no keys are indexed at all.
+   */
+  public boolean isEmpty() {
+    return configuredKeys.isEmpty() && configuredTextKeys.isEmpty();
+  }
+
+  /**
+   * @return The classes that have indexed keys, mapped to those keys.
+   */
+  public Map<String, Set<String>> configuredKeys() {
+    return configuredKeys;
+  }
+
+  /**
+   * @return The indexed keys of the given class.
+   */
+  public Set<String> configuredKeys(String className) {
+    Set<String> keys = configuredKeys.get(className);
+    return keys != null ? keys : Collections.<String>emptySet();
+  }
+
+  /**
+   * @return {@code true} if the index for the given key is complete and can be used in queries.
+   */
+  public boolean isReady(String className, String key) {
+    synchronized (lock) {
+      Set<String> keys = readyKeys.get(className);
+      return keys != null && keys.contains(key);
+    }
+  }
+
+  /* package */ void setReady(String className, String key) {
+    if (!configuredKeys(className).contains(key)) {
+      return;
+    }
+    synchronized (lock) {
+      addKey(readyKeys, className, key);
+    }
+  }
+
+  /**
+   * @return The classes that have text-indexed keys, mapped to those keys.
+   */
+  public Map<String, Set<String>> configuredTextKeys() {
+    return configuredTextKeys;
+  }
+
+  /**
+   * @return The text-indexed keys of the given class.
+   */
+  public Set<String> configuredTextKeys(String className) {
+    Set<String> keys = configuredTextKeys.get(className);
+    return keys != null ? keys : Collections.<String>emptySet();
+  }
+
+  /**
+   * @return {@code true} if the full-text index for the given key is complete and can be used in
+   * queries.
+   */
+  public boolean isTextReady(String className, String key) {
+    synchronized (lock) {
+      Set<String> keys = readyTextKeys.get(className);
+      return keys != null && keys.contains(key);
+    }
+  }
+
+  /* package */ void setTextReady(String className, String key) {
+    if (!configuredTextKeys(className).contains(key)) {
+      return;
+    }
+    synchronized (lock) {
+      addKey(readyTextKeys, className, key);
+    }
+  }
+
+  private static void addKey(Map<String, Set<String>> keys, String className, String key) {
+    Set<String> classKeys = keys.get(className);
+    if (classKeys == null) {
+      classKeys = new HashSet<>();
+      keys.put(className, classKeys);
+    }
+    classKeys.add(key);
+  }
+
+  /**
+   * @return The name a text-indexed key is recorded under in the IndexedKeys table.
+   */
+  /* package */ static String toTextIndexKey(String key) {
+    return TEXT_KEY_PREFIX + key;
+  }
+
+  /**
+   * @return The text-indexed key that {@code indexKey} from the IndexedKeys table was recorded for,
+   * or {@code null} if it's a key of IndexedValues.
+   */
+  /* package */ static String fromTextIndexKey(String indexKey) {
+    return indexKey.startsWith(TEXT_KEY_PREFIX)
+        ? indexKey.substring(TEXT_KEY_PREFIX.length())
+        : null;
+  }
+
+  /**
+   * Replaces the rows of the given object with its current values for every indexed key. This has
+   * to be called with the same data that's written to the object's JSON.
+   */
+  /* package */ Task<Void> updateAsync(String uuid, ParseObject object, ParseSQLiteDatabase db) {
+    Set<String> keys = configuredKeys(object.getClassName());
+    Set<String> textKeys = configuredTextKeys(object.getClassName());
+    if (keys.isEmpty() && textKeys.isEmpty()) {
+      return Task.forResult(null);
+    }
+
+    Map<String, List<Value>> values = new HashMap<>();
+    Map<String, String> texts = new HashMap<>();
+    if (object.isDataAvailable()) {
+      for (String key : keys) {
+        if (object.containsKey(key)) {
+          values.put(key, toValues(object.get(key)));
+        }
+      }
+      for (String key : textKeys) {
+        String text = toText(object.get(key));
+        if (text != null) {
+          texts.put(key, text);
+        }
+      }
+    }
+
+    List<Task<Void>> tasks = new ArrayList<>();
+    tasks.add(deleteAsync(uuid, db));
+    tasks.add(insertAsync(uuid, object.getClassName(), values, db));
+    tasks.add(insertTextAsync(uuid, object.getClassName(), texts, db));
+    return Task.whenAll(tasks);
+  }
+
+  /**
+   * Adds rows for the given values of an object. The object must not have any rows for these keys
+   * yet.
+   */
+  /* package */ Task<Void> insertAsync(String uuid, String className,
+      Map<String, List<Value>> values, ParseSQLiteDatabase db) {
+    List<Task<Void>> tasks = new ArrayList<>();
+    for (Map.Entry<String, List<Value>> entry : values.entrySet()) {
+      for (Value value : entry.getValue()) {
+        ContentValues row = new ContentValues();
+        row.put(OfflineSQLiteOpenHelper.KEY_UUID, uuid);
+        row.put(OfflineSQLiteOpenHelper.KEY_CLASS_NAME, className);
+        row.put(OfflineSQLiteOpenHelper.KEY_KEY, entry.getKey());
+        value.putInto(row);
+        String table = value.type() == TYPE_GEOPOINT
+            ? OfflineSQLiteOpenHelper.TABLE_GEO_INDEX
+            : OfflineSQLiteOpenHelper.TABLE_INDEXED_VALUES;
+        tasks.add(db.insertOrThrowAsync(table, row));
+      }
+    }
+    return Task.whenAll(tasks);
+  }
+
+  /**
+   * Adds rows for the given text of an object. The object must not have any text rows for these
+   * keys yet.
+   */
+  /* package */ Task<Void> insertTextAsync(String uuid, String className,
+      Map<String, String> texts, ParseSQLiteDatabase db) {
+    List<Task<Void>> tasks = new ArrayList<>();
+    for (Map.Entry<String, String> entry : texts.entrySet()) {
+      // The statements on a connection run in order, so the text gets the docid of its row.
+      tasks.add(db.executeAsync(INSERT_TEXT_ROW_SQL, Collections.singletonList(
+          new Object[] { uuid, className, entry.getKey() })));
+      tasks.add(db.executeAsync(INSERT_TEXT_SQL, Collections.singletonList(
+          new Object[] { entry.getValue() })));
+    }
+    return Task.whenAll(tasks);
+  }
+
+  /**
+   * Removes all of the rows for the given object.
+   */
+  /* package */ static Task<Void> deleteAsync(String uuid, ParseSQLiteDatabase db) {
+    return deleteAsync(OfflineSQLiteOpenHelper.KEY_UUID + " = ?", new String[] { uuid }, db);
+  }
+
+  /**
+   * Removes all of the rows of the objects whose UUIDs match {@code where}, from IndexedValues,
+   * GeoIndex and the full-text index.
+   */
+  /* package */ static Task<Void> deleteAsync(String where, String[] args,
+      ParseSQLiteDatabase db) {
+    return Task.whenAll(Arrays.asList(
+        deleteValuesAsync(where, args, db),
+        deleteTextAsync(where, args, db)));
+  }
+
+  /**
+   * Removes the IndexedValues and GeoIndex rows that match {@code where}.
+   */
+  /* package */ static Task<Void> deleteValuesAsync(String where, String[] args,
+      ParseSQLiteDatabase db) {
+    return Task.whenAll(Arrays.asList(
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_INDEXED_VALUES, where, args),
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_GEO_INDEX, where, args)));
+  }
+
+  /**
+   * Removes the TextIndexedValues rows that match {@code where}, along with their text.
+   */
+  /* package */ static Task<Void> deleteTextAsync(String where, String[] args,
+      ParseSQLiteDatabase db) {
+    String textWhere = OfflineSQLiteOpenHelper.KEY_DOCID + " IN (SELECT " +
+        OfflineSQLiteOpenHelper.KEY_DOCID + " FROM " +
+        OfflineSQLiteOpenHelper.TABLE_TEXT_INDEXED_VALUES + " WHERE " + where + ")";
+    // The text has to go before the rows that find it.
+    return Task.whenAll(Arrays.asList(
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_TEXT_INDEX, textWhere, args),
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_TEXT_INDEXED_VALUES, where, args)));
+  }
+
+  /**
+   * Converts a single value from a ParseObject or a query to what's stored in the index.
+   *
+   * @return The value, or {@code null} if values of this type aren't indexed.
+   */
+  /* package */ static Value toValue(Object value) {
+    if (value instanceof String) {
+      return new Value(TYPE_STRING, value);
+    }
+    if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        return null;
+      }
+      return new Value(TYPE_NUMBER, number);
+    }
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      return new Value(TYPE_NUMBER, ((Number) value).longValue());
+    }
+    if (value instanceof Boolean) {
+      return new Value(TYPE_BOOLEAN, (Boolean) value ? 1L : 0L);
+    }
+    if (value instanceof Date) {
+      return new Value(TYPE_DATE, ((Date) value).getTime());
+    }
+    if (value instanceof ParseObject) {
+      ParseObject object = (ParseObject) value;
+      // Unsaved objects can only be matched by identity.
+      if (object.getObjectId() == null) {
+        return null;
+      }
+      return new Value(TYPE_POINTER, pointer(object.getClassName(), object.getObjectId()));
+    }
+    return null;
+  }
+
+  /**
+   * Converts a geo point from a ParseObject to what's stored in the index. This is kept apart from
+   * {@link #toValue(Object)}, since constraints on geo points can't be looked up like other values.
+   *
+   * @return The value, or {@code null} if {@code value} isn't a geo point.
+   */
+  private static Value toGeoPointValue(Object value) {
+    return value instanceof ParseGeoPoint ? new Value(TYPE_GEOPOINT, value) : null;
+  }
+
+  /**
+   * Converts a value from a ParseObject to all the rows it's stored as. Arrays are indexed by each
+   * of their elements, just like the server does.
+   */
+  /* package */ static List<Value> toValues(Object value) {
+    List<Value> values = new ArrayList<>();
+    if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        addStoredValue(values, item);
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      for (int i = 0; i < array.length(); i++) {
+        addStoredValue(values, array.opt(i));
+      }
+    } else {
+      addStoredValue(values, value);
+    }
+    return values;
+  }
+
+  private static void addStoredValue(List<Value> values, Object value) {
+    Value geoPoint = toGeoPointValue(value);
+    addValue(values, geoPoint != null ? geoPoint : toValue(value));
+  }
+
+  /**
+   * Converts a value as it's encoded in the JSON of the ParseObjects table to all the rows it's
+   * stored as. This is only used to index objects that were pinned before the key was indexed.
+   */
+  /* package */ static List<Value> toValuesFromJSON(Object json) {
+    List<Value> values = new ArrayList<>();
+    if (json instanceof JSONArray) {
+      JSONArray array = (JSONArray) json;
+      for (int i = 0; i < array.length(); i++) {
+        addValue(values, toValueFromJSON(array.opt(i)));
+      }
+    } else {
+      addValue(values, toValueFromJSON(json));
+    }
+    return values;
+  }
+
+  private static Value toValueFromJSON(Object json) {
+    if (!(json instanceof JSONObject)) {
+      return toValue(json);
+    }
+    JSONObject object = (JSONObject) json;
+    String type = object.optString("__type", null);
+    if ("Date".equals(type)) {
+      return toValue(ParseDateFormat.getInstance().parse(object.optString("iso")));
+    }
+    if ("Pointer".equals(type) && object.has("objectId")) {
+      return new Value(TYPE_POINTER,
+          pointer(object.optString("className"), object.optString("objectId")));
+    }
+    if ("GeoPoint".equals(type) && object.has("latitude") && object.has("longitude")) {
+      return toGeoPointValue(
+          new ParseGeoPoint(object.optDouble("latitude"), object.optDouble("longitude")));
+    }
+    return null;
+  }
+
+  private static void addValue(List<Value> values, Value value) {
+    if (value != null) {
+      values.add(value);
+    }
+  }
+
+  private static String pointer(String className, String objectId) {
+    return className + ":" + objectId;
+  }
+
+  /**
+   * Converts a value from a ParseObject, or as it's encoded in the JSON of the ParseObjects table,
+   * to the text that's stored in the full-text index. The strings of an array are all stored
+   * together.
+   *
+   * @return The text, or {@code null} if the value doesn't have any.
+   */
+  /* package */ static String toText(Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    }
+    List<String> strings = new ArrayList<>();
+    if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        if (item instanceof String) {
+          strings.add((String) item);
+        }
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      for (int i = 0; i < array.length(); i++) {
+        Object item = array.opt(i);
+        if (item instanceof String) {
+          strings.add((String) item);
+        }
+      }
+    }
+    return strings.isEmpty() ? null : TextUtils.join("\n", strings);
+  }
+
+  /**
+   * Splits text into words the same way the full-text index does: ASCII letters and digits and all
+   * other non-ASCII characters are part of words, and ASCII letters are lowercased.
+   */
+  /* package */ static List<String> toWords(String text) {
+    List<String> words = new ArrayList<>();
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        word.append((char) (c + ('a' - 'A')));
+      } else if (c > 127 || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+        word.append(c);
+      } else if (word.length() > 0) {
+        words.add(word.toString());
+        word.setLength(0);
+      }
+    }
+    if (word.length() > 0) {
+      words.add(word.toString());
+    }
+    return words;
+  }
+
+  /**
+   * @return The text to search for in a {@code $text} constraint, which looks like
+   * {@code {"$search": {"$term": text}}}, or {@code null} if the constraint isn't one.
+   */
+  /* package */ static String toSearchTerm(Object constraint) {
+    Object search = get(constraint, "$search");
+    Object term = get(search, "$term");
+    return term instanceof String ? (String) term : null;
+  }
+
+  private static Object get(Object map, String key) {
+    if (map instanceof Map) {
+      return ((Map<?, ?>) map).get(key);
+    }
+    if (map instanceof JSONObject) {
+      return ((JSONObject) map).opt(key);
+    }
+    return null;
+  }
+
+  /**
+   * @return The MATCH expression for text that contains any word of {@code words}, or
+   * {@code null} if there are no words.
+   */
+  /* package */ static String toMatchExpression(List<String> words) {
+    if (words.isEmpty()) {
+      return null;
+    }
+    List<String> terms = new ArrayList<>();
+    for (String word : words) {
+      // Words can't contain quotes, so quoting them keeps them from being read as operators.
+      terms.add("\"" + word + "\"");
+    }
+    return TextUtils.join(" OR ", terms);
+  }
+}
@@ -35,6 +35,20 @@ import bolts.Task;
     }
   }
 
+  @Override
+  public <T extends ParseObject> Task<List<T>> findAsync(
+      ParseQuery.State<T> state,
+      ParseUser user,
+      int pageSize,
+      FindPageCallback<T> pageCallback,
+      Task<Void> cancellationToken) {
+    if (state.isFromLocalDatastore()) {
+      return super.findAsync(state, user, pageSize, pageCallback, cancellationToken);
+    } else {
+      return networkController.findAsync(state, user, pageSize, pageCallback, cancellationToken);
+    }
+  }
+
   @Override
   public <T extends ParseObject> Task<Integer> countAsync(
       ParseQuery.State<T> state,
@@ -22,10 +22,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import bolts.Continuation;
@@ -49,8 +51,46 @@ import bolts.Task;
     /* package */ abstract Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db);
   }
 
+  /**
+   * A ConstraintMatcher that doesn't need any preprocessing or database access, so it can answer
+   * synchronously. A query made only of these can be matched against many objects without creating
+   * any tasks for each of them.
+   */
+  /* package */ abstract class StatelessMatcher<T extends ParseObject> extends ConstraintMatcher<T> {
+
+    public StatelessMatcher(ParseUser user) {
+      super(user);
+    }
+
+    /* package */ abstract boolean matches(T object) throws ParseException;
+
+    @Override
+    /* package */ Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
+      try {
+        return Task.forResult(matches(object));
+      } catch (Exception e) {
+        return Task.forError(e);
+      }
+    }
+  }
+
+  /**
+   * The largest number of compiled matchers that are kept to be reused by later queries.
+   */
+  private static final int MAX_COMPILED_MATCHERS = 32;
+
   private final OfflineStore store;
 
+  // Stateless matchers keyed by the class name and encoded constraints they were created for, in
+  // least recently used order. Guarded by itself.
+  private final Map<String, StatelessMatcher<?>> compiledMatchers =
+      new LinkedHashMap<String, StatelessMatcher<?>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StatelessMatcher<?>> eldest) {
+          return size() > MAX_COMPILED_MATCHERS;
+        }
+      };
+
   /* package */ OfflineQueryLogic(OfflineStore store) {
     this.store = store;
   }
@@ -366,7 +406,13 @@ import bolts.Task;
     if (value == null || value == JSONObject.NULL) {
       return false;
     }
+    return compileRegex(constraint, options).matcher((String) value).find();
+  }
 
+  /**
+   * Compiles the pattern of a $regex constraint.
+   */
+  private static Pattern compileRegex(Object constraint, String options) throws ParseException {
     if (options == null) {
       options = "";
     }
@@ -391,9 +437,7 @@ import bolts.Task;
     }
 
     String regex = (String) constraint;
-    Pattern pattern = Pattern.compile(regex, flags);
-    Matcher matcher = pattern.matcher((String) value);
-    return matcher.find();
+    return Pattern.compile(regex, flags);
   }
 
   /**
@@ -410,6 +454,24 @@ import bolts.Task;
     }
   }
 
+  /**
+   * Matches $text constraints. The value matches if it contains any word of the search, where
+   * words are split and lowercased the same way as in the full-text index.
+   */
+  private static boolean matchesTextConstraint(Object constraint, Object value)
+      throws ParseException {
+    String term = OfflineIndexes.toSearchTerm(constraint);
+    if (term == null) {
+      throw new ParseException(ParseException.INVALID_QUERY, "Bad $text constraint.");
+    }
+    List<String> words = OfflineIndexes.toWords(term);
+    String text = OfflineIndexes.toText(value);
+    if (words.isEmpty() || text == null) {
+      return false;
+    }
+    return !Collections.disjoint(new HashSet<>(OfflineIndexes.toWords(text)), words);
+  }
+
   /**
    * Matches $nearSphere constraints.
    */
@@ -541,6 +603,9 @@ import bolts.Task;
       case "$exists":
         return matchesExistsConstraint(constraint, value);
 
+      case "$text":
+        return matchesTextConstraint(constraint, value);
+
       case "$nearSphere":
         Double maxDistance = (Double) allKeyConstraints.get("$maxDistance");
         return matchesNearSphereConstraint(constraint, value, maxDistance);
@@ -564,6 +629,151 @@ import bolts.Task;
     }
   }
 
+  /**
+   * Creates a matcher that handles $regex constraints. The pattern is only compiled once, instead
+   * of for every object.
+   */
+  private <T extends ParseObject> ConstraintMatcher<T> createRegexMatcher(ParseUser user,
+      Object constraint, final String key, String options) {
+    final Pattern pattern;
+    try {
+      pattern = compileRegex(constraint, options);
+    } catch (Exception e) {
+      // Report the error when it would have come up, which is the first time a value is checked.
+      final Exception error = e;
+      return new StatelessMatcher<T>(user) {
+        @Override
+        public boolean matches(T object) throws ParseException {
+          Object value = getValue(object, key);
+          if (value == null || value == JSONObject.NULL) {
+            return false;
+          }
+          if (error instanceof ParseException) {
+            throw (ParseException) error;
+          }
+          throw (RuntimeException) error;
+        }
+      };
+    }
+
+    return new StatelessMatcher<T>(user) {
+      @Override
+      public boolean matches(T object) throws ParseException {
+        Object value = getValue(object, key);
+        if (value == null || value == JSONObject.NULL) {
+          return false;
+        }
+        return pattern.matcher((String) value).find();
+      }
+    };
+  }
+
+  /**
+   * Creates a matcher that handles $in and $nin constraints. The strings in the constraint are put
+   * in a hash set, so they don't have to be compared one at a time.
+   */
+  private <T extends ParseObject> ConstraintMatcher<T> createInMatcher(ParseUser user,
+      final String operator, final Object constraint, final String key,
+      final KeyConstraints allKeyConstraints) {
+    if (!(constraint instanceof Collection)) {
+      return createStatelessMatcher(user, operator, constraint, key, allKeyConstraints);
+    }
+
+    /*
+     * A string can only be equal to another string, so strings only need to be looked up in the
+     * set. Anything else is compared to the other values the same way matchesInConstraint would.
+     */
+    final Set<String> strings = new HashSet<>();
+    final List<Object> others = new ArrayList<>();
+    for (Object item : (Collection<?>) constraint) {
+      if (item instanceof String) {
+        strings.add((String) item);
+      } else {
+        others.add(item);
+      }
+    }
+    final boolean negate = "$nin".equals(operator);
+
+    return new StatelessMatcher<T>(user) {
+      @Override
+      public boolean matches(T object) throws ParseException {
+        return matchesIn(getValue(object, key)) != negate;
+      }
+
+      private boolean matchesIn(Object value) {
+        if (value instanceof String) {
+          return strings.contains(value);
+        }
+        if (value instanceof List) {
+          for (Object item : (List<?>) value) {
+            if (item instanceof String && strings.contains(item)) {
+              return true;
+            }
+          }
+        } else if (value instanceof JSONArray) {
+          JSONArray array = (JSONArray) value;
+          for (int i = 0; i < array.length(); i++) {
+            Object item = array.opt(i);
+            if (item instanceof String && strings.contains(item)) {
+              return true;
+            }
+          }
+        }
+        for (Object item : others) {
+          if (matchesEqualConstraint(item, value)) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Creates a matcher that handles $geoWithin constraints. The polygon is only built once, instead
+   * of for every object.
+   */
+  private <T extends ParseObject> ConstraintMatcher<T> createGeoWithinMatcher(ParseUser user,
+      final String operator, final Object constraint, final String key,
+      final KeyConstraints allKeyConstraints) {
+    final ParsePolygon polygon;
+    try {
+      @SuppressWarnings("unchecked")
+      HashMap<String, List<ParseGeoPoint>> constraintMap =
+          (HashMap<String, List<ParseGeoPoint>>) constraint;
+      polygon = new ParsePolygon(constraintMap.get("$polygon"));
+    } catch (RuntimeException e) {
+      // Let the error come up when the constraint is checked, same as before.
+      return createStatelessMatcher(user, operator, constraint, key, allKeyConstraints);
+    }
+
+    return new StatelessMatcher<T>(user) {
+      @Override
+      public boolean matches(T object) throws ParseException {
+        Object value = getValue(object, key);
+        if (value == null || value == JSONObject.NULL) {
+          return false;
+        }
+        return polygon.containsPoint((ParseGeoPoint) value);
+      }
+    };
+  }
+
+  /**
+   * Creates a matcher for an operator that doesn't need any preprocessing.
+   */
+  private <T extends ParseObject> ConstraintMatcher<T> createStatelessMatcher(ParseUser user,
+      final String operator, final Object constraint, final String key,
+      final KeyConstraints allKeyConstraints) {
+    return new StatelessMatcher<T>(user) {
+      @Override
+      public boolean matches(T object) throws ParseException {
+        Object value = getValue(object, key);
+        return matchesStatelessConstraint(operator, constraint, value, allKeyConstraints);
+      }
+    };
+  }
+
   private abstract class SubQueryMatcher<T extends ParseObject> extends ConstraintMatcher<T> {
     private final ParseQuery.State<T> subQuery;
     private Task<List<T>> subQueryResults = null;
@@ -694,22 +904,22 @@ import bolts.Task;
       case "$dontSelect":
         return createDontSelectMatcher(user, constraint, key);
 
+      case "$regex":
+        return createRegexMatcher(user, constraint, key,
+            (String) allKeyConstraints.get("$options"));
+
+      case "$in":
+      case "$nin":
+        return createInMatcher(user, operator, constraint, key, allKeyConstraints);
+
+      case "$geoWithin":
+        return createGeoWithinMatcher(user, operator, constraint, key, allKeyConstraints);
+
       default:
       /*
        * All of the other operators we know about are stateless, so return a simple matcher.
        */
-        return new ConstraintMatcher<T>(user) {
-          @Override
-          public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-            try {
-              Object value = getValue(object, key);
-              return Task.forResult(matchesStatelessConstraint(operator, constraint, value,
-                  allKeyConstraints));
-            } catch (ParseException e) {
-              return Task.forError(e);
-            }
-          }
-        };
+        return createStatelessMatcher(user, operator, constraint, key, allKeyConstraints);
     }
   }
 
@@ -725,13 +935,42 @@ import bolts.Task;
       matchers.add(matcher);
     }
     /*
-     * Now OR together the constraints for each query.
+     * Now OR together the constraints for each query. The stateless ones are checked first, since
+     * they're cheap and may make it unnecessary to run any subqueries.
      */
+    final List<StatelessMatcher<T>> statelessMatchers = new ArrayList<>();
+    final List<ConstraintMatcher<T>> otherMatchers = new ArrayList<>();
+    partition(matchers, statelessMatchers, otherMatchers);
+
+    if (otherMatchers.isEmpty()) {
+      return new StatelessMatcher<T>(user) {
+        @Override
+        public boolean matches(T object) throws ParseException {
+          for (StatelessMatcher<T> matcher : statelessMatchers) {
+            if (matcher.matches(object)) {
+              return true;
+            }
+          }
+          return false;
+        }
+      };
+    }
+
     return new ConstraintMatcher<T>(user) {
       @Override
       public Task<Boolean> matchesAsync(final T object, final ParseSQLiteDatabase db) {
+        try {
+          for (StatelessMatcher<T> matcher : statelessMatchers) {
+            if (matcher.matches(object)) {
+              return Task.forResult(true);
+            }
+          }
+        } catch (Exception e) {
+          return Task.forError(e);
+        }
+
         Task<Boolean> task = Task.forResult(false);
-        for (final ConstraintMatcher<T> matcher : matchers) {
+        for (final ConstraintMatcher<T> matcher : otherMatchers) {
           task = task.onSuccessTask(new Continuation<Boolean, Task<Boolean>>() {
             @Override
             public Task<Boolean> then(Task<Boolean> task) throws Exception {
@@ -745,7 +984,21 @@ import bolts.Task;
         return task;
       }
     };
+  }
 
+  /**
+   * Splits matchers into the ones that can be evaluated synchronously and the rest, keeping their
+   * order.
+   */
+  private static <T extends ParseObject> void partition(List<ConstraintMatcher<T>> matchers,
+      List<StatelessMatcher<T>> statelessMatchers, List<ConstraintMatcher<T>> otherMatchers) {
+    for (ConstraintMatcher<T> matcher : matchers) {
+      if (matcher instanceof StatelessMatcher) {
+        statelessMatchers.add((StatelessMatcher<T>) matcher);
+      } else {
+        otherMatchers.add(matcher);
+      }
+    }
   }
 
   /**
@@ -786,10 +1039,10 @@ import bolts.Task;
          * It's a $relatedTo constraint.
          */
         final RelationConstraint relation = (RelationConstraint) queryConstraintValue;
-        matchers.add(new ConstraintMatcher<T>(user) {
+        matchers.add(new StatelessMatcher<T>(user) {
           @Override
-          public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-            return Task.forResult(relation.getRelation().hasKnownObject(object));
+          public boolean matches(T object) {
+            return relation.getRelation().hasKnownObject(object);
           }
         });
 
@@ -797,29 +1050,53 @@ import bolts.Task;
         /*
          * It's not a set of constraints, so it's just a value to compare against.
          */
-        matchers.add(new ConstraintMatcher<T>(user) {
+        matchers.add(new StatelessMatcher<T>(user) {
           @Override
-          public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-            Object objectValue;
-            try {
-              objectValue = getValue(object, key);
-            } catch (ParseException e) {
-              return Task.forError(e);
-            }
-            return Task.forResult(matchesEqualConstraint(queryConstraintValue, objectValue));
+          public boolean matches(T object) throws ParseException {
+            Object objectValue = getValue(object, key);
+            return matchesEqualConstraint(queryConstraintValue, objectValue);
           }
         });
       }
     }
 
     /*
-     * Now AND together the constraints for each key.
+     * Now AND together the constraints for each key. The stateless ones are checked first, since
+     * they're cheap and may make it unnecessary to run any subqueries.
      */
+    final List<StatelessMatcher<T>> statelessMatchers = new ArrayList<>();
+    final List<ConstraintMatcher<T>> otherMatchers = new ArrayList<>();
+    partition(matchers, statelessMatchers, otherMatchers);
+
+    if (otherMatchers.isEmpty()) {
+      return new StatelessMatcher<T>(user) {
+        @Override
+        public boolean matches(T object) throws ParseException {
+          for (StatelessMatcher<T> matcher : statelessMatchers) {
+            if (!matcher.matches(object)) {
+              return false;
+            }
+          }
+          return true;
+        }
+      };
+    }
+
     return new ConstraintMatcher<T>(user) {
       @Override
       public Task<Boolean> matchesAsync(final T object, final ParseSQLiteDatabase db) {
+        try {
+          for (StatelessMatcher<T> matcher : statelessMatchers) {
+            if (!matcher.matches(object)) {
+              return Task.forResult(false);
+            }
+          }
+        } catch (Exception e) {
+          return Task.forError(e);
+        }
+
         Task<Boolean> task = Task.forResult(true);
-        for (final ConstraintMatcher<T> matcher : matchers) {
+        for (final ConstraintMatcher<T> matcher : otherMatchers) {
           task = task.onSuccessTask(new Continuation<Boolean, Task<Boolean>>() {
             @Override
             public Task<Boolean> then(Task<Boolean> task) throws Exception {
@@ -891,13 +1168,46 @@ import bolts.Task;
    */
   /* package */ <T extends ParseObject> ConstraintMatcher<T> createMatcher(
       ParseQuery.State<T> state, final ParseUser user) {
+    return createMatcher(state, state.constraints(), user);
+  }
+
+  /**
+   * Returns a ConstraintMatcher that return true iff the object matches the given constraints and
+   * is visible to the user according to the query. This is used when the rest of the query's
+   * constraints have already been applied some other way, such as in SQL.
+   *
+   * @param state The query.
+   * @param constraints The subset of the query's constraints to match.
+   * @param user The user we are testing ACL access for.
+   * @param <T> Subclass of ParseObject.
+   * @return A new instance of ConstraintMatcher.
+   */
+  /* package */ <T extends ParseObject> ConstraintMatcher<T> createMatcher(
+      ParseQuery.State<T> state, QueryConstraints constraints, final ParseUser user) {
     final boolean ignoreACLs = state.ignoreACLs();
-    final ConstraintMatcher<T> constraintMatcher = createMatcher(user, state.constraints());
+    final ConstraintMatcher<T> constraintMatcher =
+        createCachedMatcher(state.className(), constraints, user);
+    if (ignoreACLs) {
+      return constraintMatcher;
+    }
+
+    if (constraintMatcher instanceof StatelessMatcher) {
+      final StatelessMatcher<T> statelessMatcher = (StatelessMatcher<T>) constraintMatcher;
+      return new StatelessMatcher<T>(user) {
+        @Override
+        public boolean matches(T object) throws ParseException {
+          if (!hasReadAccess(user, object)) {
+            return false;
+          }
+          return statelessMatcher.matches(object);
+        }
+      };
+    }
 
     return new ConstraintMatcher<T>(user) {
       @Override
       public Task<Boolean> matchesAsync(T object, ParseSQLiteDatabase db) {
-        if (!ignoreACLs && !hasReadAccess(user, object)) {
+        if (!hasReadAccess(user, object)) {
           return Task.forResult(false);
         }
         return constraintMatcher.matchesAsync(object, db);
@@ -905,14 +1215,149 @@ import bolts.Task;
     };
   }
 
+  /**
+   * Returns the matcher for the given constraints, reusing the one that was created for an earlier
+   * query with the same constraints if possible. Only constraints made of plain values are reused,
+   * since those always compile to the same stateless matcher.
+   */
+  private <T extends ParseObject> ConstraintMatcher<T> createCachedMatcher(String className,
+      QueryConstraints constraints, ParseUser user) {
+    String key = null;
+    if (isCacheable(constraints)) {
+      try {
+        key = className + ":" + PointerEncoder.get().encode(constraints);
+      } catch (IllegalArgumentException e) {
+        // Not something we can make a key out of.
+      }
+    }
+    if (key == null) {
+      return createMatcher(user, constraints);
+    }
+
+    synchronized (compiledMatchers) {
+      @SuppressWarnings("unchecked")
+      StatelessMatcher<T> matcher = (StatelessMatcher<T>) compiledMatchers.get(key);
+      if (matcher != null) {
+        return matcher;
+      }
+    }
+
+    // Without any subqueries, this doesn't depend on the user.
+    ConstraintMatcher<T> matcher = createMatcher(null, constraints);
+    if (matcher instanceof StatelessMatcher) {
+      synchronized (compiledMatchers) {
+        compiledMatchers.put(key, (StatelessMatcher<?>) matcher);
+      }
+    }
+    return matcher;
+  }
+
+  /**
+   * @return {@code true} if the constraints only consist of values that are compared by value, so
+   * two queries with the same encoded constraints always match the same objects.
+   */
+  private static boolean isCacheable(Object value) {
+    if (value instanceof Map) {
+      for (Object item : ((Map<?, ?>) value).values()) {
+        if (!isCacheable(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (value instanceof Collection) {
+      for (Object item : (Collection<?>) value) {
+        if (!isCacheable(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return value == null
+        || value == JSONObject.NULL
+        || value instanceof String
+        || value instanceof Number
+        || value instanceof Boolean
+        || value instanceof Date
+        || value instanceof ParseGeoPoint
+        || value instanceof ParsePolygon;
+  }
+
+  /**
+   * @return {@code true} if whether an object matches the constraints depends on other objects too,
+   * such as the results of a subquery or the contents of a relation.
+   */
+  /* package */ static boolean dependsOnOtherObjects(QueryConstraints queryConstraints) {
+    for (Map.Entry<String, Object> entry : queryConstraints.entrySet()) {
+      Object value = entry.getValue();
+      if (entry.getKey().equals("$or")) {
+        @SuppressWarnings("unchecked")
+        List<QueryConstraints> queries = (List<QueryConstraints>) value;
+        for (QueryConstraints constraints : queries) {
+          if (dependsOnOtherObjects(constraints)) {
+            return true;
+          }
+        }
+      } else if (value instanceof KeyConstraints) {
+        KeyConstraints keyConstraints = (KeyConstraints) value;
+        if (keyConstraints.containsKey("$inQuery")
+            || keyConstraints.containsKey("$notInQuery")
+            || keyConstraints.containsKey("$select")
+            || keyConstraints.containsKey("$dontSelect")) {
+          return true;
+        }
+      } else if (value instanceof RelationConstraint) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Sorts the given array based on the parameters of the given query.
    */
   /* package */ static <T extends ParseObject> void sort(List<T> results, ParseQuery.State<T> state)
       throws ParseException {
-    final List<String> keys = state.order();
+    List<T> sorted = sort(results, state, -1);
+    if (sorted != results) {
+      for (int i = 0; i < sorted.size(); i++) {
+        results.set(i, sorted.get(i));
+      }
+    }
+  }
+
+  /**
+   * An object with the values it's sorted by, so they only have to be looked up once.
+   */
+  private static class SortEntry<T> {
+    private final T object;
+    // The object's position in the results, so that equal objects keep their order.
+    private final int index;
+    private final double distance;
+    private final Object[] values;
+
+    private SortEntry(T object, int index, double distance, Object[] values) {
+      this.object = object;
+      this.index = index;
+      this.distance = distance;
+      this.values = values;
+    }
+  }
+
+  /**
+   * Sorts the given array based on the parameters of the given query, and keeps only the first
+   * {@code count} objects. Those are found with a bounded heap, so only they have to be fully
+   * sorted.
+   *
+   * @param count The number of objects to keep, or -1 to keep all of them.
+   * @return A new list of the first {@code count} objects in order, or {@code results} itself if
+   * the query doesn't have an order.
+   */
+  /* package */ static <T extends ParseObject> List<T> sort(List<T> results,
+      ParseQuery.State<T> state, int count) throws ParseException {
+    List<String> order = state.order();
     // Do some error checking just for maximum compatibility with the server.
-    for (String key : state.order()) {
+    for (String key : order) {
       if (!key.matches("^-?[A-Za-z][A-Za-z0-9_]*$")) {
         if (!"_created_at".equals(key) && !"_updated_at".equals(key)) {
           throw new ParseException(ParseException.INVALID_KEY_NAME, String.format(
@@ -922,80 +1367,97 @@ import bolts.Task;
     }
 
     // See if there's a $nearSphere constraint that will override the other sort parameters.
-    String mutableNearSphereKey = null;
-    ParseGeoPoint mutableNearSphereValue = null;
+    String nearSphereKey = null;
+    ParseGeoPoint nearSphereValue = null;
     for (String queryKey : state.constraints().keySet()) {
       Object queryKeyConstraints = state.constraints().get(queryKey);
       if (queryKeyConstraints instanceof KeyConstraints) {
         KeyConstraints keyConstraints = (KeyConstraints) queryKeyConstraints;
         if (keyConstraints.containsKey("$nearSphere")) {
-          mutableNearSphereKey = queryKey;
-          mutableNearSphereValue = (ParseGeoPoint) keyConstraints.get("$nearSphere");
+          nearSphereKey = queryKey;
+          nearSphereValue = (ParseGeoPoint) keyConstraints.get("$nearSphere");
         }
       }
     }
-    final String nearSphereKey = mutableNearSphereKey;
-    final ParseGeoPoint nearSphereValue = mutableNearSphereValue;
 
     // If there's nothing to sort based on, then don't do anything.
-    if (keys.size() == 0 && mutableNearSphereKey == null) {
-      return;
+    if (order.size() == 0 && nearSphereKey == null) {
+      return results;
     }
 
     /*
      * TODO(klimt): Test whether we allow dotting into objects for sorting.
      */
 
-    Collections.sort(results, new Comparator<T>() {
-      @Override
-      public int compare(T lhs, T rhs) {
-        if (nearSphereKey != null) {
-          ParseGeoPoint lhsPoint;
-          ParseGeoPoint rhsPoint;
-          try {
-            lhsPoint = (ParseGeoPoint) getValue(lhs, nearSphereKey);
-            rhsPoint = (ParseGeoPoint) getValue(rhs, nearSphereKey);
-          } catch (ParseException e) {
-            throw new RuntimeException(e);
-          }
-
-          // GeoPoints can't be null if there's a $nearSphere.
-          double lhsDistance = lhsPoint.distanceInRadiansTo(nearSphereValue);
-          double rhsDistance = rhsPoint.distanceInRadiansTo(nearSphereValue);
-          if (lhsDistance != rhsDistance) {
-            return (lhsDistance - rhsDistance > 0) ? 1 : -1;
-          }
-        }
+    final String[] keys = new String[order.size()];
+    final boolean[] descending = new boolean[order.size()];
+    for (int i = 0; i < keys.length; i++) {
+      String key = order.get(i);
+      descending[i] = key.startsWith("-");
+      keys[i] = descending[i] ? key.substring(1) : key;
+    }
 
-        for (String key : keys) {
-          boolean descending = false;
-          if (key.startsWith("-")) {
-            descending = true;
-            key = key.substring(1);
-          }
+    // Look up everything that's compared once, instead of for every comparison.
+    List<SortEntry<T>> entries = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      T object = results.get(i);
+      double distance = 0;
+      if (nearSphereKey != null) {
+        // GeoPoints can't be null if there's a $nearSphere.
+        ParseGeoPoint point = (ParseGeoPoint) getValue(object, nearSphereKey);
+        distance = point.distanceInRadiansTo(nearSphereValue);
+      }
+      Object[] values = new Object[keys.length];
+      for (int j = 0; j < keys.length; j++) {
+        values[j] = getValue(object, keys[j]);
+      }
+      entries.add(new SortEntry<>(object, i, distance, values));
+    }
 
-          Object lhsValue;
-          Object rhsValue;
-          try {
-            lhsValue = getValue(lhs, key);
-            rhsValue = getValue(rhs, key);
-          } catch (ParseException e) {
-            throw new RuntimeException(e);
-          }
+    final Comparator<SortEntry<T>> comparator = new Comparator<SortEntry<T>>() {
+      @Override
+      public int compare(SortEntry<T> lhs, SortEntry<T> rhs) {
+        if (lhs.distance != rhs.distance) {
+          return (lhs.distance - rhs.distance > 0) ? 1 : -1;
+        }
 
+        for (int i = 0; i < keys.length; i++) {
           int result;
           try {
-            result = compareTo(lhsValue, rhsValue);
+            result = compareTo(lhs.values[i], rhs.values[i]);
           } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException(String.format("Unable to sort by key %s.", key), e);
+            throw new IllegalArgumentException(
+                String.format("Unable to sort by key %s.", keys[i]), e);
           }
           if (result != 0) {
-            return descending ? -result : result;
+            return descending[i] ? -result : result;
           }
         }
-        return 0;
+        return lhs.index - rhs.index;
       }
-    });
+    };
+
+    if (count >= 0 && count < entries.size()) {
+      // Keep the best count entries in a heap whose head is the worst of them.
+      PriorityQueue<SortEntry<T>> heap = new PriorityQueue<>(Math.max(count, 1),
+          Collections.reverseOrder(comparator));
+      for (SortEntry<T> entry : entries) {
+        if (heap.size() < count) {
+          heap.add(entry);
+        } else if (count > 0 && comparator.compare(entry, heap.peek()) < 0) {
+          heap.poll();
+          heap.add(entry);
+        }
+      }
+      entries = new ArrayList<>(heap);
+    }
+    Collections.sort(entries, comparator);
+
+    List<T> sorted = new ArrayList<>(entries.size());
+    for (SortEntry<T> entry : entries) {
+      sorted.add(entry.object);
+    }
+    return sorted;
   }
 
   /**
@@ -1095,6 +1557,126 @@ import bolts.Task;
     });
   }
 
+  /**
+   * Makes sure all of the objects included by the given query get fetched, for all of the given
+   * results at once. The objects at each level of an include path are gathered from all of the
+   * results and fetched together, so pointers are loaded in bulk instead of one at a time.
+   */
+  /* package */ static <T extends ParseObject> Task<Void> fetchIncludesAsync(
+      final OfflineStore store,
+      final List<T> objects,
+      ParseQuery.State<T> state,
+      final ParseSQLiteDatabase db) {
+    // We do the paths in series because it makes it easier to fail on the first error.
+    Task<Void> task = Task.forResult(null);
+    for (final String include : state.includes()) {
+      task = task.onSuccessTask(new Continuation<Void, Task<Void>>() {
+        @Override
+        public Task<Void> then(Task<Void> task) throws Exception {
+          return fetchIncludeAsync(store, new ArrayList<Object>(objects), include, db);
+        }
+      });
+    }
+    return task;
+  }
+
+  /**
+   * Fetches one include path for many containers at once.
+   */
+  private static Task<Void> fetchIncludeAsync(
+      final OfflineStore store,
+      List<Object> containers,
+      final String path,
+      final ParseSQLiteDatabase db) {
+    // Fetch the sub-items of any lists or arrays, and ignore anything that isn't there.
+    final List<Object> items = new ArrayList<>();
+    flattenIncludes(containers, items);
+
+    // Accept JSONObject.NULL value in included field. We swallow it silently instead of
+    // throwing an exception.
+    final List<ParseObject> objects = new ArrayList<>();
+    for (Object item : items) {
+      if (item instanceof ParseObject) {
+        objects.add((ParseObject) item);
+      } else if (path == null && !JSONObject.NULL.equals(item)) {
+        return Task.forError(new ParseException(
+            ParseException.INVALID_NESTED_KEY, "include is invalid for non-ParseObjects"));
+      }
+    }
+
+    // If we've reached the end of the path, then actually do the fetch. Otherwise, make sure the
+    // containers are fetched before descending into them.
+    Task<Void> fetchTask = store.fetchAllLocallyAsync(objects, db).onSuccessTask(
+        new Continuation<List<Task<ParseObject>>, Task<Void>>() {
+      @Override
+      public Task<Void> then(final Task<List<Task<ParseObject>>> task) throws Exception {
+        return Task.whenAll(task.getResult()).continueWithTask(
+            new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> ignored) throws Exception {
+            for (Task<ParseObject> fetchTask : task.getResult()) {
+              if (fetchTask.isFaulted() || fetchTask.isCancelled()) {
+                return fetchTask.makeVoid();
+              }
+            }
+            return Task.forResult(null);
+          }
+        });
+      }
+    });
+    if (path == null) {
+      return fetchTask;
+    }
+
+    // Descend into the containers and try again.
+    String[] parts = path.split("\\.", 2);
+    final String key = parts[0];
+    final String rest = (parts.length > 1 ? parts[1] : null);
+
+    return fetchTask.onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        List<Object> values = new ArrayList<>();
+        for (Object item : items) {
+          if (item instanceof ParseObject) {
+            values.add(((ParseObject) item).get(key));
+          } else if (item instanceof Map) {
+            values.add(((Map) item).get(key));
+          } else if (item instanceof JSONObject) {
+            values.add(((JSONObject) item).opt(key));
+          } else if (!JSONObject.NULL.equals(item)) {
+            return Task.forError(new IllegalStateException("include is invalid"));
+          }
+        }
+        return fetchIncludeAsync(store, values, rest, db);
+      }
+    });
+  }
+
+  /**
+   * Adds the given containers to {@code items}, replacing lists and arrays with their contents and
+   * leaving out anything that's null.
+   */
+  private static void flattenIncludes(Collection<?> containers, List<Object> items) {
+    for (Object container : containers) {
+      if (container == null) {
+        continue;
+      }
+      if (container instanceof Collection) {
+        flattenIncludes((Collection<?>) container, items);
+      } else if (container instanceof JSONArray) {
+        JSONArray array = (JSONArray) container;
+        List<Object> arrayItems = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+          arrayItems.add(array.opt(i));
+        }
+        flattenIncludes(arrayItems, items);
+      } else {
+        items.add(container);
+      }
+    }
+  }
+
   /**
    * Makes sure all of the objects included by the given query get fetched.
    */
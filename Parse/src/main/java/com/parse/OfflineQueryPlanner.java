@@ -0,0 +1,757 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.text.TextUtils;
+
+import com.parse.ParseQuery.KeyConstraints;
+import com.parse.ParseQuery.QueryConstraints;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Translates as much of a query as possible into SQL against the ParseObjects table, so that
+ * SQLite can narrow down the rows before they are decoded. Whatever can't be expressed in SQL is
+ * left in {@link Plan#residualConstraints()} and has to be evaluated by {@link OfflineQueryLogic}
+ * against the decoded objects, just like before.
+ *
+ * Constraints on the columns that are copied out of the JSON (objectId, createdAt and updatedAt)
+ * and on keys that are indexed in the IndexedValues table are translated, and so are full-text
+ * searches on keys that are in the TextIndex table. Like the JSON, these are only updated when an
+ * object is saved to the database, so they reflect the last state of the object that was stored
+ * rather than unsaved changes that are only in memory. The columns only change when an object is
+ * saved to the server, but any other key can be changed locally, so constraints on indexed keys are
+ * also kept in the residual constraints and matched again against the object in memory. That
+ * drops objects whose unsaved changes no longer match, but objects that only match because of
+ * unsaved changes are still not found until they're stored again.
+ *
+ * Geo constraints on indexed keys are different: the GeoIndex table only narrows them down to the
+ * points in a bounding box, and the constraints are still matched exactly in memory.
+ */
+/** package */ class OfflineQueryPlanner {
+
+  /**
+   * The alias the ParseObjects table must have in the query that the plan is used in.
+   */
+  /* package */ static final String TABLE_ALIAS = "A";
+
+  /**
+   * The maximum number of values of a single $in or $nin that we'll put into the SQL. Anything
+   * bigger is left to the in memory matcher so we never hit SQLite's limit on variables.
+   */
+  private static final int MAX_IN_VALUES = 500;
+
+  /**
+   * How much bounding boxes are widened by, in degrees, so that points on their edges aren't lost
+   * to rounding.
+   */
+  private static final double GEO_BOX_MARGIN = 1e-9;
+
+  private final OfflineIndexes indexes;
+
+  /* package */ OfflineQueryPlanner(OfflineIndexes indexes) {
+    this.indexes = indexes;
+  }
+
+  /**
+   * The result of planning a query.
+   */
+  /* package */ static class Plan {
+    private final String where;
+    private final String[] args;
+    private final String orderBy;
+    private final boolean isOrderPushed;
+    private final int limit;
+    private final int skip;
+    private final QueryConstraints residualConstraints;
+
+    private Plan(String where, String[] args, String orderBy, boolean isOrderPushed, int limit,
+        int skip, QueryConstraints residualConstraints) {
+      this.where = where;
+      this.args = args;
+      this.orderBy = orderBy;
+      this.isOrderPushed = isOrderPushed;
+      this.limit = limit;
+      this.skip = skip;
+      this.residualConstraints = residualConstraints;
+    }
+
+    /**
+     * @return An expression to AND into the WHERE clause, or {@code null} if nothing was pushed.
+     */
+    public String where() {
+      return where;
+    }
+
+    /**
+     * @return The arguments for the placeholders in {@link #where()}.
+     */
+    public String[] args() {
+      return args;
+    }
+
+    /**
+     * @return The ORDER BY clause, or {@code null} if the order wasn't pushed or there is none.
+     */
+    public String orderBy() {
+      return orderBy;
+    }
+
+    /**
+     * @return {@code true} if the rows come back in the query's order and don't need to be sorted
+     * again.
+     */
+    public boolean isOrderPushed() {
+      return isOrderPushed;
+    }
+
+    /**
+     * @return {@code true} if the skip and limit are applied in SQL.
+     */
+    public boolean isPagingPushed() {
+      return limit >= 0 || skip > 0;
+    }
+
+    public int limit() {
+      return limit;
+    }
+
+    public int skip() {
+      return skip;
+    }
+
+    /**
+     * @return The constraints that still have to be matched in memory.
+     */
+    public QueryConstraints residualConstraints() {
+      return residualConstraints;
+    }
+
+    /**
+     * @return The same plan, but with the skip and limit left to be applied in memory.
+     */
+    public Plan withoutPaging() {
+      return new Plan(where, args, orderBy, isOrderPushed, -1, 0, residualConstraints);
+    }
+
+    /**
+     * Only valid if the order was pushed.
+     *
+     * @return The same plan, but selecting {@code count} candidates starting at {@code offset}
+     * instead of the query's own page. Rows with equal sort keys are ordered by rowid, so windows
+     * that follow each other neither overlap nor miss any rows.
+     */
+    public Plan withCandidateWindow(int offset, int count) {
+      String rowid = TABLE_ALIAS + ".rowid";
+      String stableOrderBy;
+      if (orderBy == null) {
+        stableOrderBy = rowid;
+      } else if (orderBy.endsWith(" DESC")) {
+        // Keep the direction of the last term, so an index on it can still be used.
+        stableOrderBy = orderBy + ", " + rowid + " DESC";
+      } else {
+        stableOrderBy = orderBy + ", " + rowid;
+      }
+      return new Plan(where, args, stableOrderBy, isOrderPushed, count, offset,
+          residualConstraints);
+    }
+  }
+
+  /**
+   * Plans how to run the given query.
+   *
+   * @param state The query.
+   * @param isCount {@code true} if the query is a count, in which case skip and limit are ignored.
+   * @return The plan.
+   */
+  /* package */ <T extends ParseObject> Plan plan(ParseQuery.State<T> state, boolean isCount) {
+    List<String> args = new ArrayList<>();
+    QueryConstraints residual = new QueryConstraints();
+    QueryConstraints recheck = new QueryConstraints();
+    String where = translateConstraints(state.className(), state.constraints(), args, residual,
+        recheck);
+    residual.putAll(recheck);
+
+    String orderBy = translateOrder(state);
+    boolean isOrderPushed = orderBy != null || state.order().isEmpty();
+    if (hasNearSphereConstraint(state.constraints())) {
+      // $nearSphere sorts by distance before anything else.
+      orderBy = null;
+      isOrderPushed = false;
+    }
+
+    /*
+     * The skip and limit can only be pushed if every row that comes back is a result, so nothing
+     * can be left to match in memory, including the ACLs.
+     */
+    int limit = -1;
+    int skip = 0;
+    if (!isCount && isOrderPushed && residual.isEmpty() && state.ignoreACLs()) {
+      limit = state.limit();
+      skip = Math.max(state.skip(), 0);
+    }
+
+    return new Plan(where, args.toArray(new String[args.size()]), orderBy, isOrderPushed, limit,
+        skip, residual);
+  }
+
+  /**
+   * Translates the constraints that can be expressed in SQL and copies the rest into
+   * {@code residual}. Constraints on keys that can change locally are translated, but also copied
+   * into {@code recheck}, since they have to be matched against the object in memory as well.
+   *
+   * @return The SQL expression, or {@code null} if nothing could be translated.
+   */
+  private String translateConstraints(String className, QueryConstraints constraints,
+      List<String> args, QueryConstraints residual, QueryConstraints recheck) {
+    List<String> clauses = new ArrayList<>();
+    for (String key : constraints.keySet()) {
+      Object constraint = constraints.get(key);
+
+      if (key.equals("$or")) {
+        QueryConstraints orRecheck = new QueryConstraints();
+        @SuppressWarnings("unchecked")
+        String clause = translateOr(className, (List<QueryConstraints>) constraint, args,
+            orRecheck);
+        if (clause != null) {
+          clauses.add(clause);
+          if (!orRecheck.isEmpty()) {
+            recheck.put(key, constraint);
+          }
+        } else {
+          residual.put(key, constraint);
+        }
+        continue;
+      }
+
+      String column = columnForKey(key);
+      boolean isIndexed = column == null && indexes.isReady(className, key);
+      boolean isTextIndexed = column == null && indexes.isTextReady(className, key);
+      if (column == null && !isIndexed && !isTextIndexed) {
+        residual.put(key, constraint);
+        continue;
+      }
+      if (column == null) {
+        recheck.put(key, constraint);
+      }
+
+      if (constraint instanceof KeyConstraints) {
+        KeyConstraints keyConstraints = (KeyConstraints) constraint;
+        KeyConstraints residualKeyConstraints = new KeyConstraints();
+        for (String operator : keyConstraints.keySet()) {
+          Object value = keyConstraints.get(operator);
+          String clause;
+          if (operator.equals("$text")) {
+            clause = isTextIndexed ? translateText(className, key, value, args) : null;
+          } else if (isIndexed && isGeoOperator(operator)) {
+            String bounds = translateGeoBounds(className, key, operator, value, keyConstraints,
+                args);
+            if (bounds != null) {
+              clauses.add(bounds);
+            }
+            // The bounds only narrow down the candidates, they're matched exactly in memory.
+            clause = null;
+          } else if (isIndexed) {
+            clause = translateIndexedOperator(className, key, operator, value, args);
+          } else if (column != null) {
+            clause = translateOperator(column, operator, value, args);
+          } else {
+            clause = null;
+          }
+          if (clause != null) {
+            clauses.add(clause);
+          } else {
+            residualKeyConstraints.put(operator, value);
+          }
+        }
+        if (!residualKeyConstraints.isEmpty() && column != null) {
+          residual.put(key, residualKeyConstraints);
+        }
+      } else {
+        String clause;
+        if (isIndexed) {
+          clause = translateIndexedEqual(className, key, constraint, args);
+        } else if (column != null) {
+          clause = translateEqual(column, constraint, args);
+        } else {
+          clause = null;
+        }
+        if (clause != null) {
+          clauses.add(clause);
+        } else if (column != null) {
+          residual.put(key, constraint);
+        }
+      }
+    }
+
+    if (clauses.isEmpty()) {
+      return null;
+    }
+    return TextUtils.join(" AND ", clauses);
+  }
+
+  /**
+   * Translates an $or if every one of its subqueries can be expressed entirely in SQL. If any of
+   * them has to be matched in memory as well, its constraints are copied into {@code recheck}.
+   */
+  private String translateOr(String className, List<QueryConstraints> queries,
+      List<String> args, QueryConstraints recheck) {
+    List<String> orArgs = new ArrayList<>();
+    List<String> clauses = new ArrayList<>();
+    for (QueryConstraints query : queries) {
+      QueryConstraints residual = new QueryConstraints();
+      String clause = translateConstraints(className, query, orArgs, residual, recheck);
+      if (!residual.isEmpty()) {
+        return null;
+      }
+      // An empty subquery matches everything.
+      clauses.add(clause != null ? clause : "1");
+    }
+    if (clauses.isEmpty()) {
+      return null;
+    }
+    args.addAll(orArgs);
+    return "(" + TextUtils.join(" OR ", clauses) + ")";
+  }
+
+  /**
+   * Translates a plain equality constraint on a column.
+   */
+  private String translateEqual(String column, Object constraint, List<String> args) {
+    String value = toSqlValue(column, constraint, args);
+    return value != null ? TABLE_ALIAS + "." + column + " = " + value : null;
+  }
+
+  /**
+   * Translates a single operator on a column. The semantics have to match
+   * {@link OfflineQueryLogic} exactly, including what happens when the column is {@code null}.
+   *
+   * @return The SQL expression, or {@code null} if it can't be translated.
+   */
+  private String translateOperator(String column, String operator, Object constraint,
+      List<String> args) {
+    String qualified = TABLE_ALIAS + "." + column;
+    switch (operator) {
+      case "$ne": {
+        String value = toSqlValue(column, constraint, args);
+        return value != null
+            ? "(" + qualified + " IS NULL OR " + qualified + " <> " + value + ")"
+            : null;
+      }
+
+      case "$lt":
+      case "$lte":
+      case "$gt":
+      case "$gte": {
+        String value = toSqlValue(column, constraint, args);
+        return value != null ? qualified + " " + comparisonOperator(operator) + " " + value : null;
+      }
+
+      case "$in":
+      case "$nin": {
+        if (!(constraint instanceof Collection)
+            || ((Collection<?>) constraint).size() > MAX_IN_VALUES) {
+          return null;
+        }
+        List<String> inArgs = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        boolean containsNull = false;
+        for (Object item : (Collection<?>) constraint) {
+          if (item == null) {
+            containsNull = true;
+            continue;
+          }
+          String value = toSqlValue(column, item, inArgs);
+          // Values of any other type can never be equal to what's in this column.
+          if (value != null) {
+            values.add(value);
+          }
+        }
+        args.addAll(inArgs);
+
+        String in = values.isEmpty()
+            ? "0"
+            : qualified + " IN (" + TextUtils.join(",", values) + ")";
+        if (operator.equals("$in")) {
+          return containsNull ? "(" + in + " OR " + qualified + " IS NULL)" : in;
+        }
+        return containsNull
+            ? "(" + qualified + " IS NOT NULL AND NOT " + in + ")"
+            : "(" + qualified + " IS NULL OR NOT " + in + ")";
+      }
+
+      case "$exists":
+        if (constraint != null && !(constraint instanceof Boolean)) {
+          return null;
+        }
+        return qualified + (constraint != null && (Boolean) constraint
+            ? " IS NOT NULL"
+            : " IS NULL");
+
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Translates a plain equality constraint on an indexed key. Like in {@link OfflineQueryLogic},
+   * an array matches if any of its elements is equal.
+   */
+  private String translateIndexedEqual(String className, String key, Object constraint,
+      List<String> args) {
+    OfflineIndexes.Value value = OfflineIndexes.toValue(constraint);
+    if (value == null) {
+      return null;
+    }
+    List<String> valueArgs = new ArrayList<>();
+    String condition = indexedCondition(value, "=", valueArgs);
+    return indexedLookup(className, key, false, condition, valueArgs, args);
+  }
+
+  /**
+   * Translates a single operator on an indexed key. Objects that don't have a value for the key
+   * have no rows, so they only match the negated operators.
+   *
+   * @return The SQL expression, or {@code null} if it can't be translated.
+   */
+  private String translateIndexedOperator(String className, String key, String operator,
+      Object constraint, List<String> args) {
+    List<String> valueArgs = new ArrayList<>();
+    switch (operator) {
+      case "$ne": {
+        OfflineIndexes.Value value = OfflineIndexes.toValue(constraint);
+        if (value == null) {
+          return null;
+        }
+        String condition = indexedCondition(value, "=", valueArgs);
+        return indexedLookup(className, key, true, condition, valueArgs, args);
+      }
+
+      case "$lt":
+      case "$lte":
+      case "$gt":
+      case "$gte": {
+        // Only numbers and dates can be compared.
+        OfflineIndexes.Value value = OfflineIndexes.toValue(constraint);
+        if (value == null || (value.type() != OfflineIndexes.TYPE_NUMBER
+            && value.type() != OfflineIndexes.TYPE_DATE)) {
+          return null;
+        }
+        String condition = indexedCondition(value, comparisonOperator(operator), valueArgs);
+        return indexedLookup(className, key, false, condition, valueArgs, args);
+      }
+
+      case "$in":
+      case "$nin": {
+        if (!(constraint instanceof Collection)
+            || ((Collection<?>) constraint).size() > MAX_IN_VALUES) {
+          return null;
+        }
+        // Group the values by type so each group can use the index.
+        Map<Integer, List<String>> valuesByType = new TreeMap<>();
+        for (Object item : (Collection<?>) constraint) {
+          OfflineIndexes.Value value = OfflineIndexes.toValue(item);
+          if (value == null) {
+            // null matches objects without the key, which have no rows to look up.
+            return null;
+          }
+          List<String> values = valuesByType.get(value.type());
+          if (values == null) {
+            values = new ArrayList<>();
+            valuesByType.put(value.type(), values);
+          }
+          values.add(value.toSql(valueArgs));
+        }
+
+        boolean isNotIn = operator.equals("$nin");
+        if (valuesByType.isEmpty()) {
+          return isNotIn ? "1" : "0";
+        }
+        List<String> conditions = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> entry : valuesByType.entrySet()) {
+          conditions.add("(" + OfflineSQLiteOpenHelper.KEY_TYPE + " = " + entry.getKey() + " AND " +
+              OfflineSQLiteOpenHelper.KEY_VALUE + " IN (" +
+              TextUtils.join(",", entry.getValue()) + "))");
+        }
+        String condition = conditions.size() == 1
+            ? conditions.get(0)
+            : "(" + TextUtils.join(" OR ", conditions) + ")";
+        return indexedLookup(className, key, isNotIn, condition, valueArgs, args);
+      }
+
+      default:
+        return null;
+    }
+  }
+
+  private static String indexedCondition(OfflineIndexes.Value value, String operator,
+      List<String> args) {
+    return OfflineSQLiteOpenHelper.KEY_TYPE + " = " + value.type() + " AND " +
+        OfflineSQLiteOpenHelper.KEY_VALUE + " " + operator + " " + value.toSql(args);
+  }
+
+  /**
+   * @return An expression that matches the rows of objects that have (or, if {@code negate}, don't
+   * have) a value of the given key that satisfies {@code condition}.
+   */
+  private static String indexedLookup(String className, String key, boolean negate,
+      String condition, List<String> conditionArgs, List<String> args) {
+    args.add(className);
+    args.add(key);
+    args.addAll(conditionArgs);
+    return TABLE_ALIAS + "." + OfflineSQLiteOpenHelper.KEY_UUID + (negate ? " NOT IN" : " IN") +
+        " (SELECT " + OfflineSQLiteOpenHelper.KEY_UUID +
+        " FROM " + OfflineSQLiteOpenHelper.TABLE_INDEXED_VALUES +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ?" +
+        " AND " + OfflineSQLiteOpenHelper.KEY_KEY + " = ?" +
+        " AND " + condition + ")";
+  }
+
+  /**
+   * Translates a {@code $text} search on a text-indexed key. Like in {@link OfflineQueryLogic}, an
+   * object matches if its text contains any word that's searched for, and a search without any
+   * words matches nothing.
+   *
+   * @return The SQL expression, or {@code null} if it can't be translated.
+   */
+  private static String translateText(String className, String key, Object constraint,
+      List<String> args) {
+    String term = OfflineIndexes.toSearchTerm(constraint);
+    if (term == null) {
+      return null;
+    }
+    String match = OfflineIndexes.toMatchExpression(OfflineIndexes.toWords(term));
+    if (match == null) {
+      return "0";
+    }
+    args.add(className);
+    args.add(key);
+    args.add(match);
+    return TABLE_ALIAS + "." + OfflineSQLiteOpenHelper.KEY_UUID + " IN" +
+        " (SELECT " + OfflineSQLiteOpenHelper.KEY_UUID +
+        " FROM " + OfflineSQLiteOpenHelper.TABLE_TEXT_INDEXED_VALUES +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ?" +
+        " AND " + OfflineSQLiteOpenHelper.KEY_KEY + " = ?" +
+        " AND " + OfflineSQLiteOpenHelper.KEY_DOCID + " IN (SELECT " +
+        OfflineSQLiteOpenHelper.KEY_DOCID + " FROM " + OfflineSQLiteOpenHelper.TABLE_TEXT_INDEX +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_VALUE + " MATCH ?))";
+  }
+
+  private static boolean isGeoOperator(String operator) {
+    switch (operator) {
+      case "$nearSphere":
+      case "$within":
+      case "$geoWithin":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Translates a geo constraint on an indexed key into a lookup of the points in a bounding box
+   * that contains every point that can match it. This is only a filter, the constraint still has to
+   * be matched in memory.
+   *
+   * @return The SQL expression, or {@code null} if the constraint can match points anywhere.
+   */
+  private static String translateGeoBounds(String className, String key, String operator,
+      Object constraint, KeyConstraints allKeyConstraints, List<String> args) {
+    double minLatitude;
+    double maxLatitude;
+    double minLongitude;
+    double maxLongitude;
+    try {
+      switch (operator) {
+        case "$nearSphere": {
+          Object maxDistance = allKeyConstraints.get("$maxDistance");
+          if (!(maxDistance instanceof Number)) {
+            return null;
+          }
+          double radians = ((Number) maxDistance).doubleValue();
+          if (!(radians < Math.PI)) {
+            return null;
+          }
+          ParseGeoPoint center = (ParseGeoPoint) constraint;
+          double degrees = Math.toDegrees(Math.max(radians, 0));
+          minLatitude = center.getLatitude() - degrees;
+          maxLatitude = center.getLatitude() + degrees;
+          if (minLatitude <= -90 || maxLatitude >= 90) {
+            // The circle covers a pole, so it covers every longitude.
+            minLongitude = -180;
+            maxLongitude = 180;
+          } else {
+            // The widest point of the circle isn't at its center's latitude, but this bounds it.
+            double longitudeDegrees = Math.toDegrees(Math.asin(
+                Math.sin(radians) / Math.cos(Math.toRadians(center.getLatitude()))));
+            minLongitude = center.getLongitude() - longitudeDegrees;
+            maxLongitude = center.getLongitude() + longitudeDegrees;
+          }
+          break;
+        }
+
+        case "$within": {
+          @SuppressWarnings("unchecked")
+          List<ParseGeoPoint> box = ((Map<String, List<ParseGeoPoint>>) constraint).get("$box");
+          minLatitude = box.get(0).getLatitude();
+          minLongitude = box.get(0).getLongitude();
+          maxLatitude = box.get(1).getLatitude();
+          maxLongitude = box.get(1).getLongitude();
+          if (maxLatitude < minLatitude || maxLongitude < minLongitude) {
+            // Invalid, let the matcher report it.
+            return null;
+          }
+          break;
+        }
+
+        case "$geoWithin": {
+          @SuppressWarnings("unchecked")
+          List<ParseGeoPoint> points =
+              ((Map<String, List<ParseGeoPoint>>) constraint).get("$polygon");
+          if (points.isEmpty()) {
+            return null;
+          }
+          minLatitude = maxLatitude = points.get(0).getLatitude();
+          minLongitude = maxLongitude = points.get(0).getLongitude();
+          for (ParseGeoPoint point : points) {
+            minLatitude = Math.min(minLatitude, point.getLatitude());
+            maxLatitude = Math.max(maxLatitude, point.getLatitude());
+            minLongitude = Math.min(minLongitude, point.getLongitude());
+            maxLongitude = Math.max(maxLongitude, point.getLongitude());
+          }
+          break;
+        }
+
+        default:
+          return null;
+      }
+    } catch (RuntimeException e) {
+      // A malformed constraint, which the matcher reports.
+      return null;
+    }
+
+    String latitude = OfflineSQLiteOpenHelper.KEY_LATITUDE;
+    String longitude = OfflineSQLiteOpenHelper.KEY_LONGITUDE;
+    List<String> conditions = new ArrayList<>();
+    conditions.add(latitude + " BETWEEN " + (minLatitude - GEO_BOX_MARGIN) + " AND " +
+        (maxLatitude + GEO_BOX_MARGIN));
+    minLongitude -= GEO_BOX_MARGIN;
+    maxLongitude += GEO_BOX_MARGIN;
+    if (maxLongitude - minLongitude < 360) {
+      if (minLongitude < -180) {
+        // The box wraps around the antimeridian.
+        conditions.add("(" + longitude + " >= " + (minLongitude + 360) + " OR " + longitude +
+            " <= " + maxLongitude + ")");
+      } else if (maxLongitude > 180) {
+        conditions.add("(" + longitude + " >= " + minLongitude + " OR " + longitude + " <= " +
+            (maxLongitude - 360) + ")");
+      } else {
+        conditions.add(longitude + " BETWEEN " + minLongitude + " AND " + maxLongitude);
+      }
+    }
+
+    args.add(className);
+    args.add(key);
+    return TABLE_ALIAS + "." + OfflineSQLiteOpenHelper.KEY_UUID + " IN" +
+        " (SELECT " + OfflineSQLiteOpenHelper.KEY_UUID +
+        " FROM " + OfflineSQLiteOpenHelper.TABLE_GEO_INDEX +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ?" +
+        " AND " + OfflineSQLiteOpenHelper.KEY_KEY + " = ?" +
+        " AND " + TextUtils.join(" AND ", conditions) + ")";
+  }
+
+  private static String comparisonOperator(String operator) {
+    switch (operator) {
+      case "$lt":
+        return "<";
+      case "$lte":
+        return "<=";
+      case "$gt":
+        return ">";
+      case "$gte":
+        return ">=";
+      default:
+        throw new IllegalArgumentException("Not a comparison operator: " + operator);
+    }
+  }
+
+  /**
+   * Converts a constraint value to the representation used by the given column. Numbers are
+   * written into the SQL directly, strings are bound as arguments.
+   *
+   * @return The SQL for the value, or {@code null} if the value's type doesn't belong in the column.
+   */
+  private static String toSqlValue(String column, Object value, List<String> args) {
+    if (OfflineSQLiteOpenHelper.KEY_OBJECT_ID.equals(column)) {
+      if (value instanceof String) {
+        args.add((String) value);
+        return "?";
+      }
+      return null;
+    }
+    if (value instanceof Date) {
+      return Long.toString(((Date) value).getTime());
+    }
+    return null;
+  }
+
+  /**
+   * @return The column that stores the given key, or {@code null} if it's only in the JSON.
+   */
+  private static String columnForKey(String key) {
+    switch (key) {
+      case "objectId":
+        return OfflineSQLiteOpenHelper.KEY_OBJECT_ID;
+      case "createdAt":
+      case "_created_at":
+        return OfflineSQLiteOpenHelper.KEY_CREATED_AT;
+      case "updatedAt":
+      case "_updated_at":
+        return OfflineSQLiteOpenHelper.KEY_UPDATED_AT;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return An ORDER BY clause if every key in the query's order is stored in a column, otherwise
+   * {@code null}.
+   */
+  private static <T extends ParseObject> String translateOrder(ParseQuery.State<T> state) {
+    List<String> keys = state.order();
+    if (keys.isEmpty()) {
+      return null;
+    }
+    List<String> terms = new ArrayList<>();
+    for (String key : keys) {
+      boolean descending = key.startsWith("-");
+      String column = columnForKey(descending ? key.substring(1) : key);
+      if (column == null) {
+        return null;
+      }
+      terms.add(TABLE_ALIAS + "." + column + (descending ? " DESC" : ""));
+    }
+    return TextUtils.join(", ", terms);
+  }
+
+  private static boolean hasNearSphereConstraint(QueryConstraints constraints) {
+    for (Object constraint : constraints.values()) {
+      if (constraint instanceof KeyConstraints
+          && ((KeyConstraints) constraint).containsKey("$nearSphere")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
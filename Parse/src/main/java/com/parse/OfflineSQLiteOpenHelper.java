@@ -8,9 +8,18 @@
  */
 package com.parse;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Date;
+import java.util.Set;
+
 /**
  * This class just wraps a SQLiteDatabase with a better API. SQLite has a few limitations that this
  * class works around. The primary problem is that if you call getWritableDatabase from multiple
@@ -32,9 +41,22 @@ import android.database.sqlite.SQLiteDatabase;
   /* package */ /* package */ static final String KEY_UUID = "uuid";
   /* package */ static final String KEY_CLASS_NAME = "className";
   /* package */ static final String KEY_OBJECT_ID = "objectId";
+  // Either JSON text or, if the store is compact, a blob from OfflineBinaryCoder.
   /* package */ static final String KEY_JSON = "json";
   /* package */ static final String KEY_IS_DELETING_EVENTUALLY = "isDeletingEventually";
 
+  /**
+   * Copies of createdAt and updatedAt from the JSON, stored as milliseconds so that queries can
+   * filter and order by them in SQL.
+   */
+  /* package */ static final String KEY_CREATED_AT = "createdAt";
+  /* package */ static final String KEY_UPDATED_AT = "updatedAt";
+
+  /**
+   * Whether the JSON has all of the object's data, so that it can be counted without being loaded.
+   */
+  /* package */ static final String KEY_IS_COMPLETE = "isComplete";
+
   /**
    * The table that stores all Dependencies.
    */
@@ -47,17 +69,132 @@ import android.database.sqlite.SQLiteDatabase;
   /* package */ static final String KEY_KEY = "key";
   // static final String KEY_UUID = "uuid";
 
+  /**
+   * The table that stores the values of the keys that are indexed with
+   * {@link Parse.Configuration.Builder#localIndex(String, String...)}. Each value of an object gets a
+   * row, and each element of an array gets its own row.
+   */
+  /* package */ static final String TABLE_INDEXED_VALUES = "IndexedValues";
+
+  /**
+   * Various keys in the table of IndexedValues.
+   */
+  // static final String KEY_UUID = "uuid";
+  // static final String KEY_CLASS_NAME = "className";
+  // static final String KEY_KEY = "key";
+  /* package */ static final String KEY_TYPE = "type";
+  /* package */ static final String KEY_VALUE = "value";
+
+  /**
+   * The table that stores the {@code ParseGeoPoint} values of the keys that are indexed with
+   * {@link Parse.Configuration.Builder#localIndex(String, String...)}, so that geo queries can look
+   * up the points in a range of latitudes instead of testing every object.
+   */
+  /* package */ static final String TABLE_GEO_INDEX = "GeoIndex";
+
+  /**
+   * Various keys in the table of GeoIndex.
+   */
+  // static final String KEY_UUID = "uuid";
+  // static final String KEY_CLASS_NAME = "className";
+  // static final String KEY_KEY = "key";
+  /* package */ static final String KEY_LATITUDE = "latitude";
+  /* package */ static final String KEY_LONGITUDE = "longitude";
+
+  /**
+   * The table that records which keys of which classes have been completely indexed.
+   */
+  /* package */ static final String TABLE_INDEXED_KEYS = "IndexedKeys";
+
+  /**
+   * The full-text index of the keys that are indexed with
+   * {@link Parse.Configuration.Builder#localTextIndex(String, String...)}. Each of these keys of an
+   * object gets a row, and the object and key it belongs to are in the TextIndexedValues row with
+   * the same docid.
+   */
+  /* package */ static final String TABLE_TEXT_INDEX = "TextIndex";
+  /* package */ static final String TABLE_TEXT_INDEXED_VALUES = "TextIndexedValues";
+
+  /**
+   * Various keys in the tables of TextIndex and TextIndexedValues.
+   */
+  /* package */ static final String KEY_DOCID = "docid";
+  // static final String KEY_UUID = "uuid";
+  // static final String KEY_CLASS_NAME = "className";
+  // static final String KEY_KEY = "key";
+  // static final String KEY_VALUE = "value";
+
+  /**
+   * The table that records when each pin was last pinned to or queried, so that the least
+   * recently used pins can be evicted when the Local Datastore is over its quota.
+   */
+  /* package */ static final String TABLE_PIN_ACCESS = "PinAccess";
+
+  /**
+   * Various keys in the table of PinAccess.
+   */
+  /* package */ static final String KEY_NAME = "name";
+  /* package */ static final String KEY_ACCESSED_AT = "accessedAt";
+
+  /**
+   * The table that records the objects that lost their last Dependency to an unpin, or the last
+   * object that pointed to them. Only these objects are deleted by
+   * {@link OfflineStore#collectGarbageAsync()}, which goes through them in the order of their
+   * rowids.
+   */
+  /* package */ static final String TABLE_UNPINNED_OBJECTS = "UnpinnedObjects";
+
+  /**
+   * Various keys in the table of UnpinnedObjects.
+   */
+  // static final String KEY_UUID = "uuid";
+
+  /**
+   * The table that records which objects the data of each object points to by UUID, which is how
+   * objects that haven't been saved yet are pointed to. Objects without Dependencies are kept while
+   * anything points to them, such as the unsaved children of a pin that doesn't include its
+   * children. The objects of a pin depend on it, so what pins point to isn't recorded.
+   */
+  /* package */ static final String TABLE_POINTERS = "Pointers";
+
+  /**
+   * Various keys in the table of Pointers.
+   */
+  // static final String KEY_UUID = "uuid";
+  /* package */ static final String KEY_POINTED_UUID = "pointedUUID";
+
   /**
    * The SQLite Database name.
    */
   private static final String DATABASE_NAME = "ParseOfflineStore";
-  private static final int DATABASE_VERSION = 4;
+  private static final int DATABASE_VERSION = 14;
+
+  private final boolean isCompact;
 
   /**
    * Creates a new helper for the database.
    */
   public OfflineSQLiteOpenHelper(Context context) {
+    this(context, false);
+  }
+
+  /**
+   * Creates a new helper for the database.
+   *
+   * @param isCompact Whether objects should be stored with {@link OfflineBinaryCoder} instead of as
+   *                  JSON text.
+   */
+  public OfflineSQLiteOpenHelper(Context context, boolean isCompact) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    this.isCompact = isCompact;
+  }
+
+  /**
+   * @return Whether objects should be stored with {@link OfflineBinaryCoder}. Objects can be read
+   * in either format.
+   */
+  /* package */ boolean isCompact() {
+    return isCompact;
   }
 
   /**
@@ -72,16 +209,394 @@ import android.database.sqlite.SQLiteDatabase;
         KEY_OBJECT_ID + " TEXT, " +
         KEY_JSON + " TEXT, " +
         KEY_IS_DELETING_EVENTUALLY + " INTEGER DEFAULT 0, " +
+        KEY_CREATED_AT + " INTEGER, " +
+        KEY_UPDATED_AT + " INTEGER, " +
+        KEY_IS_COMPLETE + " INTEGER DEFAULT 0, " +
         "UNIQUE(" + KEY_CLASS_NAME + ", " + KEY_OBJECT_ID + ")" +
         ");";
     db.execSQL(sql);
 
+    createDateIndexes(db);
+
     sql = "CREATE TABLE " + TABLE_DEPENDENCIES + " (" +
         KEY_KEY + " TEXT NOT NULL, " +
         KEY_UUID + " TEXT NOT NULL, " +
         "PRIMARY KEY(" + KEY_KEY + ", " + KEY_UUID + ")" +
         ");";
     db.execSQL(sql);
+
+    createDependencyIndex(db);
+    createIndexTables(db);
+    createPinAccessTable(db);
+    createTextIndexTables(db);
+    createGeoIndexTable(db);
+    createUnpinnedObjectsTable(db);
+    createPointersTable(db);
+  }
+
+  /**
+   * Creates the table that records the objects that are waiting to be collected.
+   */
+  private void createUnpinnedObjectsTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE_UNPINNED_OBJECTS + " (" +
+        KEY_UUID + " TEXT PRIMARY KEY" +
+        ");");
+  }
+
+  /**
+   * Creates the table that records which objects point to which by UUID. It's indexed by the
+   * object that is pointed to, since that's what garbage collection looks up.
+   */
+  private void createPointersTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE_POINTERS + " (" +
+        KEY_UUID + " TEXT NOT NULL, " +
+        KEY_POINTED_UUID + " TEXT NOT NULL, " +
+        "PRIMARY KEY(" + KEY_UUID + ", " + KEY_POINTED_UUID + ")" +
+        ");");
+    db.execSQL("CREATE INDEX " + TABLE_POINTERS + "_" + KEY_POINTED_UUID + " ON " +
+        TABLE_POINTERS + " (" + KEY_POINTED_UUID + ");");
+  }
+
+  /**
+   * Adds the Pointers table to a version 13 database and fills it in from the data of every object
+   * that is already stored, except for pins.
+   */
+  private void upgradeToVersion14(SQLiteDatabase db) {
+    createPointersTable(db);
+
+    String[] select = { KEY_UUID, KEY_JSON };
+    String where = KEY_CLASS_NAME + " <> ? AND " + KEY_JSON + " IS NOT NULL";
+    String[] args = { "_Pin" };
+    Cursor cursor = db.query(TABLE_OBJECTS, select, where, args, null, null, null);
+    try {
+      ContentValues values = new ContentValues();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        Set<String> pointedUUIDs;
+        try {
+          pointedUUIDs = OfflineStore.getOfflineObjectUUIDs(
+              OfflineBinaryCoder.read(cursor, 1));
+        } catch (JSONException e) {
+          // It can't be loaded, so nothing can be reached through it either.
+          continue;
+        }
+        for (String pointedUUID : pointedUUIDs) {
+          values.clear();
+          values.put(KEY_UUID, cursor.getString(0));
+          values.put(KEY_POINTED_UUID, pointedUUID);
+          db.insertWithOnConflict(TABLE_POINTERS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Adds the UnpinnedObjects table to a version 12 database. Objects that were unpinned before
+   * their garbage collection ran have no Dependencies, so every object without Dependencies is
+   * recorded. OfflineStore still keeps the ones that other objects point to.
+   */
+  private void upgradeToVersion13(SQLiteDatabase db) {
+    createUnpinnedObjectsTable(db);
+    db.execSQL("INSERT INTO " + TABLE_UNPINNED_OBJECTS + " (" + KEY_UUID + ")" +
+        " SELECT " + KEY_UUID + " FROM " + TABLE_OBJECTS + " A" +
+        " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_DEPENDENCIES + " B" +
+        " WHERE B." + KEY_UUID + " = A." + KEY_UUID + ");");
+  }
+
+  /**
+   * Creates the table that backs the indexes on the geo points of pinned objects. The index covers
+   * both coordinates, so a range of latitudes can be narrowed down by longitude without reading
+   * the table.
+   */
+  private void createGeoIndexTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE_GEO_INDEX + " (" +
+        KEY_UUID + " TEXT NOT NULL, " +
+        KEY_CLASS_NAME + " TEXT NOT NULL, " +
+        KEY_KEY + " TEXT NOT NULL, " +
+        KEY_LATITUDE + " REAL NOT NULL, " +
+        KEY_LONGITUDE + " REAL NOT NULL" +
+        ");");
+    db.execSQL("CREATE INDEX " + TABLE_GEO_INDEX + "_" + KEY_LATITUDE + " ON " +
+        TABLE_GEO_INDEX + " (" + KEY_CLASS_NAME + ", " + KEY_KEY + ", " + KEY_LATITUDE + ", " +
+        KEY_LONGITUDE + ");");
+    db.execSQL("CREATE INDEX " + TABLE_GEO_INDEX + "_" + KEY_UUID + " ON " +
+        TABLE_GEO_INDEX + " (" + KEY_UUID + ");");
+  }
+
+  /**
+   * Adds the GeoIndex table to a version 11 database. The keys that were already indexed don't
+   * have rows in it for the objects that are pinned, so every key is forgotten and OfflineStore
+   * indexes them all again.
+   */
+  private void upgradeToVersion12(SQLiteDatabase db) {
+    createGeoIndexTable(db);
+    db.execSQL("DROP TABLE IF EXISTS " + TABLE_INDEXED_KEYS + ";");
+    createIndexedKeysTable(db);
+  }
+
+  /**
+   * Creates the tables that back the full-text indexes on pinned objects.
+   */
+  private void createTextIndexTables(SQLiteDatabase db) {
+    db.execSQL("CREATE VIRTUAL TABLE " + TABLE_TEXT_INDEX + " USING fts4(" + KEY_VALUE + ");");
+    db.execSQL("CREATE TABLE " + TABLE_TEXT_INDEXED_VALUES + " (" +
+        KEY_DOCID + " INTEGER PRIMARY KEY, " +
+        KEY_UUID + " TEXT NOT NULL, " +
+        KEY_CLASS_NAME + " TEXT NOT NULL, " +
+        KEY_KEY + " TEXT NOT NULL" +
+        ");");
+    db.execSQL("CREATE INDEX " + TABLE_TEXT_INDEXED_VALUES + "_" + KEY_UUID + " ON " +
+        TABLE_TEXT_INDEXED_VALUES + " (" + KEY_UUID + ");");
+  }
+
+  /**
+   * Creates the table that records when each pin was last used.
+   */
+  private void createPinAccessTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE_PIN_ACCESS + " (" +
+        KEY_NAME + " TEXT PRIMARY KEY, " +
+        KEY_ACCESSED_AT + " INTEGER NOT NULL" +
+        ");");
+  }
+
+  /**
+   * Indexes the Dependencies by UUID, so that finding the objects nothing depends on anymore
+   * doesn't have to scan every Dependency for each object.
+   */
+  private void createDependencyIndex(SQLiteDatabase db) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_DEPENDENCIES + "_" + KEY_UUID + " ON " +
+        TABLE_DEPENDENCIES + " (" + KEY_UUID + ");");
+  }
+
+  /**
+   * Creates the tables that back the secondary indexes on pinned objects.
+   */
+  private void createIndexTables(SQLiteDatabase db) {
+    // The value column is declared without a type so SQLite stores each value as it is given.
+    db.execSQL("CREATE TABLE " + TABLE_INDEXED_VALUES + " (" +
+        KEY_UUID + " TEXT NOT NULL, " +
+        KEY_CLASS_NAME + " TEXT NOT NULL, " +
+        KEY_KEY + " TEXT NOT NULL, " +
+        KEY_TYPE + " INTEGER NOT NULL, " +
+        KEY_VALUE +
+        ");");
+    db.execSQL("CREATE INDEX " + TABLE_INDEXED_VALUES + "_" + KEY_VALUE + " ON " +
+        TABLE_INDEXED_VALUES + " (" + KEY_CLASS_NAME + ", " + KEY_KEY + ", " + KEY_TYPE + ", " +
+        KEY_VALUE + ");");
+    db.execSQL("CREATE INDEX " + TABLE_INDEXED_VALUES + "_" + KEY_UUID + " ON " +
+        TABLE_INDEXED_VALUES + " (" + KEY_UUID + ");");
+
+    createIndexedKeysTable(db);
+  }
+
+  private void createIndexedKeysTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + TABLE_INDEXED_KEYS + " (" +
+        KEY_CLASS_NAME + " TEXT NOT NULL, " +
+        KEY_KEY + " TEXT NOT NULL, " +
+        "PRIMARY KEY(" + KEY_CLASS_NAME + ", " + KEY_KEY + ")" +
+        ");");
+  }
+
+  /**
+   * Indexes the extracted date columns so that range queries and sorts on them don't have to scan
+   * every object of a class.
+   */
+  private void createDateIndexes(SQLiteDatabase db) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_OBJECTS + "_" + KEY_CREATED_AT + " ON " +
+        TABLE_OBJECTS + " (" + KEY_CLASS_NAME + ", " + KEY_CREATED_AT + ");");
+    db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_OBJECTS + "_" + KEY_UPDATED_AT + " ON " +
+        TABLE_OBJECTS + " (" + KEY_CLASS_NAME + ", " + KEY_UPDATED_AT + ");");
+  }
+
+  /**
+   * Adds the createdAt and updatedAt columns to a version 4 database and fills them in from the
+   * JSON of every object that is already stored.
+   */
+  private void upgradeToVersion5(SQLiteDatabase db) {
+    db.execSQL("ALTER TABLE " + TABLE_OBJECTS + " ADD COLUMN " + KEY_CREATED_AT + " INTEGER;");
+    db.execSQL("ALTER TABLE " + TABLE_OBJECTS + " ADD COLUMN " + KEY_UPDATED_AT + " INTEGER;");
+
+    String[] select = { KEY_UUID, KEY_JSON };
+    String where = KEY_JSON + " IS NOT NULL";
+    Cursor cursor = db.query(TABLE_OBJECTS, select, where, null, null, null, null);
+    try {
+      String[] args = new String[1];
+      ContentValues values = new ContentValues();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        JSONObject json;
+        try {
+          json = new JSONObject(cursor.getString(1));
+        } catch (JSONException e) {
+          // Leave the columns empty, queries will fall back to looking at the JSON.
+          continue;
+        }
+        values.clear();
+        putDateColumn(values, KEY_CREATED_AT, json);
+        putDateColumn(values, KEY_UPDATED_AT, json);
+        if (values.size() > 0) {
+          args[0] = cursor.getString(0);
+          db.update(TABLE_OBJECTS, values, KEY_UUID + " = ?", args);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+
+    createDateIndexes(db);
+  }
+
+  /**
+   * Adds the isComplete column to a version 6 database and fills it in from the JSON of every
+   * object that is already stored.
+   */
+  private void upgradeToVersion7(SQLiteDatabase db) {
+    db.execSQL("ALTER TABLE " + TABLE_OBJECTS + " ADD COLUMN " + KEY_IS_COMPLETE +
+        " INTEGER DEFAULT 0;");
+
+    String[] select = { KEY_UUID, KEY_JSON };
+    String where = KEY_JSON + " IS NOT NULL";
+    Cursor cursor = db.query(TABLE_OBJECTS, select, where, null, null, null, null);
+    try {
+      String[] args = new String[1];
+      ContentValues values = new ContentValues();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        JSONObject json;
+        try {
+          json = new JSONObject(cursor.getString(1));
+        } catch (JSONException e) {
+          // Leave it incomplete, so it's only counted if it can be loaded.
+          continue;
+        }
+        values.clear();
+        putCompleteColumn(values, json);
+        args[0] = cursor.getString(0);
+        db.update(TABLE_OBJECTS, values, KEY_UUID + " = ?", args);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Rewrites the JSON text of every object that is already stored with {@link OfflineBinaryCoder},
+   * if the store is compact. Objects that are stored later are written in whichever format the
+   * store is using at the time.
+   */
+  private void upgradeToVersion8(SQLiteDatabase db) {
+    if (!isCompact) {
+      return;
+    }
+
+    String[] select = { KEY_UUID, KEY_JSON };
+    String where = KEY_JSON + " IS NOT NULL";
+    Cursor cursor = db.query(TABLE_OBJECTS, select, where, null, null, null, null);
+    try {
+      String[] args = new String[1];
+      ContentValues values = new ContentValues();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        values.clear();
+        try {
+          OfflineBinaryCoder.write(values, KEY_JSON,
+              OfflineBinaryCoder.read(cursor, 1), true);
+        } catch (JSONException e) {
+          // Leave it as it is, it's reported when the object is fetched.
+          continue;
+        }
+        args[0] = cursor.getString(0);
+        db.update(TABLE_OBJECTS, values, KEY_UUID + " = ?", args);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Adds the PinAccess table to a version 9 database. The pins that already exist are recorded as
+   * never used, so they're the first to be evicted.
+   */
+  private void upgradeToVersion10(SQLiteDatabase db) {
+    createPinAccessTable(db);
+
+    String[] select = { KEY_JSON };
+    String where = KEY_CLASS_NAME + " = ? AND " + KEY_JSON + " IS NOT NULL";
+    String[] args = { "_Pin" };
+    Cursor cursor = db.query(TABLE_OBJECTS, select, where, args, null, null, null);
+    try {
+      ContentValues values = new ContentValues();
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        String name;
+        try {
+          name = getPinName(OfflineBinaryCoder.read(cursor, 0));
+        } catch (JSONException e) {
+          continue;
+        }
+        if (name == null) {
+          continue;
+        }
+        values.clear();
+        values.put(KEY_NAME, name);
+        values.put(KEY_ACCESSED_AT, 0);
+        db.insertWithOnConflict(TABLE_PIN_ACCESS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * @return The name in the REST JSON of a ParsePin. Pins are never saved to the server, so the
+   *         name is usually in the operations that haven't been saved.
+   */
+  private static String getPinName(JSONObject json) {
+    String name = null;
+    Object value = json.opt(ParsePin.KEY_NAME);
+    if (value instanceof String) {
+      name = (String) value;
+    }
+    JSONArray operations = json.optJSONArray("__operations");
+    if (operations != null) {
+      for (int i = 0; i < operations.length(); i++) {
+        JSONObject operationSet = operations.optJSONObject(i);
+        value = operationSet != null ? operationSet.opt(ParsePin.KEY_NAME) : null;
+        if (value instanceof String) {
+          name = (String) value;
+        }
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Copies whether the REST JSON of an object is complete into {@code values}.
+   */
+  /* package */ static void putCompleteColumn(ContentValues values, JSONObject json) {
+    values.put(KEY_IS_COMPLETE, getCompleteColumn(json));
+  }
+
+  /**
+   * @return The value of the isComplete column for the REST JSON of an object.
+   */
+  /* package */ static int getCompleteColumn(JSONObject json) {
+    return json.optBoolean(ParseObject.KEY_COMPLETE) ? 1 : 0;
+  }
+
+  /**
+   * Copies the date stored under {@code key} in the REST JSON of an object into {@code values} as
+   * milliseconds, or as {@code null} if the object doesn't have that date.
+   */
+  /* package */ static void putDateColumn(ContentValues values, String key, JSONObject json) {
+    values.put(key, getDateColumn(key, json));
+  }
+
+  /**
+   * @return The date stored under {@code key} in the REST JSON of an object as milliseconds, or
+   * {@code null} if the object doesn't have that date.
+   */
+  /* package */ static Long getDateColumn(String key, JSONObject json) {
+    String dateString = json.optString(key, null);
+    Date date = dateString != null ? ParseDateFormat.getInstance().parse(dateString) : null;
+    return date != null ? date.getTime() : null;
   }
 
   /**
@@ -97,13 +612,46 @@ import android.database.sqlite.SQLiteDatabase;
    */
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    // do nothing
+    if (oldVersion < 5) {
+      upgradeToVersion5(db);
+    }
+    if (oldVersion < 6) {
+      // The indexes are filled in by OfflineStore once it knows which keys are configured.
+      createIndexTables(db);
+    }
+    if (oldVersion < 7) {
+      upgradeToVersion7(db);
+    }
+    if (oldVersion < 8) {
+      upgradeToVersion8(db);
+    }
+    if (oldVersion < 9) {
+      createDependencyIndex(db);
+    }
+    if (oldVersion < 10) {
+      upgradeToVersion10(db);
+    }
+    if (oldVersion < 11) {
+      // The indexes are filled in by OfflineStore once it knows which keys are configured.
+      createTextIndexTables(db);
+    }
+    if (oldVersion < 12) {
+      upgradeToVersion12(db);
+    }
+    if (oldVersion < 13) {
+      upgradeToVersion13(db);
+    }
+    if (oldVersion < 14) {
+      upgradeToVersion14(db);
+    }
   }
 
   /**
    * Drops all tables and then recreates the schema.
    */
   public void clearDatabase(Context context) {
+    // The database is kept open between sessions, so close it before deleting it.
+    close();
     context.deleteDatabase(DATABASE_NAME);
   }
 }
@@ -16,16 +16,24 @@ import android.text.TextUtils;
 import android.util.Pair;
 
 import com.parse.OfflineQueryLogic.ConstraintMatcher;
+import com.parse.OfflineQueryLogic.StatelessMatcher;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.WeakHashMap;
 
 import bolts.Capture;
@@ -40,6 +48,132 @@ import bolts.TaskCompletionSource;
    */
   private static final int MAX_SQL_VARIABLES = 999;
 
+  /**
+   * The smallest number of candidates that are loaded at once when only some of the matches are
+   * needed, so that a query that matches few of its candidates doesn't take too many round trips.
+   */
+  private static final int MIN_MATCH_WINDOW = 50;
+
+  /**
+   * The most objects that are deleted in each transaction of {@link #collectGarbageAsync()}, so
+   * that other operations don't have to wait long for the database.
+   */
+  private static final int GC_BATCH_SIZE = 100;
+
+  /**
+   * Records that a pin was used, see {@link #recordPinAccessAsync(String, ParseSQLiteDatabase)}.
+   * The arguments are the name of the pin and the time it was used.
+   */
+  private static final String RECORD_PIN_ACCESS_SQL = "INSERT OR REPLACE INTO " +
+      OfflineSQLiteOpenHelper.TABLE_PIN_ACCESS + " (" + OfflineSQLiteOpenHelper.KEY_NAME + ", " +
+      OfflineSQLiteOpenHelper.KEY_ACCESSED_AT + ") VALUES (?, ?)";
+
+  /**
+   * Records that a pin that exists was queried, see {@link #recordPinAccess(String)}. The
+   * arguments are the time it was queried and the name of the pin.
+   */
+  private static final String UPDATE_PIN_ACCESS_SQL = "UPDATE " +
+      OfflineSQLiteOpenHelper.TABLE_PIN_ACCESS + " SET " +
+      OfflineSQLiteOpenHelper.KEY_ACCESSED_AT + " = ? WHERE " +
+      OfflineSQLiteOpenHelper.KEY_NAME + " = ?";
+
+  /**
+   * The pins that the SDK keeps for itself or pins by default, which are never evicted to stay
+   * within the quota, even if they start with one of the evictable prefixes.
+   */
+  private static final String[] RESERVED_PIN_NAMES = {
+      ParseCorePlugins.PIN_CURRENT_USER,
+      ParseCorePlugins.PIN_CURRENT_INSTALLATION,
+      EventuallyPin.PIN_NAME,
+      ParseObject.DEFAULT_PIN
+  };
+
+  /**
+   * Adds a placeholder row for an object, see {@link #getOrCreateUUIDAsync}. The arguments are the
+   * UUID and the class name.
+   */
+  private static final String INSERT_PLACEHOLDER_SQL = "INSERT INTO " +
+      OfflineSQLiteOpenHelper.TABLE_OBJECTS + " (" + OfflineSQLiteOpenHelper.KEY_UUID + ", " +
+      OfflineSQLiteOpenHelper.KEY_CLASS_NAME + ") VALUES (?, ?)";
+
+  /**
+   * Writes the data of an object, see {@link #encodeDataAsync}. The objectId is only set, never
+   * cleared.
+   */
+  private static final String UPDATE_DATA_SQL = "UPDATE " +
+      OfflineSQLiteOpenHelper.TABLE_OBJECTS + " SET " +
+      OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ?, " +
+      OfflineSQLiteOpenHelper.KEY_JSON + " = ?, " +
+      OfflineSQLiteOpenHelper.KEY_OBJECT_ID + " = COALESCE(?, " +
+      OfflineSQLiteOpenHelper.KEY_OBJECT_ID + "), " +
+      OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY + " = ?, " +
+      OfflineSQLiteOpenHelper.KEY_CREATED_AT + " = ?, " +
+      OfflineSQLiteOpenHelper.KEY_UPDATED_AT + " = ?, " +
+      OfflineSQLiteOpenHelper.KEY_IS_COMPLETE + " = ? " +
+      "WHERE " + OfflineSQLiteOpenHelper.KEY_UUID + " = ?";
+
+  /**
+   * Adds a Dependency. The arguments are the key and the UUID.
+   */
+  private static final String INSERT_DEPENDENCY_SQL = "INSERT OR IGNORE INTO " +
+      OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES + " (" + OfflineSQLiteOpenHelper.KEY_KEY + ", " +
+      OfflineSQLiteOpenHelper.KEY_UUID + ") VALUES (?, ?)";
+
+  /**
+   * Records the objects that only {@code key} depends on as unpinned, before its Dependencies are
+   * removed. The argument is the key. Objects that were already recorded get a new rowid, so a
+   * garbage collection that has gone past them sees them again.
+   */
+  private static final String RECORD_UNPINNED_SQL = "INSERT OR REPLACE INTO " +
+      OfflineSQLiteOpenHelper.TABLE_UNPINNED_OBJECTS + " (" + OfflineSQLiteOpenHelper.KEY_UUID +
+      ") SELECT A." + OfflineSQLiteOpenHelper.KEY_UUID + " FROM " +
+      OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES + " A WHERE A." +
+      OfflineSQLiteOpenHelper.KEY_KEY + " = ? AND NOT EXISTS (SELECT 1 FROM " +
+      OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES + " B WHERE B." +
+      OfflineSQLiteOpenHelper.KEY_UUID + " = A." + OfflineSQLiteOpenHelper.KEY_UUID + " AND B." +
+      OfflineSQLiteOpenHelper.KEY_KEY + " <> A." + OfflineSQLiteOpenHelper.KEY_KEY + ")";
+
+  /**
+   * Records an object that something stopped pointing to as unpinned, like
+   * {@link #RECORD_UNPINNED_SQL}. The argument is the UUID.
+   */
+  private static final String RECORD_UNPOINTED_SQL = "INSERT OR REPLACE INTO " +
+      OfflineSQLiteOpenHelper.TABLE_UNPINNED_OBJECTS + " (" + OfflineSQLiteOpenHelper.KEY_UUID +
+      ") VALUES (?)";
+
+  /**
+   * Adds a Pointer. The arguments are the UUID of the object and of the object it points to.
+   */
+  private static final String INSERT_POINTER_SQL = "INSERT OR IGNORE INTO " +
+      OfflineSQLiteOpenHelper.TABLE_POINTERS + " (" + OfflineSQLiteOpenHelper.KEY_UUID + ", " +
+      OfflineSQLiteOpenHelper.KEY_POINTED_UUID + ") VALUES (?, ?)";
+
+  /**
+   * Removes a Pointer. The arguments are the same as for {@link #INSERT_POINTER_SQL}.
+   */
+  private static final String DELETE_POINTER_SQL = "DELETE FROM " +
+      OfflineSQLiteOpenHelper.TABLE_POINTERS + " WHERE " + OfflineSQLiteOpenHelper.KEY_UUID +
+      " = ? AND " + OfflineSQLiteOpenHelper.KEY_POINTED_UUID + " = ?";
+
+  /**
+   * The columns that are read into a {@link LoadedRow}.
+   */
+  private static final String[] LOADED_ROW_COLUMNS = { OfflineSQLiteOpenHelper.KEY_UUID,
+      OfflineSQLiteOpenHelper.KEY_CLASS_NAME, OfflineSQLiteOpenHelper.KEY_OBJECT_ID,
+      OfflineSQLiteOpenHelper.KEY_JSON };
+
+  /**
+   * The smallest number of candidates that are split up to be matched in parallel. Below this, it
+   * isn't worth the thread hops.
+   */
+  private static final int PARALLEL_MATCH_THRESHOLD = 256;
+
+  /**
+   * The largest number of threads that candidates are matched on at once.
+   */
+  private static final int MATCH_PARALLELISM =
+      Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
   /**
    * Extends the normal JSON -> ParseObject decoding to also deal with placeholders for new objects
    * that have been saved offline.
@@ -145,12 +279,68 @@ import bolts.TaskCompletionSource;
     }
   }
 
-  // Lock for all members of the store.
+  // Lock for the identity maps of the store, except for the (className, objectId) map, which is a
+  // concurrent map.
   final private Object lock = new Object();
 
   // Helper for accessing the database.
   final private OfflineSQLiteOpenHelper helper;
 
+  // The keys of pinned objects that are indexed.
+  final private OfflineIndexes indexes;
+
+  // Decides which parts of a query can be run in SQL.
+  final private OfflineQueryPlanner planner;
+
+  // Matches objects against whatever part of a query wasn't run in SQL. Keeps compiled matchers
+  // around, so it's shared by all queries.
+  final private OfflineQueryLogic queryLogic = new OfflineQueryLogic(this);
+
+  // Finishes once the indexes are complete and can be used by queries.
+  final private Task<Void> buildIndexesTask;
+
+  // Guards gcTask and isGCPending.
+  final private Object gcLock = new Object();
+
+  // Finishes once the last garbage collection that was requested is done.
+  private Task<Void> gcTask = Task.forResult(null);
+
+  // Whether a garbage collection has been requested that hasn't started yet.
+  private boolean isGCPending = false;
+
+  // The most bytes and objects the database should hold, or 0 if there's no limit.
+  final private long maxBytes;
+  final private int maxObjects;
+
+  // The prefixes of the names of the pins that may be evicted to stay within the quota.
+  final private List<String> evictablePinPrefixes;
+
+  // Guards quotaTask and isQuotaPending.
+  final private Object quotaLock = new Object();
+
+  // Finishes once the last enforcement of the quota that was requested is done.
+  private Task<Void> quotaTask = Task.forResult(null);
+
+  // Whether an enforcement of the quota has been requested that hasn't started yet.
+  private boolean isQuotaPending = false;
+
+  // The name of the pin that was used last and when, so that using the same pin again doesn't have
+  // to be recorded. Guarded by lock.
+  private String lastAccessedPin;
+  private long lastAccessedAt;
+
+  // The times that pins were queried that haven't been written yet, and whether a transaction to
+  // write them has been started. Guarded by lock.
+  private final Map<String, Long> pendingPinAccesses = new HashMap<>();
+  private boolean isPinAccessWritePending = false;
+
+  // The listeners that are told about committed changes. Guarded by lock.
+  private final Set<ChangeListener> changeListeners = new HashSet<>();
+
+  // The changes made by the transaction that's running. Writable connections are serialized, so
+  // there's only ever one. Guarded by lock.
+  private ChangeSet pendingChanges = new ChangeSet();
+
   /**
    * In-memory map of UUID -> ParseObject. This is used so that we can always return the same
    * instance for a given object. The only objects in this map are ones that are in the database.
@@ -180,7 +370,69 @@ import bolts.TaskCompletionSource;
   }
 
   /* package */ OfflineStore(OfflineSQLiteOpenHelper helper) {
+    this(helper, Options.DEFAULT);
+  }
+
+  /**
+   * Used by the static method to create the singleton with the keys that should be indexed and the
+   * most bytes and objects the store should hold.
+   */
+  /* package */ OfflineStore(OfflineSQLiteOpenHelper helper, Options options) {
     this.helper = helper;
+    this.maxBytes = options.maxBytes;
+    this.maxObjects = options.maxObjects;
+    this.evictablePinPrefixes = options.evictablePinPrefixes;
+    this.indexes = new OfflineIndexes(options.indexes, options.textIndexes);
+    this.planner = new OfflineQueryPlanner(indexes);
+    this.buildIndexesTask = buildIndexesAsync();
+  }
+
+  /**
+   * Gets the UUIDs for the given objects, like calling {@link #getOrCreateUUIDAsync} for each of
+   * them, but adds all of the new rows with a single statement.
+   *
+   * @return The UUIDs, in the same order as the objects.
+   */
+  private Task<List<String>> getOrCreateUUIDsAsync(List<ParseObject> objects,
+      ParseSQLiteDatabase db) {
+    List<Task<String>> uuidTasks = new ArrayList<>();
+    final List<Object[]> rows = new ArrayList<>();
+    final List<TaskCompletionSource<String>> created = new ArrayList<>();
+
+    synchronized (lock) {
+      for (final ParseObject object : objects) {
+        Task<String> uuidTask = objectToUuidMap.get(object);
+        if (uuidTask == null) {
+          String newUUID = UUID.randomUUID().toString();
+          TaskCompletionSource<String> tcs = new TaskCompletionSource<>();
+          uuidTask = tcs.getTask();
+          objectToUuidMap.put(object, uuidTask);
+          uuidToObjectMap.put(newUUID, object);
+          fetchedObjects.put(object, uuidTask.onSuccess(new Continuation<String, ParseObject>() {
+            @Override
+            public ParseObject then(Task<String> task) throws Exception {
+              return object;
+            }
+          }));
+          rows.add(new Object[] { newUUID, object.getClassName() });
+          created.add(tcs);
+        }
+        uuidTasks.add(uuidTask);
+      }
+    }
+
+    db.executeAsync(INSERT_PLACEHOLDER_SQL, rows).continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        // This will signal that the UUIDs do represent rows in the database.
+        for (int i = 0; i < created.size(); i++) {
+          created.get(i).setResult((String) rows.get(i)[0]);
+        }
+        return null;
+      }
+    });
+
+    return Task.whenAllResult(uuidTasks);
   }
 
   /**
@@ -270,36 +522,113 @@ import bolts.TaskCompletionSource;
               throw new IllegalStateException("Attempted to find non-existent uuid " + uuid);
             }
 
-            synchronized (lock) {
-              // We need to check again since another task might have come around and added it to
-              // the map.
-              //TODO (grantland): Maybe we should insert a Task that is resolved when the query
-              // completes like we do in getOrCreateUUIDAsync?
-              @SuppressWarnings("unchecked")
-              T existing = (T) uuidToObjectMap.get(uuid);
-              if (existing != null) {
-                return existing;
-              }
-
-              String className = cursor.getString(0);
-              String objectId = cursor.getString(1);
-              cursor.close();
-              @SuppressWarnings("unchecked")
-              T pointer = (T) ParseObject.createWithoutData(className, objectId);
-              /*
-               * If it doesn't have an objectId, we don't really need the UUID, and this simplifies
-               * some other logic elsewhere if we only update the map for new objects.
-               */
-              if (objectId == null) {
-                uuidToObjectMap.put(uuid, pointer);
-                objectToUuidMap.put(pointer, Task.forResult(uuid));
-              }
-              return pointer;
-            }
+            String className = cursor.getString(0);
+            String objectId = cursor.getString(1);
+            cursor.close();
+            return getPointer(uuid, className, objectId);
           }
         });
   }
 
+  /**
+   * Gets the object with the given UUID, or creates a pointer for it from the given row.
+   */
+  private <T extends ParseObject> T getPointer(String uuid, String className, String objectId) {
+    synchronized (lock) {
+      // We need to check again since another task might have come around and added it to
+      // the map.
+      //TODO (grantland): Maybe we should insert a Task that is resolved when the query
+      // completes like we do in getOrCreateUUIDAsync?
+      @SuppressWarnings("unchecked")
+      T existing = (T) uuidToObjectMap.get(uuid);
+      if (existing != null) {
+        return existing;
+      }
+
+      @SuppressWarnings("unchecked")
+      T pointer = (T) ParseObject.createWithoutData(className, objectId);
+      /*
+       * If it doesn't have an objectId, we don't really need the UUID, and this simplifies
+       * some other logic elsewhere if we only update the map for new objects.
+       */
+      if (objectId == null) {
+        uuidToObjectMap.put(uuid, pointer);
+        objectToUuidMap.put(pointer, Task.forResult(uuid));
+      }
+      return pointer;
+    }
+  }
+
+  /**
+   * Like {@link #getPointerAsync(String, ParseSQLiteDatabase)} for a set of UUIDs, but looks up
+   * all of the ones that aren't in memory with one query per {@link #MAX_SQL_VARIABLES} UUIDs.
+   *
+   * @return The objects by UUID. UUIDs that don't exist in the database are left out.
+   */
+  private Task<Map<String, ParseObject>> getPointersAsync(Collection<String> uuids,
+      ParseSQLiteDatabase db) {
+    final Map<String, ParseObject> pointers = new HashMap<>();
+    final List<String> uuidsToLoad = new ArrayList<>();
+    synchronized (lock) {
+      for (String uuid : uuids) {
+        ParseObject existing = uuidToObjectMap.get(uuid);
+        if (existing != null) {
+          pointers.put(uuid, existing);
+        } else {
+          uuidsToLoad.add(uuid);
+        }
+      }
+    }
+    if (uuidsToLoad.isEmpty()) {
+      return Task.forResult(pointers);
+    }
+
+    String[] select = { OfflineSQLiteOpenHelper.KEY_UUID, OfflineSQLiteOpenHelper.KEY_CLASS_NAME,
+        OfflineSQLiteOpenHelper.KEY_OBJECT_ID };
+    return queryByUUIDsAsync(select, uuidsToLoad, db).onSuccess(
+        new Continuation<List<Cursor>, Map<String, ParseObject>>() {
+      @Override
+      public Map<String, ParseObject> then(Task<List<Cursor>> task) throws Exception {
+        for (Cursor cursor : task.getResult()) {
+          for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            String uuid = cursor.getString(0);
+            pointers.put(uuid, getPointer(uuid, cursor.getString(1), cursor.getString(2)));
+          }
+          cursor.close();
+        }
+        return pointers;
+      }
+    });
+  }
+
+  /**
+   * Selects the given columns of the objects with the given UUIDs, using one query for each
+   * {@link #MAX_SQL_VARIABLES} UUIDs since that's the most SQLite allows in a statement.
+   */
+  private Task<List<Cursor>> queryByUUIDsAsync(String[] select, List<String> uuids,
+      ParseSQLiteDatabase db) {
+    return queryByUUIDsAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, select, uuids, db);
+  }
+
+  /**
+   * Queries the rows of {@code table} with the given UUIDs, with one query per
+   * {@link #MAX_SQL_VARIABLES} UUIDs.
+   */
+  private Task<List<Cursor>> queryByUUIDsAsync(String table, String[] select, List<String> uuids,
+      ParseSQLiteDatabase db) {
+    List<Task<Cursor>> tasks = new ArrayList<>();
+    for (int start = 0; start < uuids.size(); start += MAX_SQL_VARIABLES) {
+      List<String> chunk = uuids.subList(start, Math.min(start + MAX_SQL_VARIABLES, uuids.size()));
+      String[] placeholders = new String[chunk.size()];
+      Arrays.fill(placeholders, "?");
+      String where = OfflineSQLiteOpenHelper.KEY_UUID + " IN (" +
+          TextUtils.join(",", placeholders) + ")";
+      String[] args = chunk.toArray(new String[chunk.size()]);
+      tasks.add(db.queryAsync(table, select, where, args));
+    }
+    return Task.whenAllResult(tasks);
+  }
+
   /**
    * Runs a ParseQuery against the store's contents.
    *
@@ -332,137 +661,108 @@ import bolts.TaskCompletionSource;
       final ParsePin pin,
       final boolean isCount,
       final ParseSQLiteDatabase db) {
+    return findAsync(query, user, pin, isCount, planner.plan(query, isCount), db);
+  }
+
+  /**
+   * Runs a ParseQuery against the store's contents, using the given plan to decide which parts of
+   * it are handled by SQLite.
+   */
+  private <T extends ParseObject> Task<List<T>> findAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      final ParsePin pin,
+      final boolean isCount,
+      final OfflineQueryPlanner.Plan plan,
+      final ParseSQLiteDatabase db) {
     /*
      * This is currently unused, but is here to allow future querying across objects that are in the
      * process of being deleted eventually.
      */
     final boolean includeIsDeletingEventually = false;
 
-    final OfflineQueryLogic queryLogic = new OfflineQueryLogic(this);
-
     final List<T> results = new ArrayList<>();
+    final Capture<Integer> candidateCount = new Capture<>(0);
 
-    Task<Cursor> queryTask;
+    Task<String> pinUUIDTask;
     if (pin == null) {
-      String table = OfflineSQLiteOpenHelper.TABLE_OBJECTS;
-      String[] select = { OfflineSQLiteOpenHelper.KEY_UUID };
-      String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + "=?";
-      if (!includeIsDeletingEventually) {
-        where += " AND " + OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY + "=0";
-      }
-      String[] args = { query.className() };
-
-      queryTask = db.queryAsync(table, select, where, args);
+      pinUUIDTask = Task.forResult(null);
     } else {
-      Task<String> uuidTask = objectToUuidMap.get(pin);
-      if (uuidTask == null) {
+      pinUUIDTask = objectToUuidMap.get(pin);
+      if (pinUUIDTask == null) {
         // Pin was never saved locally, therefore there won't be any results.
         return Task.forResult(results);
       }
+    }
 
-      queryTask = uuidTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
-        @Override
-        public Task<Cursor> then(Task<String> task) throws Exception {
-          String uuid = task.getResult();
-
-          String table = OfflineSQLiteOpenHelper.TABLE_OBJECTS + " A " +
-              " INNER JOIN " + OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES + " B " +
-              " ON A." + OfflineSQLiteOpenHelper.KEY_UUID + "=B." + OfflineSQLiteOpenHelper.KEY_UUID;
-          String[] select = {"A." + OfflineSQLiteOpenHelper.KEY_UUID};
-          String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + "=?" +
-              " AND " + OfflineSQLiteOpenHelper.KEY_KEY + "=?";
-          if (!includeIsDeletingEventually) {
-            where += " AND " + OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY + "=0";
-          }
-          String[] args = { query.className(), uuid };
+    Task<Cursor> queryTask = pinUUIDTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
+      @Override
+      public Task<Cursor> then(Task<String> task) throws Exception {
+        return queryUUIDsAsync(
+            query.className(), task.getResult(), includeIsDeletingEventually, plan, db);
+      }
+    });
 
-          return db.queryAsync(table, select, where, args);
-        }
-      });
+    /*
+     * If SQLite already sorted the candidates but the page has to be taken in memory, we know the
+     * results as soon as we've found enough of them. Match the candidates a window at a time, so
+     * none of the ones after that get loaded.
+     */
+    final int needed;
+    if (!isCount && plan.isOrderPushed() && !plan.isPagingPushed() && query.limit() >= 0) {
+      needed = Math.max(query.skip(), 0) + query.limit();
+    } else {
+      needed = -1;
     }
 
     return queryTask.onSuccessTask(new Continuation<Cursor, Task<Void>>() {
       @Override
       public Task<Void> then(Task<Cursor> task) throws Exception {
-        Cursor cursor = task.getResult();
-        List<String> uuids = new ArrayList<>();
-        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-          uuids.add(cursor.getString(0));
-        }
-        cursor.close();
-
-        // Find objects that match the where clause.
-        final ConstraintMatcher<T> matcher = queryLogic.createMatcher(query, user);
-
-        Task<Void> checkedAllObjects = Task.forResult(null);
-        for (final String uuid : uuids) {
-          final Capture<T> object = new Capture<>();
-
-          checkedAllObjects = checkedAllObjects.onSuccessTask(new Continuation<Void, Task<T>>() {
-            @Override
-            public Task<T> then(Task<Void> task) throws Exception {
-              return getPointerAsync(uuid, db);
-            }
-          }).onSuccessTask(new Continuation<T, Task<T>>() {
-            @Override
-            public Task<T> then(Task<T> task) throws Exception {
-              object.set(task.getResult());
-              return fetchLocallyAsync(object.get(), db);
-            }
-          }).onSuccessTask(new Continuation<T, Task<Boolean>>() {
-            @Override
-            public Task<Boolean> then(Task<T> task) throws Exception {
-              if (!object.get().isDataAvailable()) {
-                return Task.forResult(false);
-              }
-              return matcher.matchesAsync(object.get(), db);
-            }
-          }).onSuccess(new Continuation<Boolean, Void>() {
-            @Override
-            public Void then(Task<Boolean> task) {
-              if (task.getResult()) {
-                results.add(object.get());
-              }
-              return null;
-            }
-          });
-        }
-
-        return checkedAllObjects;
+        List<String> uuids = readUUIDs(task.getResult());
+        candidateCount.set(uuids.size());
+        return matchWindowsAsync(query, user, plan, uuids, 0, needed, results, db);
       }
     }).onSuccessTask(new Continuation<Void, Task<List<T>>>() {
       @Override
       public Task<List<T>> then(Task<Void> task) throws Exception {
-        // Sort by any sort operators.
-        OfflineQueryLogic.sort(results, query);
+        if (plan.isPagingPushed() && results.size() < candidateCount.get()) {
+          /*
+           * Some of the rows in the page turned out not to have any data, so the page SQLite gave
+           * us isn't the real one. Do it again, paging in memory this time.
+           */
+          return findAsync(query, user, pin, isCount, plan.withoutPaging(), db);
+        }
 
-        // Apply the skip.
         List<T> trimmedResults = results;
-        int skip = query.skip();
-        if (!isCount && skip >= 0) {
-          skip = Math.min(query.skip(), trimmedResults.size());
-          trimmedResults = trimmedResults.subList(skip, trimmedResults.size());
-        }
 
-        // Trim to the limit.
-        int limit = query.limit();
-        if (!isCount && limit >= 0 && trimmedResults.size() > limit) {
-          trimmedResults = trimmedResults.subList(0, limit);
+        // Sort by any sort operators, unless SQLite already did. Only the page needs to be sorted.
+        if (!plan.isOrderPushed()) {
+          int count = -1;
+          if (!isCount && query.limit() >= 0) {
+            count = Math.max(query.skip(), 0) + query.limit();
+          }
+          trimmedResults = OfflineQueryLogic.sort(results, query, count);
         }
 
-        // Fetch the includes.
-        Task<Void> fetchedIncludesTask = Task.forResult(null);
-        for (final T object : trimmedResults) {
-          fetchedIncludesTask = fetchedIncludesTask.onSuccessTask(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-              return OfflineQueryLogic.fetchIncludesAsync(OfflineStore.this, object, query, db);
-            }
-          });
+        if (!plan.isPagingPushed()) {
+          // Apply the skip.
+          int skip = query.skip();
+          if (!isCount && skip >= 0) {
+            skip = Math.min(query.skip(), trimmedResults.size());
+            trimmedResults = trimmedResults.subList(skip, trimmedResults.size());
+          }
+
+          // Trim to the limit.
+          int limit = query.limit();
+          if (!isCount && limit >= 0 && trimmedResults.size() > limit) {
+            trimmedResults = trimmedResults.subList(0, limit);
+          }
         }
 
+        // Fetch the includes.
         final List<T> finalTrimmedResults = trimmedResults;
-        return fetchedIncludesTask.onSuccess(new Continuation<Void, List<T>>() {
+        return OfflineQueryLogic.fetchIncludesAsync(
+            OfflineStore.this, finalTrimmedResults, query, db).onSuccess(new Continuation<Void, List<T>>() {
           @Override
           public List<T> then(Task<Void> task) throws Exception {
             return finalTrimmedResults;
@@ -473,39 +773,420 @@ import bolts.TaskCompletionSource;
   }
 
   /**
-   * Gets the data for the given object from the offline database. Returns a task that will be
-   * completed if data for the object was available. If the object is not in the cache, the task
-   * will be faulted, with a CACHE_MISS error.
+   * Counts the objects that match a ParseQuery. If SQLite can handle all of it, including the ACLs,
+   * this is a single COUNT(*). Otherwise the candidates are matched a window at a time, and only
+   * the number of matches is kept.
    *
-   * @param object
-   *          The object to fetch.
-   * @param db
-   *          A database connection to use.
+   * @param query The query.
+   * @param user The user making the query.
+   * @param pin (Optional) The pin we are querying across. If null, all pins.
+   * @param db The SQLiteDatabase.
+   * @return The number of objects that match the query's constraints.
    */
-  /* package for OfflineQueryLogic */ <T extends ParseObject> Task<T> fetchLocallyAsync(
-      final T object,
+  private <T extends ParseObject> Task<Integer> countAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      final ParsePin pin,
       final ParseSQLiteDatabase db) {
-    final TaskCompletionSource<T> tcs = new TaskCompletionSource<>();
-    Task<String> uuidTask;
+    final OfflineQueryPlanner.Plan plan = planner.plan(query, true);
 
-    synchronized (lock) {
-      if (fetchedObjects.containsKey(object)) {
-        /*
-         * The object has already been fetched from the offline store, so any data that's in there
-         * is already reflected in the in-memory version. There's nothing more to do.
-         */
-        //noinspection unchecked
-        return (Task<T>) fetchedObjects.get(object);
+    Task<String> pinUUIDTask;
+    if (pin == null) {
+      pinUUIDTask = Task.forResult(null);
+    } else {
+      pinUUIDTask = objectToUuidMap.get(pin);
+      if (pinUUIDTask == null) {
+        // Pin was never saved locally, therefore there won't be any results.
+        return Task.forResult(0);
       }
-
-      /*
-       * Put a placeholder so that anyone else who attempts to fetch this object will just wait for
-       * this call to finish doing it.
-       */
-      //noinspection unchecked
-      fetchedObjects.put(object, (Task<ParseObject>) tcs.getTask());
-
-      uuidTask = objectToUuidMap.get(object);
+    }
+
+    if (plan.residualConstraints().isEmpty() && query.ignoreACLs()) {
+      return pinUUIDTask.onSuccessTask(new Continuation<String, Task<Integer>>() {
+        @Override
+        public Task<Integer> then(Task<String> task) throws Exception {
+          return queryCountAsync(query.className(), task.getResult(), false, plan, db);
+        }
+      });
+    }
+
+    return pinUUIDTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
+      @Override
+      public Task<Cursor> then(Task<String> task) throws Exception {
+        return queryUUIDsAsync(query.className(), task.getResult(), false, plan, db);
+      }
+    }).onSuccessTask(new Continuation<Cursor, Task<Integer>>() {
+      @Override
+      public Task<Integer> then(Task<Cursor> task) throws Exception {
+        return countMatchesAsync(query, user, plan, readUUIDs(task.getResult()), 0, 0, db);
+      }
+    });
+  }
+
+  /**
+   * Counts the candidates starting at {@code start} that match, one window at a time.
+   *
+   * @param count The number of matches before {@code start}.
+   */
+  private <T extends ParseObject> Task<Integer> countMatchesAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      final OfflineQueryPlanner.Plan plan,
+      final List<String> uuids,
+      int start,
+      final int count,
+      final ParseSQLiteDatabase db) {
+    if (start >= uuids.size()) {
+      return Task.forResult(count);
+    }
+
+    final int end = Math.min(start + MAX_SQL_VARIABLES, uuids.size());
+    return matchAsync(query, user, plan, uuids.subList(start, end), db).onSuccessTask(
+        new Continuation<List<T>, Task<Integer>>() {
+      @Override
+      public Task<Integer> then(Task<List<T>> task) throws Exception {
+        return countMatchesAsync(query, user, plan, uuids, end, count + task.getResult().size(), db);
+      }
+    });
+  }
+
+  /**
+   * Matches the candidates starting at {@code start} and adds the ones that match to
+   * {@code results}, one window at a time, until either all of them are checked or
+   * {@code results} has {@code needed} objects.
+   *
+   * @param needed The number of results that are needed, or -1 for all of them.
+   */
+  private <T extends ParseObject> Task<Void> matchWindowsAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      final OfflineQueryPlanner.Plan plan,
+      final List<String> uuids,
+      final int start,
+      final int needed,
+      final List<T> results,
+      final ParseSQLiteDatabase db) {
+    if (start >= uuids.size() || (needed >= 0 && results.size() >= needed)) {
+      return Task.forResult(null);
+    }
+
+    int window = MAX_SQL_VARIABLES;
+    if (needed >= 0) {
+      window = Math.min(Math.max(needed - results.size(), MIN_MATCH_WINDOW), MAX_SQL_VARIABLES);
+    }
+    final int end = Math.min(start + window, uuids.size());
+    return matchAsync(query, user, plan, uuids.subList(start, end), db).onSuccessTask(
+        new Continuation<List<T>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<T>> task) throws Exception {
+        results.addAll(task.getResult());
+        return matchWindowsAsync(query, user, plan, uuids, end, needed, results, db);
+      }
+    });
+  }
+
+  /**
+   * Loads the given candidates and checks them against whatever part of the query wasn't handled
+   * by SQL.
+   *
+   * @return The candidates that match, in the same order.
+   */
+  private <T extends ParseObject> Task<List<T>> matchAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      final OfflineQueryPlanner.Plan plan,
+      List<String> uuids,
+      final ParseSQLiteDatabase db) {
+    final List<T> results = new ArrayList<>();
+
+    // Load all of the candidates at once.
+    return OfflineStore.this.<T>fetchLocallyAsync(uuids, db).onSuccessTask(
+        new Continuation<List<Task<T>>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<Task<T>>> task) throws Exception {
+        final ConstraintMatcher<T> matcher =
+            queryLogic.createMatcher(query, plan.residualConstraints(), user);
+        if (matcher instanceof StatelessMatcher) {
+          return matchAllAsync((StatelessMatcher<T>) matcher, task.getResult(), db).onSuccess(
+              new Continuation<List<T>, Void>() {
+            @Override
+            public Void then(Task<List<T>> task) throws Exception {
+              results.addAll(task.getResult());
+              return null;
+            }
+          });
+        }
+
+        Task<Void> checkedAllObjects = Task.forResult(null);
+        for (final Task<T> fetchTask : task.getResult()) {
+          final Capture<T> object = new Capture<>();
+
+          checkedAllObjects = checkedAllObjects.onSuccessTask(new Continuation<Void, Task<T>>() {
+            @Override
+            public Task<T> then(Task<Void> task) throws Exception {
+              return fetchTask;
+            }
+          }).continueWithTask(new Continuation<T, Task<Boolean>>() {
+            @Override
+            public Task<Boolean> then(Task<T> task) throws Exception {
+              if (task.isFaulted() && db.isReadOnlySession()
+                  && isMissingObjectError(task.getError())) {
+                // Another session deleted the object after we selected its UUID.
+                return Task.forResult(false);
+              }
+              if (task.isFaulted()) {
+                return Task.forError(task.getError());
+              }
+              if (task.isCancelled()) {
+                return Task.cancelled();
+              }
+              object.set(task.getResult());
+              if (!object.get().isDataAvailable()) {
+                return Task.forResult(false);
+              }
+              return matcher.matchesAsync(object.get(), db);
+            }
+          }).onSuccess(new Continuation<Boolean, Void>() {
+            @Override
+            public Void then(Task<Boolean> task) {
+              if (task.getResult()) {
+                results.add(object.get());
+              }
+              return null;
+            }
+          });
+        }
+
+        return checkedAllObjects;
+      }
+    }).onSuccess(new Continuation<Void, List<T>>() {
+      @Override
+      public List<T> then(Task<Void> task) throws Exception {
+        return results;
+      }
+    });
+  }
+
+  /**
+   * Matches loaded candidates against a matcher that can answer synchronously, all at once instead
+   * of one task at a time. Large windows are split up and matched in parallel.
+   *
+   * @return The candidates that match, in the same order.
+   */
+  private <T extends ParseObject> Task<List<T>> matchAllAsync(
+      final StatelessMatcher<T> matcher,
+      final List<Task<T>> fetchTasks,
+      final ParseSQLiteDatabase db) {
+    return Task.whenAll(fetchTasks).continueWithTask(new Continuation<Void, Task<List<T>>>() {
+      @Override
+      public Task<List<T>> then(Task<Void> task) throws Exception {
+        List<T> candidates = new ArrayList<>();
+        for (Task<T> fetchTask : fetchTasks) {
+          if (fetchTask.isFaulted() && db.isReadOnlySession()
+              && isMissingObjectError(fetchTask.getError())) {
+            // Another session deleted the object after we selected its UUID.
+            continue;
+          }
+          if (fetchTask.isFaulted()) {
+            return Task.forError(fetchTask.getError());
+          }
+          if (fetchTask.isCancelled()) {
+            return Task.cancelled();
+          }
+          T object = fetchTask.getResult();
+          if (object.isDataAvailable()) {
+            candidates.add(object);
+          }
+        }
+
+        if (candidates.size() < PARALLEL_MATCH_THRESHOLD || MATCH_PARALLELISM < 2) {
+          return Task.forResult(matchAll(matcher, candidates));
+        }
+
+        int chunkSize = (candidates.size() + MATCH_PARALLELISM - 1) / MATCH_PARALLELISM;
+        List<Task<List<T>>> tasks = new ArrayList<>();
+        for (int start = 0; start < candidates.size(); start += chunkSize) {
+          final List<T> chunk =
+              candidates.subList(start, Math.min(start + chunkSize, candidates.size()));
+          tasks.add(Task.callInBackground(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+              return matchAll(matcher, chunk);
+            }
+          }));
+        }
+        return Task.whenAllResult(tasks).onSuccess(new Continuation<List<List<T>>, List<T>>() {
+          @Override
+          public List<T> then(Task<List<List<T>>> task) throws Exception {
+            List<T> results = new ArrayList<>();
+            for (List<T> chunkResults : task.getResult()) {
+              results.addAll(chunkResults);
+            }
+            return results;
+          }
+        });
+      }
+    });
+  }
+
+  private static <T extends ParseObject> List<T> matchAll(StatelessMatcher<T> matcher,
+      List<T> candidates) throws ParseException {
+    List<T> results = new ArrayList<>();
+    for (T object : candidates) {
+      if (matcher.matches(object)) {
+        results.add(object);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Reads and closes a cursor from {@link #queryUUIDsAsync}.
+   */
+  private static List<String> readUUIDs(Cursor cursor) {
+    List<String> uuids = new ArrayList<>();
+    for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+      uuids.add(cursor.getString(0));
+    }
+    cursor.close();
+    return uuids;
+  }
+
+  /**
+   * @return {@code true} if the error is what {@link #getPointerAsync(String, ParseSQLiteDatabase)}
+   * or {@link #fetchLocallyAsync(ParseObject, ParseSQLiteDatabase)} fail with when the object's row
+   * doesn't exist.
+   */
+  private static boolean isMissingObjectError(Exception e) {
+    return e instanceof IllegalStateException
+        || (e instanceof ParseException
+            && ((ParseException) e).getCode() == ParseException.CACHE_MISS);
+  }
+
+  /**
+   * Selects the UUIDs of the objects of a class that satisfy the part of a query that could be
+   * translated to SQL.
+   *
+   * @param className The class to query.
+   * @param pinUUID (Optional) The UUID of the pin to limit the query to. If null, all pins.
+   * @param includeIsDeletingEventually Whether to include objects that are being deleted.
+   * @param plan The plan for the query.
+   * @param db The SQLiteDatabase.
+   * @return A cursor over the UUIDs, in the order given by the plan.
+   */
+  private Task<Cursor> queryUUIDsAsync(String className, String pinUUID,
+      boolean includeIsDeletingEventually, OfflineQueryPlanner.Plan plan, ParseSQLiteDatabase db) {
+    String objects = OfflineQueryPlanner.TABLE_ALIAS;
+    List<String> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder()
+        .append("SELECT ").append(objects).append(".").append(OfflineSQLiteOpenHelper.KEY_UUID);
+    appendCandidates(sql, args, className, pinUUID, includeIsDeletingEventually, plan);
+    if (plan.orderBy() != null) {
+      sql.append(" ORDER BY ").append(plan.orderBy());
+    }
+    if (plan.isPagingPushed()) {
+      sql.append(" LIMIT ").append(plan.limit()).append(" OFFSET ").append(plan.skip());
+    }
+    return db.rawQueryAsync(sql.toString(), args.toArray(new String[args.size()]));
+  }
+
+  /**
+   * Counts the complete objects of a class that satisfy the part of a query that could be
+   * translated to SQL, without loading any of them.
+   *
+   * @see #queryUUIDsAsync(String, String, boolean, OfflineQueryPlanner.Plan, ParseSQLiteDatabase)
+   */
+  private Task<Integer> queryCountAsync(String className, String pinUUID,
+      boolean includeIsDeletingEventually, OfflineQueryPlanner.Plan plan, ParseSQLiteDatabase db) {
+    String objects = OfflineQueryPlanner.TABLE_ALIAS;
+    List<String> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder("SELECT COUNT(*)");
+    appendCandidates(sql, args, className, pinUUID, includeIsDeletingEventually, plan);
+    // Objects without data are never results.
+    sql.append(" AND ").append(objects).append(".")
+        .append(OfflineSQLiteOpenHelper.KEY_IS_COMPLETE).append("=1");
+    return db.rawQueryAsync(sql.toString(), args.toArray(new String[args.size()])).onSuccess(
+        new Continuation<Cursor, Integer>() {
+      @Override
+      public Integer then(Task<Cursor> task) throws Exception {
+        Cursor cursor = task.getResult();
+        try {
+          cursor.moveToFirst();
+          return cursor.getInt(0);
+        } finally {
+          cursor.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Appends the FROM and WHERE clauses that select the candidates for a query.
+   */
+  private static void appendCandidates(StringBuilder sql, List<String> args, String className,
+      String pinUUID, boolean includeIsDeletingEventually, OfflineQueryPlanner.Plan plan) {
+    String objects = OfflineQueryPlanner.TABLE_ALIAS;
+    sql.append(" FROM ").append(OfflineSQLiteOpenHelper.TABLE_OBJECTS).append(" ").append(objects);
+    if (pinUUID != null) {
+      sql.append(" INNER JOIN ").append(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES).append(" B")
+          .append(" ON ").append(objects).append(".").append(OfflineSQLiteOpenHelper.KEY_UUID)
+          .append("=B.").append(OfflineSQLiteOpenHelper.KEY_UUID);
+    }
+    sql.append(" WHERE ").append(objects).append(".").append(OfflineSQLiteOpenHelper.KEY_CLASS_NAME)
+        .append("=?");
+    args.add(className);
+    if (pinUUID != null) {
+      sql.append(" AND B.").append(OfflineSQLiteOpenHelper.KEY_KEY).append("=?");
+      args.add(pinUUID);
+    } else {
+      // Skip the objects that were unpinned but haven't been collected yet.
+      sql.append(" AND EXISTS (SELECT 1 FROM ").append(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES)
+          .append(" B WHERE B.").append(OfflineSQLiteOpenHelper.KEY_UUID).append("=")
+          .append(objects).append(".").append(OfflineSQLiteOpenHelper.KEY_UUID).append(")");
+    }
+    if (!includeIsDeletingEventually) {
+      sql.append(" AND ").append(objects).append(".")
+          .append(OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY).append("=0");
+    }
+    if (plan.where() != null) {
+      sql.append(" AND ").append(plan.where());
+      Collections.addAll(args, plan.args());
+    }
+  }
+
+  /**
+   * Gets the data for the given object from the offline database. Returns a task that will be
+   * completed if data for the object was available. If the object is not in the cache, the task
+   * will be faulted, with a CACHE_MISS error.
+   *
+   * @param object
+   *          The object to fetch.
+   * @param db
+   *          A database connection to use.
+   */
+  /* package for OfflineQueryLogic */ <T extends ParseObject> Task<T> fetchLocallyAsync(
+      final T object,
+      final ParseSQLiteDatabase db) {
+    final TaskCompletionSource<T> tcs = new TaskCompletionSource<>();
+    Task<String> uuidTask;
+
+    synchronized (lock) {
+      if (fetchedObjects.containsKey(object)) {
+        /*
+         * The object has already been fetched from the offline store, so any data that's in there
+         * is already reflected in the in-memory version. There's nothing more to do.
+         */
+        //noinspection unchecked
+        return (Task<T>) fetchedObjects.get(object);
+      }
+
+      /*
+       * Put a placeholder so that anyone else who attempts to fetch this object will just wait for
+       * this call to finish doing it.
+       */
+      fetchedObjects.put(object, tcs.getTask().<ParseObject>cast());
+
+      uuidTask = objectToUuidMap.get(object);
     }
     String className = object.getClassName();
     String objectId = object.getObjectId();
@@ -514,7 +1195,7 @@ import bolts.TaskCompletionSource;
      * If this gets set, then it will contain data from the offline store that needs to be merged
      * into the existing object in memory.
      */
-    Task<String> jsonStringTask = Task.forResult(null);
+    Task<JSONObject> jsonTask = Task.forResult(null);
 
     if (objectId == null) {
       // This Object has never been saved to Parse.
@@ -536,26 +1217,27 @@ import bolts.TaskCompletionSource;
         final String[] select = { OfflineSQLiteOpenHelper.KEY_JSON };
         final String where = OfflineSQLiteOpenHelper.KEY_UUID + " = ?";
         final Capture<String> uuid = new Capture<>();
-        jsonStringTask = uuidTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
+        jsonTask = uuidTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
           @Override
           public Task<Cursor> then(Task<String> task) throws Exception {
             uuid.set(task.getResult());
             String[] args = { uuid.get() };
             return db.queryAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, select, where, args);
           }
-        }).onSuccess(new Continuation<Cursor, String>() {
+        }).onSuccess(new Continuation<Cursor, JSONObject>() {
           @Override
-          public String then(Task<Cursor> task) throws Exception {
+          public JSONObject then(Task<Cursor> task) throws Exception {
             Cursor cursor = task.getResult();
-            cursor.moveToFirst();
-            if (cursor.isAfterLast()) {
+            try {
+              cursor.moveToFirst();
+              if (cursor.isAfterLast()) {
+                throw new IllegalStateException(
+                    "Attempted to find non-existent uuid " + uuid.get());
+              }
+              return OfflineBinaryCoder.read(cursor, 0);
+            } finally {
               cursor.close();
-              throw new IllegalStateException("Attempted to find non-existent uuid " + uuid.get());
             }
-            String json = cursor.getString(0);
-            cursor.close();
-
-            return json;
           }
         });
       }
@@ -585,11 +1267,11 @@ import bolts.TaskCompletionSource;
           String.format("%s = ? AND %s = ?", OfflineSQLiteOpenHelper.KEY_CLASS_NAME,
               OfflineSQLiteOpenHelper.KEY_OBJECT_ID);
       String[] args = { className, objectId };
-      jsonStringTask =
+      jsonTask =
           db.queryAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, select, where, args).onSuccess(
-              new Continuation<Cursor, String>() {
+              new Continuation<Cursor, JSONObject>() {
                 @Override
-                public String then(Task<Cursor> task) throws Exception {
+                public JSONObject then(Task<Cursor> task) throws Exception {
                   Cursor cursor = task.getResult();
                   cursor.moveToFirst();
                   if (cursor.isAfterLast()) {
@@ -604,9 +1286,14 @@ import bolts.TaskCompletionSource;
                   }
 
                   // we should fetch its data and record its UUID for future reference.
-                  String jsonString = cursor.getString(0);
-                  String newUUID = cursor.getString(1);
-                  cursor.close();
+                  JSONObject json;
+                  String newUUID;
+                  try {
+                    json = OfflineBinaryCoder.read(cursor, 0);
+                    newUUID = cursor.getString(1);
+                  } finally {
+                    cursor.close();
+                  }
 
                   synchronized (lock) {
                     /*
@@ -618,16 +1305,21 @@ import bolts.TaskCompletionSource;
                     uuidToObjectMap.put(newUUID, object);
                   }
 
-                  return jsonString;
+                  return json;
                 }
               });
     }
 
-    return jsonStringTask.onSuccessTask(new Continuation<String, Task<Void>>() {
+    return jsonTask.onSuccessTask(new Continuation<JSONObject, Task<Void>>() {
       @Override
-      public Task<Void> then(Task<String> task) throws Exception {
-        String jsonString = task.getResult();
-        if (jsonString == null) {
+      public Task<Void> then(Task<JSONObject> task) throws Exception {
+        /*
+         * We can assume that whatever is in the database is the last known server state. The only
+         * things to maintain from the in-memory object are any changes since the object was last
+         * put in the database.
+         */
+        final JSONObject json = task.getResult();
+        if (json == null) {
           /*
            * This means we tried to fetch an object from the database that was never actually saved
            * locally. This probably means that its parent object was saved locally and we just
@@ -636,32 +1328,11 @@ import bolts.TaskCompletionSource;
           return Task.forError(new ParseException(ParseException.CACHE_MISS,
               "Attempted to fetch an object offline which was never saved to the offline cache."));
         }
-        final JSONObject json;
-        try {
-          /*
-           * We can assume that whatever is in the database is the last known server state. The only
-           * things to maintain from the in-memory object are any changes since the object was last
-           * put in the database.
-           */
-          json = new JSONObject(jsonString);
-        } catch (JSONException e) {
-          return Task.forError(e);
-        }
-
         // Fetch all the offline objects before we decode.
         final Map<String, Task<ParseObject>> offlineObjects = new HashMap<>();
-
-        (new ParseTraverser() {
-          @Override
-          protected boolean visit(Object object) {
-            if (object instanceof JSONObject
-                && ((JSONObject) object).optString("__type").equals("OfflineObject")) {
-              String uuid = ((JSONObject) object).optString("uuid");
-              offlineObjects.put(uuid, getPointerAsync(uuid, db));
-            }
-            return true;
-          }
-        }).setTraverseParseObjects(false).setYieldRoot(false).traverse(json);
+        for (String uuid : getOfflineObjectUUIDs(json)) {
+          offlineObjects.put(uuid, OfflineStore.this.<ParseObject>getPointerAsync(uuid, db));
+        }
 
         return Task.whenAll(offlineObjects.values()).onSuccess(new Continuation<Void, Void>() {
           @Override
@@ -695,7 +1366,7 @@ import bolts.TaskCompletionSource;
    *          The object to fetch.
    */
   /* package */ <T extends ParseObject> Task<T> fetchLocallyAsync(final T object) {
-    return runWithManagedConnection(new SQLiteDatabaseCallable<Task<T>>() {
+    return runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<T>>() {
       @Override
       public Task<T> call(ParseSQLiteDatabase db) {
         return fetchLocallyAsync(object, db);
@@ -704,69 +1375,346 @@ import bolts.TaskCompletionSource;
   }
 
   /**
-   * Stores a single object in the local database. If the object is a pointer, isn't dirty, and has
-   * an objectId already, it may not be saved, since it would provide no useful data.
+   * A row of the ParseObjects table that was loaded by
+   * {@link #fetchLocallyAsync(List, ParseSQLiteDatabase)}.
+   */
+  private static class LoadedRow {
+    private final String className;
+    private final String objectId;
+    private JSONObject json;
+    // Set if the data couldn't be read.
+    private JSONException error;
+    private Set<String> offlineObjectUUIDs;
+
+    private LoadedRow(String className, String objectId) {
+      this.className = className;
+      this.objectId = objectId;
+    }
+  }
+
+  /**
+   * Gets the objects with the given UUIDs and fetches their data from the database, like calling
+   * {@link #getPointerAsync(String, ParseSQLiteDatabase)} and then
+   * {@link #fetchLocallyAsync(ParseObject, ParseSQLiteDatabase)} for each of them. The rows of the
+   * objects that haven't been fetched yet, and of the objects they point to, are loaded with one
+   * query per {@link #MAX_SQL_VARIABLES} UUIDs instead of a few queries per object.
    *
-   * @param object
-   *          The object to save.
+   * @param uuids
+   *          The objects to fetch.
    * @param db
    *          A database connection to use.
+   * @return A task for each UUID, in the same order, that's completed the same way as the one
+   *         returned by fetchLocallyAsync.
    */
-  private Task<Void> saveLocallyAsync(
-      final String key, final ParseObject object, final ParseSQLiteDatabase db) {
-    // If this is just a clean, unfetched pointer known to Parse, then there is nothing to save.
-    if (object.getObjectId() != null && !object.isDataAvailable() && !object.hasChanges()
-        && !object.hasOutstandingOperations()) {
-      return Task.forResult(null);
+  private <T extends ParseObject> Task<List<Task<T>>> fetchLocallyAsync(final List<String> uuids,
+      final ParseSQLiteDatabase db) {
+    List<String> uuidsToLoad = new ArrayList<>();
+    synchronized (lock) {
+      for (String uuid : uuids) {
+        ParseObject object = uuidToObjectMap.get(uuid);
+        if (object == null || !fetchedObjects.containsKey(object)) {
+          uuidsToLoad.add(uuid);
+        }
+      }
     }
 
-    final Capture<String> uuidCapture = new Capture<>();
-
-    // Make sure we have a UUID for the object to be saved.
-    return getOrCreateUUIDAsync(object, db).onSuccessTask(new Continuation<String, Task<Void>>() {
+    final Map<String, LoadedRow> rows = new HashMap<>();
+    return queryByUUIDsAsync(LOADED_ROW_COLUMNS, uuidsToLoad, db).onSuccessTask(
+        new Continuation<List<Cursor>, Task<Map<String, ParseObject>>>() {
       @Override
-      public Task<Void> then(Task<String> task) throws Exception {
-        String uuid = task.getResult();
-        uuidCapture.set(uuid);
-        return updateDataForObjectAsync(uuid, object, db);
+      public Task<Map<String, ParseObject>> then(Task<List<Cursor>> task) throws Exception {
+        return readRowsAsync(task.getResult(), rows, db);
       }
-    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+    }).onSuccess(new Continuation<Map<String, ParseObject>, List<Task<T>>>() {
       @Override
-      public Task<Void> then(Task<Void> task) throws Exception {
-        final ContentValues values = new ContentValues();
-        values.put(OfflineSQLiteOpenHelper.KEY_KEY, key);
-        values.put(OfflineSQLiteOpenHelper.KEY_UUID, uuidCapture.get());
-        return db.insertWithOnConflict(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, values,
-            SQLiteDatabase.CONFLICT_IGNORE);
+      public List<Task<T>> then(Task<Map<String, ParseObject>> task) throws Exception {
+        Map<String, ParseObject> offlineObjects = task.getResult();
+        List<Task<T>> tasks = new ArrayList<>();
+        for (String uuid : uuids) {
+          tasks.add(OfflineStore.this.<T>fetchLocallyAsync(
+              uuid, rows.get(uuid), offlineObjects, db));
+        }
+        return tasks;
       }
     });
   }
 
   /**
-   * Stores an object (and optionally, every object it points to recursively) in the local database.
-   * If any of the objects have not been fetched from Parse, they will not be stored. However, if
-   * they have changed data, the data will be retained. To get the objects back later, you can use a
-   * ParseQuery with a cache policy that uses the local cache, or you can create an unfetched
-   * pointer with ParseObject.createWithoutData() and then call fetchFromLocalDatastore() on it. If you modify
-   * the object after saving it locally, such as by fetching it or saving it, those changes will
-   * automatically be applied to the cache.
-   *
-   * Any objects previously stored with the same key will be removed from the local database.
+   * Reads the rows selected with {@link #LOADED_ROW_COLUMNS} and gets the objects they point to.
    *
-   * @param object Root object
-   * @param includeAllChildren {@code true} to recursively save all pointers.
-   * @param db DB connection
-   * @return A Task that will be resolved when saving is complete
+   * @param rows
+   *          Filled in with the rows, by UUID.
+   * @return The objects that the rows point to, by UUID.
    */
-  private Task<Void> saveLocallyAsync(
-      final ParseObject object, final boolean includeAllChildren, final ParseSQLiteDatabase db) {
-    final ArrayList<ParseObject> objectsInTree = new ArrayList<>();
-    // Fetch all objects locally in case they are being re-added
-    if (!includeAllChildren) {
-      objectsInTree.add(object);
-    } else {
-      (new ParseTraverser() {
-        @Override
+  private Task<Map<String, ParseObject>> readRowsAsync(List<Cursor> cursors,
+      Map<String, LoadedRow> rows, ParseSQLiteDatabase db) {
+    Set<String> offlineObjectUUIDs = new HashSet<>();
+    for (Cursor cursor : cursors) {
+      for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        LoadedRow row = new LoadedRow(cursor.getString(1), cursor.getString(2));
+        rows.put(cursor.getString(0), row);
+        try {
+          row.json = OfflineBinaryCoder.read(cursor, 3);
+        } catch (JSONException e) {
+          // This is reported when the object is fetched.
+          row.error = e;
+          continue;
+        }
+        if (row.json == null) {
+          continue;
+        }
+        row.offlineObjectUUIDs = getOfflineObjectUUIDs(row.json);
+        offlineObjectUUIDs.addAll(row.offlineObjectUUIDs);
+      }
+      cursor.close();
+    }
+    return getPointersAsync(offlineObjectUUIDs, db);
+  }
+
+  /**
+   * Fetches the data for the given objects from the offline database, like calling
+   * {@link #fetchLocallyAsync(ParseObject, ParseSQLiteDatabase)} for each of them. Pointers to
+   * saved objects that haven't been fetched yet are loaded with one query per class and
+   * {@link #MAX_SQL_VARIABLES} objects, instead of one query each.
+   *
+   * @param objects
+   *          The objects to fetch.
+   * @param db
+   *          A database connection to use.
+   * @return A task for each object, in the same order, that's completed the same way as the one
+   *         returned by fetchLocallyAsync.
+   */
+  /* package */ <T extends ParseObject> Task<List<Task<T>>> fetchAllLocallyAsync(
+      final List<T> objects,
+      final ParseSQLiteDatabase db) {
+    // className -> objectIds of the pointers that need to be loaded.
+    Map<String, List<String>> objectIdsToLoad = new HashMap<>();
+    synchronized (lock) {
+      Set<Pair<String, String>> seen = new HashSet<>();
+      for (T object : objects) {
+        String objectId = object.getObjectId();
+        if (objectId == null || fetchedObjects.containsKey(object)
+            || objectToUuidMap.get(object) != null
+            || !seen.add(Pair.create(object.getClassName(), objectId))) {
+          continue;
+        }
+        List<String> objectIds = objectIdsToLoad.get(object.getClassName());
+        if (objectIds == null) {
+          objectIds = new ArrayList<>();
+          objectIdsToLoad.put(object.getClassName(), objectIds);
+        }
+        objectIds.add(objectId);
+      }
+    }
+
+    List<Task<Cursor>> queryTasks = new ArrayList<>();
+    for (Map.Entry<String, List<String>> entry : objectIdsToLoad.entrySet()) {
+      List<String> objectIds = entry.getValue();
+      // One of the variables is the className.
+      int chunkSize = MAX_SQL_VARIABLES - 1;
+      for (int start = 0; start < objectIds.size(); start += chunkSize) {
+        List<String> chunk = objectIds.subList(start, Math.min(start + chunkSize, objectIds.size()));
+        String[] placeholders = new String[chunk.size()];
+        Arrays.fill(placeholders, "?");
+        String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ? AND " +
+            OfflineSQLiteOpenHelper.KEY_OBJECT_ID + " IN (" + TextUtils.join(",", placeholders) +
+            ")";
+        List<String> args = new ArrayList<>();
+        args.add(entry.getKey());
+        args.addAll(chunk);
+        queryTasks.add(db.queryAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, LOADED_ROW_COLUMNS,
+            where, args.toArray(new String[args.size()])));
+      }
+    }
+
+    final Map<String, LoadedRow> rows = new HashMap<>();
+    return Task.whenAllResult(queryTasks).onSuccessTask(
+        new Continuation<List<Cursor>, Task<Map<String, ParseObject>>>() {
+      @Override
+      public Task<Map<String, ParseObject>> then(Task<List<Cursor>> task) throws Exception {
+        return readRowsAsync(task.getResult(), rows, db);
+      }
+    }).onSuccess(new Continuation<Map<String, ParseObject>, List<Task<T>>>() {
+      @Override
+      public List<Task<T>> then(Task<Map<String, ParseObject>> task) throws Exception {
+        Map<String, ParseObject> offlineObjects = task.getResult();
+        Map<Pair<String, String>, String> uuids = new HashMap<>();
+        for (Map.Entry<String, LoadedRow> entry : rows.entrySet()) {
+          LoadedRow row = entry.getValue();
+          uuids.put(Pair.create(row.className, row.objectId), entry.getKey());
+        }
+
+        List<Task<T>> tasks = new ArrayList<>();
+        for (T object : objects) {
+          String uuid = uuids.get(Pair.create(object.getClassName(), object.getObjectId()));
+          if (uuid == null) {
+            // Not a pointer we loaded, so let fetchLocallyAsync deal with it.
+            tasks.add(fetchLocallyAsync(object, db));
+          } else {
+            tasks.add(fetchLocallyAsync(object, uuid, rows.get(uuid), offlineObjects, db));
+          }
+        }
+        return tasks;
+      }
+    });
+  }
+
+  /**
+   * Fetches a single object for {@link #fetchLocallyAsync(List, ParseSQLiteDatabase)} from its row,
+   * which was already loaded along with the objects it points to.
+   *
+   * @param row
+   *          The object's row, or {@code null} if it wasn't loaded.
+   * @param offlineObjects
+   *          The objects that the loaded rows point to, by UUID.
+   */
+  private <T extends ParseObject> Task<T> fetchLocallyAsync(String uuid, LoadedRow row,
+      Map<String, ParseObject> offlineObjects, ParseSQLiteDatabase db) {
+    T object;
+    synchronized (lock) {
+      @SuppressWarnings("unchecked")
+      T existing = (T) uuidToObjectMap.get(uuid);
+      object = existing;
+      if (object == null) {
+        if (row == null) {
+          return Task.forError(
+              new IllegalStateException("Attempted to find non-existent uuid " + uuid));
+        }
+        object = getPointer(uuid, row.className, row.objectId);
+      }
+    }
+    return fetchLocallyAsync(object, uuid, row, offlineObjects, db);
+  }
+
+  /**
+   * Fetches the given object from a row that was already loaded along with the objects it points
+   * to, if that's the row {@link #fetchLocallyAsync(ParseObject, ParseSQLiteDatabase)} would read.
+   *
+   * @param uuid
+   *          The UUID of the row.
+   * @param row
+   *          The row, or {@code null} if it wasn't loaded.
+   * @param offlineObjects
+   *          The objects that the loaded rows point to, by UUID.
+   */
+  private <T extends ParseObject> Task<T> fetchLocallyAsync(T object, String uuid, LoadedRow row,
+      Map<String, ParseObject> offlineObjects, ParseSQLiteDatabase db) {
+    final TaskCompletionSource<T> tcs = new TaskCompletionSource<>();
+    boolean isObjectRow;
+    synchronized (lock) {
+      @SuppressWarnings("unchecked")
+      Task<T> fetched = (Task<T>) fetchedObjects.get(object);
+      if (fetched != null) {
+        return fetched;
+      }
+
+      // These are the two cases in which fetchLocallyAsync would read this row.
+      Task<String> uuidTask = objectToUuidMap.get(object);
+      String objectId = object.getObjectId();
+      if (row == null) {
+        isObjectRow = false;
+      } else if (objectId == null) {
+        isObjectRow = uuidTask != null && uuidTask.isCompleted()
+            && uuid.equals(uuidTask.getResult());
+      } else {
+        isObjectRow = uuidTask == null && objectId.equals(row.objectId)
+            && object.getClassName().equals(row.className);
+      }
+
+      if (isObjectRow) {
+        fetchedObjects.put(object, tcs.getTask().<ParseObject>cast());
+        if (uuidTask == null) {
+          objectToUuidMap.put(object, Task.forResult(uuid));
+          uuidToObjectMap.put(uuid, object);
+        }
+      }
+    }
+    if (!isObjectRow) {
+      // Let fetchLocallyAsync deal with anything unusual.
+      return fetchLocallyAsync(object, db);
+    }
+
+    if (row.error != null) {
+      tcs.setError(row.error);
+      return tcs.getTask();
+    }
+    if (row.json == null) {
+      tcs.setError(new ParseException(ParseException.CACHE_MISS,
+          "Attempted to fetch an object offline which was never saved to the offline cache."));
+      return tcs.getTask();
+    }
+
+    Map<String, Task<ParseObject>> pointers = new HashMap<>();
+    for (String offlineObjectUUID : row.offlineObjectUUIDs) {
+      ParseObject pointer = offlineObjects.get(offlineObjectUUID);
+      if (pointer == null) {
+        tcs.setError(new IllegalStateException(
+            "Attempted to find non-existent uuid " + offlineObjectUUID));
+        return tcs.getTask();
+      }
+      pointers.put(offlineObjectUUID, Task.forResult(pointer));
+    }
+    try {
+      object.mergeREST(object.getState(), row.json, new OfflineDecoder(pointers));
+      tcs.setResult(object);
+    } catch (Exception e) {
+      tcs.setError(e);
+    }
+    return tcs.getTask();
+  }
+
+  /**
+   * @return The UUIDs of the unsaved objects that the given JSON points to.
+   */
+  /* package */ static Set<String> getOfflineObjectUUIDs(JSONObject json) {
+    final Set<String> uuids = new HashSet<>();
+    (new ParseTraverser() {
+      @Override
+      protected boolean visit(Object object) {
+        if (object instanceof JSONObject
+            && ((JSONObject) object).optString("__type").equals("OfflineObject")) {
+          uuids.add(((JSONObject) object).optString("uuid"));
+        }
+        return true;
+      }
+    }).setTraverseParseObjects(false).setYieldRoot(false).traverse(json);
+    return uuids;
+  }
+
+  /**
+   * @return Whether the object is a clean, unfetched pointer known to Parse. There is nothing to
+   * save for such an object, since it would provide no useful data.
+   */
+  private static boolean isCleanPointer(ParseObject object) {
+    return object.getObjectId() != null && !object.isDataAvailable() && !object.hasChanges()
+        && !object.hasOutstandingOperations();
+  }
+
+  /**
+   * Stores an object (and optionally, every object it points to recursively) in the local database.
+   * If any of the objects have not been fetched from Parse, they will not be stored. However, if
+   * they have changed data, the data will be retained. To get the objects back later, you can use a
+   * ParseQuery with a cache policy that uses the local cache, or you can create an unfetched
+   * pointer with ParseObject.createWithoutData() and then call fetchFromLocalDatastore() on it. If you modify
+   * the object after saving it locally, such as by fetching it or saving it, those changes will
+   * automatically be applied to the cache.
+   *
+   * Any objects previously stored with the same key will be removed from the local database.
+   *
+   * @param object Root object
+   * @param includeAllChildren {@code true} to recursively save all pointers.
+   * @param db DB connection
+   * @return A Task that will be resolved when saving is complete
+   */
+  private Task<Void> saveLocallyAsync(
+      final ParseObject object, final boolean includeAllChildren, final ParseSQLiteDatabase db) {
+    final ArrayList<ParseObject> objectsInTree = new ArrayList<>();
+    // Fetch all objects locally in case they are being re-added
+    if (!includeAllChildren) {
+      objectsInTree.add(object);
+    } else {
+      (new ParseTraverser() {
+        @Override
         protected boolean visit(Object object) {
           if (object instanceof ParseObject) {
             objectsInTree.add((ParseObject) object);
@@ -780,6 +1728,17 @@ import bolts.TaskCompletionSource;
   }
 
 
+  /**
+   * Stores an object and the given children in the local database, under the root object's key.
+   * Only the changes since the last time they were stored are written: objects whose data hasn't
+   * changed aren't rewritten, and only the Dependencies that were added or removed are touched.
+   * Objects that are no longer reachable from the root, and aren't depended on by anything else,
+   * are deleted.
+   * <p/>
+   * All of the objects are encoded before anything is written, and each kind of row is written
+   * with a single statement that is reused for every object, so large pins don't pay for a
+   * separate trip to the database thread for each row.
+   */
   private Task<Void> saveLocallyAsync(
       final ParseObject object, List<ParseObject> children, final ParseSQLiteDatabase db) {
     final List<ParseObject> objects = children != null
@@ -789,125 +1748,786 @@ import bolts.TaskCompletionSource;
       objects.add(object);
     }
 
-    // Call saveLocallyAsync for each of them individually.
-    final List<Task<Void>> tasks = new ArrayList<>();
-    for (ParseObject obj : objects) {
-      tasks.add(fetchLocallyAsync(obj, db).makeVoid());
-    }
-
-    return Task.whenAll(tasks).continueWithTask(new Continuation<Void, Task<String>>() {
+    final Capture<String> key = new Capture<>();
+    final List<ParseObject> objectsToSave = new ArrayList<>();
+    final List<String> uuids = new ArrayList<>();
+    final List<ParseObject> changedObjects = new ArrayList<>();
+    final List<String> changedUUIDs = new ArrayList<>();
+    final Map<String, Set<String>> pointedUUIDs = new HashMap<>();
+    // Fetch all objects locally in case they are being re-added.
+    return fetchAllLocallyAsync(objects, db).onSuccessTask(
+        new Continuation<List<Task<ParseObject>>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<Task<ParseObject>>> task) throws Exception {
+        return Task.whenAll(task.getResult());
+      }
+    }).continueWithTask(new Continuation<Void, Task<String>>() {
       @Override
       public Task<String> then(Task<Void> task) throws Exception {
-        return objectToUuidMap.get(object);
+        return getOrCreateUUIDAsync(object, db);
+      }
+    }).onSuccessTask(new Continuation<String, Task<List<String>>>() {
+      @Override
+      public Task<List<String>> then(Task<String> task) throws Exception {
+        key.set(task.getResult());
+
+        for (ParseObject obj : objects) {
+          if (!isCleanPointer(obj)) {
+            objectsToSave.add(obj);
+          }
+        }
+        return getOrCreateUUIDsAsync(objectsToSave, db);
+      }
+    }).onSuccessTask(new Continuation<List<String>, Task<List<Cursor>>>() {
+      @Override
+      public Task<List<Cursor>> then(Task<List<String>> task) throws Exception {
+        uuids.addAll(task.getResult());
+        String[] select = { OfflineSQLiteOpenHelper.KEY_UUID, OfflineSQLiteOpenHelper.KEY_JSON };
+        return queryByUUIDsAsync(select, uuids, db);
+      }
+    }).onSuccessTask(new Continuation<List<Cursor>, Task<List<EncodedData>>>() {
+      @Override
+      public Task<List<EncodedData>> then(Task<List<Cursor>> task) throws Exception {
+        Map<String, Object> storedData = new HashMap<>();
+        for (Cursor cursor : task.getResult()) {
+          for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            storedData.put(cursor.getString(0), readData(cursor, 1));
+          }
+          cursor.close();
+        }
+
+        List<Task<EncodedData>> tasks = new ArrayList<>();
+        for (int i = 0; i < objectsToSave.size(); i++) {
+          String uuid = uuids.get(i);
+          tasks.add(encodeDataAsync(uuid, objectsToSave.get(i), storedData.get(uuid), db));
+        }
+        return Task.whenAllResult(tasks);
+      }
+    }).onSuccessTask(new Continuation<List<EncodedData>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<EncodedData>> task) throws Exception {
+        List<EncodedData> encoded = task.getResult();
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < encoded.size(); i++) {
+          if (encoded.get(i) != null) {
+            rows.add(encoded.get(i).row);
+            pointedUUIDs.put(uuids.get(i), encoded.get(i).offlineObjectUUIDs);
+            changedObjects.add(objectsToSave.get(i));
+            changedUUIDs.add(uuids.get(i));
+          }
+        }
+        synchronized (lock) {
+          pendingChanges.updatedUUIDs.addAll(changedUUIDs);
+        }
+        return db.executeAsync(UPDATE_DATA_SQL, rows);
+      }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        List<Task<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < changedObjects.size(); i++) {
+          tasks.add(indexes.updateAsync(changedUUIDs.get(i), changedObjects.get(i), db));
+        }
+        return Task.whenAll(tasks);
+      }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        return updatePointersAsync(pointedUUIDs, db);
       }
-    }).onSuccessTask(new Continuation<String, Task<Void>>() {
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        return updateDependenciesAsync(key.get(), new HashSet<>(uuids), db);
+      }
+    });
+  }
+
+  /**
+   * Makes the Dependencies for {@code key} be exactly {@code uuids}, by adding the ones that are
+   * missing and removing the rest. Objects that no longer have any Dependencies are deleted.
+   */
+  private Task<Void> updateDependenciesAsync(final String key, final Set<String> uuids,
+      final ParseSQLiteDatabase db) {
+    String[] select = { OfflineSQLiteOpenHelper.KEY_UUID };
+    String where = OfflineSQLiteOpenHelper.KEY_KEY + "=?";
+    String[] args = { key };
+    return db.queryAsync(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, select, where, args)
+        .onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Cursor> task) throws Exception {
+        Set<String> added = new HashSet<>(uuids);
+        List<String> removed = new ArrayList<>();
+        Cursor cursor = task.getResult();
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+          String uuid = cursor.getString(0);
+          if (!added.remove(uuid)) {
+            removed.add(uuid);
+          }
+        }
+        cursor.close();
+        synchronized (lock) {
+          pendingChanges.repinnedUUIDs.addAll(added);
+          pendingChanges.repinnedUUIDs.addAll(removed);
+        }
+
+        List<Object[]> rows = new ArrayList<>();
+        for (String uuid : added) {
+          rows.add(new Object[] { key, uuid });
+        }
+        List<Task<Void>> tasks = new ArrayList<>();
+        tasks.add(db.executeAsync(INSERT_DEPENDENCY_SQL, rows));
+        // Each UUID is used twice, along with the key.
+        int chunkSize = (MAX_SQL_VARIABLES - 1) / 2;
+        for (int start = 0; start < removed.size(); start += chunkSize) {
+          tasks.add(removeDependenciesAsync(key,
+              removed.subList(start, Math.min(start + chunkSize, removed.size())), db));
+        }
+        return Task.whenAll(tasks);
+      }
+    });
+  }
+
+  /**
+   * Removes the Dependencies of {@code key} on {@code uuids}, and deletes the objects that nothing
+   * else depends on. There can be at most half of {@link #MAX_SQL_VARIABLES} UUIDs.
+   */
+  private Task<Void> removeDependenciesAsync(final String key, List<String> uuids,
+      final ParseSQLiteDatabase db) {
+    String[] placeholders = new String[uuids.size()];
+    Arrays.fill(placeholders, "?");
+    final String inUUIDs = OfflineSQLiteOpenHelper.KEY_UUID + " IN (" +
+        TextUtils.join(",", placeholders) + ")";
+    final List<String> args = new ArrayList<>();
+    args.add(key);
+    args.addAll(uuids);
+    final String[] argsArray = args.toArray(new String[args.size()]);
+
+    final List<String> uuidsToDelete = new ArrayList<>();
+    // Find the objects that only this key depends on.
+    String sql = "SELECT " + OfflineSQLiteOpenHelper.KEY_UUID + " FROM " +
+        OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_KEY + "=? AND " + inUUIDs +
+        " AND " + OfflineSQLiteOpenHelper.KEY_UUID + " IN (" +
+        " SELECT " + OfflineSQLiteOpenHelper.KEY_UUID + " FROM " +
+        OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES +
+        " WHERE " + inUUIDs +
+        " GROUP BY " + OfflineSQLiteOpenHelper.KEY_UUID +
+        " HAVING COUNT(" + OfflineSQLiteOpenHelper.KEY_UUID + ")=1" +
+        ")";
+    List<String> sqlArgs = new ArrayList<>(args);
+    sqlArgs.addAll(uuids);
+    return db.rawQueryAsync(sql, sqlArgs.toArray(new String[sqlArgs.size()])).onSuccessTask(
+        new Continuation<Cursor, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Cursor> task) throws Exception {
+        Cursor cursor = task.getResult();
+        while (cursor.moveToNext()) {
+          uuidsToDelete.add(cursor.getString(0));
+        }
+        cursor.close();
+
+        return deleteObjects(uuidsToDelete, db);
+      }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        String where = OfflineSQLiteOpenHelper.KEY_KEY + "=? AND " + inUUIDs;
+        return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, where, argsArray);
+      }
+    }).onSuccess(new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        forgetUUIDs(uuidsToDelete);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Makes the Pointers of each of the given objects be exactly the UUIDs it maps to, by adding the
+   * ones that are missing and removing the rest. The objects that lose a Pointer are recorded as
+   * unpinned, so they're collected if nothing else depends on them or points to them.
+   */
+  private Task<Void> updatePointersAsync(final Map<String, Set<String>> pointedUUIDs,
+      final ParseSQLiteDatabase db) {
+    if (pointedUUIDs.isEmpty()) {
+      return Task.forResult(null);
+    }
+    String[] select = { OfflineSQLiteOpenHelper.KEY_UUID, OfflineSQLiteOpenHelper.KEY_POINTED_UUID };
+    return queryByUUIDsAsync(OfflineSQLiteOpenHelper.TABLE_POINTERS, select,
+        new ArrayList<>(pointedUUIDs.keySet()), db).onSuccessTask(
+        new Continuation<List<Cursor>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<Cursor>> task) throws Exception {
+        Map<String, Set<String>> added = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : pointedUUIDs.entrySet()) {
+          added.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        List<Object[]> removedRows = new ArrayList<>();
+        final List<Object[]> unpointedRows = new ArrayList<>();
+        for (Cursor cursor : task.getResult()) {
+          for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            String uuid = cursor.getString(0);
+            String pointedUUID = cursor.getString(1);
+            if (!added.get(uuid).remove(pointedUUID)) {
+              removedRows.add(new Object[] { uuid, pointedUUID });
+              unpointedRows.add(new Object[] { pointedUUID });
+            }
+          }
+          cursor.close();
+        }
+
+        List<Object[]> addedRows = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : added.entrySet()) {
+          for (String pointedUUID : entry.getValue()) {
+            addedRows.add(new Object[] { entry.getKey(), pointedUUID });
+          }
+        }
+        List<Task<Void>> tasks = new ArrayList<>();
+        tasks.add(db.executeAsync(DELETE_POINTER_SQL, removedRows));
+        tasks.add(db.executeAsync(INSERT_POINTER_SQL, addedRows));
+        tasks.add(db.executeAsync(RECORD_UNPOINTED_SQL, unpointedRows));
+        return Task.whenAll(tasks).onSuccess(new Continuation<Void, Void>() {
+          @Override
+          public Void then(Task<Void> task) throws Exception {
+            if (!unpointedRows.isEmpty()) {
+              // This waits for the current transaction to finish, since connections are serialized.
+              collectGarbageAsync();
+            }
+            return null;
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Removes the objects with the given UUIDs from memory, after they've been deleted.
+   */
+  private void forgetUUIDs(List<String> uuids) {
+    synchronized (lock) {
+      for (String uuid : uuids) {
+        ParseObject object = uuidToObjectMap.get(uuid);
+        if (object != null) {
+          objectToUuidMap.remove(object);
+          uuidToObjectMap.remove(uuid);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The value of a column of JSON data, as it's stored.
+   */
+  private static Object readData(Cursor cursor, int column) {
+    switch (cursor.getType(column)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return null;
+      case Cursor.FIELD_TYPE_BLOB:
+        return cursor.getBlob(column);
+      default:
+        return cursor.getString(column);
+    }
+  }
+
+  private Task<Void> unpinAsync(final ParseObject object, final ParseSQLiteDatabase db) {
+    Task<String> uuidTask = objectToUuidMap.get(object);
+    if (uuidTask == null) {
+      // The root object was never stored in the offline store, so nothing to unpin.
+      return Task.forResult(null);
+    }
+    return uuidTask.continueWithTask(new Continuation<String, Task<Void>>() {
       @Override
       public Task<Void> then(Task<String> task) throws Exception {
-        String uuid = task.getResult();
+        final String uuid = task.getResult();
         if (uuid == null) {
           // The root object was never stored in the offline store, so nothing to unpin.
+          return Task.forResult(null);
+        }
+        return unpinAsync(uuid, db);
+      }
+    });
+  }
+
+  /**
+   * Removes the Dependencies of {@code key}. The objects that nothing depends on anymore are
+   * recorded as unpinned and deleted later by {@link #collectGarbageAsync()}, so that unpinning a
+   * large pin doesn't hold the database for as long as it takes to delete all of its objects.
+   * <p/>
+   * These are the objects that used to be deleted right away, except for unsaved objects that a
+   * stored object still points to by UUID. Those used to be deleted too, which left the objects
+   * that point to them unable to be fetched, so they're kept until nothing points to them.
+   */
+  private Task<Void> unpinAsync(final String key, final ParseSQLiteDatabase db) {
+    final String where = OfflineSQLiteOpenHelper.KEY_KEY + "=?";
+    final String[] args = {key};
+    Task<Void> task = Task.forResult(null);
+    boolean hasChangeListeners;
+    synchronized (lock) {
+      hasChangeListeners = !changeListeners.isEmpty();
+    }
+    if (hasChangeListeners) {
+      // Nobody needs to know which objects were unpinned otherwise.
+      String[] select = { OfflineSQLiteOpenHelper.KEY_UUID };
+      task = db.queryAsync(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, select, where, args)
+          .onSuccess(new Continuation<Cursor, Void>() {
+        @Override
+        public Void then(Task<Cursor> task) throws Exception {
+          List<String> uuids = readUUIDs(task.getResult());
+          synchronized (lock) {
+            pendingChanges.repinnedUUIDs.addAll(uuids);
+          }
           return null;
         }
+      });
+    }
+    return task.onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { key });
+        return db.executeAsync(RECORD_UNPINNED_SQL, rows);
+      }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, where, args);
+      }
+    }).onSuccess(
+        new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        // This waits for the current transaction to finish, since connections are serialized.
+        collectGarbageAsync();
+        return null;
+      }
+    });
+  }
 
-        // Delete all objects locally corresponding to the key we're trying to use in case it was
-        // used before (overwrite)
-        return unpinAsync(uuid, db);
+  /**
+   * Deletes the objects that were unpinned and that nothing depends on or points to anymore, in
+   * slices of {@link #GC_BATCH_SIZE} objects. Each slice is its own transaction, so operations that
+   * are waiting for the database get to run in between.
+   * <p/>
+   * Only the objects that were recorded in the UnpinnedObjects table are looked at: the ones that
+   * lost their last Dependency to {@link #unpinAsync(String, ParseSQLiteDatabase)}, or an object
+   * that pointed to them. Other objects without Dependencies, such as the unsaved children of an
+   * object that was pinned without its children, are still pointed to by pinned objects.
+   *
+   * @return A task that finishes once there are no more objects to delete.
+   */
+  /* package */ Task<Void> collectGarbageAsync() {
+    synchronized (gcLock) {
+      if (!isGCPending) {
+        // Start another run after the current one, in case it has already looked for objects.
+        isGCPending = true;
+        gcTask = gcTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            synchronized (gcLock) {
+              isGCPending = false;
+            }
+            return collectGarbageSliceAsync(0);
+          }
+        });
       }
-    }).onSuccessTask(new Continuation<Void, Task<String>>() {
+      return gcTask;
+    }
+  }
+
+  /**
+   * Deletes the unpinned objects recorded after {@code afterRowId}, up to {@link #GC_BATCH_SIZE} of
+   * them, and then the ones after those.
+   * <p/>
+   * The objects that can be deleted are looked up on a read-only connection, so the transaction
+   * only has to check them again before deleting them. Every object of the slice is forgotten,
+   * whether it was deleted or not, since the ones that are still depended on or pointed to are
+   * recorded again with a new rowid once they lose that.
+   */
+  private Task<Void> collectGarbageSliceAsync(final long afterRowId) {
+    final Capture<Long> lastRowId = new Capture<>(afterRowId);
+    final List<String> collectableUUIDs = new ArrayList<>();
+    final List<String> uuidsToDelete = new ArrayList<>();
+    return runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<Void>>() {
       @Override
-      public Task<String> then(Task<Void> task) throws Exception {
-        return getOrCreateUUIDAsync(object, db);
+      public Task<Void> call(final ParseSQLiteDatabase db) {
+        String sql = "SELECT rowid, " + OfflineSQLiteOpenHelper.KEY_UUID +
+            " FROM " + OfflineSQLiteOpenHelper.TABLE_UNPINNED_OBJECTS +
+            " WHERE rowid > ? ORDER BY rowid LIMIT " + GC_BATCH_SIZE;
+        String[] args = { String.valueOf(afterRowId) };
+        return db.rawQueryAsync(sql, args).onSuccessTask(
+            new Continuation<Cursor, Task<List<String>>>() {
+          @Override
+          public Task<List<String>> then(Task<Cursor> task) throws Exception {
+            List<String> candidates = new ArrayList<>();
+            Cursor cursor = task.getResult();
+            while (cursor.moveToNext()) {
+              lastRowId.set(cursor.getLong(0));
+              candidates.add(cursor.getString(1));
+            }
+            cursor.close();
+            return findCollectableUUIDsAsync(candidates, db);
+          }
+        }).onSuccess(new Continuation<List<String>, Void>() {
+          @Override
+          public Void then(Task<List<String>> task) throws Exception {
+            collectableUUIDs.addAll(task.getResult());
+            return null;
+          }
+        });
       }
-    }).onSuccessTask(new Continuation<String, Task<Void>>() {
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
       @Override
-      public Task<Void> then(Task<String> task) throws Exception {
-        String uuid = task.getResult();
+      public Task<Void> then(Task<Void> task) throws Exception {
+        if (lastRowId.get() == afterRowId) {
+          // Nothing else is recorded.
+          return task;
+        }
+        return runWithManagedTransaction(new SQLiteDatabaseCallable<Task<Void>>() {
+          @Override
+          public Task<Void> call(final ParseSQLiteDatabase db) {
+            // They may have been pinned or pointed to again in the meantime.
+            return findCollectableUUIDsAsync(collectableUUIDs, db).onSuccessTask(
+                new Continuation<List<String>, Task<Void>>() {
+              @Override
+              public Task<Void> then(Task<List<String>> task) throws Exception {
+                uuidsToDelete.addAll(task.getResult());
+                return deleteObjects(uuidsToDelete, db);
+              }
+            }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+              @Override
+              public Task<Void> then(Task<Void> task) throws Exception {
+                String where = "rowid > ? AND rowid <= ?";
+                String[] args = { String.valueOf(afterRowId), String.valueOf(lastRowId.get()) };
+                return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_UNPINNED_OBJECTS, where, args);
+              }
+            }).onSuccess(new Continuation<Void, Void>() {
+              @Override
+              public Void then(Task<Void> task) throws Exception {
+                forgetUUIDs(uuidsToDelete);
+                return null;
+              }
+            });
+          }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            return collectGarbageSliceAsync(lastRowId.get());
+          }
+        });
+      }
+    });
+  }
 
-        // Call saveLocallyAsync for each of them individually.
-        final List<Task<Void>> tasks = new ArrayList<>();
-        for (ParseObject obj : objects) {
-          tasks.add(saveLocallyAsync(uuid, obj, db));
+  /**
+   * Finds which of the given objects are still stored, and aren't depended on or pointed to by
+   * any other object. Both are looked up by index.
+   *
+   * @return The UUIDs of the objects that can be deleted.
+   */
+  private Task<List<String>> findCollectableUUIDsAsync(List<String> uuids,
+      ParseSQLiteDatabase db) {
+    if (uuids.isEmpty()) {
+      return Task.<List<String>>forResult(new ArrayList<String>());
+    }
+    String[] placeholders = new String[uuids.size()];
+    Arrays.fill(placeholders, "?");
+    String sql = "SELECT " + OfflineSQLiteOpenHelper.KEY_UUID +
+        " FROM " + OfflineSQLiteOpenHelper.TABLE_OBJECTS + " A" +
+        " WHERE " + OfflineSQLiteOpenHelper.KEY_UUID + " IN (" +
+        TextUtils.join(",", placeholders) + ")" +
+        " AND NOT EXISTS (SELECT 1 FROM " + OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES + " B" +
+        " WHERE B." + OfflineSQLiteOpenHelper.KEY_UUID +
+        " = A." + OfflineSQLiteOpenHelper.KEY_UUID + ")" +
+        " AND NOT EXISTS (SELECT 1 FROM " + OfflineSQLiteOpenHelper.TABLE_POINTERS + " C" +
+        " WHERE C." + OfflineSQLiteOpenHelper.KEY_POINTED_UUID +
+        " = A." + OfflineSQLiteOpenHelper.KEY_UUID +
+        " AND C." + OfflineSQLiteOpenHelper.KEY_UUID +
+        " <> A." + OfflineSQLiteOpenHelper.KEY_UUID + ")";
+    return db.rawQueryAsync(sql, uuids.toArray(new String[uuids.size()])).onSuccess(
+        new Continuation<Cursor, List<String>>() {
+      @Override
+      public List<String> then(Task<Cursor> task) throws Exception {
+        return readUUIDs(task.getResult());
+      }
+    });
+  }
+
+  //region Quota
+
+  /**
+   * @return Whether the store has a limit on the bytes or objects it holds, and pins it may evict
+   *         to stay within it.
+   */
+  private boolean hasQuota() {
+    return (maxBytes > 0 || maxObjects > 0) && !evictablePinPrefixes.isEmpty();
+  }
+
+  /**
+   * @return The time to record for using the pin {@code name} now, which is later than the time
+   *         recorded for any other pin, or 0 if {@code name} was the last pin used and
+   *         {@code force} is false.
+   */
+  private long nextPinAccessTime(String name, boolean force) {
+    synchronized (lock) {
+      if (!force && name.equals(lastAccessedPin)) {
+        return 0;
+      }
+      lastAccessedPin = name;
+      lastAccessedAt = Math.max(System.currentTimeMillis(), lastAccessedAt + 1);
+      return lastAccessedAt;
+    }
+  }
+
+  /**
+   * Records that the pin {@code name} was pinned to.
+   */
+  private Task<Void> recordPinAccessAsync(String name, ParseSQLiteDatabase db) {
+    if (name == null) {
+      return Task.forResult(null);
+    }
+    List<Object[]> rows = new ArrayList<>();
+    rows.add(new Object[] { name, nextPinAccessTime(name, true) });
+    return db.executeAsync(RECORD_PIN_ACCESS_SQL, rows);
+  }
+
+  /**
+   * Records that the pin {@code name} was queried, in the background. Only the pins that exist are
+   * recorded, and nothing is recorded if the store doesn't have a quota.
+   * <p/>
+   * Queries don't write to the database themselves. The pins they use are written together by a
+   * single transaction, which picks up every pin that was queried while it waited for the database.
+   */
+  private void recordPinAccess(String name) {
+    if (name == null || !hasQuota()) {
+      return;
+    }
+    long accessedAt = nextPinAccessTime(name, false);
+    if (accessedAt == 0) {
+      return;
+    }
+    synchronized (lock) {
+      pendingPinAccesses.put(name, accessedAt);
+      if (isPinAccessWritePending) {
+        return;
+      }
+      isPinAccessWritePending = true;
+    }
+    runWithManagedTransaction(new SQLiteDatabaseCallable<Task<Void>>() {
+      @Override
+      public Task<Void> call(ParseSQLiteDatabase db) {
+        return writePendingPinAccessesAsync(db);
+      }
+    });
+  }
+
+  /**
+   * Writes the pin accesses that {@link #recordPinAccess(String)} has recorded so far.
+   */
+  private Task<Void> writePendingPinAccessesAsync(ParseSQLiteDatabase db) {
+    List<Object[]> rows = new ArrayList<>();
+    synchronized (lock) {
+      for (Map.Entry<String, Long> entry : pendingPinAccesses.entrySet()) {
+        rows.add(new Object[] { entry.getValue(), entry.getKey() });
+      }
+      pendingPinAccesses.clear();
+      isPinAccessWritePending = false;
+    }
+    return db.executeAsync(UPDATE_PIN_ACCESS_SQL, rows);
+  }
+
+  private Task<Void> forgetPinAccessAsync(String name, ParseSQLiteDatabase db) {
+    String where = OfflineSQLiteOpenHelper.KEY_NAME + "=?";
+    String[] args = { name };
+    return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_PIN_ACCESS, where, args);
+  }
+
+  /**
+   * Unpins the least recently used pins until the store is within its quota. Only the pins whose
+   * names start with one of the evictable prefixes are unpinned. The pins of the current user, the
+   * current installation and {@link ParsePinningEventuallyQueue} and the default pin never are,
+   * and neither is the most recently used evictable pin, so whatever was pinned last is kept.
+   *
+   * @return A task that finishes once the store is within its quota, or there are no more pins that
+   *         can be unpinned.
+   */
+  /* package */ Task<Void> enforceQuotaAsync() {
+    synchronized (quotaLock) {
+      if (!isQuotaPending) {
+        // Start another run after the current one, in case it has already measured the store.
+        isQuotaPending = true;
+        quotaTask = quotaTask.continueWithTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            synchronized (quotaLock) {
+              isQuotaPending = false;
+            }
+            return evictUntilUnderQuotaAsync();
+          }
+        });
+      }
+      return quotaTask;
+    }
+  }
+
+  private Task<Void> evictUntilUnderQuotaAsync() {
+    // Measure the store without the objects that are waiting to be collected.
+    return collectGarbageAsync().onSuccessTask(new Continuation<Void, Task<Boolean>>() {
+      @Override
+      public Task<Boolean> then(Task<Void> task) throws Exception {
+        return isOverQuotaAsync();
+      }
+    }).onSuccessTask(new Continuation<Boolean, Task<Boolean>>() {
+      @Override
+      public Task<Boolean> then(Task<Boolean> task) throws Exception {
+        if (!task.getResult()) {
+          return Task.forResult(false);
+        }
+        return evictLeastRecentlyUsedPinAsync();
+      }
+    }).onSuccessTask(new Continuation<Boolean, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Boolean> task) throws Exception {
+        if (!task.getResult()) {
+          return Task.forResult(null);
         }
-
-        return Task.whenAll(tasks);
+        return evictUntilUnderQuotaAsync();
       }
     });
   }
 
-  private Task<Void> unpinAsync(final ParseObject object, final ParseSQLiteDatabase db) {
-    Task<String> uuidTask = objectToUuidMap.get(object);
-    if (uuidTask == null) {
-      // The root object was never stored in the offline store, so nothing to unpin.
-      return Task.forResult(null);
-    }
-    return uuidTask.continueWithTask(new Continuation<String, Task<Void>>() {
+  private Task<Boolean> isOverQuotaAsync() {
+    return runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<Boolean>>() {
       @Override
-      public Task<Void> then(Task<String> task) throws Exception {
-        final String uuid = task.getResult();
-        if (uuid == null) {
-          // The root object was never stored in the offline store, so nothing to unpin.
-          return Task.forResult(null);
-        }
-        return unpinAsync(uuid, db);
+      public Task<Boolean> call(final ParseSQLiteDatabase db) {
+        return queryLongAsync("SELECT COUNT(*) FROM " + OfflineSQLiteOpenHelper.TABLE_OBJECTS, db)
+            .onSuccessTask(new Continuation<Long, Task<Boolean>>() {
+          @Override
+          public Task<Boolean> then(Task<Long> task) throws Exception {
+            if (maxObjects > 0 && task.getResult() > maxObjects) {
+              return Task.forResult(true);
+            }
+            if (maxBytes <= 0) {
+              return Task.forResult(false);
+            }
+            return queryUsedBytesAsync(db).onSuccess(new Continuation<Long, Boolean>() {
+              @Override
+              public Boolean then(Task<Long> task) throws Exception {
+                return task.getResult() > maxBytes;
+              }
+            });
+          }
+        });
       }
     });
   }
 
-  private Task<Void> unpinAsync(final String key, final ParseSQLiteDatabase db) {
-    final List<String> uuidsToDelete = new LinkedList<>();
-    // A continueWithTask that ends with "return task" is essentially a try-finally.
-    return Task.forResult((Void) null).continueWithTask(new Continuation<Void, Task<Cursor>>() {
+  /**
+   * @return The size of the pages of the database that are in use. Pages that were freed by
+   *         deleting objects are reused by SQLite, so they aren't counted.
+   */
+  private Task<Long> queryUsedBytesAsync(final ParseSQLiteDatabase db) {
+    final Capture<Long> pageCount = new Capture<>();
+    return queryLongAsync("PRAGMA page_count", db).onSuccessTask(
+        new Continuation<Long, Task<Long>>() {
       @Override
-      public Task<Cursor> then(Task<Void> task) throws Exception {
-        // Fetch all uuids from Dependencies for key=? grouped by uuid having a count of 1
-        String sql = "SELECT " + OfflineSQLiteOpenHelper.KEY_UUID + " FROM " + OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES +
-            " WHERE " + OfflineSQLiteOpenHelper.KEY_KEY + "=? AND " + OfflineSQLiteOpenHelper.KEY_UUID + " IN (" +
-            " SELECT " + OfflineSQLiteOpenHelper.KEY_UUID + " FROM " + OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES +
-            " GROUP BY " + OfflineSQLiteOpenHelper.KEY_UUID +
-            " HAVING COUNT(" + OfflineSQLiteOpenHelper.KEY_UUID + ")=1" +
-            ")";
-        String[] args = {key};
-        return db.rawQueryAsync(sql, args);
+      public Task<Long> then(Task<Long> task) throws Exception {
+        pageCount.set(task.getResult());
+        return queryLongAsync("PRAGMA freelist_count", db);
       }
-    }).onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+    }).onSuccessTask(new Continuation<Long, Task<Long>>() {
       @Override
-      public Task<Void> then(Task<Cursor> task) throws Exception {
-        // DELETE FROM Objects
+      public Task<Long> then(Task<Long> task) throws Exception {
+        pageCount.set(pageCount.get() - task.getResult());
+        return queryLongAsync("PRAGMA page_size", db);
+      }
+    }).onSuccess(new Continuation<Long, Long>() {
+      @Override
+      public Long then(Task<Long> task) throws Exception {
+        return pageCount.get() * task.getResult();
+      }
+    });
+  }
 
+  private static Task<Long> queryLongAsync(String sql, ParseSQLiteDatabase db) {
+    return db.rawQueryAsync(sql, new String[0]).onSuccess(new Continuation<Cursor, Long>() {
+      @Override
+      public Long then(Task<Cursor> task) throws Exception {
         Cursor cursor = task.getResult();
-        while (cursor.moveToNext()) {
-          uuidsToDelete.add(cursor.getString(0));
+        try {
+          return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+          cursor.close();
         }
-        cursor.close();
-
-        return deleteObjects(uuidsToDelete, db);
-      }
-    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
-      @Override
-      public Task<Void> then(Task<Void> task) throws Exception {
-        // DELETE FROM Dependencies
-        String where = OfflineSQLiteOpenHelper.KEY_KEY + "=?";
-        String[] args = {key};
-        return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_DEPENDENCIES, where, args);
       }
-    }).onSuccess(new Continuation<Void, Void>() {
+    });
+  }
+
+  /**
+   * Unpins the least recently used evictable pin, unless it's the only one left. The pins in
+   * {@link #RESERVED_PIN_NAMES} are never unpinned.
+   *
+   * @return Whether a pin was unpinned.
+   */
+  private Task<Boolean> evictLeastRecentlyUsedPinAsync() {
+    final Capture<Boolean> evicted = new Capture<>(false);
+    return runWithManagedTransaction(new SQLiteDatabaseCallable<Task<Void>>() {
       @Override
-      public Void then(Task<Void> task) throws Exception {
-        synchronized (lock) {
-          // Remove uuids from memory
-          for (String uuid : uuidsToDelete) {
-            ParseObject object = uuidToObjectMap.get(uuid);
-            if (object != null) {
-              objectToUuidMap.remove(object);
-              uuidToObjectMap.remove(uuid);
+      public Task<Void> call(final ParseSQLiteDatabase db) {
+        String[] placeholders = new String[RESERVED_PIN_NAMES.length];
+        Arrays.fill(placeholders, "?");
+        // LIKE ignores case and treats '_' as a wildcard, so prefixes are compared with substr.
+        List<String> prefixMatches = new ArrayList<>();
+        final List<String> args = new ArrayList<>(Arrays.asList(RESERVED_PIN_NAMES));
+        for (String prefix : evictablePinPrefixes) {
+          prefixMatches.add("substr(" + OfflineSQLiteOpenHelper.KEY_NAME + ", 1, " +
+              prefix.length() + ") = ?");
+          args.add(prefix);
+        }
+        final String sql = "SELECT " + OfflineSQLiteOpenHelper.KEY_NAME +
+            " FROM " + OfflineSQLiteOpenHelper.TABLE_PIN_ACCESS +
+            " WHERE " + OfflineSQLiteOpenHelper.KEY_NAME + " NOT IN (" +
+            TextUtils.join(",", placeholders) + ")" +
+            " AND (" + TextUtils.join(" OR ", prefixMatches) + ")" +
+            " ORDER BY " + OfflineSQLiteOpenHelper.KEY_ACCESSED_AT +
+            " LIMIT 2";
+        // The pins that were queried last must be written before the least recently used one is
+        // picked.
+        return writePendingPinAccessesAsync(db).onSuccessTask(
+            new Continuation<Void, Task<Cursor>>() {
+          @Override
+          public Task<Cursor> then(Task<Void> task) throws Exception {
+            return db.rawQueryAsync(sql, args.toArray(new String[args.size()]));
+          }
+        }).onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Cursor> task) throws Exception {
+            List<String> names = new ArrayList<>();
+            Cursor cursor = task.getResult();
+            while (cursor.moveToNext()) {
+              names.add(cursor.getString(0));
+            }
+            cursor.close();
+
+            if (names.size() < 2) {
+              return Task.forResult(null);
             }
+            evicted.set(true);
+            return unpinAllObjectsAsync(names.get(0), db);
           }
-        }
-        return null;
+        });
+      }
+    }).onSuccess(new Continuation<Void, Boolean>() {
+      @Override
+      public Boolean then(Task<Void> task) throws Exception {
+        return evicted.get();
       }
     });
   }
 
+  //endregion
+
   private Task<Void> deleteObjects(final List<String> uuids, final ParseSQLiteDatabase db) {
     if (uuids.size() <= 0) {
       return Task.forResult(null);
@@ -931,7 +2551,52 @@ import bolts.TaskCompletionSource;
     String where = OfflineSQLiteOpenHelper.KEY_UUID + " IN (" + TextUtils.join(",", placeholders) + ")";
     // dynamic args
     String[] args = uuids.toArray(new String[uuids.size()]);
-    return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, where, args);
+    synchronized (lock) {
+      pendingChanges.deletedUUIDs.addAll(uuids);
+    }
+    List<Task<Void>> tasks = new ArrayList<>();
+    tasks.add(db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, where, args));
+    tasks.add(deletePointersAsync(where, args, db));
+    if (!indexes.isEmpty()) {
+      tasks.add(OfflineIndexes.deleteAsync(where, args, db));
+    }
+    return Task.whenAll(tasks);
+  }
+
+  /**
+   * Removes the Pointers of the objects that match {@code where}, which are being deleted, and
+   * records the objects they pointed to as unpinned.
+   */
+  private Task<Void> deletePointersAsync(final String where, final String[] args,
+      final ParseSQLiteDatabase db) {
+    String[] select = { OfflineSQLiteOpenHelper.KEY_POINTED_UUID };
+    return db.queryAsync(OfflineSQLiteOpenHelper.TABLE_POINTERS, select, where, args)
+        .onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Cursor> task) throws Exception {
+        final List<Object[]> unpointedRows = new ArrayList<>();
+        for (String uuid : readUUIDs(task.getResult())) {
+          unpointedRows.add(new Object[] { uuid });
+        }
+        if (unpointedRows.isEmpty()) {
+          return Task.forResult(null);
+        }
+        return db.executeAsync(RECORD_UNPOINTED_SQL, unpointedRows).onSuccessTask(
+            new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_POINTERS, where, args);
+          }
+        }).onSuccess(new Continuation<Void, Void>() {
+          @Override
+          public Void then(Task<Void> task) throws Exception {
+            // This waits for the current transaction to finish, since connections are serialized.
+            collectGarbageAsync();
+            return null;
+          }
+        });
+      }
+    });
   }
 
   /**
@@ -978,9 +2643,7 @@ import bolts.TaskCompletionSource;
                   // } finally {
                   @Override
                   public Task<Void> then(Task<Void> task) throws Exception {
-                    db.endTransactionAsync();
-                    db.closeAsync();
-                    return task;
+                    return endTransactionAndCloseAsync(db, task);
                   }
                 });
               }
@@ -1016,28 +2679,113 @@ import bolts.TaskCompletionSource;
       final String uuid,
       final ParseObject object,
       final ParseSQLiteDatabase db) {
+    return updateDataForObjectAsync(uuid, object, null, db);
+  }
+
+  /**
+   * Writes the data of an object to its row, unless it's the same as {@code storedData}.
+   *
+   * @param storedData
+   *          The JSON column of the row, as returned by {@link #readData(Cursor, int)}, or
+   *          {@code null} to always write the data.
+   */
+  private Task<Void> updateDataForObjectAsync(
+      final String uuid,
+      final ParseObject object,
+      final Object storedData,
+      final ParseSQLiteDatabase db) {
+    return encodeDataAsync(uuid, object, storedData, db).onSuccessTask(
+        new Continuation<EncodedData, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<EncodedData> task) throws Exception {
+        final EncodedData encoded = task.getResult();
+        if (encoded == null) {
+          return Task.forResult(null);
+        }
+        synchronized (lock) {
+          pendingChanges.updatedUUIDs.add(uuid);
+        }
+        return db.executeAsync(UPDATE_DATA_SQL, Collections.singletonList(encoded.row))
+            .onSuccessTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            return indexes.updateAsync(uuid, object, db);
+          }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            return updatePointersAsync(
+                Collections.singletonMap(uuid, encoded.offlineObjectUUIDs), db);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * The data of an object, encoded for its row by {@link #encodeDataAsync}.
+   */
+  private static class EncodedData {
+    // The arguments for UPDATE_DATA_SQL.
+    private final Object[] row;
+    // The unsaved objects that the data points to.
+    private final Set<String> offlineObjectUUIDs;
+
+    private EncodedData(Object[] row, Set<String> offlineObjectUUIDs) {
+      this.row = row;
+      this.offlineObjectUUIDs = offlineObjectUUIDs;
+    }
+  }
+
+  /**
+   * Encodes the data of an object for its row.
+   *
+   * @param storedData
+   *          The JSON column of the row, as returned by {@link #readData(Cursor, int)}, or
+   *          {@code null} to always write the data.
+   * @return The encoded data, or {@code null} if the data is the same as {@code storedData}.
+   */
+  private Task<EncodedData> encodeDataAsync(
+      final String uuid,
+      final ParseObject object,
+      final Object storedData,
+      final ParseSQLiteDatabase db) {
     // Now actually encode the object as JSON.
     OfflineEncoder encoder = new OfflineEncoder(db);
     final JSONObject json = object.toRest(encoder);
 
-    return encoder.whenFinished().onSuccessTask(new Continuation<Void, Task<Void>>() {
+    return encoder.whenFinished().onSuccess(new Continuation<Void, EncodedData>() {
       @Override
-      public Task<Void> then(Task<Void> task) throws Exception {
-        // Put the JSON in the database.
-        String className = object.getClassName();
-        String objectId = object.getObjectId();
-        int isDeletingEventually = json.getInt(ParseObject.KEY_IS_DELETING_EVENTUALLY);
-
-        final ContentValues values = new ContentValues();
-        values.put(OfflineSQLiteOpenHelper.KEY_CLASS_NAME, className);
-        values.put(OfflineSQLiteOpenHelper.KEY_JSON, json.toString());
-        if (objectId != null) {
-          values.put(OfflineSQLiteOpenHelper.KEY_OBJECT_ID, objectId);
+      public EncodedData then(Task<Void> task) throws Exception {
+        Object data;
+        if (helper.isCompact()) {
+          data = OfflineBinaryCoder.encode(json);
+          if (storedData instanceof byte[] && Arrays.equals((byte[]) data, (byte[]) storedData)) {
+            // Every other column is derived from the data, so nothing has changed.
+            return null;
+          }
+        } else {
+          data = json.toString();
+          if (data.equals(storedData)) {
+            // Every other column is derived from the data, so nothing has changed.
+            return null;
+          }
         }
-        values.put(OfflineSQLiteOpenHelper.KEY_IS_DELETING_EVENTUALLY, isDeletingEventually);
-        String where = OfflineSQLiteOpenHelper.KEY_UUID + " = ?";
-        String[] args = {uuid};
-        return db.updateAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, values, where, args).makeVoid();
+        Object[] row = {
+            object.getClassName(),
+            data,
+            object.getObjectId(),
+            json.getInt(ParseObject.KEY_IS_DELETING_EVENTUALLY),
+            OfflineSQLiteOpenHelper.getDateColumn(OfflineSQLiteOpenHelper.KEY_CREATED_AT, json),
+            OfflineSQLiteOpenHelper.getDateColumn(OfflineSQLiteOpenHelper.KEY_UPDATED_AT, json),
+            OfflineSQLiteOpenHelper.getCompleteColumn(json),
+            uuid
+        };
+        // Everything that a pin points to depends on it, so its Pointers wouldn't keep anything.
+        Set<String> offlineObjectUUIDs = object instanceof ParsePin
+            ? Collections.<String>emptySet()
+            : getOfflineObjectUUIDs(json);
+        return new EncodedData(row, offlineObjectUUIDs);
       }
     });
   }
@@ -1059,9 +2807,7 @@ import bolts.TaskCompletionSource;
               // } finally {
               @Override
               public Task<Void> then(Task<Void> task) throws Exception {
-                db.endTransactionAsync();
-                db.closeAsync();
-                return task;
+                return endTransactionAndCloseAsync(db, task);
               }
             });
           }
@@ -1156,10 +2902,21 @@ import bolts.TaskCompletionSource;
     }).onSuccessTask(new Continuation<Void, Task<Void>>() {
       @Override
       public Task<Void> then(Task<Void> task) throws Exception {
+        synchronized (lock) {
+          pendingChanges.deletedUUIDs.add(uuid.get());
+        }
         String where = OfflineSQLiteOpenHelper.KEY_UUID + "=?";
         String[] args = {uuid.get()};
         return db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, where, args);
       }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        if (indexes.isEmpty()) {
+          return task;
+        }
+        return OfflineIndexes.deleteAsync(uuid.get(), db);
+      }
     }).onSuccessTask(new Continuation<Void, Task<Void>>() {
       @Override
       public Task<Void> then(Task<Void> task) throws Exception {
@@ -1169,11 +2926,323 @@ import bolts.TaskCompletionSource;
           // getting the uuid requires a task and things might get a little funky...
           fetchedObjects.remove(object);
         }
-        return task;
+        return task;
+      }
+    });
+  }
+
+  //region Indexes
+
+  /**
+   * Makes sure that every indexed key has rows for all of the objects that are already in the
+   * database, and removes the rows of keys that aren't indexed anymore. Each key is only used by
+   * queries once it's known to be complete. If this fails, the keys that weren't complete yet are
+   * just never used, so queries on them are still correct, only slower. Text-indexed keys are
+   * handled the same way.
+   * <p/>
+   * This also runs when no keys are configured. Rows aren't maintained for keys that aren't
+   * configured, so the rows of a key that was built by an earlier session have to be removed
+   * before anything else is written, or a later session that indexes the key again would trust
+   * them.
+   */
+  private Task<Void> buildIndexesAsync() {
+    final Map<String, Set<String>> builtKeys = new HashMap<>();
+    final Map<String, Set<String>> builtTextKeys = new HashMap<>();
+    return Task.<Void>forResult(null).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        // Opened from a continuation, so that a database that can't be opened fails this task
+        // instead of the constructor. It still runs right away, before any other writer.
+        return reconcileIndexesAsync(builtKeys, builtTextKeys);
+      }
+    }).continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        boolean isComplete = !task.isFaulted() && !task.isCancelled();
+        Map<String, Set<String>> readyKeys = isComplete ? indexes.configuredKeys() : builtKeys;
+        for (Map.Entry<String, Set<String>> entry : readyKeys.entrySet()) {
+          for (String key : entry.getValue()) {
+            indexes.setReady(entry.getKey(), key);
+          }
+        }
+        Map<String, Set<String>> readyTextKeys = isComplete
+            ? indexes.configuredTextKeys()
+            : builtTextKeys;
+        for (Map.Entry<String, Set<String>> entry : readyTextKeys.entrySet()) {
+          for (String key : entry.getValue()) {
+            indexes.setTextReady(entry.getKey(), key);
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Removes the rows of the keys that aren't configured anymore, and builds the configured keys
+   * that aren't complete yet. The keys that were already complete are added to {@code builtKeys}
+   * and {@code builtTextKeys}.
+   */
+  private Task<Void> reconcileIndexesAsync(final Map<String, Set<String>> builtKeys,
+      final Map<String, Set<String>> builtTextKeys) {
+    return runWithManagedTransaction(new SQLiteDatabaseCallable<Task<Void>>() {
+      @Override
+      public Task<Void> call(final ParseSQLiteDatabase db) {
+        String[] select = {
+            OfflineSQLiteOpenHelper.KEY_CLASS_NAME, OfflineSQLiteOpenHelper.KEY_KEY };
+        return db.queryAsync(OfflineSQLiteOpenHelper.TABLE_INDEXED_KEYS, select, null, null)
+            .onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Cursor> task) throws Exception {
+            Cursor cursor = task.getResult();
+            List<Task<Void>> tasks = new ArrayList<>();
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+              String className = cursor.getString(0);
+              String key = cursor.getString(1);
+              String textKey = OfflineIndexes.fromTextIndexKey(key);
+              if (textKey != null) {
+                if (indexes.configuredTextKeys(className).contains(textKey)) {
+                  addKey(builtTextKeys, className, textKey);
+                } else {
+                  tasks.add(dropTextIndexAsync(className, textKey, db));
+                }
+              } else if (indexes.configuredKeys(className).contains(key)) {
+                addKey(builtKeys, className, key);
+              } else {
+                tasks.add(dropIndexAsync(className, key, db));
+              }
+            }
+            cursor.close();
+            return Task.whenAll(tasks);
+          }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            // Build the missing keys one class at a time, they all share the same connection.
+            Task<Void> buildTask = buildMissingKeysAsync(Task.<Void>forResult(null),
+                indexes.configuredKeys(), builtKeys, false, db);
+            return buildMissingKeysAsync(buildTask, indexes.configuredTextKeys(), builtTextKeys,
+                true, db);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Chains building the configured keys that aren't built yet onto {@code buildTask}.
+   */
+  private Task<Void> buildMissingKeysAsync(Task<Void> buildTask,
+      Map<String, Set<String>> configuredKeys, Map<String, Set<String>> builtKeys,
+      final boolean isText, final ParseSQLiteDatabase db) {
+    for (Map.Entry<String, Set<String>> entry : configuredKeys.entrySet()) {
+      final String className = entry.getKey();
+      final List<String> missingKeys = new ArrayList<>(entry.getValue());
+      Set<String> built = builtKeys.get(className);
+      if (built != null) {
+        missingKeys.removeAll(built);
+      }
+      if (missingKeys.isEmpty()) {
+        continue;
+      }
+      buildTask = buildTask.onSuccessTask(new Continuation<Void, Task<Void>>() {
+        @Override
+        public Task<Void> then(Task<Void> task) throws Exception {
+          return buildIndexAsync(className, missingKeys, isText, db);
+        }
+      });
+    }
+    return buildTask;
+  }
+
+  private static void addKey(Map<String, Set<String>> keys, String className, String key) {
+    Set<String> classKeys = keys.get(className);
+    if (classKeys == null) {
+      classKeys = new HashSet<>();
+      keys.put(className, classKeys);
+    }
+    classKeys.add(key);
+  }
+
+  /**
+   * Removes all of the rows of a key that isn't indexed anymore.
+   */
+  private Task<Void> dropIndexAsync(String className, String key, ParseSQLiteDatabase db) {
+    String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ? AND " +
+        OfflineSQLiteOpenHelper.KEY_KEY + " = ?";
+    String[] args = { className, key };
+    return Task.whenAll(Arrays.asList(
+        OfflineIndexes.deleteValuesAsync(where, args, db),
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_INDEXED_KEYS, where, args)));
+  }
+
+  /**
+   * Removes all of the full-text rows of a key that isn't text-indexed anymore.
+   */
+  private Task<Void> dropTextIndexAsync(String className, String key, ParseSQLiteDatabase db) {
+    String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ? AND " +
+        OfflineSQLiteOpenHelper.KEY_KEY + " = ?";
+    return Task.whenAll(Arrays.asList(
+        OfflineIndexes.deleteTextAsync(where, new String[] { className, key }, db),
+        db.deleteAsync(OfflineSQLiteOpenHelper.TABLE_INDEXED_KEYS, where,
+            new String[] { className, OfflineIndexes.toTextIndexKey(key) })));
+  }
+
+  /**
+   * Adds rows for the given keys for every object of a class that's in the database, and records
+   * that the keys are complete. If {@code isText} is set, the keys are text-indexed keys and their
+   * rows go in the full-text index instead.
+   */
+  private Task<Void> buildIndexAsync(final String className, final List<String> keys,
+      final boolean isText, final ParseSQLiteDatabase db) {
+    // Throw away any rows that were written before the key was complete, we're rewriting them all.
+    String[] placeholders = new String[keys.size()];
+    Arrays.fill(placeholders, "?");
+    String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ? AND " +
+        OfflineSQLiteOpenHelper.KEY_KEY + " IN (" + TextUtils.join(",", placeholders) + ")";
+    List<String> args = new ArrayList<>();
+    args.add(className);
+    args.addAll(keys);
+    String[] argsArray = args.toArray(new String[args.size()]);
+    Task<Void> deleteTask = isText
+        ? OfflineIndexes.deleteTextAsync(where, argsArray, db)
+        : OfflineIndexes.deleteValuesAsync(where, argsArray, db);
+    return deleteTask.onSuccessTask(new Continuation<Void, Task<Cursor>>() {
+      @Override
+      public Task<Cursor> then(Task<Void> task) throws Exception {
+        String[] select = { OfflineSQLiteOpenHelper.KEY_UUID, OfflineSQLiteOpenHelper.KEY_JSON };
+        String where = OfflineSQLiteOpenHelper.KEY_CLASS_NAME + " = ? AND " +
+            OfflineSQLiteOpenHelper.KEY_JSON + " IS NOT NULL";
+        String[] args = { className };
+        return db.queryAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, select, where, args);
+      }
+    }).onSuccessTask(new Continuation<Cursor, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Cursor> task) throws Exception {
+        Cursor cursor = task.getResult();
+        List<Task<Void>> tasks = new ArrayList<>();
+        List<String> uuidsToDecode = new ArrayList<>();
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+          String uuid = cursor.getString(0);
+          JSONObject json;
+          try {
+            json = OfflineBinaryCoder.read(cursor, 1);
+          } catch (JSONException e) {
+            continue;
+          }
+          // Incomplete objects never match queries, so they aren't indexed.
+          if (!json.optBoolean("__complete")) {
+            continue;
+          }
+          if (hasOperations(json, keys)) {
+            // The value depends on operations that haven't been saved yet.
+            uuidsToDecode.add(uuid);
+            continue;
+          }
+          if (isText) {
+            Map<String, String> texts = new HashMap<>();
+            for (String key : keys) {
+              String text = OfflineIndexes.toText(json.opt(key));
+              if (text != null) {
+                texts.put(key, text);
+              }
+            }
+            tasks.add(indexes.insertTextAsync(uuid, className, texts, db));
+            continue;
+          }
+          Map<String, List<OfflineIndexes.Value>> values = new HashMap<>();
+          for (String key : keys) {
+            if (json.has(key)) {
+              values.put(key, OfflineIndexes.toValuesFromJSON(json.opt(key)));
+            }
+          }
+          tasks.add(indexes.insertAsync(uuid, className, values, db));
+        }
+        cursor.close();
+
+        Task<Void> insertTask = Task.whenAll(tasks);
+        for (final String uuid : uuidsToDecode) {
+          insertTask = insertTask.onSuccessTask(new Continuation<Void, Task<ParseObject>>() {
+            @Override
+            public Task<ParseObject> then(Task<Void> task) throws Exception {
+              return getPointerAsync(uuid, db);
+            }
+          }).onSuccessTask(new Continuation<ParseObject, Task<ParseObject>>() {
+            @Override
+            public Task<ParseObject> then(Task<ParseObject> task) throws Exception {
+              return fetchLocallyAsync(task.getResult(), db);
+            }
+          }).onSuccessTask(new Continuation<ParseObject, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<ParseObject> task) throws Exception {
+              ParseObject object = task.getResult();
+              if (isText) {
+                Map<String, String> texts = new HashMap<>();
+                if (object.isDataAvailable()) {
+                  for (String key : keys) {
+                    String text = OfflineIndexes.toText(object.get(key));
+                    if (text != null) {
+                      texts.put(key, text);
+                    }
+                  }
+                }
+                return indexes.insertTextAsync(uuid, className, texts, db);
+              }
+              Map<String, List<OfflineIndexes.Value>> values = new HashMap<>();
+              if (object.isDataAvailable()) {
+                for (String key : keys) {
+                  if (object.containsKey(key)) {
+                    values.put(key, OfflineIndexes.toValues(object.get(key)));
+                  }
+                }
+              }
+              return indexes.insertAsync(uuid, className, values, db);
+            }
+          });
+        }
+        return insertTask;
+      }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        List<Task<Void>> tasks = new ArrayList<>();
+        for (String key : keys) {
+          ContentValues values = new ContentValues();
+          values.put(OfflineSQLiteOpenHelper.KEY_CLASS_NAME, className);
+          values.put(OfflineSQLiteOpenHelper.KEY_KEY,
+              isText ? OfflineIndexes.toTextIndexKey(key) : key);
+          tasks.add(db.insertWithOnConflict(OfflineSQLiteOpenHelper.TABLE_INDEXED_KEYS, values,
+              SQLiteDatabase.CONFLICT_REPLACE));
+        }
+        return Task.whenAll(tasks);
       }
     });
   }
 
+  /**
+   * @return {@code true} if any of the object's pending operations change any of the given keys.
+   */
+  private static boolean hasOperations(JSONObject json, List<String> keys) {
+    JSONArray operations = json.optJSONArray("__operations");
+    if (operations == null) {
+      return false;
+    }
+    for (int i = 0; i < operations.length(); i++) {
+      JSONObject operationSet = operations.optJSONObject(i);
+      if (operationSet == null) {
+        continue;
+      }
+      for (String key : keys) {
+        if (operationSet.has(key)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //endregion
+
   //region ParsePin
 
   private Task<ParsePin> getParsePin(final String name, ParseSQLiteDatabase db) {
@@ -1212,6 +3281,14 @@ import bolts.TaskCompletionSource;
       public Task<Void> call(ParseSQLiteDatabase db) {
         return pinAllObjectsAsync(name, objects, includeChildren, db);
       }
+    }).onSuccess(new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        if (hasQuota()) {
+          enforceQuotaAsync();
+        }
+        return null;
+      }
     });
   }
 
@@ -1247,10 +3324,18 @@ import bolts.TaskCompletionSource;
         }
         pin.setObjects(modified);
 
+        Task<Void> saveTask;
         if (includeChildren) {
-          return saveLocallyAsync(pin, true, db);
+          saveTask = saveLocallyAsync(pin, true, db);
+        } else {
+          saveTask = saveLocallyAsync(pin, pin.getObjects(), db);
         }
-        return saveLocallyAsync(pin, pin.getObjects(), db);
+        return saveTask.onSuccessTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            return recordPinAccessAsync(name, db);
+          }
+        });
       }
     });
   }
@@ -1267,7 +3352,7 @@ import bolts.TaskCompletionSource;
   }
 
   private <T extends ParseObject> Task<Void> unpinAllObjectsAsync(
-      String name,
+      final String name,
       final List<T> objects,
       final ParseSQLiteDatabase db) {
     if (objects == null || objects.size() == 0) {
@@ -1293,7 +3378,12 @@ import bolts.TaskCompletionSource;
 
         modified.removeAll(objects);
         if (modified.size() == 0) {
-          return unpinAsync(pin, db);
+          return unpinAsync(pin, db).onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+              return forgetPinAccessAsync(name, db);
+            }
+          });
         }
         pin.setObjects(modified);
 
@@ -1321,6 +3411,11 @@ import bolts.TaskCompletionSource;
         ParsePin pin = task.getResult();
         return unpinAsync(pin, db);
       }
+    }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> task) throws Exception {
+        return forgetPinAccessAsync(name, db);
+      }
     });
   }
 
@@ -1328,12 +3423,15 @@ import bolts.TaskCompletionSource;
       final String name,
       final ParseQuery.State<T> state,
       final ParseUser user) {
-    return runWithManagedConnection(new SQLiteDatabaseCallable<Task<List<T>>>() {
+    Task<List<T>> task =
+        runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<List<T>>>() {
       @Override
       public Task<List<T>> call(ParseSQLiteDatabase db) {
         return findFromPinAsync(name, state, user, db);
       }
     });
+    recordPinAccess(name);
+    return task;
   }
 
   private <T extends ParseObject> Task<List<T>> findFromPinAsync(
@@ -1360,12 +3458,15 @@ import bolts.TaskCompletionSource;
       final String name,
       final ParseQuery.State<T> state,
       final ParseUser user) {
-    return runWithManagedConnection(new SQLiteDatabaseCallable<Task<Integer>>() {
+    Task<Integer> task =
+        runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<Integer>>() {
       @Override
       public Task<Integer> call(ParseSQLiteDatabase db) {
         return countFromPinAsync(name, state, user, db);
       }
     });
+    recordPinAccess(name);
+    return task;
   }
 
   private <T extends ParseObject> Task<Integer> countFromPinAsync(
@@ -1383,14 +3484,403 @@ import bolts.TaskCompletionSource;
       @Override
       public Task<Integer> then(Task<ParsePin> task) throws Exception {
         ParsePin pin = task.getResult();
-        return findAsync(state, user, pin, true, db).onSuccess(new Continuation<List<T>, Integer>() {
+        return countAsync(state, user, pin, db);
+      }
+    });
+  }
+
+  /**
+   * The settings of an {@code OfflineStore} that don't depend on how the database is opened.
+   */
+  /* package */ static final class Options {
+
+    /* package */ static final Options DEFAULT = new Builder().build();
+
+    /* package */ static final class Builder {
+      private Map<String, Set<String>> indexes = Collections.emptyMap();
+      private Map<String, Set<String>> textIndexes = Collections.emptyMap();
+      private long maxBytes;
+      private int maxObjects;
+      private List<String> evictablePinPrefixes = Collections.emptyList();
+
+      /**
+       * @param indexes The keys that should be indexed, by class name.
+       */
+      public Builder indexes(Map<String, Set<String>> indexes) {
+        this.indexes = indexes;
+        return this;
+      }
+
+      /**
+       * @param textIndexes The keys that should be indexed for full-text search, by class name.
+       */
+      public Builder textIndexes(Map<String, Set<String>> textIndexes) {
+        this.textIndexes = textIndexes;
+        return this;
+      }
+
+      /**
+       * @param maxBytes The most bytes the database should hold, or 0 for no limit.
+       * @param maxObjects The most objects the database should hold, or 0 for no limit.
+       * @param evictablePinPrefixes The prefixes of the names of the pins that may be unpinned to
+       *                             stay within the limit.
+       */
+      public Builder quota(long maxBytes, int maxObjects, List<String> evictablePinPrefixes) {
+        this.maxBytes = maxBytes;
+        this.maxObjects = maxObjects;
+        this.evictablePinPrefixes = evictablePinPrefixes;
+        return this;
+      }
+
+      public Options build() {
+        return new Options(this);
+      }
+    }
+
+    /* package */ final Map<String, Set<String>> indexes;
+    /* package */ final Map<String, Set<String>> textIndexes;
+    /* package */ final long maxBytes;
+    /* package */ final int maxObjects;
+    /* package */ final List<String> evictablePinPrefixes;
+
+    private Options(Builder builder) {
+      this.indexes = builder.indexes;
+      this.textIndexes = builder.textIndexes;
+      this.maxBytes = builder.maxBytes;
+      this.maxObjects = builder.maxObjects;
+      this.evictablePinPrefixes = builder.evictablePinPrefixes;
+    }
+  }
+
+  /**
+   * A window of a query's candidates, as read by
+   * {@link #findWindowFromPinAsync(String, ParseQuery.State, ParseUser, int, int)}.
+   */
+  /* package */ static class CandidateWindow<T extends ParseObject> {
+    private final List<T> matches;
+    private final int candidateCount;
+    private final boolean isLast;
+
+    private CandidateWindow(List<T> matches, int candidateCount, boolean isLast) {
+      this.matches = matches;
+      this.candidateCount = candidateCount;
+      this.isLast = isLast;
+    }
+
+    /**
+     * @return The candidates that match the query, in the query's order.
+     */
+    public List<T> matches() {
+      return matches;
+    }
+
+    /**
+     * @return How many candidates were read, which is where the next window starts.
+     */
+    public int candidateCount() {
+      return candidateCount;
+    }
+
+    /**
+     * @return {@code true} if there are no more candidates after this window.
+     */
+    public boolean isLast() {
+      return isLast;
+    }
+  }
+
+  /**
+   * Reads {@code count} of a query's candidates, starting at {@code offset}, and returns the ones
+   * that match. Only the objects in the window are loaded. The query's skip and limit are ignored,
+   * they're up to the caller.
+   *
+   * If SQLite can't sort the candidates, they all have to be loaded to be sorted, so all of the
+   * matches are returned as a single window.
+   */
+  /* package */ <T extends ParseObject> Task<CandidateWindow<T>> findWindowFromPinAsync(
+      final String name,
+      final ParseQuery.State<T> state,
+      final ParseUser user,
+      final int offset,
+      final int count) {
+    Task<CandidateWindow<T>> task =
+        runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<CandidateWindow<T>>>() {
+      @Override
+      public Task<CandidateWindow<T>> call(ParseSQLiteDatabase db) {
+        return findWindowFromPinAsync(name, state, user, offset, count, db);
+      }
+    });
+    recordPinAccess(name);
+    return task;
+  }
+
+  private <T extends ParseObject> Task<CandidateWindow<T>> findWindowFromPinAsync(
+      final String name,
+      final ParseQuery.State<T> state,
+      final ParseUser user,
+      final int offset,
+      final int count,
+      final ParseSQLiteDatabase db) {
+    Task<ParsePin> task;
+    if (name != null) {
+      task = getParsePin(name, db);
+    } else {
+      task = Task.forResult(null);
+    }
+    return task.onSuccessTask(new Continuation<ParsePin, Task<CandidateWindow<T>>>() {
+      @Override
+      public Task<CandidateWindow<T>> then(Task<ParsePin> task) throws Exception {
+        ParsePin pin = task.getResult();
+        final OfflineQueryPlanner.Plan plan = planner.plan(state, false).withoutPaging();
+        if (!plan.isOrderPushed()) {
+          // A count ignores the skip and limit, which is what we want here.
+          return findAsync(state, user, pin, true, db).onSuccess(
+              new Continuation<List<T>, CandidateWindow<T>>() {
+            @Override
+            public CandidateWindow<T> then(Task<List<T>> task) throws Exception {
+              List<T> matches = task.getResult();
+              return new CandidateWindow<>(matches, matches.size(), true);
+            }
+          });
+        }
+
+        Task<String> pinUUIDTask;
+        if (pin == null) {
+          pinUUIDTask = Task.forResult(null);
+        } else {
+          pinUUIDTask = objectToUuidMap.get(pin);
+          if (pinUUIDTask == null) {
+            // Pin was never saved locally, therefore there won't be any results.
+            return Task.forResult(new CandidateWindow<>(new ArrayList<T>(), 0, true));
+          }
+        }
+
+        final Capture<Integer> candidateCount = new Capture<>(0);
+        return pinUUIDTask.onSuccessTask(new Continuation<String, Task<Cursor>>() {
+          @Override
+          public Task<Cursor> then(Task<String> task) throws Exception {
+            return queryUUIDsAsync(state.className(), task.getResult(), false,
+                plan.withCandidateWindow(offset, count), db);
+          }
+        }).onSuccessTask(new Continuation<Cursor, Task<List<T>>>() {
+          @Override
+          public Task<List<T>> then(Task<Cursor> task) throws Exception {
+            List<String> uuids = readUUIDs(task.getResult());
+            candidateCount.set(uuids.size());
+            return matchAsync(state, user, plan, uuids, db);
+          }
+        }).onSuccess(new Continuation<List<T>, CandidateWindow<T>>() {
+          @Override
+          public CandidateWindow<T> then(Task<List<T>> task) throws Exception {
+            return new CandidateWindow<>(
+                task.getResult(), candidateCount.get(), candidateCount.get() < count);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Fetches the includes of the given results of a query.
+   */
+  /* package */ <T extends ParseObject> Task<Void> fetchIncludesAsync(
+      final List<T> objects,
+      final ParseQuery.State<T> state) {
+    return runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<Void>>() {
+      @Override
+      public Task<Void> call(ParseSQLiteDatabase db) {
+        return OfflineQueryLogic.fetchIncludesAsync(OfflineStore.this, objects, state, db);
+      }
+    });
+  }
+
+  //endregion
+
+  //region Change notifications
+
+  /**
+   * The objects that were changed by a transaction, by UUID.
+   */
+  /* package */ static class ChangeSet {
+    private final Set<String> updatedUUIDs = new HashSet<>();
+    private final Set<String> repinnedUUIDs = new HashSet<>();
+    private final Set<String> deletedUUIDs = new HashSet<>();
+
+    /**
+     * @return The objects whose data was written.
+     */
+    public Set<String> updatedUUIDs() {
+      return updatedUUIDs;
+    }
+
+    /**
+     * @return The objects that were added to or removed from a pin, or from the objects that are
+     * stored along with another object.
+     */
+    public Set<String> repinnedUUIDs() {
+      return repinnedUUIDs;
+    }
+
+    /**
+     * @return The objects that were deleted.
+     */
+    public Set<String> deletedUUIDs() {
+      return deletedUUIDs;
+    }
+
+    public boolean isEmpty() {
+      return updatedUUIDs.isEmpty() && repinnedUUIDs.isEmpty() && deletedUUIDs.isEmpty();
+    }
+  }
+
+  /* package */ interface ChangeListener {
+    /**
+     * Called once a transaction that changed objects has been committed, so that the changes are
+     * visible to queries. This is called on a background thread.
+     */
+    void onChange(ChangeSet changes);
+  }
+
+  /* package */ void addChangeListener(ChangeListener listener) {
+    synchronized (lock) {
+      changeListeners.add(listener);
+    }
+  }
+
+  /* package */ void removeChangeListener(ChangeListener listener) {
+    synchronized (lock) {
+      changeListeners.remove(listener);
+    }
+  }
+
+  private void notifyChangeListeners(ChangeSet changes) {
+    List<ChangeListener> listenersCopy;
+    synchronized (lock) {
+      listenersCopy = new ArrayList<>(changeListeners);
+    }
+    for (ChangeListener listener : listenersCopy) {
+      listener.onChange(changes);
+    }
+  }
+
+  /**
+   * Runs a query and returns its results by UUID, so that they can be matched up with the UUIDs of
+   * a {@link ChangeSet}.
+   *
+   * @param uuids
+   *          (Optional) The only objects to consider, such as the ones that were changed. In that
+   *          case the query's order, skip and limit are ignored. If {@code null}, this is the same
+   *          as {@link #findFromPinAsync(String, ParseQuery.State, ParseUser)}.
+   * @return The objects that match, by UUID, in the query's order.
+   */
+  /* package */ <T extends ParseObject> Task<Map<String, T>> findByUUIDFromPinAsync(
+      final String name,
+      final ParseQuery.State<T> state,
+      final ParseUser user,
+      final Collection<String> uuids) {
+    Task<Map<String, T>> task =
+        runWithManagedReadOnlyConnection(new SQLiteDatabaseCallable<Task<Map<String, T>>>() {
+      @Override
+      public Task<Map<String, T>> call(final ParseSQLiteDatabase db) {
+        Task<ParsePin> task;
+        if (name != null) {
+          task = getParsePin(name, db);
+        } else {
+          task = Task.forResult(null);
+        }
+        return task.onSuccessTask(new Continuation<ParsePin, Task<List<T>>>() {
           @Override
-          public Integer then(Task<List<T>> task) throws Exception {
-            return task.getResult().size();
+          public Task<List<T>> then(Task<ParsePin> task) throws Exception {
+            ParsePin pin = task.getResult();
+            if (uuids == null) {
+              return findAsync(state, user, pin, false, db);
+            }
+            return findAmongAsync(state, user, pin, new ArrayList<>(uuids), db);
+          }
+        }).onSuccess(new Continuation<List<T>, Map<String, T>>() {
+          @Override
+          public Map<String, T> then(Task<List<T>> task) throws Exception {
+            Map<String, T> results = new LinkedHashMap<>();
+            synchronized (lock) {
+              for (T object : task.getResult()) {
+                // Every result has been fetched, so it has a UUID.
+                results.put(objectToUuidMap.get(object).getResult(), object);
+              }
+            }
+            return results;
           }
         });
       }
     });
+    recordPinAccess(name);
+    return task;
+  }
+
+  /**
+   * Runs a query against only the objects with the given UUIDs. The query's order, skip and limit
+   * are ignored.
+   */
+  private <T extends ParseObject> Task<List<T>> findAmongAsync(
+      final ParseQuery.State<T> query,
+      final ParseUser user,
+      ParsePin pin,
+      final List<String> uuids,
+      final ParseSQLiteDatabase db) {
+    final List<T> results = new ArrayList<>();
+    if (uuids.isEmpty()) {
+      return Task.forResult(results);
+    }
+
+    Task<String> pinUUIDTask;
+    if (pin == null) {
+      pinUUIDTask = Task.forResult(null);
+    } else {
+      pinUUIDTask = objectToUuidMap.get(pin);
+      if (pinUUIDTask == null) {
+        // Pin was never saved locally, therefore there won't be any results.
+        return Task.forResult(results);
+      }
+    }
+
+    final OfflineQueryPlanner.Plan plan = planner.plan(query, true);
+    return pinUUIDTask.onSuccessTask(new Continuation<String, Task<List<Cursor>>>() {
+      @Override
+      public Task<List<Cursor>> then(Task<String> task) throws Exception {
+        String objects = OfflineQueryPlanner.TABLE_ALIAS;
+        List<Task<Cursor>> tasks = new ArrayList<>();
+        // The class, the pin and the plan use some of the variables.
+        int chunkSize = MAX_SQL_VARIABLES - 2 - plan.args().length;
+        for (int start = 0; start < uuids.size(); start += chunkSize) {
+          List<String> chunk = uuids.subList(start, Math.min(start + chunkSize, uuids.size()));
+          List<String> args = new ArrayList<>();
+          StringBuilder sql = new StringBuilder()
+              .append("SELECT ").append(objects).append(".")
+              .append(OfflineSQLiteOpenHelper.KEY_UUID);
+          appendCandidates(sql, args, query.className(), task.getResult(), false, plan);
+          String[] placeholders = new String[chunk.size()];
+          Arrays.fill(placeholders, "?");
+          sql.append(" AND ").append(objects).append(".").append(OfflineSQLiteOpenHelper.KEY_UUID)
+              .append(" IN (").append(TextUtils.join(",", placeholders)).append(")");
+          args.addAll(chunk);
+          tasks.add(db.rawQueryAsync(sql.toString(), args.toArray(new String[args.size()])));
+        }
+        return Task.whenAllResult(tasks);
+      }
+    }).onSuccessTask(new Continuation<List<Cursor>, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<List<Cursor>> task) throws Exception {
+        List<String> candidates = new ArrayList<>();
+        for (Cursor cursor : task.getResult()) {
+          candidates.addAll(readUUIDs(cursor));
+        }
+        return matchWindowsAsync(query, user, plan, candidates, 0, -1, results, db);
+      }
+    }).onSuccess(new Continuation<Void, List<T>>() {
+      @Override
+      public List<T> then(Task<Void> task) throws Exception {
+        return results;
+      }
+    });
   }
 
   //endregion
@@ -1401,6 +3891,10 @@ import bolts.TaskCompletionSource;
    * In-memory map of (className, objectId) -> ParseObject. This is used so that we can always
    * return the same instance for a given object. Objects in this map may or may not be in the
    * database.
+   * <p/>
+   * Every ParseObject with an objectId is registered here when it's created, including every object
+   * decoded from a network query, so instead of being guarded by {@link #lock} this is a concurrent
+   * map that removes the entries of collected objects by itself.
    */
   private final WeakValueHashMap<Pair<String, String>, ParseObject>
       classNameAndObjectIdToObjectMap = new WeakValueHashMap<>();
@@ -1410,22 +3904,18 @@ import bolts.TaskCompletionSource;
    * with this className and objectId.
    */
   /* package */ void registerNewObject(ParseObject object) {
-    synchronized (lock) {
-      String objectId = object.getObjectId();
-      if (objectId != null) {
-        String className = object.getClassName();
-        Pair<String, String> classNameAndObjectId = Pair.create(className, objectId);
-        classNameAndObjectIdToObjectMap.put(classNameAndObjectId, object);
-      }
+    String objectId = object.getObjectId();
+    if (objectId != null) {
+      String className = object.getClassName();
+      Pair<String, String> classNameAndObjectId = Pair.create(className, objectId);
+      classNameAndObjectIdToObjectMap.put(classNameAndObjectId, object);
     }
   }
 
   /* package */ void unregisterObject(ParseObject object) {
-    synchronized (lock) {
-      String objectId = object.getObjectId();
-      if (objectId != null) {
-        classNameAndObjectIdToObjectMap.remove(Pair.create(object.getClassName(), objectId));
-      }
+    String objectId = object.getObjectId();
+    if (objectId != null) {
+      classNameAndObjectIdToObjectMap.remove(Pair.create(object.getClassName(), objectId));
     }
   }
 
@@ -1441,10 +3931,7 @@ import bolts.TaskCompletionSource;
     }
 
     Pair<String, String> classNameAndObjectId = Pair.create(className, objectId);
-    // This lock should never be held by anyone doing disk or database access.
-    synchronized (lock) {
-      return classNameAndObjectIdToObjectMap.get(classNameAndObjectId);
-    }
+    return classNameAndObjectIdToObjectMap.get(classNameAndObjectId);
   }
 
   /**
@@ -1462,9 +3949,7 @@ import bolts.TaskCompletionSource;
        */
       if (object instanceof ParseInstallation
           && newObjectId == null) {
-        synchronized (lock) {
-          classNameAndObjectIdToObjectMap.remove(Pair.create(object.getClassName(), oldObjectId));
-        }
+        classNameAndObjectIdToObjectMap.remove(Pair.create(object.getClassName(), oldObjectId));
         return;
       } else {
         throw new RuntimeException("objectIds cannot be changed in offline mode.");
@@ -1474,26 +3959,32 @@ import bolts.TaskCompletionSource;
     String className = object.getClassName();
     Pair<String, String> classNameAndNewObjectId = Pair.create(className, newObjectId);
 
-    synchronized (lock) {
-      // See if there's already an entry for the new object id.
-      ParseObject existing = classNameAndObjectIdToObjectMap.get(classNameAndNewObjectId);
-      if (existing != null && existing != object) {
-        throw new RuntimeException("Attempted to change an objectId to one that's "
-            + "already known to the Offline Store.");
-      }
-
-      // Okay, all clear to add the new reference.
-      classNameAndObjectIdToObjectMap.put(classNameAndNewObjectId, object);
+    // Add the new reference, unless there's already an entry for the new object id.
+    ParseObject existing =
+        classNameAndObjectIdToObjectMap.putIfAbsent(classNameAndNewObjectId, object);
+    if (existing != null && existing != object) {
+      throw new RuntimeException("Attempted to change an objectId to one that's "
+          + "already known to the Offline Store.");
     }
   }
 
   //endregion
 
+  /**
+   * Wraps SQLite queries with a managed read-only SQLite connection, which can run at the same time
+   * as other connections.
+   */
+  private <T> Task<T> runWithManagedReadOnlyConnection(
+      final SQLiteDatabaseCallable<Task<T>> callable) {
+    return runWithManagedConnection(helper.getReadableDatabaseAsync(), callable);
+  }
+
   /**
    * Wraps SQLite operations with a managed SQLite connection.
    */
-  private <T> Task<T> runWithManagedConnection(final SQLiteDatabaseCallable<Task<T>> callable) {
-    return helper.getWritableDatabaseAsync().onSuccessTask(new Continuation<ParseSQLiteDatabase, Task<T>>() {
+  private <T> Task<T> runWithManagedConnection(Task<ParseSQLiteDatabase> dbTask,
+      final SQLiteDatabaseCallable<Task<T>> callable) {
+    return dbTask.onSuccessTask(new Continuation<ParseSQLiteDatabase, Task<T>>() {
       @Override
       public Task<T> then(Task<ParseSQLiteDatabase> task) throws Exception {
         final ParseSQLiteDatabase db = task.getResult();
@@ -1524,20 +4015,47 @@ import bolts.TaskCompletionSource;
               public Task<Void> then(Task<Void> task) throws Exception {
                 return db.setTransactionSuccessfulAsync();
               }
-            }).continueWithTask(new Continuation<Void, Task<Void>>() {
-              @Override
-              public Task<Void> then(Task<Void> task) throws Exception {
-                db.endTransactionAsync();
-                db.closeAsync();
-                return task;
-              }
             });
           }
+        }).continueWithTask(new Continuation<Void, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Void> task) throws Exception {
+            // Close the connection even if the transaction couldn't be started, or every
+            // connection after it would wait for it forever.
+            return endTransactionAndCloseAsync(db, task);
+          }
         });
       }
     });
   }
 
+  /**
+   * Ends the transaction of a writable connection and closes it.
+   *
+   * @return A task with the same result as {@code task}, which only finishes once the transaction
+   * is committed. Read-only connections don't wait for the writer, so they wouldn't see what was
+   * written if it finished any sooner. If the transaction succeeded, the change listeners are
+   * told about what it changed first.
+   */
+  private Task<Void> endTransactionAndCloseAsync(ParseSQLiteDatabase db, final Task<Void> task) {
+    final ChangeSet changes;
+    synchronized (lock) {
+      // No other transaction can start until this connection is closed.
+      changes = pendingChanges;
+      pendingChanges = new ChangeSet();
+    }
+    db.endTransactionAsync();
+    return db.closeAsync().continueWithTask(new Continuation<Void, Task<Void>>() {
+      @Override
+      public Task<Void> then(Task<Void> ignored) throws Exception {
+        if (!task.isFaulted() && !task.isCancelled() && !changes.isEmpty()) {
+          notifyChangeListeners(changes);
+        }
+        return task;
+      }
+    });
+  }
+
   private interface SQLiteDatabaseCallable<T> {
     T call(ParseSQLiteDatabase db);
   }
@@ -1546,6 +4064,13 @@ import bolts.TaskCompletionSource;
    * Methods for testing.
    */
 
+  /**
+   * @return A task that finishes once the indexes that were missing on startup have been built.
+   */
+  Task<Void> buildIndexesTask() {
+    return buildIndexesTask;
+  }
+
   /**
    * Clears all in-memory caches so that data must be retrieved from disk.
    */
@@ -1553,9 +4078,10 @@ import bolts.TaskCompletionSource;
     synchronized (lock) {
       uuidToObjectMap.clear();
       objectToUuidMap.clear();
-      classNameAndObjectIdToObjectMap.clear();
       fetchedObjects.clear();
+      lastAccessedPin = null;
     }
+    classNameAndObjectIdToObjectMap.clear();
   }
 
   /**
@@ -20,8 +20,13 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -49,7 +54,15 @@ public class Parse {
       private String clientKey;
       private String server;
       private boolean localDataStoreEnabled;
+      private Map<String, Set<String>> localIndexes = new HashMap<>();
+      private Map<String, Set<String>> localTextIndexes = new HashMap<>();
+      private boolean compactLocalDataStore;
+      private long localDataStoreMaxBytes;
+      private int localDataStoreMaxObjects;
+      private List<String> localDataStoreEvictablePins = Collections.emptyList();
       private OkHttpClient.Builder clientBuilder;
+      private boolean asyncNetworking;
+      private long objectBatchInterval;
 
       /**
        * Initialize a bulider with a given context.
@@ -166,6 +179,131 @@ public class Parse {
         return this;
       }
 
+      /**
+       * Index the given keys of pinned objects of a class, so that queries against the Local
+       * Datastore that constrain them don't have to decode every pinned object of the class.
+       * <p>
+       * Equality, {@code $ne}, {@code $in} and {@code $nin} constraints on strings, numbers,
+       * booleans, dates and saved {@code ParseObject}s can use the index, as can comparisons of
+       * numbers and dates. {@code ParseGeoPoint}s are indexed too, so that
+       * {@link ParseQuery#whereWithinKilometers}, {@link ParseQuery#whereWithinGeoBox} and
+       * {@link ParseQuery#whereWithinPolygon} only have to test the points close to the area they
+       * look at. Each element of an array is indexed separately. Indexes only help
+       * queries that use the Local Datastore, so this has no effect unless it is enabled.
+       * <p>
+       * The first time a key is indexed, the objects that are already pinned are indexed in the
+       * background. Keys that are no longer indexed are removed from the index.
+       * <p>
+       * The index is only updated when an object is stored in the Local Datastore, for example when
+       * it is pinned, fetched or saved, not when one of its keys is changed in memory. Results are
+       * still matched against the objects in memory, so an object isn't found if its unsaved
+       * changes no longer match the query, but an object that only matches because of unsaved
+       * changes isn't found until it is stored again.
+       *
+       * @param className The class of the objects to index.
+       * @param keys The keys to index. These cannot contain dots.
+       * @return The same builder, for easy chaining.
+       */
+      public Builder localIndex(String className, String... keys) {
+        addIndexedKeys(localIndexes, className, keys);
+        return this;
+      }
+
+      /**
+       * Index the text of the given keys of pinned objects of a class for full-text search, so
+       * that queries against the Local Datastore that use
+       * {@link ParseQuery#whereFullText(String, String)} on them don't have to decode every pinned
+       * object of the class.
+       * <p>
+       * String values are indexed, and so are the strings in array values. Text is split into
+       * words at anything other than letters and digits, and words are matched case insensitively.
+       * This has no effect unless the Local Datastore is enabled.
+       * <p>
+       * The first time a key is indexed, the objects that are already pinned are indexed in the
+       * background. Keys that are no longer indexed are removed from the index.
+       * <p>
+       * The index is only updated when an object is stored in the Local Datastore, for example when
+       * it is pinned, fetched or saved, not when one of its keys is changed in memory. Results are
+       * still matched against the objects in memory, so an object isn't found if its unsaved
+       * changes no longer match the query, but an object that only matches because of unsaved
+       * changes isn't found until it is stored again.
+       *
+       * @param className The class of the objects to index.
+       * @param keys The keys to index. These cannot contain dots.
+       * @return The same builder, for easy chaining.
+       */
+      public Builder localTextIndex(String className, String... keys) {
+        addIndexedKeys(localTextIndexes, className, keys);
+        return this;
+      }
+
+      private static void addIndexedKeys(Map<String, Set<String>> indexes, String className,
+          String... keys) {
+        if (className == null) {
+          throw new IllegalArgumentException("className may not be null.");
+        }
+        Set<String> indexedKeys = indexes.get(className);
+        if (indexedKeys == null) {
+          indexedKeys = new HashSet<>();
+          indexes.put(className, indexedKeys);
+        }
+        for (String key : keys) {
+          if (key == null || key.contains(".")) {
+            throw new IllegalArgumentException("Cannot index key: " + key);
+          }
+          indexedKeys.add(key);
+        }
+      }
+
+      /**
+       * Store pinned objects in a compact binary format instead of as JSON text. This makes the
+       * Local Datastore smaller on disk and faster to read objects from, especially when many
+       * objects are pinned. It has no effect unless the Local Datastore is enabled.
+       * <p>
+       * Objects that were pinned by an earlier version of the SDK are converted when the database
+       * is upgraded. Otherwise, objects are converted the next time they are stored, and objects
+       * in either format can always be read, so this can be turned on or off at any time.
+       *
+       * @return The same builder, for easy chaining.
+       */
+      public Builder compactLocalDataStore() {
+        compactLocalDataStore = true;
+        return this;
+      }
+
+      /**
+       * Limit the size of the Local Datastore. When it holds more than {@code maxBytes} bytes or
+       * more than {@code maxObjects} objects after objects are pinned, the pins whose names start
+       * with one of {@code evictablePinPrefixes} and that were least recently pinned to or queried
+       * are unpinned in the background until it's within the limit. Other pins are never
+       * unpinned. It has no effect unless the Local Datastore is enabled.
+       * <p>
+       * The default pin, the pins of the current user and installation, and objects that are
+       * waiting to be saved or deleted with {@code saveEventually} or {@code deleteEventually} are
+       * never unpinned, even if they match a prefix. Neither is the evictable pin that was used
+       * last, so the Local Datastore can be over the limit if those take up more room than it
+       * allows.
+       *
+       * @param maxBytes The most bytes the Local Datastore should take up, or 0 for no limit.
+       * @param maxObjects The most objects the Local Datastore should hold, or 0 for no limit.
+       * @param evictablePinPrefixes The prefixes of the names of the pins that may be unpinned, or
+       *                             an empty string for every pin.
+       * @return The same builder, for easy chaining.
+       */
+      public Builder localDataStoreQuota(long maxBytes, int maxObjects,
+          String... evictablePinPrefixes) {
+        if (maxBytes < 0 || maxObjects < 0) {
+          throw new IllegalArgumentException("The quota cannot be negative.");
+        }
+        if (evictablePinPrefixes.length == 0) {
+          throw new IllegalArgumentException("At least one pin must be evictable.");
+        }
+        localDataStoreMaxBytes = maxBytes;
+        localDataStoreMaxObjects = maxObjects;
+        localDataStoreEvictablePins = new ArrayList<>(Arrays.asList(evictablePinPrefixes));
+        return this;
+      }
+
       /**
        * Set the {@link okhttp3.OkHttpClient.Builder} to use when communicating with the Parse
        * REST API
@@ -179,6 +317,46 @@ public class Parse {
         return this;
       }
 
+      /**
+       * Send requests to Parse without blocking a thread while waiting for each response. Requests
+       * are handed to OkHttp's dispatcher, so how many of them run at once is limited by its
+       * {@link okhttp3.Dispatcher#setMaxRequests(int)} and
+       * {@link okhttp3.Dispatcher#setMaxRequestsPerHost(int)} instead of by the SDK's pool of
+       * network threads. This helps when many requests are made in a burst.
+       * <p>
+       * OkHttp only runs 5 requests to a host at once by default, which would apply to both the
+       * Parse server and the file host, so both limits are raised to at least the size of the SDK's
+       * pool of network threads. The SDK's client gets its own dispatcher for this, so a dispatcher
+       * that the {@link #clientBuilder(OkHttpClient.Builder)} shares with other clients isn't
+       * changed. Higher limits that are set on that dispatcher are copied.
+       *
+       * @return The same builder, for easy chaining.
+       */
+      public Builder enableAsyncNetworking() {
+        asyncNetworking = true;
+        return this;
+      }
+
+      /**
+       * Send the saves and deletes of single objects that are made within a short interval of each
+       * other together, in as few {@code /batch} requests as possible. Each save or delete waits up
+       * to {@code intervalMillis} milliseconds for others to join it, or until there are as many as
+       * fit in one request. They still succeed or fail individually.
+       * <p>
+       * This makes fewer requests when many objects are saved at once, without changing the code
+       * that saves them, in exchange for a small delay before each request is sent.
+       *
+       * @param intervalMillis How long a save or delete waits for others, in milliseconds.
+       * @return The same builder, for easy chaining.
+       */
+      public Builder enableObjectBatching(long intervalMillis) {
+        if (intervalMillis <= 0) {
+          throw new IllegalArgumentException("The interval must be positive.");
+        }
+        objectBatchInterval = intervalMillis;
+        return this;
+      }
+
       /**
        * Construct this builder into a concrete {@code Configuration} instance.
        *
@@ -194,8 +372,15 @@ public class Parse {
     final String clientKey;
     final String server;
     final boolean localDataStoreEnabled;
+    final Map<String, Set<String>> localIndexes;
+    final Map<String, Set<String>> localTextIndexes;
+    final boolean compactLocalDataStore;
+    final long localDataStoreMaxBytes;
+    final int localDataStoreMaxObjects;
+    final List<String> localDataStoreEvictablePins;
     final OkHttpClient.Builder clientBuilder;
-
+    final boolean asyncNetworking;
+    final long objectBatchInterval;
 
     private Configuration(Builder builder) {
       this.context = builder.context;
@@ -203,7 +388,17 @@ public class Parse {
       this.clientKey = builder.clientKey;
       this.server = builder.server;
       this.localDataStoreEnabled = builder.localDataStoreEnabled;
+      this.localIndexes = Collections.unmodifiableMap(new HashMap<>(builder.localIndexes));
+      this.localTextIndexes =
+          Collections.unmodifiableMap(new HashMap<>(builder.localTextIndexes));
+      this.compactLocalDataStore = builder.compactLocalDataStore;
+      this.localDataStoreMaxBytes = builder.localDataStoreMaxBytes;
+      this.localDataStoreMaxObjects = builder.localDataStoreMaxObjects;
+      this.localDataStoreEvictablePins =
+          Collections.unmodifiableList(new ArrayList<>(builder.localDataStoreEvictablePins));
       this.clientBuilder = builder.clientBuilder;
+      this.asyncNetworking = builder.asyncNetworking;
+      this.objectBatchInterval = builder.objectBatchInterval;
     }
   }
 
@@ -385,7 +580,14 @@ public class Parse {
     ParseObject.registerParseSubclasses();
 
     if (configuration.localDataStoreEnabled) {
-      offlineStore = new OfflineStore(configuration.context);
+      OfflineStore.Options options = new OfflineStore.Options.Builder()
+          .indexes(configuration.localIndexes)
+          .textIndexes(configuration.localTextIndexes)
+          .quota(configuration.localDataStoreMaxBytes, configuration.localDataStoreMaxObjects,
+              configuration.localDataStoreEvictablePins)
+          .build();
+      offlineStore = new OfflineStore(new OfflineSQLiteOpenHelper(configuration.context,
+          configuration.compactLocalDataStore), options);
     } else {
       ParseKeyValueCache.initialize(configuration.context);
     }
@@ -80,8 +80,9 @@ import java.util.concurrent.atomic.AtomicReference;
   public ParseObjectController getObjectController() {
     if (objectController.get() == null) {
       // TODO(grantland): Do not rely on Parse global
-      objectController.compareAndSet(
-          null, new NetworkObjectController(ParsePlugins.get().restClient()));
+      ParsePlugins plugins = ParsePlugins.get();
+      objectController.compareAndSet(null, new NetworkObjectController(
+          plugins.restClient(), plugins.objectBatchInterval()));
     }
     return objectController.get();
   }
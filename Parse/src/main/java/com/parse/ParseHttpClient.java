@@ -19,7 +19,12 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
 import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -38,6 +43,10 @@ class ParseHttpClient {
     return new ParseHttpClient(builder);
   }
 
+  static ParseHttpClient createClient(@Nullable OkHttpClient.Builder builder, boolean isAsync) {
+    return new ParseHttpClient(builder, isAsync);
+  }
+
   private static final String MAX_CONNECTIONS_PROPERTY_NAME = "http.maxConnections";
   private static final String KEEP_ALIVE_PROPERTY_NAME = "http.keepAlive";
 
@@ -54,14 +63,37 @@ class ParseHttpClient {
 
   private OkHttpClient okHttpClient;
   private boolean hasExecuted;
+  private final boolean isAsync;
 
   ParseHttpClient(@Nullable OkHttpClient.Builder builder) {
+    this(builder, false);
+  }
+
+  ParseHttpClient(@Nullable OkHttpClient.Builder builder, boolean isAsync) {
 
     if (builder == null) {
       builder = new OkHttpClient.Builder();
     }
 
     okHttpClient = builder.build();
+    this.isAsync = isAsync;
+
+    if (isAsync) {
+      // The dispatcher only runs 5 requests to a host at once by default, so let it run at least as
+      // many as the network threads that block on the requests otherwise. The builder's dispatcher
+      // may be shared with the app's other clients, so the SDK's client gets its own.
+      Dispatcher appDispatcher = okHttpClient.dispatcher();
+      Dispatcher dispatcher = new Dispatcher();
+      dispatcher.setMaxRequests(
+          Math.max(appDispatcher.getMaxRequests(), ParseRequest.MAX_POOL_SIZE));
+      dispatcher.setMaxRequestsPerHost(
+          Math.max(appDispatcher.getMaxRequestsPerHost(), ParseRequest.MAX_POOL_SIZE));
+      okHttpClient = okHttpClient.newBuilder().dispatcher(dispatcher).build();
+    }
+  }
+
+  /* package for tests */ OkHttpClient getOkHttpClient() {
+    return okHttpClient;
   }
 
   public final ParseHttpResponse execute(ParseHttpRequest request) throws IOException {
@@ -71,6 +103,66 @@ class ParseHttpClient {
     return executeInternal(request);
   }
 
+  /**
+   * @return {@code true} if requests should be sent with {@link #executeAsync(ParseHttpRequest)}
+   * instead of {@link #execute(ParseHttpRequest)}.
+   */
+  boolean isAsync() {
+    return isAsync;
+  }
+
+  /**
+   * Executes a request without blocking a thread while waiting for the response. The task is
+   * completed from OkHttp's callback, so the number of requests in flight is bounded by OkHttp's
+   * dispatcher and connection pool instead of by threads that are blocked on sockets.
+   * <p/>
+   * Continuations of the task that don't specify an executor run on OkHttp's thread for the call,
+   * which is the best place to read the response body.
+   */
+  public final Task<ParseHttpResponse> executeAsync(ParseHttpRequest request) {
+    if (!hasExecuted) {
+      hasExecuted = true;
+    }
+    return executeInternalAsync(request);
+  }
+
+  /**
+   * Execute internal async. Keep default protection for tests
+   * @param parseRequest request
+   * @return A task for the response
+   */
+  Task<ParseHttpResponse> executeInternalAsync(ParseHttpRequest parseRequest) {
+    Request okHttpRequest;
+    try {
+      okHttpRequest = getRequest(parseRequest);
+    } catch (IOException e) {
+      return Task.forError(e);
+    }
+    Call okHttpCall = okHttpClient.newCall(okHttpRequest);
+
+    final TaskCompletionSource<ParseHttpResponse> tcs = new TaskCompletionSource<>();
+    okHttpCall.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        tcs.trySetError(e);
+      }
+
+      @Override
+      public void onResponse(Call call, Response okHttpResponse) {
+        ParseHttpResponse response;
+        try {
+          response = getResponse(okHttpResponse);
+        } catch (IOException e) {
+          ParseIOUtils.closeQuietly(okHttpResponse.body());
+          tcs.trySetError(e);
+          return;
+        }
+        tcs.trySetResult(response);
+      }
+    });
+    return tcs.getTask();
+  }
+
   /**
    * Execute internal. Keep default protection for tests
    * @param parseRequest request
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads a JSON response token by token, so that the elements of a large array can be decoded while
+ * the response is read instead of after the whole response is in memory.
+ */
+/** package */ class ParseJSONStreamReader {
+
+  /**
+   * Receives the elements of the streamed array.
+   */
+  /* package */ interface ElementListener {
+    /**
+     * @param index The position of the element in the array.
+     */
+    void onElement(int index, JSONObject element) throws JSONException;
+  }
+
+  /**
+   * Reads a JSON object from a stream. Each element of the array under {@code arrayKey} is passed
+   * to {@code listener} as soon as it's read, instead of being added to the returned object.
+   *
+   * @return The other keys of the object.
+   * @throws JSONException If the stream isn't a JSON object, or the array has elements that aren't
+   *         objects.
+   */
+  public static JSONObject readObject(InputStream in, String arrayKey,
+      ElementListener listener) throws IOException, JSONException {
+    JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+    try {
+      JSONObject json = new JSONObject();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals(arrayKey) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+          reader.beginArray();
+          for (int index = 0; reader.hasNext(); index++) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+              throw new JSONException("Expected an object in " + arrayKey);
+            }
+            listener.onElement(index, readObject(reader));
+          }
+          reader.endArray();
+        } else {
+          json.put(name, readValue(reader));
+        }
+      }
+      reader.endObject();
+      return json;
+    } catch (MalformedJsonException | IllegalStateException e) {
+      JSONException jsonException = new JSONException(e.getMessage());
+      jsonException.initCause(e);
+      throw jsonException;
+    }
+  }
+
+  private static Object readValue(JsonReader reader) throws IOException, JSONException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return readObject(reader);
+      case BEGIN_ARRAY:
+        return readArray(reader);
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return readNumber(reader.nextString());
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      default:
+        throw new JSONException("Unexpected " + reader.peek());
+    }
+  }
+
+  private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+    JSONObject json = new JSONObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      json.put(reader.nextName(), readValue(reader));
+    }
+    reader.endObject();
+    return json;
+  }
+
+  private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+    JSONArray json = new JSONArray();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      json.put(readValue(reader));
+    }
+    reader.endArray();
+    return json;
+  }
+
+  // Numbers are typed the same way as by JSONTokener, so decoders see the same values.
+  private static Object readNumber(String literal) throws JSONException {
+    try {
+      if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1
+          && literal.indexOf('E') == -1) {
+        long longValue = Long.parseLong(literal);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      }
+    } catch (NumberFormatException e) {
+      // Too large for a long, so fall back to a double.
+    }
+    try {
+      return Double.valueOf(literal);
+    } catch (NumberFormatException e) {
+      throw new JSONException("Invalid number " + literal);
+    }
+  }
+}
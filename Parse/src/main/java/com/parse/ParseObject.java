@@ -68,7 +68,7 @@ public class ParseObject implements Parcelable {
   /*
   Internal JSON Keys - Used to store internal data when persisting {@code ParseObject}s locally.
   */
-  private static final String KEY_COMPLETE = "__complete";
+  /* package */ static final String KEY_COMPLETE = "__complete";
   private static final String KEY_OPERATIONS = "__operations";
   // Array of keys selected when querying for the object. Helps decoding nested {@code ParseObject}s
   // correctly, and helps constructing the {@code State.availableKeys()} set.
@@ -79,10 +79,15 @@ class ParsePlugins {
         return configuration.clientKey;
     }
 
+    long objectBatchInterval() {
+        return configuration.objectBatchInterval;
+    }
+
     ParseHttpClient fileClient() {
         synchronized (lock) {
             if (fileClient == null) {
-                fileClient = ParseHttpClient.createClient(configuration.clientBuilder);
+                fileClient = ParseHttpClient.createClient(
+                        configuration.clientBuilder, configuration.asyncNetworking);
             }
             return fileClient;
         }
@@ -123,7 +128,8 @@ class ParsePlugins {
                         return chain.proceed(request);
                     }
                 });
-                restClient = ParseHttpClient.createClient(clientBuilder);
+                restClient = ParseHttpClient.createClient(
+                        clientBuilder, configuration.asyncNetworking);
             }
             return restClient;
         }
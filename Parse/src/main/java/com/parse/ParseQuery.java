@@ -480,6 +480,14 @@ public class ParseQuery<T extends ParseObject> {
         return addCondition(key, "$geoIntersects", dictionary);
       }
 
+      public Builder<T> whereFullText(String key, String text) {
+        Map<String, String> term = new HashMap<>();
+        term.put("$term", text);
+        Map<String, Map<String, String>> dictionary = new HashMap<>();
+        dictionary.put("$search", term);
+        return addCondition(key, "$text", dictionary);
+      }
+
       public Builder<T> addCondition(String key, String condition,
           Collection<? extends Object> value) {
         return addConditionInternal(key, condition, Collections.unmodifiableCollection(value));
@@ -1203,6 +1211,177 @@ public class ParseQuery<T extends ParseObject> {
     ParseTaskUtils.callbackOnMainThreadAsync(task, callback);
   }
 
+  /**
+   * Retrieves a list of {@link ParseObject}s that satisfy this query from the source in a
+   * background thread, and passes them to {@code pageCallback} in pages as soon as they're
+   * received, instead of only once all of them are.
+   * <p/>
+   * Results from the network are decoded while the response is still being downloaded, so the
+   * first page can be shown before the rest arrive. Results from the cache or the Local Datastore
+   * are passed in pages once they're all read.
+   * <p/>
+   * If the request has to be retried after some pages were passed, and the new response doesn't
+   * start with the same objects, the find fails rather than returning results that don't match the
+   * pages.
+   *
+   * @param pageSize
+   *          The number of objects in each page, except for the last one.
+   * @param pageCallback
+   *          pageCallback.done(page) is called on the UI thread with each page, in order.
+   * @return A {@link Task} that will be resolved with all of the results after the last page has
+   *         been passed to {@code pageCallback}.
+   */
+  public Task<List<T>> findInBackground(int pageSize, FindPageCallback<T> pageCallback) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    MainThreadPageCallback<T> mainThreadPageCallback = new MainThreadPageCallback<>(pageCallback);
+    return mainThreadPageCallback.afterPages(
+        findAsync(builder.build(), pageSize, mainThreadPageCallback));
+  }
+
+  /**
+   * Retrieves a list of {@link ParseObject}s that satisfy this query from the source in a
+   * background thread, and passes them to {@code pageCallback} in pages as soon as they're
+   * received, instead of only once all of them are.
+   * <p/>
+   * With {@link CachePolicy#CACHE_THEN_NETWORK}, the cached results are only passed to
+   * {@code callback}, and the pages are of the results from the network.
+   *
+   * @param callback
+   *          callback.done(objectList, e) is called when the find completes, after the last page.
+   * @param pageSize
+   *          The number of objects in each page, except for the last one.
+   * @param pageCallback
+   *          pageCallback.done(page) is called on the UI thread with each page, in order.
+   * @see #findInBackground(int, FindPageCallback)
+   */
+  public void findInBackground(final FindCallback<T> callback, final int pageSize,
+      FindPageCallback<T> pageCallback) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    final State<T> state = builder.build();
+    final MainThreadPageCallback<T> mainThreadPageCallback =
+        new MainThreadPageCallback<>(pageCallback);
+
+    Task<List<T>> task;
+    if (state.cachePolicy() != CachePolicy.CACHE_THEN_NETWORK ||
+        state.isFromLocalDatastore()) {
+      task = findAsync(state, pageSize, mainThreadPageCallback);
+    } else {
+      task = doCacheThenNetwork(state, callback, new CacheThenNetworkCallable<T, Task<List<T>>>() {
+        @Override
+        public Task<List<T>> call(State<T> state, ParseUser user, Task<Void> cancellationToken) {
+          if (state.cachePolicy() == CachePolicy.CACHE_ONLY) {
+            // The cached results are passed to the callback, which is called again with the
+            // results from the network.
+            return findAsync(state, user, cancellationToken);
+          }
+          return findAsync(state, user, pageSize, mainThreadPageCallback, cancellationToken);
+        }
+      });
+    }
+    task = mainThreadPageCallback.afterPages(task);
+    ParseTaskUtils.callbackOnMainThreadAsync(task, callback);
+  }
+
+  /**
+   * Passes pages to a {@link FindPageCallback} on the UI thread, one after the other in the order
+   * they're received.
+   */
+  private static class MainThreadPageCallback<T extends ParseObject>
+      implements FindPageCallback<T> {
+    private final FindPageCallback<T> pageCallback;
+    private final Object lock = new Object();
+    // The task that passes the last page received. Guarded by lock.
+    private Task<Void> lastPageTask = Task.forResult(null);
+
+    public MainThreadPageCallback(FindPageCallback<T> pageCallback) {
+      this.pageCallback = pageCallback;
+    }
+
+    @Override
+    public void done(final List<T> page) {
+      if (pageCallback == null) {
+        return;
+      }
+      synchronized (lock) {
+        lastPageTask = lastPageTask.continueWith(new Continuation<Void, Void>() {
+          @Override
+          public Void then(Task<Void> task) throws Exception {
+            pageCallback.done(page);
+            return null;
+          }
+        }, ParseExecutors.main());
+      }
+    }
+
+    /**
+     * @return A task that finishes like {@code task}, once the pages received before it finished
+     *         have been passed.
+     */
+    public <TResult> Task<TResult> afterPages(final Task<TResult> task) {
+      return task.continueWithTask(new Continuation<TResult, Task<TResult>>() {
+        @Override
+        public Task<TResult> then(Task<TResult> ignored) throws Exception {
+          Task<Void> pagesTask;
+          synchronized (lock) {
+            pagesTask = lastPageTask;
+          }
+          return pagesTask.continueWithTask(new Continuation<Void, Task<TResult>>() {
+            @Override
+            public Task<TResult> then(Task<Void> ignored) throws Exception {
+              return task;
+            }
+          });
+        }
+      });
+    }
+  }
+
+  /**
+   * Opens a {@link ParseQueryCursor} over the {@link ParseObject}s that satisfy this query in the
+   * Local Datastore, which reads them a page at a time instead of all at once.
+   * <p/>
+   * Requires {@link #fromLocalDatastore()} or {@link #fromPin(String)}.
+   *
+   * @return A new cursor, positioned before the first result.
+   */
+  public ParseQueryCursor<T> cursor() {
+    throwIfLDSDisabled();
+    State<T> state = builder.build();
+    if (!state.isFromLocalDatastore()) {
+      throw new IllegalStateException(
+          "Cursors can only be used with queries from the Local Datastore.");
+    }
+    return new ParseQueryCursor<>(state, getUserAsync(state));
+  }
+
+  /**
+   * Observes the {@link ParseObject}s that satisfy this query in the Local Datastore. The callback
+   * is called with the results, and then again each time they change, with the objects that were
+   * inserted, updated and removed. Call {@link ParseQueryObserver#cancel()} to stop observing.
+   * <p/>
+   * Requires {@link #fromLocalDatastore()} or {@link #fromPin(String)}.
+   *
+   * @param callback
+   *          callback.done(changes, e) is called on the UI thread whenever the results change.
+   * @return The observer, which is already running.
+   */
+  public ParseQueryObserver<T> observe(ObserveCallback<T> callback) {
+    throwIfLDSDisabled();
+    State<T> state = builder.build();
+    if (!state.isFromLocalDatastore()) {
+      throw new IllegalStateException(
+          "Only queries from the Local Datastore can be observed.");
+    }
+    ParseQueryObserver<T> observer =
+        new ParseQueryObserver<>(Parse.getLocalDatastore(), state, getUserAsync(state), callback);
+    observer.start();
+    return observer;
+  }
+
   private Task<List<T>> findAsync(final State<T> state) {
     final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
     return perform(new Callable<Task<List<T>>>() {
@@ -1223,6 +1402,29 @@ public class ParseQuery<T extends ParseObject> {
     return ParseQuery.getQueryController().findAsync(state, user, cancellationToken);
   }
 
+  private Task<List<T>> findAsync(final State<T> state, final int pageSize,
+      final FindPageCallback<T> pageCallback) {
+    final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
+    return perform(new Callable<Task<List<T>>>() {
+      @Override
+      public Task<List<T>> call() throws Exception {
+        return getUserAsync(state).onSuccessTask(new Continuation<ParseUser, Task<List<T>>>() {
+          @Override
+          public Task<List<T>> then(Task<ParseUser> task) throws Exception {
+            final ParseUser user = task.getResult();
+            return findAsync(state, user, pageSize, pageCallback, tcs.getTask());
+          }
+        });
+      }
+    }, tcs);
+  }
+
+  /* package */ Task<List<T>> findAsync(State<T> state, ParseUser user, int pageSize,
+      FindPageCallback<T> pageCallback, Task<Void> cancellationToken) {
+    return ParseQuery.getQueryController().findAsync(
+        state, user, pageSize, pageCallback, cancellationToken);
+  }
+
   /**
    * Retrieves at most one {@link ParseObject} that satisfies this query from the source in a
    * background thread.
@@ -1968,6 +2170,26 @@ public class ParseQuery<T extends ParseObject> {
     return this;
   }
 
+  /**
+   * Add a constraint for finding string values that contain any word of a provided text. Words
+   * are matched case insensitively.
+   * <p/>
+   * In the Local Datastore, this will be fast for keys that are indexed with
+   * {@link Parse.Configuration.Builder#localTextIndex(String, String...)}. Unlike on the server,
+   * words aren't stemmed there, and quoted phrases and negated words are searched for as plain
+   * words, so "running" doesn't match "run".
+   *
+   * @param key
+   *          The key that the string to match is stored in.
+   * @param text
+   *          The words that the value must contain one of.
+   * @return this, so you can chain this call.
+   */
+  public ParseQuery<T> whereFullText(String key, String text) {
+    builder.whereFullText(key, text);
+    return this;
+  }
+
   /**
    * Add a constraint for finding string values that end with a provided string.
    * <p/>
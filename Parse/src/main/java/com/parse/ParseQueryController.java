@@ -27,6 +27,19 @@ import bolts.Task;
   <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state, ParseUser user,
       Task<Void> cancellationToken);
 
+  /**
+   * Executor for {@code find} queries that also passes the results to a callback in pages, as soon
+   * as they're received.
+   * @param state Immutable query state to execute.
+   * @param user The user executing the query that can be used to match ACLs.
+   * @param pageSize The number of results in each page, except for the last one.
+   * @param pageCallback Called with each page of results, in order, on a background thread.
+   * @param cancellationToken Cancellation token.
+   * @return A {@link Task} that resolves to all of the results of the find, after the last page.
+   */
+  <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state, ParseUser user,
+      int pageSize, FindPageCallback<T> pageCallback, Task<Void> cancellationToken);
+
   /**
    * Executor for {@code count} queries.
    * @param state Immutable query state to execute.
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * The {@code ParseQueryCursor} class reads the results of a {@link ParseQuery} from the Local
+ * Datastore a page at a time, instead of loading all of them at once. Only the objects that are
+ * needed for the current page are read from the database, so a large number of pinned objects can
+ * be scrolled through without holding them all in memory.
+ * <p/>
+ * A cursor is created with {@link ParseQuery#cursor()}. For example:
+ * <p/>
+ * <pre>
+ * ParseQueryCursor&lt;ParseObject&gt; cursor = ParseQuery.getQuery("MyClass")
+ *     .fromLocalDatastore()
+ *     .orderByDescending("createdAt")
+ *     .cursor();
+ * cursor.nextInBackground(50, new FindCallback&lt;ParseObject&gt;() {
+ *     public void done(List&lt;ParseObject&gt; objects, ParseException e) {
+ *         // objects is empty once there are no more results.
+ *     }
+ * });
+ * </pre>
+ * <p/>
+ * The query's skip and limit apply to the cursor as a whole. No database connection is held
+ * between pages, so objects that are pinned, unpinned or modified while a cursor is being read may
+ * be skipped or returned twice. If the query's order can't be handled by the database (such as
+ * ordering by a key that isn't a column, or {@link ParseQuery#whereNear(String, ParseGeoPoint)}),
+ * all of the results are read when the first page is requested.
+ */
+public class ParseQueryCursor<T extends ParseObject> {
+
+  // The smallest number of candidates that are read from the database at once.
+  private static final int MIN_WINDOW = 50;
+
+  // The largest number of candidates that are read from the database at once.
+  private static final int MAX_WINDOW = 1000;
+
+  private final ParseQuery.State<T> state;
+  private final Task<ParseUser> userTask;
+
+  // Pages are read one at a time, in the order they were requested.
+  private final TaskQueue taskQueue = new TaskQueue();
+
+  // Only accessed by the task at the head of taskQueue.
+  private final LinkedList<T> buffer = new LinkedList<>();
+  private int candidateOffset = 0;
+  private int skipRemaining;
+  private int limitRemaining;
+  private boolean isExhausted = false;
+
+  /* package */ ParseQueryCursor(ParseQuery.State<T> state, Task<ParseUser> userTask) {
+    this.state = state;
+    this.userTask = userTask;
+    this.skipRemaining = Math.max(state.skip(), 0);
+    this.limitRemaining = state.limit();
+  }
+
+  /**
+   * Reads the next page of results in a background thread.
+   *
+   * @param count
+   *          The largest number of objects to return.
+   * @return A {@link Task} that will be resolved with the next {@code count} results, or fewer if
+   *         the results run out. The list is empty if there are no more results.
+   */
+  public Task<List<T>> nextInBackground(final int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("count must be greater than zero.");
+    }
+    return taskQueue.enqueue(new Continuation<Void, Task<List<T>>>() {
+      @Override
+      public Task<List<T>> then(Task<Void> toAwait) throws Exception {
+        return toAwait.continueWithTask(new Continuation<Void, Task<ParseUser>>() {
+          @Override
+          public Task<ParseUser> then(Task<Void> task) throws Exception {
+            return userTask;
+          }
+        }).onSuccessTask(new Continuation<ParseUser, Task<List<T>>>() {
+          @Override
+          public Task<List<T>> then(Task<ParseUser> task) throws Exception {
+            return nextAsync(task.getResult(), count, new ArrayList<T>());
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Reads the next page of results in a background thread.
+   *
+   * @param count
+   *          The largest number of objects to return.
+   * @param callback
+   *          callback.done(objectList, e) is called when the page has been read. The list is empty
+   *          if there are no more results.
+   */
+  public void nextInBackground(int count, FindCallback<T> callback) {
+    ParseTaskUtils.callbackOnMainThreadAsync(nextInBackground(count), callback);
+  }
+
+  private Task<List<T>> nextAsync(final ParseUser user, final int count, final List<T> page) {
+    while (page.size() < count && !buffer.isEmpty()) {
+      page.add(buffer.removeFirst());
+    }
+
+    final OfflineStore store = Parse.getLocalDatastore();
+    if (store == null) {
+      return Task.forError(new IllegalStateException("Local Datastore is not enabled."));
+    }
+
+    if (page.size() == count || isExhausted) {
+      if (page.isEmpty()) {
+        return Task.forResult(page);
+      }
+      return store.fetchIncludesAsync(page, state).onSuccess(new Continuation<Void, List<T>>() {
+        @Override
+        public List<T> then(Task<Void> task) throws Exception {
+          return page;
+        }
+      });
+    }
+
+    int window = Math.min(Math.max(count - page.size() + skipRemaining, MIN_WINDOW), MAX_WINDOW);
+    return store.findWindowFromPinAsync(state.pinName(), state, user, candidateOffset, window)
+        .onSuccessTask(new Continuation<OfflineStore.CandidateWindow<T>, Task<List<T>>>() {
+      @Override
+      public Task<List<T>> then(Task<OfflineStore.CandidateWindow<T>> task) throws Exception {
+        OfflineStore.CandidateWindow<T> window = task.getResult();
+        candidateOffset += window.candidateCount();
+        if (window.isLast()) {
+          isExhausted = true;
+        }
+        for (T object : window.matches()) {
+          if (skipRemaining > 0) {
+            skipRemaining--;
+            continue;
+          }
+          if (limitRemaining == 0) {
+            break;
+          }
+          buffer.add(object);
+          if (limitRemaining > 0) {
+            limitRemaining--;
+          }
+        }
+        if (limitRemaining == 0) {
+          isExhausted = true;
+        }
+        return nextAsync(user, count, page);
+      }
+    });
+  }
+}
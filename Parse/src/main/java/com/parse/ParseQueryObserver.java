@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * The {@code ParseQueryObserver} class keeps the results of a {@link ParseQuery} on the Local
+ * Datastore up to date. Whenever objects are saved, pinned, unpinned or deleted, only the objects
+ * that changed are matched against the query, and the objects that were inserted into, updated in
+ * or removed from the results are passed to an {@link ObserveCallback}. This makes it unnecessary
+ * to run the whole query again after every change.
+ * <p/>
+ * An observer is created with {@link ParseQuery#observe(ObserveCallback)}. For example:
+ * <p/>
+ * <pre>
+ * ParseQueryObserver&lt;ParseObject&gt; observer = ParseQuery.getQuery("MyClass")
+ *     .fromPin("myPin")
+ *     .whereEqualTo("done", false)
+ *     .observe(new ObserveCallback&lt;ParseObject&gt;() {
+ *       public void done(ParseQueryObserver.Changes&lt;ParseObject&gt; changes, ParseException e) {
+ *         // changes.getResults() has all of the results, in the query's order.
+ *       }
+ *     });
+ * // Once the results aren't needed anymore:
+ * observer.cancel();
+ * </pre>
+ * <p/>
+ * If the query has a skip or a limit, includes other objects, or has constraints that depend on
+ * other objects (such as {@link ParseQuery#whereMatchesQuery(String, ParseQuery)}), a change to
+ * one object can change which other objects are results, so the whole query is run again after
+ * every change instead. The changes are still passed to the callback the same way.
+ */
+public class ParseQueryObserver<T extends ParseObject> {
+
+  /**
+   * The results of an observed query, and how they changed since they were last passed to the
+   * callback. The first time, all of the results are inserted.
+   */
+  public static class Changes<T extends ParseObject> {
+    private final List<T> results;
+    private final List<T> inserted;
+    private final List<T> updated;
+    private final List<T> removed;
+
+    private Changes(List<T> results, List<T> inserted, List<T> updated, List<T> removed) {
+      this.results = Collections.unmodifiableList(results);
+      this.inserted = Collections.unmodifiableList(inserted);
+      this.updated = Collections.unmodifiableList(updated);
+      this.removed = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @return All of the results, in the query's order.
+     */
+    public List<T> getResults() {
+      return results;
+    }
+
+    /**
+     * @return The objects that became results.
+     */
+    public List<T> getInserted() {
+      return inserted;
+    }
+
+    /**
+     * @return The objects that are still results, but were saved with different data.
+     */
+    public List<T> getUpdated() {
+      return updated;
+    }
+
+    /**
+     * @return The objects that aren't results anymore.
+     */
+    public List<T> getRemoved() {
+      return removed;
+    }
+  }
+
+  private final OfflineStore store;
+  private final ParseQuery.State<T> state;
+  private final Task<ParseUser> userTask;
+  private final ObserveCallback<T> callback;
+
+  // Whether a change can be applied by matching only the objects that changed.
+  private final boolean isIncremental;
+
+  // Changes are applied one at a time, in the order they were committed.
+  private final TaskQueue taskQueue = new TaskQueue();
+
+  private final OfflineStore.ChangeListener listener = new OfflineStore.ChangeListener() {
+    @Override
+    public void onChange(OfflineStore.ChangeSet changes) {
+      applyInBackground(changes);
+    }
+  };
+
+  // The results by UUID. Only accessed by the task at the head of taskQueue.
+  private Map<String, T> results = new LinkedHashMap<>();
+  private boolean hasResults = false;
+
+  private volatile boolean isCancelled = false;
+
+  /* package */ ParseQueryObserver(OfflineStore store, ParseQuery.State<T> state,
+      Task<ParseUser> userTask, ObserveCallback<T> callback) {
+    this.store = store;
+    this.state = state;
+    this.userTask = userTask;
+    this.callback = callback;
+    this.isIncremental = state.limit() < 0 && state.skip() <= 0 && state.includes().isEmpty()
+        && !OfflineQueryLogic.dependsOnOtherObjects(state.constraints());
+  }
+
+  /**
+   * Starts listening for changes, and runs the query to get the first results.
+   */
+  /* package */ void start() {
+    store.addChangeListener(listener);
+    applyInBackground(null);
+  }
+
+  /**
+   * Stops observing the query. The callback isn't called anymore after this.
+   */
+  public void cancel() {
+    isCancelled = true;
+    store.removeChangeListener(listener);
+  }
+
+  /* package for tests */ Task<Changes<T>> applyInBackground(final OfflineStore.ChangeSet changes) {
+    Task<Changes<T>> task = taskQueue.enqueue(new Continuation<Void, Task<Changes<T>>>() {
+      @Override
+      public Task<Changes<T>> then(Task<Void> toAwait) throws Exception {
+        return toAwait.continueWithTask(new Continuation<Void, Task<ParseUser>>() {
+          @Override
+          public Task<ParseUser> then(Task<Void> task) throws Exception {
+            return userTask;
+          }
+        }).onSuccessTask(new Continuation<ParseUser, Task<Changes<T>>>() {
+          @Override
+          public Task<Changes<T>> then(Task<ParseUser> task) throws Exception {
+            if (isCancelled) {
+              return Task.forResult(null);
+            }
+            if (changes == null || !hasResults || !isIncremental) {
+              return refreshAsync(task.getResult(), changes);
+            }
+            return applyAsync(task.getResult(), changes);
+          }
+        }).continueWithTask(new Continuation<Changes<T>, Task<Changes<T>>>() {
+          @Override
+          public Task<Changes<T>> then(Task<Changes<T>> task) throws Exception {
+            if (task.isFaulted() || task.isCancelled()) {
+              // The results may be missing a change now, so start over with the next one.
+              hasResults = false;
+            }
+            return task;
+          }
+        });
+      }
+    });
+
+    task.continueWith(new Continuation<Changes<T>, Void>() {
+      @Override
+      public Void then(Task<Changes<T>> task) throws Exception {
+        if (!task.isFaulted() && task.getResult() == null) {
+          // Nothing changed.
+          return null;
+        }
+        ParseTaskUtils.callbackOnMainThreadAsync(task, new ObserveCallback<T>() {
+          @Override
+          public void done(Changes<T> changes, ParseException e) {
+            if (!isCancelled) {
+              callback.done(changes, e);
+            }
+          }
+        });
+        return null;
+      }
+    });
+    return task;
+  }
+
+  /**
+   * Runs the whole query, and compares its results with the previous ones.
+   *
+   * @param changes
+   *          (Optional) What changed in the Local Datastore, to tell which results were updated.
+   */
+  private Task<Changes<T>> refreshAsync(ParseUser user, final OfflineStore.ChangeSet changes) {
+    return store.findByUUIDFromPinAsync(state.pinName(), state, user, null).onSuccess(
+        new Continuation<Map<String, T>, Changes<T>>() {
+      @Override
+      public Changes<T> then(Task<Map<String, T>> task) throws Exception {
+        Map<String, T> newResults = task.getResult();
+        List<T> inserted = new ArrayList<>();
+        List<T> updated = new ArrayList<>();
+        List<T> removed = new ArrayList<>();
+        for (Map.Entry<String, T> entry : newResults.entrySet()) {
+          if (!results.containsKey(entry.getKey())) {
+            inserted.add(entry.getValue());
+          } else if (changes != null && changes.updatedUUIDs().contains(entry.getKey())) {
+            updated.add(entry.getValue());
+          }
+        }
+        for (Map.Entry<String, T> entry : results.entrySet()) {
+          if (!newResults.containsKey(entry.getKey())) {
+            removed.add(entry.getValue());
+          }
+        }
+
+        boolean isFirst = !hasResults;
+        results = newResults;
+        hasResults = true;
+        if (!isFirst && inserted.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+          return null;
+        }
+        return new Changes<>(new ArrayList<>(results.values()), inserted, updated, removed);
+      }
+    });
+  }
+
+  /**
+   * Matches only the objects that changed against the query, and applies the difference to the
+   * previous results.
+   */
+  private Task<Changes<T>> applyAsync(ParseUser user, final OfflineStore.ChangeSet changes) {
+    // Objects that were deleted can't be results, and anything else may have become one.
+    final Set<String> uuids = new HashSet<>(changes.updatedUUIDs());
+    uuids.addAll(changes.repinnedUUIDs());
+    uuids.removeAll(changes.deletedUUIDs());
+
+    return store.findByUUIDFromPinAsync(state.pinName(), state, user, uuids).onSuccess(
+        new Continuation<Map<String, T>, Changes<T>>() {
+      @Override
+      public Changes<T> then(Task<Map<String, T>> task) throws Exception {
+        // Every change is applied once the matches are in, so a failed match doesn't leave the
+        // results with only the deletions.
+        List<T> inserted = new ArrayList<>();
+        List<T> updated = new ArrayList<>();
+        List<T> removed = new ArrayList<>();
+        for (String uuid : changes.deletedUUIDs()) {
+          T object = results.remove(uuid);
+          if (object != null) {
+            removed.add(object);
+          }
+        }
+
+        Map<String, T> matches = task.getResult();
+        for (String uuid : uuids) {
+          T match = matches.get(uuid);
+          if (match == null) {
+            T object = results.remove(uuid);
+            if (object != null) {
+              removed.add(object);
+            }
+          } else if (results.put(uuid, match) == null) {
+            inserted.add(match);
+          } else if (changes.updatedUUIDs().contains(uuid)) {
+            updated.add(match);
+          }
+        }
+
+        if (inserted.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+          return null;
+        }
+        List<T> sorted = new ArrayList<>(results.values());
+        OfflineQueryLogic.sort(sorted, state);
+        return new Changes<>(sorted, inserted, updated, removed);
+      }
+    });
+  }
+}
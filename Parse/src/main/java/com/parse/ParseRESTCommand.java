@@ -23,10 +23,14 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import bolts.Continuation;
 import bolts.Task;
+import bolts.TaskCompletionSource;
 
 /**
  * A helper object to send requests to the server.
@@ -269,10 +273,177 @@ import bolts.Task;
       final ProgressCallback downloadProgressCallback,
       final Task<Void> cancellationToken) {
     resolveLocalIds();
-    return super.executeAsync(
+    if (!isCoalescable()) {
+      return super.executeAsync(
+          client, uploadProgressCallback, downloadProgressCallback, cancellationToken);
+    }
+    return executeSharedAsync(
         client, uploadProgressCallback, downloadProgressCallback, cancellationToken);
   }
 
+  //region Coalescing
+
+  // Reads that are running, by their cache key. Only reads through the same client are shared, so
+  // a read through another client with the same key replaces the entry and isn't shared itself.
+  private static final Map<String, InFlightRead> inFlightReads = new HashMap<>();
+
+  /**
+   * A request that is shared by all of the identical commands that were executed while it ran.
+   */
+  private static class InFlightRead {
+    private final ParseRESTCommand sender;
+    private final ParseHttpClient client;
+    private final TaskCompletionSource<JSONObject> result = new TaskCompletionSource<>();
+    // Cancelled once every command that shares the request is cancelled.
+    private final TaskCompletionSource<Void> cancellation = new TaskCompletionSource<>();
+    // The number of commands sharing the request that weren't cancelled. Guarded by inFlightReads.
+    private int activeCount = 0;
+    // The progress callbacks of the commands sharing the request. Guarded by inFlightReads.
+    private final List<ProgressCallback> uploadProgressCallbacks = new ArrayList<>();
+    private final List<ProgressCallback> downloadProgressCallbacks = new ArrayList<>();
+
+    public InFlightRead(ParseRESTCommand sender, ParseHttpClient client) {
+      this.sender = sender;
+      this.client = client;
+    }
+  }
+
+  /**
+   * @return A callback that passes the progress of a shared request to each of {@code callbacks}.
+   */
+  private static ProgressCallback sharedProgressCallback(final List<ProgressCallback> callbacks) {
+    return new ProgressCallback() {
+      @Override
+      public void done(Integer percentDone) {
+        List<ProgressCallback> callbacksCopy;
+        synchronized (inFlightReads) {
+          callbacksCopy = new ArrayList<>(callbacks);
+        }
+        for (ProgressCallback callback : callbacksCopy) {
+          callback.done(percentDone);
+        }
+      }
+    };
+  }
+
+  /**
+   * Whether identical commands that are executed at the same time can share one request, and the
+   * response to it. This is only true for commands that read data, and whose response only depends
+   * on their cache key.
+   */
+  /* package */ boolean isCoalescable() {
+    return false;
+  }
+
+  /**
+   * Called on the command that sends a shared request, before an identical {@code command} starts
+   * sharing it.
+   *
+   * @return Whether {@code command} can share the request.
+   */
+  /* package */ boolean canShareRequestWith(ParseRESTCommand command) {
+    return ParseTextUtils.equals(installationId, command.installationId)
+        && ParseTextUtils.equals(masterKey, command.masterKey);
+  }
+
+  /**
+   * Executes the command, or shares the request of an identical command that is already running.
+   */
+  private Task<JSONObject> executeSharedAsync(
+      ParseHttpClient client,
+      final ProgressCallback uploadProgressCallback,
+      final ProgressCallback downloadProgressCallback,
+      Task<Void> cancellationToken) {
+    // The cache key includes the session token, so reads by different users aren't shared.
+    final String key = getCacheKey();
+    final InFlightRead read;
+    boolean isSender = false;
+    synchronized (inFlightReads) {
+      InFlightRead running = inFlightReads.get(key);
+      if (running != null && running.client == client && running.sender.canShareRequestWith(this)) {
+        read = running;
+      } else {
+        read = new InFlightRead(this, client);
+        inFlightReads.put(key, read);
+        isSender = true;
+      }
+      read.activeCount++;
+      if (uploadProgressCallback != null) {
+        read.uploadProgressCallbacks.add(uploadProgressCallback);
+      }
+      if (downloadProgressCallback != null) {
+        read.downloadProgressCallbacks.add(downloadProgressCallback);
+      }
+    }
+
+    if (isSender) {
+      super.executeAsync(client, sharedProgressCallback(read.uploadProgressCallbacks),
+          sharedProgressCallback(read.downloadProgressCallbacks),
+          read.cancellation.getTask()).continueWith(new Continuation<JSONObject, Void>() {
+        @Override
+        public Void then(Task<JSONObject> task) throws Exception {
+          // Stop sharing the request before it's completed, so commands that are executed after
+          // it's completed send a new one.
+          removeInFlightRead(key, read);
+          if (task.isCancelled()) {
+            read.result.setCancelled();
+          } else if (task.isFaulted()) {
+            read.result.setError(task.getError());
+          } else {
+            read.result.setResult(task.getResult());
+          }
+          return null;
+        }
+      });
+    }
+
+    if (cancellationToken == null) {
+      return read.result.getTask();
+    }
+    final TaskCompletionSource<JSONObject> tcs = new TaskCompletionSource<>();
+    cancellationToken.continueWith(new Continuation<Void, Void>() {
+      @Override
+      public Void then(Task<Void> task) throws Exception {
+        if (task.isCancelled() && tcs.trySetCancelled()) {
+          synchronized (inFlightReads) {
+            read.uploadProgressCallbacks.remove(uploadProgressCallback);
+            read.downloadProgressCallbacks.remove(downloadProgressCallback);
+            read.activeCount--;
+            if (read.activeCount == 0) {
+              removeInFlightRead(key, read);
+              read.cancellation.trySetCancelled();
+            }
+          }
+        }
+        return null;
+      }
+    });
+    read.result.getTask().continueWith(new Continuation<JSONObject, Void>() {
+      @Override
+      public Void then(Task<JSONObject> task) throws Exception {
+        if (task.isCancelled()) {
+          tcs.trySetCancelled();
+        } else if (task.isFaulted()) {
+          tcs.trySetError(task.getError());
+        } else {
+          tcs.trySetResult(task.getResult());
+        }
+        return null;
+      }
+    });
+    return tcs.getTask();
+  }
+
+  private static void removeInFlightRead(String key, InFlightRead read) {
+    synchronized (inFlightReads) {
+      if (inFlightReads.get(key) == read) {
+        inFlightReads.remove(key);
+      }
+    }
+  }
+
+  //endregion
+
   @Override
   protected Task<JSONObject> onResponseAsync(ParseHttpResponse response,
       ProgressCallback downloadProgressCallback) {
@@ -80,6 +80,11 @@ import bolts.TaskCompletionSource;
 
     ParseRESTCommand command = new ParseRESTObjectBatchCommand(
         "batch", ParseHttpRequest.Method.POST, parameters, sessionToken);
+    if (!isSafeToRetry(commands)) {
+      // The batch may have been applied even if its response was lost, and creating the same
+      // objects again would duplicate them.
+      command.setMaxRetries(0);
+    }
 
     command.executeAsync(client).continueWith(new Continuation<JSONObject, Void>() {
       @Override
@@ -96,6 +101,7 @@ import bolts.TaskCompletionSource;
               tcs.setCancelled();
             }
           }
+          return null;
         }
 
         JSONObject json = task.getResult();
@@ -109,6 +115,7 @@ import bolts.TaskCompletionSource;
             tcs.setError(new IllegalStateException(
                 "Batch command result count expected: " + batchSize + " but was: " + resultLength));
           }
+          return null;
         }
 
         for (int i = 0; i < batchSize; i++) {
@@ -130,6 +137,19 @@ import bolts.TaskCompletionSource;
     return tasks;
   }
 
+  /**
+   * @return Whether the commands can be sent again without changing their outcome, which is the
+   *         case for updates and deletes but not for creates.
+   */
+  private static boolean isSafeToRetry(List<ParseRESTObjectCommand> commands) {
+    for (ParseRESTObjectCommand command : commands) {
+      if (command.method == ParseHttpRequest.Method.POST) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private ParseRESTObjectBatchCommand(
       String httpPath,
       ParseHttpRequest.Method httpMethod,
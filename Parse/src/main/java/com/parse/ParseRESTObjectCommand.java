@@ -24,6 +24,12 @@ import org.json.JSONObject;
     super(httpPath, httpMethod, parameters, sessionToken);
   }
 
+  @Override
+  /* package */ boolean isCoalescable() {
+    // Fetches of the same object can share a request.
+    return method == ParseHttpRequest.Method.GET;
+  }
+
   public static ParseRESTObjectCommand getObjectCommand(String objectId, String className,
       String sessionToken) {
     String httpPath = String.format("classes/%s/%s", Uri.encode(className), Uri.encode(objectId));
@@ -9,14 +9,21 @@
 package com.parse;
 
 import com.parse.http.ParseHttpRequest;
+import com.parse.http.ParseHttpResponse;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import bolts.Task;
+
 /** package */ class ParseRESTQueryCommand extends ParseRESTCommand {
 
   /* package */ final static String KEY_ORDER = "order";
@@ -27,6 +34,7 @@ import java.util.Set;
   /* package */ final static String KEY_COUNT = "count";
   /* package */ final static String KEY_SKIP = "skip";
   /* package */ final static String KEY_TRACE = "trace";
+  /* package */ final static String KEY_RESULTS = "results";
 
   public static <T extends ParseObject> ParseRESTQueryCommand findCommand(
       ParseQuery.State<T> state, String sessionToken) {
@@ -107,4 +115,116 @@ import java.util.Set;
       String sessionToken) {
     super(httpPath, httpMethod, parameters, sessionToken);
   }
+
+  /**
+   * Decodes one of the results of a find response.
+   */
+  /* package */ interface ResultDecoder<T> {
+    /**
+     * @param index The position of the result in the response.
+     */
+    T decode(int index, JSONObject result) throws JSONException;
+  }
+
+  // If set, the elements of "results" are decoded with it while the response is read.
+  private ResultDecoder<?> resultDecoder;
+  private List<Object> decodedResults;
+
+  // The commands whose results are decoded from this command's response, when it's shared.
+  private final List<ParseRESTQueryCommand> decodingCommands = new ArrayList<>();
+  private boolean hasStartedDecoding = false;
+
+  /**
+   * Makes the command decode each of the results with {@code decoder} as soon as it's read, instead
+   * of reading the whole response into memory first. The results are then left out of the
+   * {@link JSONObject} the command returns, and are returned by {@link #getDecodedResults()}.
+   */
+  /* package */ <T> void decodeResultsWith(ResultDecoder<T> decoder) {
+    resultDecoder = decoder;
+  }
+
+  /**
+   * @return The results decoded from the last successful response, if
+   *         {@link #decodeResultsWith(ResultDecoder)} was used.
+   */
+  @SuppressWarnings("unchecked")
+  /* package */ <T> List<T> getDecodedResults() {
+    return (List<T>) decodedResults;
+  }
+
+  @Override
+  /* package */ boolean isCoalescable() {
+    return true;
+  }
+
+  @Override
+  /* package */ boolean canShareRequestWith(ParseRESTCommand command) {
+    if (!super.canShareRequestWith(command) || !(command instanceof ParseRESTQueryCommand)) {
+      return false;
+    }
+    ParseRESTQueryCommand other = (ParseRESTQueryCommand) command;
+    if ((resultDecoder == null) != (other.resultDecoder == null)) {
+      return false;
+    }
+    if (resultDecoder == null) {
+      return true;
+    }
+    synchronized (decodingCommands) {
+      if (hasStartedDecoding) {
+        // The results that were already decoded can't be decoded for the other command anymore.
+        return false;
+      }
+      decodingCommands.add(other);
+      return true;
+    }
+  }
+
+  @Override
+  protected Task<JSONObject> onResponseAsync(ParseHttpResponse response,
+      ProgressCallback downloadProgressCallback) {
+    int statusCode = response.getStatusCode();
+    if (resultDecoder == null || statusCode < 200 || statusCode >= 300) {
+      // Errors are small, so they're handled the usual way.
+      return super.onResponseAsync(response, downloadProgressCallback);
+    }
+    return decodeResponseAsync(response);
+  }
+
+  private Task<JSONObject> decodeResponseAsync(ParseHttpResponse response) {
+    final List<ParseRESTQueryCommand> commands = new ArrayList<>();
+    commands.add(this);
+    synchronized (decodingCommands) {
+      hasStartedDecoding = true;
+      commands.addAll(decodingCommands);
+    }
+    final List<List<Object>> results = new ArrayList<>();
+    for (int i = 0; i < commands.size(); i++) {
+      results.add(new ArrayList<>());
+    }
+
+    InputStream responseStream = null;
+    try {
+      responseStream = response.getContent();
+      JSONObject json = ParseJSONStreamReader.readObject(responseStream, KEY_RESULTS,
+          new ParseJSONStreamReader.ElementListener() {
+        @Override
+        public void onElement(int index, JSONObject element) throws JSONException {
+          for (int i = 0; i < commands.size(); i++) {
+            results.get(i).add(commands.get(i).resultDecoder.decode(index, element));
+          }
+        }
+      });
+      // Only keep the results of a response that was read completely, in case it's retried.
+      for (int i = 0; i < commands.size(); i++) {
+        commands.get(i).decodedResults = results.get(i);
+      }
+      return Task.forResult(json);
+    } catch (IOException e) {
+      return Task.forError(e);
+    } catch (JSONException e) {
+      return Task.forError(newTemporaryException("bad json response", e));
+    } finally {
+      ParseIOUtils.closeQuietly(responseStream);
+    }
+  }
 }
@@ -47,7 +47,7 @@ import bolts.TaskCompletionSource;
    */
   private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
   private static final int CORE_POOL_SIZE = CPU_COUNT * 2 + 1;
-  private static final int MAX_POOL_SIZE = CPU_COUNT * 2 * 2 + 1;
+  /* package */ static final int MAX_POOL_SIZE = CPU_COUNT * 2 * 2 + 1;
   private static final long KEEP_ALIVE_TIME = 1L;
   private static final int MAX_QUEUE_SIZE = 128;
 
@@ -130,13 +130,27 @@ import bolts.TaskCompletionSource;
       final ParseHttpClient client,
       final ParseHttpRequest request,
       final ProgressCallback downloadProgressCallback) {
-    return Task.<Void>forResult(null).onSuccessTask(new Continuation<Void, Task<Response>>() {
-      @Override
-      public Task<Response> then(Task<Void> task) throws Exception {
-        ParseHttpResponse response = client.execute(request);
-        return onResponseAsync(response, downloadProgressCallback);
-      }
-    }, NETWORK_EXECUTOR).continueWithTask(new Continuation<Response, Task<Response>>() {
+    Task<Response> responseTask;
+    if (client.isAsync()) {
+      // No thread waits for the response, and the body is read on OkHttp's thread for the call.
+      responseTask = client.executeAsync(request).onSuccessTask(
+          new Continuation<ParseHttpResponse, Task<Response>>() {
+        @Override
+        public Task<Response> then(Task<ParseHttpResponse> task) throws Exception {
+          return onResponseAsync(task.getResult(), downloadProgressCallback);
+        }
+      });
+    } else {
+      responseTask = Task.<Void>forResult(null).onSuccessTask(
+          new Continuation<Void, Task<Response>>() {
+        @Override
+        public Task<Response> then(Task<Void> task) throws Exception {
+          ParseHttpResponse response = client.execute(request);
+          return onResponseAsync(response, downloadProgressCallback);
+        }
+      }, NETWORK_EXECUTOR);
+    }
+    return responseTask.continueWithTask(new Continuation<Response, Task<Response>>() {
       @Override
       public Task<Response> then(Task<Response> task) throws Exception {
         if (task.isFaulted()) {
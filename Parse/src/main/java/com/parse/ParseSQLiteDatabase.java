@@ -12,9 +12,16 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import java.util.List;
+
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import bolts.Continuation;
 import bolts.Task;
@@ -31,6 +38,27 @@ import bolts.TaskCompletionSource;
    */
   private static final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
 
+  /**
+   * The maximum number of read-only sessions that can run at the same time. Android's connection
+   * pool usually has three read connections when write-ahead logging is enabled, more threads would
+   * just wait for them.
+   */
+  private static final int MAX_READERS = 3;
+
+  /**
+   * Read-only sessions don't use transactions, so they don't have to be on the writer's thread.
+   * With write-ahead logging each of these threads gets its own connection and sees the last
+   * committed data, so they can run alongside each other and the writer.
+   */
+  private static final ExecutorService readerExecutor = newReaderExecutor();
+
+  private static ExecutorService newReaderExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_READERS, MAX_READERS, 1L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   /**
    * Queue for all database sessions. All database sessions must be serialized in order for
    * transactions to work correctly.
@@ -38,6 +66,11 @@ import bolts.TaskCompletionSource;
   //TODO (grantland): do we have to serialize sessions of different databases?
   private static final TaskQueue taskQueue = new TaskQueue();
 
+  /**
+   * Opens a session. Sessions opened with {@link SQLiteDatabase#OPEN_READONLY} are read-only
+   * sessions that aren't serialized with the rest, so they must only be used for queries and only
+   * on databases that have write-ahead logging enabled. All other sessions are serialized.
+   */
   /* protected */ static Task<ParseSQLiteDatabase> openDatabaseAsync(final SQLiteOpenHelper helper, int flags) {
     final ParseSQLiteDatabase db = new ParseSQLiteDatabase(flags);
     return db.open(helper).continueWithTask(new Continuation<Void, Task<ParseSQLiteDatabase>>() {
@@ -54,15 +87,23 @@ import bolts.TaskCompletionSource;
   private final TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
 
   private int openFlags;
+  private final Executor executor;
 
   /**
    * Creates a Session which opens a database connection and begins a transaction
    */
   private ParseSQLiteDatabase(int flags) {
     //TODO (grantland): if (!writable) -- disable transactions?
-    //TODO (grantland): if (!writable) -- do we have to serialize everything?
     openFlags = flags;
 
+    if (isReadOnlySession()) {
+      // Read-only sessions don't wait for the writer, see readerExecutor.
+      executor = readerExecutor;
+      current = Task.forResult(null);
+      return;
+    }
+
+    executor = dbExecutor;
     taskQueue.enqueue(new Continuation<Void, Task<Void>>() {
       @Override
       public Task<Void> then(Task<Void> toAwait) throws Exception {
@@ -100,6 +141,14 @@ import bolts.TaskCompletionSource;
     }
   }
 
+  /**
+   * @return {@code true} if this session only reads and runs alongside other sessions, in which
+   * case rows it has seen may be changed by other sessions at any time.
+   */
+  public boolean isReadOnlySession() {
+    return (openFlags & SQLiteDatabase.OPEN_READONLY) == SQLiteDatabase.OPEN_READONLY;
+  }
+
   public boolean inTransaction() {
     return db.inTransaction();
   }
@@ -111,11 +160,15 @@ import bolts.TaskCompletionSource;
         public SQLiteDatabase then(Task<Void> task) throws Exception {
           // get*Database() is synchronous and calls through SQLiteOpenHelper#onCreate, onUpdate,
           // etc.
-          return (openFlags & SQLiteDatabase.OPEN_READONLY) == SQLiteDatabase.OPEN_READONLY
+          SQLiteDatabase db = isReadOnlySession()
                   ? helper.getReadableDatabase()
                   : helper.getWritableDatabase();
+          // The helper keeps the database open, so other sessions can keep using it after this one
+          // is closed.
+          db.acquireReference();
+          return db;
         }
-      }, dbExecutor).continueWithTask(new Continuation<SQLiteDatabase, Task<Void>>() {
+      }, executor).continueWithTask(new Continuation<SQLiteDatabase, Task<Void>>() {
         @Override
         public Task<Void> then(Task<SQLiteDatabase> task) throws Exception {
           db = task.getResult();
@@ -138,7 +191,7 @@ import bolts.TaskCompletionSource;
           db.beginTransaction();
           return task;
         }
-      }, dbExecutor);
+      }, executor);
       return current.continueWithTask(new Continuation<Void, Task<Void>>() {
         @Override
         public Task<Void> then(Task<Void> task) throws Exception {
@@ -161,7 +214,7 @@ import bolts.TaskCompletionSource;
           db.setTransactionSuccessful();
           return task;
         }
-      }, dbExecutor);
+      }, executor);
       return current.continueWithTask(new Continuation<Void, Task<Void>>() {
         @Override
         public Task<Void> then(Task<Void> task) throws Exception {
@@ -185,7 +238,7 @@ import bolts.TaskCompletionSource;
           // We want to swallow any exceptions from our Session task
           return null;
         }
-      }, dbExecutor);
+      }, executor);
       return current.continueWithTask(new Continuation<Void, Task<Void>>() {
         @Override
         public Task<Void> then(Task<Void> task) throws Exception {
@@ -206,13 +259,15 @@ import bolts.TaskCompletionSource;
         @Override
         public Task<Void> then(Task<Void> task) throws Exception {
           try {
-            db.close();
+            if (db != null) {
+              db.releaseReference();
+            }
           } finally {
             tcs.setResult(null);
           }
           return tcs.getTask();
         }
-      }, dbExecutor);
+      }, executor);
       return current.continueWithTask(new Continuation<Void, Task<Void>>() {
         @Override
         public Task<Void> then(Task<Void> task) throws Exception {
@@ -236,17 +291,17 @@ import bolts.TaskCompletionSource;
         public Cursor then(Task<Void> task) throws Exception {
           return db.query(table, select, where, args, null, null, null);
         }
-      }, dbExecutor).onSuccess(new Continuation<Cursor, Cursor>() {
+      }, executor).onSuccess(new Continuation<Cursor, Cursor>() {
         @Override
         public Cursor then(Task<Cursor> task) throws Exception {
-          Cursor cursor = ParseSQLiteCursor.create(task.getResult(), dbExecutor);
+          Cursor cursor = ParseSQLiteCursor.create(task.getResult(), executor);
           /* Ensure the cursor window is filled on the dbExecutor thread. We need to do this because
            * the cursor cannot be filled from a different thread than it was created on.
            */
           cursor.getCount();
           return cursor;
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Cursor, Task<Cursor>>() {
         @Override
@@ -270,7 +325,7 @@ import bolts.TaskCompletionSource;
         public Long then(Task<Void> task) throws Exception {
           return db.insertWithOnConflict(table, null, values, conflictAlgorithm);
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Long, Task<Long>>() {
         @Override
@@ -293,7 +348,7 @@ import bolts.TaskCompletionSource;
         public Long then(Task<Void> task) throws Exception {
           return db.insertOrThrow(table, null, values);
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Long, Task<Long>>() {
         @Override
@@ -317,7 +372,7 @@ import bolts.TaskCompletionSource;
         public Integer then(Task<Void> task) throws Exception {
           return db.update(table, values, where, args);
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Integer, Task<Integer>>() {
         @Override
@@ -340,7 +395,7 @@ import bolts.TaskCompletionSource;
         public Integer then(Task<Void> task) throws Exception {
           return db.delete(table, where, args);
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Integer, Task<Integer>>() {
         @Override
@@ -352,6 +407,71 @@ import bolts.TaskCompletionSource;
     }
   }
 
+  /**
+   * Executes a statement once for each of the given rows of bind arguments. The statement is only
+   * compiled once, and all of the rows are written in a single hop onto the database thread, so
+   * this is much faster than a separate insert or update for each row.
+   *
+   * @param sql
+   *          An SQL statement that doesn't return any rows, such as an INSERT or UPDATE.
+   * @param rows
+   *          The arguments to bind to the statement's parameters for each execution. Each argument
+   *          must be {@code null}, a {@link String}, a {@link Number}, a {@link Boolean} or a
+   *          {@code byte[]}.
+   * @see SQLiteStatement#execute()
+   */
+  public Task<Void> executeAsync(final String sql, final List<Object[]> rows) {
+    if (rows.isEmpty()) {
+      return Task.forResult(null);
+    }
+    synchronized (currentLock) {
+      Task<Void> task = current.onSuccess(new Continuation<Void, Void>() {
+        @Override
+        public Void then(Task<Void> task) throws Exception {
+          SQLiteStatement statement = db.compileStatement(sql);
+          try {
+            for (Object[] args : rows) {
+              statement.clearBindings();
+              for (int i = 0; i < args.length; i++) {
+                bind(statement, i + 1, args[i]);
+              }
+              statement.execute();
+            }
+          } finally {
+            statement.close();
+          }
+          return null;
+        }
+      }, executor);
+      current = task;
+      return task.continueWithTask(new Continuation<Void, Task<Void>>() {
+        @Override
+        public Task<Void> then(Task<Void> task) throws Exception {
+          // We want to jump off the dbExecutor
+          return task;
+        }
+      }, Task.BACKGROUND_EXECUTOR);
+    }
+  }
+
+  private static void bind(SQLiteStatement statement, int index, Object value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else if (value instanceof String) {
+      statement.bindString(index, (String) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      statement.bindDouble(index, ((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      statement.bindLong(index, ((Number) value).longValue());
+    } else if (value instanceof Boolean) {
+      statement.bindLong(index, (Boolean) value ? 1 : 0);
+    } else if (value instanceof byte[]) {
+      statement.bindBlob(index, (byte[]) value);
+    } else {
+      throw new IllegalArgumentException("Unable to bind value: " + value);
+    }
+  }
+
   /**
    * Runs a raw query.
    *
@@ -364,16 +484,16 @@ import bolts.TaskCompletionSource;
         public Cursor then(Task<Void> task) throws Exception {
           return db.rawQuery(sql, args);
         }
-      }, dbExecutor).onSuccess(new Continuation<Cursor, Cursor>() {
+      }, executor).onSuccess(new Continuation<Cursor, Cursor>() {
         @Override
         public Cursor then(Task<Cursor> task) throws Exception {
-          Cursor cursor = ParseSQLiteCursor.create(task.getResult(), dbExecutor);
+          Cursor cursor = ParseSQLiteCursor.create(task.getResult(), executor);
           // Ensure the cursor window is filled on the dbExecutor thread. We need to do this because
           // the cursor cannot be filled from a different thread than it was created on.
           cursor.getCount();
           return cursor;
         }
-      }, dbExecutor);
+      }, executor);
       current = task.makeVoid();
       return task.continueWithTask(new Continuation<Cursor, Task<Cursor>>() {
         @Override
@@ -17,6 +17,7 @@ import bolts.Task;
 /** package */ abstract class ParseSQLiteOpenHelper {
 
   private final SQLiteOpenHelper helper;
+  private volatile boolean isWriteAheadLoggingEnabled;
 
   public ParseSQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory,
       int version) {
@@ -24,6 +25,10 @@ import bolts.Task;
       @Override
       public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
+        // Lets read-only sessions run alongside the writer, see getReadableDatabaseAsync().
+        if (!db.isReadOnly()) {
+          isWriteAheadLoggingEnabled = db.enableWriteAheadLogging();
+        }
         ParseSQLiteOpenHelper.this.onOpen(db);
       }
 
@@ -39,6 +44,11 @@ import bolts.Task;
     };
   }
 
+  /**
+   * Opens a session that may only be used for queries. Once the database is using write-ahead
+   * logging, these sessions run in parallel with each other and with the writable session, and only
+   * see data that has been committed. Until then, they're serialized like writable sessions.
+   */
   public Task<ParseSQLiteDatabase> getReadableDatabaseAsync() {
     return getDatabaseAsync(false);
   }
@@ -48,8 +58,20 @@ import bolts.Task;
   }
 
   private Task<ParseSQLiteDatabase> getDatabaseAsync(final boolean writable) {
-    return ParseSQLiteDatabase.openDatabaseAsync(
-        helper, !writable ? SQLiteDatabase.OPEN_READONLY : SQLiteDatabase.OPEN_READWRITE);
+    // Without write-ahead logging a reader would wait for the writer's transaction anyway, and could
+    // block it if the writer needs an object the reader is fetching.
+    boolean isConcurrentReader = !writable && isWriteAheadLoggingEnabled;
+    return ParseSQLiteDatabase.openDatabaseAsync(helper, isConcurrentReader
+        ? SQLiteDatabase.OPEN_READONLY
+        : SQLiteDatabase.OPEN_READWRITE);
+  }
+
+  /**
+   * Closes the database once all the sessions that are using it are closed.
+   */
+  public void close() {
+    isWriteAheadLoggingEnabled = false;
+    helper.close();
   }
 
   public void onOpen(SQLiteDatabase db) {
@@ -8,46 +8,145 @@
  */
 package com.parse;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A HashMap where all the values are weak.
+ * A HashMap where all the values are weak. It's safe to use from multiple threads at once.
+ * <p/>
+ * When a value is garbage collected, its reference is put in a {@link ReferenceQueue}, and the
+ * entry is removed the next time the map is written to. This keeps the map from filling up with
+ * entries for values that are long gone, even if their keys are never looked up again.
  */
 /** package */ class WeakValueHashMap<K, V> {
-  private HashMap<K, WeakReference<V>> map;
-  
+
+  /**
+   * A weak reference that remembers its key, so that its entry can be found once the value has
+   * been collected.
+   */
+  private static class KeyedReference<K, V> extends WeakReference<V> {
+    private final K key;
+
+    private KeyedReference(K key, V value, ReferenceQueue<? super V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+
+  private final ConcurrentHashMap<K, KeyedReference<K, V>> map = new ConcurrentHashMap<>();
+  private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+  private final AtomicLong purgedCount = new AtomicLong();
+
   public WeakValueHashMap() {
-    map = new HashMap<>();
   }
 
   public void put(K key, V value) {
-    map.put(key, new WeakReference<>(value));
+    purge();
+    map.put(key, new KeyedReference<>(key, value, queue));
   }
-  
+
+  /**
+   * Puts a value in the map, unless there's already a value for the key that hasn't been collected.
+   *
+   * @return The value that was already in the map, or {@code null} if {@code value} was put.
+   */
+  public V putIfAbsent(K key, V value) {
+    purge();
+    KeyedReference<K, V> reference = new KeyedReference<>(key, value, queue);
+    while (true) {
+      KeyedReference<K, V> existing = map.putIfAbsent(key, reference);
+      if (existing == null) {
+        return null;
+      }
+      V existingValue = existing.get();
+      if (existingValue != null) {
+        return existingValue;
+      }
+      // The existing value was collected, so it can be replaced.
+      if (map.replace(key, existing, reference)) {
+        return null;
+      }
+    }
+  }
+
   /**
    * Returns null if the key isn't in the map, or if it is an expired reference. If it is, then the
    * reference is removed from the map.
    */
   public V get(K key) {
-    WeakReference<V> reference = map.get(key);
+    KeyedReference<K, V> reference = map.get(key);
     if (reference == null) {
       return null;
     }
-    
+
     V value = reference.get();
     if (value == null) {
-      map.remove(key);
+      // Only remove it if it hasn't been replaced in the meantime.
+      if (map.remove(key, reference)) {
+        purgedCount.incrementAndGet();
+      }
     }
-    
+
     return value;
   }
-  
+
   public void remove(K key) {
+    purge();
     map.remove(key);
   }
-  
+
   public void clear() {
     map.clear();
+    // The entries of anything that's in the queue are already gone.
+    while (queue.poll() != null) {
+      // Keep draining.
+    }
+  }
+
+  /**
+   * @return The number of entries in the map. This includes entries whose values have been
+   * collected but haven't been removed yet, see {@link #liveCount()}.
+   */
+  public int size() {
+    return map.size();
+  }
+
+  /**
+   * @return The number of entries whose values haven't been collected. This has to look at every
+   * entry, so it's meant for diagnostics.
+   */
+  public int liveCount() {
+    int count = 0;
+    for (KeyedReference<K, V> reference : map.values()) {
+      if (reference.get() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return The number of entries that have been removed because their values were collected.
+   */
+  public long purgedCount() {
+    return purgedCount.get();
+  }
+
+  /**
+   * Removes the entries of the values that have been collected.
+   */
+  public void purge() {
+    Reference<? extends V> reference;
+    while ((reference = queue.poll()) != null) {
+      @SuppressWarnings("unchecked")
+      KeyedReference<K, V> keyedReference = (KeyedReference<K, V>) reference;
+      // Only remove it if the key hasn't been given a new value since.
+      if (map.remove(keyedReference.key, keyedReference)) {
+        purgedCount.incrementAndGet();
+      }
+    }
   }
 }
@@ -17,13 +17,16 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import bolts.Task;
@@ -33,6 +36,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 // For Uri.encode
@@ -43,11 +48,13 @@ public class NetworkObjectControllerTest {
   @Before
   public void setUp() throws MalformedURLException {
     ParseRESTCommand.server = new URL("https://api.parse.com/1");
+    ParseRequest.setDefaultInitialRetryDelay(1L);
   }
 
   @After
   public void tearDown() {
     ParseRESTCommand.server = null;
+    ParseRequest.setDefaultInitialRetryDelay(ParseRequest.DEFAULT_INITIAL_RETRY_DELAY);
   }
 
   //region testFetchAsync
@@ -266,4 +273,236 @@ public class NetworkObjectControllerTest {
   }
 
   //endregion
+
+  //region testBatching
+
+  @Test
+  public void testSaveAndDeleteAsyncWithBatching() throws Exception {
+    // Make individual responses
+    JSONObject objectSaveResult = new JSONObject();
+    objectSaveResult.put("createdAt", "2015-08-09T22:15:13.460Z");
+    objectSaveResult.put("objectId", "testObjectId");
+    JSONObject objectResponse = new JSONObject();
+    objectResponse.put("success", objectSaveResult);
+    JSONObject objectResponseAgain = new JSONObject();
+    JSONObject objectSaveResultAgain = new JSONObject();
+    objectSaveResultAgain.put("code", 101);
+    objectSaveResultAgain.put("error", "Error");
+    objectResponseAgain.put("error", objectSaveResultAgain);
+    JSONObject deleteResponse = new JSONObject();
+    deleteResponse.put("success", new JSONObject());
+    // Make batch response
+    JSONArray mockResponse = new JSONArray();
+    mockResponse.put(objectResponse);
+    mockResponse.put(objectResponseAgain);
+    mockResponse.put(deleteResponse);
+    // Make mock response
+    byte[] contentBytes = mockResponse.toString().getBytes();
+    ParseHttpResponse response = new ParseHttpResponse.Builder()
+        .setContent(new ByteArrayInputStream(contentBytes))
+        .setStatusCode(200)
+        .setTotalSize(contentBytes.length)
+        .setContentType("application/json")
+        .build();
+    // Mock http client
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenReturn(response);
+    // Make test objects
+    ParseObject object = new ParseObject("Test");
+    object.put("key", "value");
+    ParseObject objectAgain = new ParseObject("Test");
+    objectAgain.put("keyAgain", "valueAgain");
+    ParseObject.State deleteState = new ParseObject.State.Builder("Test")
+        .objectId("testObjectIdAgain")
+        .build();
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client, 100);
+    Task<ParseObject.State> saveTask = controller.saveAsync(
+        object.getState(), object.startSave(), "sessionToken", ParseDecoder.get());
+    Task<ParseObject.State> saveTaskAgain = controller.saveAsync(
+        objectAgain.getState(), objectAgain.startSave(), "sessionToken", ParseDecoder.get());
+    Task<Void> deleteTask = controller.deleteAsync(deleteState, "sessionToken");
+    Task.whenAll(Arrays.asList(saveTask, saveTaskAgain, deleteTask)).waitForCompletion();
+
+    // Verify the commands were sent in one batch request
+    ArgumentCaptor<ParseHttpRequest> requestCaptor =
+        ArgumentCaptor.forClass(ParseHttpRequest.class);
+    verify(client, times(1)).execute(requestCaptor.capture());
+    assertTrue(requestCaptor.getValue().getUrl().endsWith("/batch"));
+    // Verify each result
+    assertEquals("testObjectId", saveTask.getResult().objectId());
+    assertTrue(saveTaskAgain.isFaulted());
+    ParseException parseException = (ParseException) saveTaskAgain.getError();
+    assertEquals(101, parseException.getCode());
+    assertEquals("Error", parseException.getMessage());
+    assertFalse(deleteTask.isFaulted());
+  }
+
+  @Test
+  public void testSaveAsyncWithBatchingSendsSingleCommand() throws Exception {
+    // Make mock response
+    JSONObject mockResponse = new JSONObject();
+    mockResponse.put("createdAt", "2015-08-09T22:15:13.460Z");
+    mockResponse.put("objectId", "testObjectId");
+    byte[] contentBytes = mockResponse.toString().getBytes();
+    ParseHttpResponse response = new ParseHttpResponse.Builder()
+        .setContent(new ByteArrayInputStream(contentBytes))
+        .setStatusCode(200)
+        .setTotalSize(contentBytes.length)
+        .setContentType("application/json")
+        .build();
+    // Mock http client
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenReturn(response);
+    // Make test object
+    ParseObject object = new ParseObject("Test");
+    object.put("key", "value");
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client, 100);
+    Task<ParseObject.State> saveTask = controller.saveAsync(
+        object.getState(), object.startSave(), "sessionToken", ParseDecoder.get());
+    ParseTaskUtils.wait(saveTask);
+
+    // Verify the command was sent on its own
+    ArgumentCaptor<ParseHttpRequest> requestCaptor =
+        ArgumentCaptor.forClass(ParseHttpRequest.class);
+    verify(client, times(1)).execute(requestCaptor.capture());
+    assertTrue(requestCaptor.getValue().getUrl().endsWith("/classes/Test"));
+    assertEquals("testObjectId", saveTask.getResult().objectId());
+  }
+
+  @Test
+  public void testBatchWithCreateIsNotRetried() throws Exception {
+    // Mock http client, which fails the first attempt
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenThrow(new IOException());
+    ParseObject object = new ParseObject("Test");
+    object.put("key", "value");
+    ParseObject.State deleteState = new ParseObject.State.Builder("Test")
+        .objectId("testObjectIdAgain")
+        .build();
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client, 100);
+    Task<ParseObject.State> saveTask = controller.saveAsync(
+        object.getState(), object.startSave(), "sessionToken", ParseDecoder.get());
+    Task<Void> deleteTask = controller.deleteAsync(deleteState, "sessionToken");
+    Task.whenAll(Arrays.asList(saveTask, deleteTask)).waitForCompletion();
+
+    // Verify the batch wasn't sent again, since the object may have been created
+    ArgumentCaptor<ParseHttpRequest> requestCaptor =
+        ArgumentCaptor.forClass(ParseHttpRequest.class);
+    verify(client, times(1)).execute(requestCaptor.capture());
+    assertTrue(requestCaptor.getValue().getUrl().endsWith("/batch"));
+    assertTrue(saveTask.isFaulted());
+    assertTrue(deleteTask.isFaulted());
+  }
+
+  @Test
+  public void testBatchOfUpdatesAndDeletesIsRetriedAfterFailure() throws Exception {
+    // Make batch response
+    JSONObject objectSaveResult = new JSONObject();
+    objectSaveResult.put("updatedAt", "2015-08-09T22:15:13.460Z");
+    JSONArray mockResponse = new JSONArray();
+    mockResponse.put(new JSONObject().put("success", objectSaveResult));
+    mockResponse.put(new JSONObject().put("success", new JSONObject()));
+    byte[] contentBytes = mockResponse.toString().getBytes();
+    ParseHttpResponse response = new ParseHttpResponse.Builder()
+        .setContent(new ByteArrayInputStream(contentBytes))
+        .setStatusCode(200)
+        .setTotalSize(contentBytes.length)
+        .setContentType("application/json")
+        .build();
+    // Mock http client, which fails the first attempt
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class)))
+        .thenThrow(new IOException())
+        .thenReturn(response);
+    ParseObject object = ParseObject.createWithoutData("Test", "testObjectId");
+    object.put("key", "value");
+    ParseObject.State deleteState = new ParseObject.State.Builder("Test")
+        .objectId("testObjectIdAgain")
+        .build();
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client, 100);
+    Task<ParseObject.State> saveTask = controller.saveAsync(
+        object.getState(), object.startSave(), "sessionToken", ParseDecoder.get());
+    Task<Void> deleteTask = controller.deleteAsync(deleteState, "sessionToken");
+    Task.whenAll(Arrays.asList(saveTask, deleteTask)).waitForCompletion();
+
+    // Verify the batch was sent again
+    ArgumentCaptor<ParseHttpRequest> requestCaptor =
+        ArgumentCaptor.forClass(ParseHttpRequest.class);
+    verify(client, times(2)).execute(requestCaptor.capture());
+    assertTrue(requestCaptor.getValue().getUrl().endsWith("/batch"));
+    assertFalse(saveTask.isFaulted());
+    assertFalse(deleteTask.isFaulted());
+  }
+
+  @Test
+  public void testBatchFailureFailsEveryCommand() throws Exception {
+    // Mock http client, which fails every attempt
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenThrow(new IOException());
+    ParseObject.State state = new ParseObject.State.Builder("Test")
+        .objectId("testObjectId")
+        .build();
+    ParseObject.State stateAgain = new ParseObject.State.Builder("Test")
+        .objectId("testObjectIdAgain")
+        .build();
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client);
+    List<Task<Void>> deleteTaskList =
+        controller.deleteAllAsync(Arrays.asList(state, stateAgain), "sessionToken");
+    Task.whenAll(deleteTaskList).waitForCompletion();
+
+    // Verify the batch was retried before every command failed
+    verify(client, times(ParseRequest.DEFAULT_MAX_RETRIES + 1)).execute(
+        any(ParseHttpRequest.class));
+    for (Task<Void> task : deleteTaskList) {
+      assertTrue(task.isFaulted());
+      assertEquals(ParseException.CONNECTION_FAILED,
+          ((ParseException) task.getError()).getCode());
+    }
+  }
+
+  @Test
+  public void testBatchWithWrongResultCountFailsEveryCommand() throws Exception {
+    // Make batch response with a single result
+    JSONArray mockResponse = new JSONArray();
+    mockResponse.put(new JSONObject().put("success", new JSONObject()));
+    byte[] contentBytes = mockResponse.toString().getBytes();
+    ParseHttpResponse response = new ParseHttpResponse.Builder()
+        .setContent(new ByteArrayInputStream(contentBytes))
+        .setStatusCode(200)
+        .setTotalSize(contentBytes.length)
+        .setContentType("application/json")
+        .build();
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenReturn(response);
+    ParseObject.State state = new ParseObject.State.Builder("Test")
+        .objectId("testObjectId")
+        .build();
+    ParseObject.State stateAgain = new ParseObject.State.Builder("Test")
+        .objectId("testObjectIdAgain")
+        .build();
+
+    // Test
+    NetworkObjectController controller = new NetworkObjectController(client);
+    List<Task<Void>> deleteTaskList =
+        controller.deleteAllAsync(Arrays.asList(state, stateAgain), "sessionToken");
+    Task.whenAll(deleteTaskList).waitForCompletion();
+
+    // Verify both commands failed, rather than the first one succeeding
+    for (Task<Void> task : deleteTaskList) {
+      assertTrue(task.isFaulted());
+      assertTrue(task.getError() instanceof IllegalStateException);
+    }
+  }
+
+  //endregion
 }
@@ -8,21 +8,34 @@
  */
 package com.parse;
 
+import com.parse.http.ParseHttpRequest;
+import com.parse.http.ParseHttpResponse;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import bolts.Task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class NetworkQueryControllerTest {
@@ -81,6 +94,157 @@ public class NetworkQueryControllerTest {
     // TODO(mengyan): Verify PLog is called
   }
 
+  @Test
+  public void testFindAsyncWithPages() throws Exception {
+    // Make mock response
+    JSONObject mockResponse = generateBasicMockResponse();
+    mockResponse.getJSONArray("results").put(new JSONObject().put("objectId", "testObjectIdLast"));
+    ParseHttpClient restClient =
+        ParseTestUtils.mockParseHttpClientWithResponse(mockResponse, 200, "OK");
+    // Make mock state
+    ParseQuery.State mockState = mock(ParseQuery.State.class);
+    when(mockState.className()).thenReturn("Test");
+    when(mockState.selectedKeys()).thenReturn(null);
+    when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+    final List<List<ParseObject>> pages = new ArrayList<>();
+    NetworkQueryController controller = new NetworkQueryController(restClient);
+    Task<List<ParseObject>> findTask = controller.findAsync(mockState, "sessionToken", true, 2,
+        new FindPageCallback<ParseObject>() {
+          @Override
+          public void done(List<ParseObject> page) {
+            pages.add(page);
+          }
+        }, null);
+    ParseTaskUtils.wait(findTask);
+    List<ParseObject> objects = findTask.getResult();
+
+    assertEquals(3, objects.size());
+    assertEquals(2, pages.size());
+    assertEquals(objects.subList(0, 2), pages.get(0));
+    assertEquals(objects.subList(2, 3), pages.get(1));
+  }
+
+  private static ParseHttpResponse newResponse(String content) {
+    byte[] contentBytes = content.getBytes();
+    return new ParseHttpResponse.Builder()
+        .setContent(new ByteArrayInputStream(contentBytes))
+        .setStatusCode(200)
+        .setTotalSize(contentBytes.length)
+        .build();
+  }
+
+  private static Task<List<ParseObject>> findAfterRetry(String retriedContent,
+      final List<List<ParseObject>> pages) throws Exception {
+    // The first response is cut off after its first result
+    ParseHttpClient restClient = mock(ParseHttpClient.class);
+    when(restClient.execute(any(ParseHttpRequest.class))).thenReturn(
+        newResponse("{\"results\":[{\"objectId\":\"a\"},{\"objectId\":"),
+        newResponse(retriedContent));
+    // Make mock state
+    ParseQuery.State mockState = mock(ParseQuery.State.class);
+    when(mockState.className()).thenReturn("Test");
+    when(mockState.selectedKeys()).thenReturn(null);
+    when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+    NetworkQueryController controller = new NetworkQueryController(restClient);
+    Task<List<ParseObject>> findTask = controller.findAsync(mockState, "sessionToken", true, 1,
+        new FindPageCallback<ParseObject>() {
+          @Override
+          public void done(List<ParseObject> page) {
+            pages.add(page);
+          }
+        }, null);
+    findTask.waitForCompletion();
+    verify(restClient, times(2)).execute(any(ParseHttpRequest.class));
+    return findTask;
+  }
+
+  @Test
+  public void testFindAsyncWithPagesDoesNotRepeatPagesAfterRetry() throws Exception {
+    ParseRequest.setDefaultInitialRetryDelay(1L);
+    try {
+      List<List<ParseObject>> pages = new ArrayList<>();
+      Task<List<ParseObject>> findTask = findAfterRetry(
+          "{\"results\":[{\"objectId\":\"a\"},{\"objectId\":\"b\"}]}", pages);
+
+      List<ParseObject> objects = findTask.getResult();
+      assertEquals(2, objects.size());
+      assertEquals(2, pages.size());
+      assertEquals("a", pages.get(0).get(0).getObjectId());
+      assertEquals("b", pages.get(1).get(0).getObjectId());
+    } finally {
+      ParseRequest.setDefaultInitialRetryDelay(ParseRequest.DEFAULT_INITIAL_RETRY_DELAY);
+    }
+  }
+
+  @Test
+  public void testFindAsyncWithPagesFailsWhenRetriedResultsChange() throws Exception {
+    ParseRequest.setDefaultInitialRetryDelay(1L);
+    try {
+      List<List<ParseObject>> pages = new ArrayList<>();
+      Task<List<ParseObject>> findTask = findAfterRetry(
+          "{\"results\":[{\"objectId\":\"c\"},{\"objectId\":\"a\"}]}", pages);
+
+      // The page that was passed doesn't match the new results
+      assertTrue(findTask.isFaulted());
+      assertEquals(ParseException.OTHER_CAUSE,
+          ((ParseException) findTask.getError()).getCode());
+      assertEquals(1, pages.size());
+      assertEquals("a", pages.get(0).get(0).getObjectId());
+    } finally {
+      ParseRequest.setDefaultInitialRetryDelay(ParseRequest.DEFAULT_INITIAL_RETRY_DELAY);
+    }
+  }
+
+  @Test
+  public void testFindAsyncSharesIdenticalRequests() throws Exception {
+    // Make mock response and a client that only responds once both queries are running
+    final JSONObject mockResponse = generateBasicMockResponse();
+    final CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient restClient = mock(ParseHttpClient.class);
+    when(restClient.execute(any(ParseHttpRequest.class))).thenAnswer(
+        new Answer<ParseHttpResponse>() {
+      @Override
+      public ParseHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        responseLatch.await();
+        byte[] contentBytes = mockResponse.toString().getBytes();
+        return new ParseHttpResponse.Builder()
+            .setContent(new ByteArrayInputStream(contentBytes))
+            .setStatusCode(200)
+            .setTotalSize(contentBytes.length)
+            .build();
+      }
+    });
+    // Make mock state
+    ParseQuery.State mockState = mock(ParseQuery.State.class);
+    when(mockState.className()).thenReturn("Test");
+    when(mockState.selectedKeys()).thenReturn(null);
+    when(mockState.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+    final List<List<ParseObject>> pages = new ArrayList<>();
+    NetworkQueryController controller = new NetworkQueryController(restClient);
+    Task<List<ParseObject>> firstTask =
+        controller.findAsync(mockState, "sessionToken", true, null);
+    Task<List<ParseObject>> secondTask = controller.findAsync(mockState, "sessionToken", true, 1,
+        new FindPageCallback<ParseObject>() {
+          @Override
+          public void done(List<ParseObject> page) {
+            pages.add(page);
+          }
+        }, null);
+    responseLatch.countDown();
+    ParseTaskUtils.wait(firstTask);
+    ParseTaskUtils.wait(secondTask);
+
+    verify(restClient, times(1)).execute(any(ParseHttpRequest.class));
+    verifyBasicParseObjects(mockResponse, firstTask.getResult(), "Test");
+    verifyBasicParseObjects(mockResponse, secondTask.getResult(), "Test");
+    // Each query gets its own objects
+    assertNotSame(firstTask.getResult().get(0), secondTask.getResult().get(0));
+    assertEquals(2, pages.size());
+  }
+
   // TODO(mengyan): Add testFindAsyncWithCachePolicy to verify command is added to
   // ParseKeyValueCache
 
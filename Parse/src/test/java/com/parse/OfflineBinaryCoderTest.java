@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// For org.json
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = TestHelper.ROBOLECTRIC_SDK_VERSION)
+public class OfflineBinaryCoderTest {
+
+  private static JSONObject roundTrip(JSONObject json) throws JSONException {
+    return OfflineBinaryCoder.decode(OfflineBinaryCoder.encode(json));
+  }
+
+  @Test
+  public void testEncodeDecodeValues() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("int", 42);
+    json.put("negative", -7);
+    json.put("long", 1L << 40);
+    json.put("double", 1.5);
+    json.put("string", "hello \u2603");
+    json.put("true", true);
+    json.put("false", false);
+    json.put("null", JSONObject.NULL);
+    json.put("array", new JSONArray().put(1).put("two").put(new JSONArray()));
+    json.put("object", new JSONObject().put("int", 1).put("nested", new JSONObject()));
+
+    JSONObject decoded = roundTrip(json);
+
+    assertEquals(json.toString(), decoded.toString());
+    assertEquals(Integer.class, decoded.get("int").getClass());
+    assertEquals(Long.class, decoded.get("long").getClass());
+    assertEquals(Double.class, decoded.get("double").getClass());
+    assertEquals(JSONObject.NULL, decoded.get("null"));
+  }
+
+  @Test
+  public void testEncodeDecodeDatesAndPointers() throws Exception {
+    String iso = ParseDateFormat.getInstance().format(new Date(1234));
+    JSONObject json = new JSONObject();
+    json.put("createdAt", iso);
+    json.put("date", new JSONObject().put("__type", "Date").put("iso", iso));
+    json.put("pointer", new JSONObject()
+        .put("__type", "Pointer").put("className", "Foo").put("objectId", "abc"));
+    json.put("offline", new JSONObject().put("__type", "OfflineObject").put("uuid", "1234"));
+    // Looks like a date, but isn't one.
+    json.put("notADate", "not a date at all, no T!Z");
+
+    JSONObject decoded = roundTrip(json);
+
+    assertEquals(iso, decoded.getString("createdAt"));
+    assertEquals(iso, decoded.getJSONObject("date").getString("iso"));
+    assertEquals("Date", decoded.getJSONObject("date").getString("__type"));
+    assertEquals("Foo", decoded.getJSONObject("pointer").getString("className"));
+    assertEquals("abc", decoded.getJSONObject("pointer").getString("objectId"));
+    assertEquals("1234", decoded.getJSONObject("offline").getString("uuid"));
+    assertEquals("not a date at all, no T!Z", decoded.getString("notADate"));
+  }
+
+  @Test
+  public void testEncodeIsSmallerThanText() throws Exception {
+    JSONArray array = new JSONArray();
+    for (int i = 0; i < 100; i++) {
+      array.put(new JSONObject()
+          .put("__type", "Pointer").put("className", "Foo").put("objectId", "object" + i));
+    }
+    JSONObject json = new JSONObject();
+    json.put("createdAt", ParseDateFormat.getInstance().format(new Date()));
+    json.put("pointers", array);
+
+    assertTrue(OfflineBinaryCoder.encode(json).length < json.toString().length() / 2);
+  }
+
+  @Test(expected = JSONException.class)
+  public void testDecodeTruncatedData() throws Exception {
+    byte[] bytes = OfflineBinaryCoder.encode(new JSONObject().put("key", "value"));
+    byte[] truncated = new byte[bytes.length - 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    OfflineBinaryCoder.decode(truncated);
+  }
+
+  @Test(expected = JSONException.class)
+  public void testDecodeUnknownVersion() throws Exception {
+    OfflineBinaryCoder.decode(new byte[] { 99, 0, 7, 0 });
+  }
+}
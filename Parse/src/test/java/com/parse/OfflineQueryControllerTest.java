@@ -11,12 +11,16 @@ package com.parse;
 import org.junit.After;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import bolts.Task;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 public class OfflineQueryControllerTest {
 
@@ -97,6 +101,39 @@ public class OfflineQueryControllerTest {
     offlineStore.verifyFind();
   }
 
+  @Test
+  public void testFindInPagesFromLDS() throws Exception {
+    Parse.enableLocalDatastore(null);
+    final List<ParseObject> results = Arrays.asList(
+        mock(ParseObject.class), mock(ParseObject.class), mock(ParseObject.class));
+    OfflineStore offlineStore = new OfflineStore((OfflineSQLiteOpenHelper) null) {
+      @Override
+      <T extends ParseObject> Task<List<T>> findFromPinAsync(
+          String name, ParseQuery.State<T> state, ParseUser user) {
+        return Task.forResult((List<T>) results);
+      }
+    };
+    OfflineQueryController controller = new OfflineQueryController(offlineStore, null);
+
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .fromLocalDatastore()
+        .build();
+    final List<List<ParseObject>> pages = new ArrayList<>();
+    Task<List<ParseObject>> task = controller.findAsync(state, null, 2,
+        new FindPageCallback<ParseObject>() {
+          @Override
+          public void done(List<ParseObject> page) {
+            pages.add(page);
+          }
+        }, null);
+    ParseTaskUtils.wait(task);
+
+    assertEquals(results, task.getResult());
+    assertEquals(2, pages.size());
+    assertEquals(results.subList(0, 2), pages.get(0));
+    assertEquals(results.subList(2, 3), pages.get(1));
+  }
+
   private static class TestOfflineStore extends OfflineStore {
 
     private AtomicBoolean findCalled = new AtomicBoolean();
@@ -141,6 +178,14 @@ public class OfflineQueryControllerTest {
       return Task.forResult(null);
     }
 
+    @Override
+    public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state,
+        ParseUser user, int pageSize, FindPageCallback<T> pageCallback,
+        Task<Void> cancellationToken) {
+      findCalled.set(true);
+      return Task.forResult(null);
+    }
+
     @Override
     public <T extends ParseObject> Task<Integer> countAsync(
         ParseQuery.State<T> state, ParseUser user, Task<Void> cancellationToken) {
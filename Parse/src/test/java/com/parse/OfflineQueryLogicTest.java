@@ -242,6 +242,47 @@ public class OfflineQueryLogicTest {
     assertFalse(matches(logic, query, objectB));
   }
 
+  @Test
+  public void testStatelessQueryCreatesStatelessMatcher() throws Exception {
+    ParseQuery.State<ParseObject> query = ParseQuery.State.Builder.or(Arrays.asList(
+        new ParseQuery.State.Builder<>("TestObject")
+            .whereEqualTo("value", "A"),
+        new ParseQuery.State.Builder<>("TestObject")
+            .addCondition("number", "$gt", 5)
+    )).build();
+
+    OfflineQueryLogic logic = new OfflineQueryLogic(null);
+    OfflineQueryLogic.ConstraintMatcher<ParseObject> matcher = logic.createMatcher(query, null);
+    assertTrue(matcher instanceof OfflineQueryLogic.StatelessMatcher);
+
+    ParseObject objectA = new ParseObject("TestObject");
+    objectA.put("value", "A");
+    ParseObject objectB = new ParseObject("TestObject");
+    objectB.put("value", "B");
+    objectB.put("number", 3);
+    OfflineQueryLogic.StatelessMatcher<ParseObject> statelessMatcher =
+        (OfflineQueryLogic.StatelessMatcher<ParseObject>) matcher;
+    assertTrue(statelessMatcher.matches(objectA));
+    assertFalse(statelessMatcher.matches(objectB));
+  }
+
+  @Test
+  public void testSubQueryCreatesAsyncMatcher() throws Exception {
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("value", "A")
+        .whereMatchesQuery("pointer", new ParseQuery.State.Builder<>("Other"))
+        .build();
+
+    OfflineQueryLogic logic = new OfflineQueryLogic(null);
+    OfflineQueryLogic.ConstraintMatcher<ParseObject> matcher = logic.createMatcher(query, null);
+    assertFalse(matcher instanceof OfflineQueryLogic.StatelessMatcher);
+
+    // The stateless constraint is checked first, so the subquery doesn't need to run.
+    ParseObject object = new ParseObject("TestObject");
+    object.put("value", "B");
+    assertFalse(ParseTaskUtils.wait(matcher.matchesAsync(object, null)));
+  }
+
   // TODO(grantland): testRelationMatcher()
 
   //endregion
@@ -390,6 +431,104 @@ public class OfflineQueryLogicTest {
     assertFalse(matches(logic, query, object));
   }
 
+  @Test
+  public void testMatchesInWithMixedTypes() throws Exception {
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("foo", "$in", Arrays.asList("bar", 1, null))
+        .build();
+    ParseQuery.State<ParseObject> notInQuery = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("foo", "$nin", Arrays.asList("bar", 1, null))
+        .build();
+    OfflineQueryLogic logic = new OfflineQueryLogic(null);
+
+    ParseObject object = new ParseObject("TestObject");
+    object.put("foo", 1L);
+    assertTrue(matches(logic, query, object));
+    assertFalse(matches(logic, notInQuery, object));
+
+    object.put("foo", Arrays.asList("qux", "bar"));
+    assertTrue(matches(logic, query, object));
+
+    object.put("foo", "baz");
+    assertFalse(matches(logic, query, object));
+    assertTrue(matches(logic, notInQuery, object));
+
+    // Non-existant key
+    object = new ParseObject("TestObject");
+    assertTrue(matches(logic, query, object));
+  }
+
+  @Test
+  public void testMatchesRegex() throws Exception {
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("foo", "$regex", "^b.r")
+        .addCondition("foo", "$options", "i")
+        .build();
+    OfflineQueryLogic logic = new OfflineQueryLogic(null);
+
+    ParseObject object = new ParseObject("TestObject");
+    object.put("foo", "BAR");
+    assertTrue(matches(logic, query, object));
+    object.put("foo", "qux");
+    assertFalse(matches(logic, query, object));
+  }
+
+  @Test
+  public void testMatchesRegexWithInvalidOptions() throws Exception {
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("foo", "$regex", "bar")
+        .addCondition("foo", "$options", "q")
+        .build();
+    OfflineQueryLogic logic = new OfflineQueryLogic(null);
+
+    // The options aren't checked unless there's a value.
+    assertFalse(matches(logic, query, new ParseObject("TestObject")));
+
+    ParseObject object = new ParseObject("TestObject");
+    object.put("foo", "bar");
+    thrown.expect(ParseException.class);
+    thrown.expect(hasParseErrorCode(ParseException.INVALID_QUERY));
+    matches(logic, query, object);
+  }
+
+  @Test
+  public void testMatchersAreReusedForEqualConstraints() throws Exception {
+    Parse.enableLocalDatastore(null);
+    try {
+      OfflineQueryLogic logic = new OfflineQueryLogic(null);
+      ParseQuery.State<ParseObject> queryA = new ParseQuery.State.Builder<>("TestObject")
+          .addCondition("foo", "$regex", "bar")
+          .addCondition("date", "$gt", new Date(1000))
+          .fromLocalDatastore()
+          .ignoreACLs()
+          .build();
+      ParseQuery.State<ParseObject> queryB = new ParseQuery.State.Builder<>("TestObject")
+          .addCondition("foo", "$regex", "bar")
+          .addCondition("date", "$gt", new Date(1000))
+          .fromLocalDatastore()
+          .ignoreACLs()
+          .build();
+      ParseQuery.State<ParseObject> queryC = new ParseQuery.State.Builder<>("TestObject")
+          .addCondition("foo", "$regex", "bar")
+          .addCondition("date", "$gt", new Date(1001))
+          .fromLocalDatastore()
+          .ignoreACLs()
+          .build();
+      ParseQuery.State<ParseObject> pointerQuery = new ParseQuery.State.Builder<>("TestObject")
+          .whereEqualTo("pointer", ParseObject.createWithoutData("Other", "abc"))
+          .fromLocalDatastore()
+          .ignoreACLs()
+          .build();
+
+      assertTrue(logic.createMatcher(queryA, null) == logic.createMatcher(queryB, null));
+      assertFalse(logic.createMatcher(queryA, null) == logic.createMatcher(queryC, null));
+      assertFalse(
+          logic.createMatcher(pointerQuery, null) == logic.createMatcher(pointerQuery, null));
+    } finally {
+      Parse.disableLocalDatastore();
+    }
+  }
+
   @Test
   public void testMatchesAll() throws Exception {
     ParseObject object = new ParseObject("TestObject");
@@ -912,6 +1051,53 @@ public class OfflineQueryLogicTest {
     assertEquals(1, results.get(2).getInt("id"));
   }
 
+  @Test
+  public void testQuerySortWithCount() throws ParseException {
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .addDescendingOrder("key")
+        .build();
+
+    List<ParseObject> results = generateParseObjects("key", new Object[]{
+        3, 9, 1, 9, 7, 4, 8, 2
+    });
+
+    List<ParseObject> sorted = OfflineQueryLogic.sort(results, query, 3);
+
+    assertEquals(3, sorted.size());
+    // Equal objects keep their order.
+    assertEquals(1, sorted.get(0).getInt("id"));
+    assertEquals(3, sorted.get(1).getInt("id"));
+    assertEquals(8, sorted.get(2).getInt("key"));
+    assertEquals(8, results.size());
+
+    assertEquals(0, OfflineQueryLogic.sort(results, query, 0).size());
+    assertEquals(8, OfflineQueryLogic.sort(results, query, 10).size());
+  }
+
+  @Test
+  public void testQuerySortNearSphereWithCount() throws ParseException {
+    ParseGeoPoint origin = new ParseGeoPoint(0, 0);
+    ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("point", origin)
+        .addAscendingOrder("name")
+        .build();
+
+    List<ParseObject> results = generateParseObjects("point", new Object[]{
+        new ParseGeoPoint(3, 0),
+        new ParseGeoPoint(1, 0),
+        new ParseGeoPoint(2, 0),
+        new ParseGeoPoint(1, 0)
+    });
+    results.get(1).put("name", "b");
+    results.get(3).put("name", "a");
+
+    List<ParseObject> sorted = OfflineQueryLogic.sort(results, query, 2);
+
+    assertEquals(2, sorted.size());
+    assertEquals(3, sorted.get(0).getInt("id"));
+    assertEquals(1, sorted.get(1).getInt("id"));
+  }
+
   @Test
   public void testQuerySortDifferentTypes() throws ParseException {
     ParseQuery.State<ParseObject> query = new ParseQuery.State.Builder<>("TestObject")
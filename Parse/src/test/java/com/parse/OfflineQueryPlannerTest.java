@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import com.parse.ParseQuery.KeyConstraints;
+import com.parse.ParseQuery.QueryConstraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = TestHelper.ROBOLECTRIC_SDK_VERSION)
+public class OfflineQueryPlannerTest {
+
+  private static final String INDEXED_VALUES_QUERY = "A.uuid IN (SELECT uuid FROM IndexedValues " +
+      "WHERE className = ? AND key = ? AND ";
+
+  private OfflineIndexes indexes;
+  private OfflineQueryPlanner planner;
+
+  @Before
+  public void setUp() {
+    Map<String, Set<String>> keys = new HashMap<>();
+    keys.put("TestObject", new HashSet<>(Arrays.asList("tags", "score", "owner", "place")));
+    indexes = new OfflineIndexes(keys);
+    indexes.setReady("TestObject", "tags");
+    indexes.setReady("TestObject", "score");
+    indexes.setReady("TestObject", "place");
+    planner = new OfflineQueryPlanner(indexes);
+  }
+
+  @After
+  public void tearDown() {
+    Parse.setLocalDatastore(null);
+  }
+
+  @Test
+  public void testPlanWithoutConstraints() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject").build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.where());
+    assertEquals(0, plan.args().length);
+    assertNull(plan.orderBy());
+    assertTrue(plan.isOrderPushed());
+    assertFalse(plan.isPagingPushed());
+    assertTrue(plan.residualConstraints().isEmpty());
+  }
+
+  @Test
+  public void testPlanObjectIdEquality() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "abc")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("A.objectId = ?", plan.where());
+    assertArrayEquals(new String[] { "abc" }, plan.args());
+    assertTrue(plan.residualConstraints().isEmpty());
+  }
+
+  @Test
+  public void testPlanLeavesUnknownKeysInMemory() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "bar")
+        .addCondition("createdAt", "$gte", new Date(1000))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("A.createdAt >= 1000", plan.where());
+    assertEquals(1, plan.residualConstraints().size());
+    assertEquals("bar", plan.residualConstraints().get("foo"));
+  }
+
+  @Test
+  public void testPlanSplitsKeyConstraints() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("updatedAt", "$lt", new Date(2000))
+        .addCondition("updatedAt", "$gt", "not a date")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("A.updatedAt < 2000", plan.where());
+    KeyConstraints residual = (KeyConstraints) plan.residualConstraints().get("updatedAt");
+    assertEquals(1, residual.size());
+    assertEquals("not a date", residual.get("$gt"));
+  }
+
+  @Test
+  public void testPlanNotEqualMatchesMissingValues() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("objectId", "$ne", "abc")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("(A.objectId IS NULL OR A.objectId <> ?)", plan.where());
+    assertArrayEquals(new String[] { "abc" }, plan.args());
+  }
+
+  @Test
+  public void testPlanIn() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("objectId", "$in", Arrays.asList("a", 1, null, "b"))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("(A.objectId IN (?,?) OR A.objectId IS NULL)", plan.where());
+    assertArrayEquals(new String[] { "a", "b" }, plan.args());
+  }
+
+  @Test
+  public void testPlanNotIn() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("objectId", "$nin", Collections.singletonList("a"))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("(A.objectId IS NULL OR NOT A.objectId IN (?))", plan.where());
+  }
+
+  @Test
+  public void testPlanExists() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("createdAt", "$exists", true)
+        .addCondition("updatedAt", "$exists", false)
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertTrue(plan.where().contains("A.createdAt IS NOT NULL"));
+    assertTrue(plan.where().contains("A.updatedAt IS NULL"));
+    assertTrue(plan.residualConstraints().isEmpty());
+  }
+
+  @Test
+  public void testPlanOr() {
+    ParseQuery.State.Builder<ParseObject> sub1 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "a");
+    ParseQuery.State.Builder<ParseObject> sub2 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "b");
+    ParseQuery.State<ParseObject> state = ParseQuery.State.Builder.or(Arrays.asList(sub1, sub2))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("(A.objectId = ? OR A.objectId = ?)", plan.where());
+    assertArrayEquals(new String[] { "a", "b" }, plan.args());
+    assertTrue(plan.residualConstraints().isEmpty());
+  }
+
+  @Test
+  public void testPlanOrWithUnknownKeyStaysInMemory() {
+    ParseQuery.State.Builder<ParseObject> sub1 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "a");
+    ParseQuery.State.Builder<ParseObject> sub2 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "b");
+    ParseQuery.State<ParseObject> state = ParseQuery.State.Builder.or(Arrays.asList(sub1, sub2))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.where());
+    assertEquals(0, plan.args().length);
+    assertTrue(plan.residualConstraints().containsKey("$or"));
+  }
+
+  @Test
+  public void testPlanOrder() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .orderByDescending("createdAt")
+        .addAscendingOrder("objectId")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("A.createdAt DESC, A.objectId", plan.orderBy());
+    assertTrue(plan.isOrderPushed());
+  }
+
+  @Test
+  public void testPlanOrderByUnknownKey() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .orderByDescending("createdAt")
+        .addAscendingOrder("foo")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.orderBy());
+    assertFalse(plan.isOrderPushed());
+  }
+
+  @Test
+  public void testPlanNearSphereIsNotPushed() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("location", new ParseGeoPoint(1, 1))
+        .orderByAscending("createdAt")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.orderBy());
+    assertFalse(plan.isOrderPushed());
+    assertTrue(plan.residualConstraints().containsKey("location"));
+  }
+
+  @Test
+  public void testPlanPaging() {
+    Parse.setLocalDatastore(mock(OfflineStore.class));
+    ParseQuery.State.Builder<ParseObject> builder = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "a")
+        .orderByAscending("createdAt")
+        .setLimit(5)
+        .setSkip(10);
+
+    // ACLs still have to be checked in memory.
+    assertFalse(planner.plan(builder.build(), false).isPagingPushed());
+
+    builder.fromLocalDatastore().ignoreACLs();
+    OfflineQueryPlanner.Plan plan = planner.plan(builder.build(), false);
+    assertTrue(plan.isPagingPushed());
+    assertEquals(5, plan.limit());
+    assertEquals(10, plan.skip());
+    assertFalse(plan.withoutPaging().isPagingPushed());
+
+    // Counts ignore the skip and limit.
+    assertFalse(planner.plan(builder.build(), true).isPagingPushed());
+
+    // Constraints that have to be matched in memory might drop rows from the page.
+    builder.whereEqualTo("foo", "bar");
+    assertFalse(planner.plan(builder.build(), false).isPagingPushed());
+  }
+
+  @Test
+  public void testPlanDoesNotModifyQuery() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("createdAt", "$gt", new Date(1000))
+        .addCondition("createdAt", "$regex", "foo")
+        .build();
+
+    planner.plan(state, false);
+    QueryConstraints constraints = state.constraints();
+    assertEquals(2, ((KeyConstraints) constraints.get("createdAt")).size());
+  }
+
+  //region Indexes
+
+  @Test
+  public void testPlanIndexedEquality() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("tags", "a")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals(INDEXED_VALUES_QUERY + "type = 1 AND value = ?)", plan.where());
+    assertArrayEquals(new String[] { "TestObject", "tags", "a" }, plan.args());
+    // Indexed keys can change locally, so they're matched again in memory
+    assertEquals("a", plan.residualConstraints().get("tags"));
+    assertFalse(plan.isPagingPushed());
+  }
+
+  @Test
+  public void testPlanIndexedPointerEquality() {
+    ParseObject owner = ParseObject.createWithoutData("Owner", "abc");
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("tags", owner)
+        .addCondition("score", "$ne", 3)
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertTrue(plan.where().contains(INDEXED_VALUES_QUERY + "type = 5 AND value = ?)"));
+    assertTrue(plan.where().contains(
+        "A.uuid NOT IN (SELECT uuid FROM IndexedValues WHERE className = ? AND key = ? AND " +
+            "type = 2 AND value = 3)"));
+    assertTrue(Arrays.asList(plan.args()).contains("Owner:abc"));
+  }
+
+  @Test
+  public void testPlanIndexedKeyThatIsNotReady() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("owner", "a")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.where());
+    assertEquals("a", plan.residualConstraints().get("owner"));
+
+    indexes.setReady("TestObject", "owner");
+    plan = planner.plan(state, false);
+    assertNotNull(plan.where());
+    assertEquals("a", plan.residualConstraints().get("owner"));
+  }
+
+  @Test
+  public void testPlanIndexedIn() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("tags", "$in", Arrays.asList("a", 1, "b", new Date(5)))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals(INDEXED_VALUES_QUERY + "((type = 1 AND value IN (?,?)) OR " +
+        "(type = 2 AND value IN (1)) OR (type = 4 AND value IN (5))))", plan.where());
+    assertArrayEquals(new String[] { "TestObject", "tags", "a", "b" }, plan.args());
+  }
+
+  @Test
+  public void testPlanIndexedInWithNullStaysInMemory() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("tags", "$nin", Arrays.asList("a", null))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.where());
+    assertTrue(plan.residualConstraints().containsKey("tags"));
+  }
+
+  @Test
+  public void testPlanIndexedRange() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("score", "$gte", 1.5)
+        .addCondition("tags", "$lt", "b")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals(INDEXED_VALUES_QUERY + "type = 2 AND value >= 1.5)", plan.where());
+    // Strings can't be compared.
+    KeyConstraints residual = (KeyConstraints) plan.residualConstraints().get("tags");
+    assertEquals("b", residual.get("$lt"));
+  }
+
+  @Test
+  public void testPlanIndexedGeoBox() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereWithin("place", new ParseGeoPoint(-10, 20), new ParseGeoPoint(10, 30))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertEquals("A.uuid IN (SELECT uuid FROM GeoIndex WHERE className = ? AND key = ? AND " +
+        "latitude BETWEEN -10.000000001 AND 10.000000001 AND " +
+        "longitude BETWEEN 19.999999999 AND 30.000000001)", plan.where());
+    assertArrayEquals(new String[] { "TestObject", "place" }, plan.args());
+    // The box only narrows down the candidates.
+    KeyConstraints residual = (KeyConstraints) plan.residualConstraints().get("place");
+    assertTrue(residual.containsKey("$within"));
+    assertFalse(plan.isPagingPushed());
+  }
+
+  @Test
+  public void testPlanIndexedNearSphere() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("place", new ParseGeoPoint(0, 179))
+        .maxDistance("place", Math.toRadians(2))
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    // The circle wraps around the antimeridian.
+    assertTrue(plan.where(), plan.where().contains("latitude BETWEEN -2.000000001 AND"));
+    assertTrue(plan.where(), plan.where().contains("(longitude >= 176.99"));
+    assertTrue(plan.where(), plan.where().contains(" OR longitude <= -178.99"));
+    KeyConstraints residual = (KeyConstraints) plan.residualConstraints().get("place");
+    assertTrue(residual.containsKey("$nearSphere"));
+    assertTrue(residual.containsKey("$maxDistance"));
+
+    // Without a distance, every point matches.
+    state = new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("place", new ParseGeoPoint(0, 179))
+        .build();
+    assertNull(planner.plan(state, false).where());
+  }
+
+  @Test
+  public void testPlanIndexedKeyOfOtherClass() {
+    ParseQuery.State<ParseObject> state = new ParseQuery.State.Builder<>("OtherObject")
+        .whereEqualTo("tags", "a")
+        .build();
+
+    OfflineQueryPlanner.Plan plan = planner.plan(state, false);
+    assertNull(plan.where());
+  }
+
+  //endregion
+}
@@ -0,0 +1,1422 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for OfflineStore that run against a real SQLite database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = TestHelper.ROBOLECTRIC_SDK_VERSION)
+public class OfflineStoreTest extends ResetPluginsParseTest {
+
+  private OfflineStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    ParseObject.registerSubclass(ParsePin.class);
+    RuntimeEnvironment.application.deleteDatabase("ParseOfflineStore");
+    store = new OfflineStore(RuntimeEnvironment.application);
+    Parse.setLocalDatastore(store);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Parse.setLocalDatastore(null);
+    store.clearDatabase(RuntimeEnvironment.application);
+    ParseObject.unregisterSubclass(ParsePin.class);
+    super.tearDown();
+  }
+
+  //region Helpers
+
+  /**
+   * Replaces the store with one that has the given options, once it has built its indexes.
+   */
+  private OfflineStore createStore(OfflineStore.Options options) throws ParseException {
+    store = new OfflineStore(new OfflineSQLiteOpenHelper(RuntimeEnvironment.application), options);
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    Parse.setLocalDatastore(store);
+    return store;
+  }
+
+  private static Map<String, Set<String>> keys(String className, String... keys) {
+    return Collections.<String, Set<String>>singletonMap(
+        className, new HashSet<>(Arrays.asList(keys)));
+  }
+
+  private List<String> queryStrings(String sql, String... args) throws ParseException {
+    OfflineSQLiteOpenHelper helper = new OfflineSQLiteOpenHelper(RuntimeEnvironment.application);
+    ParseSQLiteDatabase db = ParseTaskUtils.wait(helper.getReadableDatabaseAsync());
+    List<String> results = new ArrayList<>();
+    Cursor cursor = ParseTaskUtils.wait(db.rawQueryAsync(sql, args));
+    for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+      results.add(cursor.getString(0));
+    }
+    cursor.close();
+    ParseTaskUtils.wait(db.closeAsync());
+    return results;
+  }
+
+  /**
+   * @return The number of rows of {@code table}, or of the ones that match {@code where} if it
+   *         isn't null.
+   */
+  private int countRows(String table, String where, String... args) throws ParseException {
+    String sql = "SELECT COUNT(*) FROM " + table + (where == null ? "" : " WHERE " + where);
+    return Integer.parseInt(queryStrings(sql, args).get(0));
+  }
+
+  private static ParseObject createObject(String objectId, long createdAt, String foo) {
+    ParseObject.State state = new ParseObject.State.Builder("TestObject")
+        .objectId(objectId)
+        .createdAt(createdAt)
+        .updatedAt(createdAt)
+        .put("foo", foo)
+        .isComplete(true)
+        .build();
+    return ParseObject.from(state);
+  }
+
+  private List<ParseObject> pinObjects(int count) throws ParseException {
+    List<ParseObject> objects = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      objects.add(createObject("object" + i, 1000 * (i + 1), i % 2 == 0 ? "even" : "odd"));
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+    return objects;
+  }
+
+  private List<ParseObject> find(ParseQuery.State.Builder<ParseObject> builder)
+      throws ParseException {
+    return ParseTaskUtils.wait(store.findFromPinAsync(null, builder.build(), null));
+  }
+
+  //endregion
+
+  //region Query planning
+
+  @Test
+  public void testFindByCreatedAtRange() throws Exception {
+    pinObjects(5);
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("createdAt", "$gt", new Date(2000))
+        .addCondition("createdAt", "$lte", new Date(4000))
+        .orderByAscending("createdAt"));
+
+    assertEquals(2, results.size());
+    assertEquals("object2", results.get(0).getObjectId());
+    assertEquals("object3", results.get(1).getObjectId());
+  }
+
+  @Test
+  public void testFindCombinesSQLAndInMemoryConstraints() throws Exception {
+    pinObjects(6);
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "even")
+        .addCondition("objectId", "$ne", "object0")
+        .orderByDescending("createdAt"));
+
+    assertEquals(2, results.size());
+    assertEquals("object4", results.get(0).getObjectId());
+    assertEquals("object2", results.get(1).getObjectId());
+  }
+
+  @Test
+  public void testFindWithPushedLimitAndSkip() throws Exception {
+    pinObjects(10);
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .fromLocalDatastore()
+        .ignoreACLs()
+        .orderByDescending("createdAt")
+        .setSkip(2)
+        .setLimit(3));
+
+    assertEquals(3, results.size());
+    assertEquals("object7", results.get(0).getObjectId());
+    assertEquals("object6", results.get(1).getObjectId());
+    assertEquals("object5", results.get(2).getObjectId());
+  }
+
+  @Test
+  public void testFindWithOr() throws Exception {
+    pinObjects(4);
+
+    ParseQuery.State.Builder<ParseObject> sub1 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "object1");
+    ParseQuery.State.Builder<ParseObject> sub2 = new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "even");
+    List<ParseObject> results = find(ParseQuery.State.Builder.or(Arrays.asList(sub1, sub2))
+        .orderByAscending("createdAt"));
+
+    assertEquals(3, results.size());
+    assertEquals("object0", results.get(0).getObjectId());
+    assertEquals("object1", results.get(1).getObjectId());
+    assertEquals("object2", results.get(2).getObjectId());
+  }
+
+  @Test
+  public void testCount() throws Exception {
+    pinObjects(5);
+
+    int count = ParseTaskUtils.wait(store.countFromPinAsync(null,
+        new ParseQuery.State.Builder<>("TestObject")
+            .addCondition("createdAt", "$gte", new Date(3000))
+            .setLimit(1)
+            .build(),
+        null));
+
+    assertEquals(3, count);
+  }
+
+  @Test
+  public void testCountInSQLiteSkipsObjectsWithoutData() throws Exception {
+    pinObjects(5);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin",
+        Collections.singletonList(ParseObject.createWithoutData("TestObject", "object9")), false));
+
+    int count = ParseTaskUtils.wait(store.countFromPinAsync(null,
+        new ParseQuery.State.Builder<>("TestObject")
+            .fromLocalDatastore()
+            .ignoreACLs()
+            .build(),
+        null));
+
+    assertEquals(5, count);
+  }
+
+  @Test
+  public void testCountWithInMemoryConstraints() throws Exception {
+    pinObjects(7);
+
+    int count = ParseTaskUtils.wait(store.countFromPinAsync(null,
+        new ParseQuery.State.Builder<>("TestObject")
+            .fromLocalDatastore()
+            .ignoreACLs()
+            .addCondition("foo", "$regex", "^ev")
+            .addCondition("createdAt", "$gt", new Date(1000))
+            .build(),
+        null));
+
+    assertEquals(3, count);
+  }
+
+  @Test
+  public void testFindAfterRebootLoadsObjectsInChunks() throws Exception {
+    // More objects than fit in a single statement.
+    pinObjects(1100);
+    store.simulateReboot();
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "odd")
+        .orderByDescending("createdAt"));
+
+    assertEquals(550, results.size());
+    assertEquals("object1099", results.get(0).getObjectId());
+    assertTrue(results.get(0).isDataAvailable());
+  }
+
+  @Test
+  public void testFindAfterRebootResolvesUnsavedPointers() throws Exception {
+    ParseObject child = new ParseObject("Child");
+    child.put("name", "child");
+    ParseObject parent = createObject("parent", 1000, "even");
+    parent.put("child", child);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), true));
+    store.simulateReboot();
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject"));
+
+    assertEquals(1, results.size());
+    ParseObject pointer = results.get(0).getParseObject("child");
+    assertEquals("Child", pointer.getClassName());
+    assertEquals("child",
+        ParseTaskUtils.wait(store.fetchLocallyAsync(pointer)).getString("name"));
+  }
+
+  @Test
+  public void testCompactStoreReadsObjectsInEitherFormat() throws Exception {
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin",
+        Collections.singletonList(createObject("text", 1000, "even")), false));
+    store.simulateReboot();
+
+    Parse.setLocalDatastore(null);
+    store = new OfflineStore(new OfflineSQLiteOpenHelper(RuntimeEnvironment.application, true));
+    Parse.setLocalDatastore(store);
+    ParseObject child = new ParseObject("Child");
+    child.put("name", "child");
+    ParseObject compactObject = createObject("compact", 2000, "odd");
+    compactObject.put("date", new Date(1234));
+    compactObject.put("child", child);
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("pin", Collections.singletonList(compactObject), true));
+    store.simulateReboot();
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .orderByAscending("createdAt"));
+
+    assertEquals(2, results.size());
+    assertEquals("even", results.get(0).getString("foo"));
+    assertEquals("odd", results.get(1).getString("foo"));
+    assertEquals(new Date(1234), results.get(1).getDate("date"));
+    assertEquals(new Date(2000), results.get(1).getCreatedAt());
+    assertEquals("child", ParseTaskUtils.wait(
+        store.fetchLocallyAsync(results.get(1).getParseObject("child"))).getString("name"));
+  }
+
+  private static ParseObject createObject(String className, String objectId) {
+    ParseObject.State state = new ParseObject.State.Builder(className)
+        .objectId(objectId)
+        .isComplete(true)
+        .build();
+    return ParseObject.from(state);
+  }
+
+  @Test
+  public void testFindFetchesIncludesInBulk() throws Exception {
+    ParseObject team = createObject("Team", "team");
+    team.put("name", "team");
+    List<ParseObject> objects = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      ParseObject author = createObject("Author", "author" + (i % 5));
+      author.put("team", team);
+      ParseObject object = createObject("object" + i, 1000 * (i + 1), "even");
+      object.put("author", author);
+      object.put("editors", Arrays.asList(author, JSONObject.NULL));
+      objects.add(object);
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, true));
+    store.simulateReboot();
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .include("author.team")
+        .include("editors"));
+
+    assertEquals(20, results.size());
+    for (ParseObject result : results) {
+      ParseObject author = result.getParseObject("author");
+      assertTrue(author.isDataAvailable());
+      assertTrue(author.getParseObject("team").isDataAvailable());
+      assertEquals("team", author.getParseObject("team").getString("name"));
+      assertTrue(((ParseObject) result.getList("editors").get(0)).isDataAvailable());
+    }
+  }
+
+  @Test
+  public void testFindStopsAfterLimitWithResidualConstraints() throws Exception {
+    pinObjects(300);
+    store.simulateReboot();
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "odd")
+        .orderByDescending("createdAt")
+        .setSkip(2)
+        .setLimit(3));
+
+    assertEquals(3, results.size());
+    assertEquals("object295", results.get(0).getObjectId());
+    assertEquals("object293", results.get(1).getObjectId());
+    assertEquals("object291", results.get(2).getObjectId());
+  }
+
+  //endregion
+
+  //region Cursors
+
+  private List<List<ParseObject>> readPages(ParseQuery.State.Builder<ParseObject> builder,
+      int pageSize) throws ParseException {
+    ParseQueryCursor<ParseObject> cursor =
+        new ParseQueryCursor<>(builder.build(), Task.<ParseUser>forResult(null));
+    List<List<ParseObject>> pages = new ArrayList<>();
+    List<ParseObject> page;
+    do {
+      page = ParseTaskUtils.wait(cursor.nextInBackground(pageSize));
+      pages.add(page);
+    } while (!page.isEmpty());
+    return pages;
+  }
+
+  @Test
+  public void testCursorReadsPagesInOrder() throws Exception {
+    pinObjects(200);
+
+    List<List<ParseObject>> pages = readPages(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "odd")
+        .orderByDescending("createdAt")
+        .setSkip(5)
+        .setLimit(40), 15);
+
+    assertEquals(4, pages.size());
+    assertEquals(15, pages.get(0).size());
+    assertEquals(15, pages.get(1).size());
+    assertEquals(10, pages.get(2).size());
+    assertEquals(0, pages.get(3).size());
+    int expected = 189;
+    for (List<ParseObject> page : pages) {
+      for (ParseObject object : page) {
+        assertEquals("object" + expected, object.getObjectId());
+        expected -= 2;
+      }
+    }
+  }
+
+  @Test
+  public void testCursorBreaksTiesByInsertionOrder() throws Exception {
+    List<ParseObject> objects = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      objects.add(createObject("object" + i, 1000, "odd"));
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+
+    List<List<ParseObject>> pages = readPages(new ParseQuery.State.Builder<>("TestObject")
+        .orderByAscending("createdAt"), 7);
+
+    Set<String> objectIds = new HashSet<>();
+    for (List<ParseObject> page : pages) {
+      for (ParseObject object : page) {
+        assertTrue(objectIds.add(object.getObjectId()));
+      }
+    }
+    assertEquals(120, objectIds.size());
+  }
+
+  @Test
+  public void testCursorWithOrderThatIsNotPushed() throws Exception {
+    pinObjects(10);
+
+    List<List<ParseObject>> pages = readPages(new ParseQuery.State.Builder<>("TestObject")
+        .orderByAscending("foo")
+        .addDescendingOrder("createdAt")
+        .setLimit(7), 4);
+
+    assertEquals(3, pages.size());
+    assertEquals(4, pages.get(0).size());
+    assertEquals(3, pages.get(1).size());
+    assertEquals("object8", pages.get(0).get(0).getObjectId());
+    assertEquals("object9", pages.get(1).get(1).getObjectId());
+  }
+
+  //endregion
+
+  //region Indexes
+
+  @Test
+  public void testFindByIndexedKey() throws Exception {
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "foo")).build());
+    pinObjects(6);
+    assertEquals(6, countRows("IndexedValues", "key = ?", "foo"));
+
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "even")
+        .orderByAscending("createdAt"));
+    assertEquals(3, results.size());
+    assertEquals("object0", results.get(0).getObjectId());
+    assertEquals("object2", results.get(1).getObjectId());
+    assertEquals("object4", results.get(2).getObjectId());
+
+    results = find(new ParseQuery.State.Builder<>("TestObject")
+        .addCondition("foo", "$nin", Collections.singletonList("even")));
+    assertEquals(3, results.size());
+  }
+
+  @Test
+  public void testFindByIndexedKeyMatchesUnsavedChanges() throws Exception {
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "foo")).build());
+    ParseObject object = createObject("object0", 1000, "even");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+
+    // The index still has the stored value, but the object in memory doesn't match anymore
+    object.put("foo", "odd");
+    assertEquals(0, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "even")).size());
+    assertEquals(0, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "even")
+        .setLimit(1)).size());
+  }
+
+  @Test
+  public void testIndexedValuesFollowUpdates() throws Exception {
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "tags")).build());
+    ParseObject object = createObject("object0", 1000, "even");
+    object.put("tags", Arrays.asList("a", "b"));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(2, countRows("IndexedValues", "key = ?", "tags"));
+
+    object.put("tags", Collections.singletonList("c"));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(1, countRows("IndexedValues", "key = ?", "tags"));
+
+    assertEquals(0, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("tags", "a")).size());
+    assertEquals(1, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("tags", "c")).size());
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(0, countRows("IndexedValues", "key = ?", "tags"));
+  }
+
+  @Test
+  public void testIndexesAreBuiltForPinnedObjects() throws Exception {
+    pinObjects(4);
+    assertEquals(0, countRows("IndexedValues", "key = ?", "foo"));
+
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "foo")).build());
+    assertEquals(4, countRows("IndexedValues", "key = ?", "foo"));
+    assertEquals(2, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "odd")).size());
+
+    // Keys that aren't indexed anymore are dropped.
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "bar")).build());
+    assertEquals(0, countRows("IndexedValues", "key = ?", "foo"));
+  }
+
+  @Test
+  public void testIndexesAreRebuiltAfterSessionWithoutIndexes() throws Exception {
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "foo")).build());
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin",
+        Collections.singletonList(createObject("object0", 1000, "x")), false));
+
+    // A session without indexes doesn't maintain the rows of foo, so it has to forget them.
+    store = new OfflineStore(RuntimeEnvironment.application);
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    Parse.setLocalDatastore(store);
+    assertEquals(0, countRows("IndexedValues", "key = ?", "foo"));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin",
+        Collections.singletonList(createObject("object1", 2000, "x")), false));
+
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "foo")).build());
+    assertEquals(2, countRows("IndexedValues", "key = ?", "foo"));
+    assertEquals(2, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("foo", "x")).size());
+  }
+
+  private List<String> findGeo(ParseQuery.State.Builder<ParseObject> builder)
+      throws ParseException {
+    List<String> objectIds = new ArrayList<>();
+    for (ParseObject object : find(builder.orderByAscending("createdAt"))) {
+      objectIds.add(object.getObjectId());
+    }
+    Collections.sort(objectIds);
+    return objectIds;
+  }
+
+  private List<List<String>> findGeoQueries() throws ParseException {
+    List<List<String>> results = new ArrayList<>();
+    results.add(findGeo(new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("location", new ParseGeoPoint(10, 20))
+        .maxDistance("location", Math.toRadians(3))));
+    // Wraps around the antimeridian.
+    results.add(findGeo(new ParseQuery.State.Builder<>("TestObject")
+        .whereNear("location", new ParseGeoPoint(-10, 179))
+        .maxDistance("location", Math.toRadians(5))));
+    results.add(findGeo(new ParseQuery.State.Builder<>("TestObject")
+        .whereWithin("location", new ParseGeoPoint(-5, -5), new ParseGeoPoint(5, 10))));
+    results.add(findGeo(new ParseQuery.State.Builder<>("TestObject")
+        .whereGeoWithin("location", Arrays.asList(
+            new ParseGeoPoint(0, 0), new ParseGeoPoint(20, 0), new ParseGeoPoint(0, 20)))));
+    return results;
+  }
+
+  @Test
+  public void testFindByIndexedGeoPoint() throws Exception {
+    List<ParseObject> objects = new ArrayList<>();
+    int i = 0;
+    for (int latitude = -30; latitude <= 30; latitude += 5) {
+      for (int longitude = -180; longitude < 180; longitude += 10) {
+        ParseObject object = createObject("object" + i, 1000 * (i + 1), "foo");
+        object.put("location", new ParseGeoPoint(latitude, longitude));
+        objects.add(object);
+        i++;
+      }
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+
+    // Without an index, every object is tested in memory.
+    List<List<String>> expected = findGeoQueries();
+    for (List<String> objectIds : expected) {
+      assertFalse(objectIds.isEmpty());
+    }
+
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "location")).build());
+    assertEquals(objects.size(), countRows("GeoIndex", null));
+    assertEquals(expected, findGeoQueries());
+  }
+
+  @Test
+  public void testGeoIndexFollowsUpdates() throws Exception {
+    createStore(new OfflineStore.Options.Builder().indexes(keys("TestObject", "location")).build());
+    ParseObject object = createObject("object0", 1000, "foo");
+    object.put("location", new ParseGeoPoint(10, 10));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(1, countRows("GeoIndex", null));
+
+    object.put("location", new ParseGeoPoint(-10, -10));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(1, countRows("GeoIndex", null));
+    assertEquals(Collections.<String>emptyList(), findGeo(new ParseQuery.State.Builder<>("TestObject")
+        .whereWithin("location", new ParseGeoPoint(5, 5), new ParseGeoPoint(15, 15))));
+    assertEquals(Collections.singletonList("object0"), findGeo(
+        new ParseQuery.State.Builder<>("TestObject")
+            .whereWithin("location", new ParseGeoPoint(-15, -15), new ParseGeoPoint(-5, -5))));
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(0, countRows("GeoIndex", null));
+  }
+
+  private void pinText(String... texts) throws ParseException {
+    List<ParseObject> objects = new ArrayList<>();
+    for (int i = 0; i < texts.length; i++) {
+      ParseObject object = createObject("object" + i, 1000 * (i + 1), "foo");
+      object.put("body", texts[i]);
+      objects.add(object);
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+  }
+
+  private List<String> findText(String text) throws ParseException {
+    List<String> objectIds = new ArrayList<>();
+    for (ParseObject object : find(new ParseQuery.State.Builder<>("TestObject")
+        .whereFullText("body", text)
+        .orderByAscending("createdAt"))) {
+      objectIds.add(object.getObjectId());
+    }
+    return objectIds;
+  }
+
+  @Test
+  public void testFindByFullText() throws Exception {
+    // Without an index, the text is matched in memory.
+    pinText("The quick brown fox", "A lazy dog", "The FOX jumps over the dog");
+    assertEquals(Arrays.asList("object0", "object2"), findText("fox"));
+    assertEquals(Arrays.asList("object0", "object1", "object2"), findText("dog, fox!"));
+    assertEquals(Collections.singletonList("object1"), findText("lazy cat"));
+    assertEquals(Collections.<String>emptyList(), findText("cat"));
+    assertEquals(Collections.<String>emptyList(), findText("..."));
+
+    // With an index, the same queries are answered by it.
+    createStore(new OfflineStore.Options.Builder().textIndexes(keys("TestObject", "body")).build());
+    assertEquals(3, countRows("TextIndex", null));
+    assertEquals(3, countRows("TextIndexedValues", null));
+    assertEquals(Arrays.asList("object0", "object2"), findText("fox"));
+    assertEquals(Arrays.asList("object0", "object1", "object2"), findText("dog, fox!"));
+    assertEquals(Collections.singletonList("object1"), findText("lazy cat"));
+    assertEquals(Collections.<String>emptyList(), findText("cat"));
+    assertEquals(Collections.<String>emptyList(), findText("..."));
+    // Operators in the text aren't interpreted.
+    assertEquals(Arrays.asList("object0", "object2"), findText("fox NOT"));
+    assertEquals(Collections.singletonList("object1"), findText("lazy NEAR cat"));
+  }
+
+  @Test
+  public void testTextIndexFollowsUpdates() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .textIndexes(keys("TestObject", "body", "tags"))
+        .build());
+    ParseObject object = createObject("object0", 1000, "even");
+    object.put("body", "hello world");
+    object.put("tags", Arrays.asList("red", "green"));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(2, countRows("TextIndex", null));
+    assertEquals(2, countRows("TextIndexedValues", null));
+    assertEquals(1, find(new ParseQuery.State.Builder<>("TestObject")
+        .whereFullText("tags", "green")).size());
+
+    object.put("body", "goodbye");
+    object.remove("tags");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(object), false));
+    assertEquals(1, countRows("TextIndex", null));
+    assertEquals(1, countRows("TextIndexedValues", null));
+    assertEquals(Collections.<String>emptyList(), findText("hello"));
+    assertEquals(Collections.singletonList("object0"), findText("goodbye"));
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(0, countRows("TextIndex", null));
+    assertEquals(0, countRows("TextIndexedValues", null));
+
+    // Keys that aren't indexed anymore are dropped.
+    createStore(new OfflineStore.Options.Builder().textIndexes(keys("TestObject", "body")).build());
+    pinText("one", "two");
+    createStore(new OfflineStore.Options.Builder()
+        .textIndexes(keys("TestObject", "title"))
+        .build());
+    assertEquals(0, countRows("TextIndex", null));
+    assertEquals(0, countRows("TextIndexedValues", null));
+  }
+
+  //endregion
+
+  //region Concurrency
+
+  @Test
+  public void testReadsDoNotWaitForWriter() throws Exception {
+    OfflineSQLiteOpenHelper helper = new OfflineSQLiteOpenHelper(RuntimeEnvironment.application);
+    store = new OfflineStore(helper);
+    Parse.setLocalDatastore(store);
+    pinObjects(3);
+
+    ParseSQLiteDatabase writer = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+    try {
+      ParseTaskUtils.wait(writer.beginTransactionAsync());
+      ParseTaskUtils.wait(writer.deleteAsync(OfflineSQLiteOpenHelper.TABLE_OBJECTS, null, null));
+
+      // The reader runs while the transaction is open, and doesn't see its changes.
+      Task<List<ParseObject>> findTask = store.findFromPinAsync(null,
+          new ParseQuery.State.Builder<>("TestObject").build(), null);
+      assertTrue(findTask.waitForCompletion(10, TimeUnit.SECONDS));
+      assertEquals(3, findTask.getResult().size());
+    } finally {
+      writer.endTransactionAsync();
+      ParseTaskUtils.wait(writer.closeAsync());
+    }
+
+    assertEquals(3, find(new ParseQuery.State.Builder<>("TestObject")).size());
+  }
+
+  @Test
+  public void testRegisterObjectsFromManyThreads() throws Exception {
+    final int threadCount = 4;
+    final int objectCount = 500;
+    final List<List<ParseObject>> created = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      final List<ParseObject> objects = Collections.synchronizedList(new ArrayList<ParseObject>());
+      final String prefix = "thread" + t + "-";
+      created.add(objects);
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < objectCount; i++) {
+            objects.add(ParseObject.createWithoutData("TestObject", prefix + i));
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // Every object that was created can be found again.
+    for (int t = 0; t < threadCount; t++) {
+      for (int i = 0; i < objectCount; i++) {
+        assertTrue(created.get(t).get(i) == store.getObject("TestObject", "thread" + t + "-" + i));
+      }
+    }
+  }
+
+  //endregion
+
+  //region Pinning
+
+  @Test
+  public void testPinManyObjectsWithChildren() throws Exception {
+    List<ParseObject> objects = new ArrayList<>();
+    for (int i = 0; i < 1200; i++) {
+      ParseObject child = new ParseObject("Child");
+      child.put("index", i);
+      ParseObject object = createObject("object" + i, 1000 * (i + 1), "even");
+      object.put("child", child);
+      objects.add(object);
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, true));
+
+    // Every object and child, and the pin.
+    assertEquals(2401, countRows("ParseObjects", null));
+    assertEquals(2401, countRows("Dependencies", null));
+    store.simulateReboot();
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("Child")
+        .addCondition("index", "$gte", 600));
+    assertEquals(600, results.size());
+  }
+
+  @Test
+  public void testRepinKeepsRowsOfUnchangedObjects() throws Exception {
+    ParseObject parent = createObject("parent", 1000, "even");
+    ParseObject child = createObject("child", 2000, "odd");
+    parent.put("child", child);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), true));
+    List<String> before = queryStrings(
+        "SELECT uuid FROM ParseObjects WHERE objectId IN ('parent', 'child') ORDER BY objectId");
+
+    parent.put("foo", "changed");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), true));
+
+    assertEquals(before, queryStrings(
+        "SELECT uuid FROM ParseObjects WHERE objectId IN ('parent', 'child') ORDER BY objectId"));
+    store.simulateReboot();
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject")
+        .whereEqualTo("objectId", "parent"));
+    assertEquals("changed", results.get(0).getString("foo"));
+  }
+
+  @Test
+  public void testRepinRemovesObjectsThatAreNoLongerReachable() throws Exception {
+    ParseObject parent = createObject("parent", 1000, "even");
+    ParseObject child = createObject("child", 2000, "odd");
+    ParseObject shared = createObject("shared", 3000, "odd");
+    parent.put("child", child);
+    parent.put("shared", shared);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), true));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("other", Collections.singletonList(shared), true));
+
+    parent.remove("child");
+    parent.remove("shared");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), true));
+
+    assertEquals(Arrays.asList("parent", "shared"), queryStrings(
+        "SELECT objectId FROM ParseObjects WHERE className = 'TestObject' ORDER BY objectId"));
+    // The pin, the other pin, and one dependency of each on its object and itself.
+    assertEquals(4, countRows("Dependencies", null));
+  }
+
+  @Test
+  public void testUnpinnedObjectsAreCollectedInTheBackground() throws Exception {
+    pinObjects(250);
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    // Objects that haven't been collected yet aren't found either.
+    assertEquals(0, find(new ParseQuery.State.Builder<>("TestObject")).size());
+
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(0, countRows("ParseObjects", null));
+    assertEquals(0, countRows("Dependencies", null));
+  }
+
+  @Test
+  public void testObjectsPinnedAgainAreNotCollected() throws Exception {
+    List<ParseObject> objects = pinObjects(3);
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("other", objects, false));
+
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(3, find(new ParseQuery.State.Builder<>("TestObject")).size());
+  }
+
+  @Test
+  public void testUnsavedChildrenOfShallowPinsAreNotCollected() throws Exception {
+    ParseObject child = new ParseObject("Child");
+    child.put("name", "child");
+    ParseObject parent = new ParseObject("TestObject");
+    parent.put("child", child);
+    // Like the current user, which is pinned without its children.
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("current", Collections.singletonList(parent), false));
+    pinObjects(3);
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    store.simulateReboot();
+
+    assertEquals(1, countRows("ParseObjects", "className = 'Child'"));
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject"));
+    assertEquals(1, results.size());
+    assertNotNull(results.get(0).getParseObject("child"));
+  }
+
+  @Test
+  public void testUnpinnedObjectsThatPinnedObjectsPointToAreNotCollected() throws Exception {
+    ParseObject child = new ParseObject("Child");
+    child.put("name", "child");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("other", Collections.singletonList(child), false));
+    ParseObject parent = new ParseObject("TestObject");
+    parent.put("child", child);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), false));
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("other"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    store.simulateReboot();
+
+    assertEquals(1, countRows("ParseObjects", "className = 'Child'"));
+    // It isn't looked at again until nothing points to it.
+    assertEquals(0, countRows("UnpinnedObjects", null));
+    List<ParseObject> results = find(new ParseQuery.State.Builder<>("TestObject"));
+    assertEquals(1, results.size());
+    assertNotNull(results.get(0).getParseObject("child"));
+
+    // Once nothing points to it, it is collected.
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    assertEquals(0, countRows("ParseObjects", null));
+  }
+
+  @Test
+  public void testUnpinnedSavedObjectsThatPinnedObjectsPointToAreCollected() throws Exception {
+    ParseObject child = ParseObject.createWithoutData("Child", "childId");
+    child.put("name", "child");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("other", Collections.singletonList(child), false));
+    ParseObject parent = new ParseObject("TestObject");
+    parent.put("child", child);
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", Collections.singletonList(parent), false));
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("other"));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+
+    // Like before, the pointer to a saved object doesn't keep its data.
+    assertEquals(0, countRows("ParseObjects", "className = 'Child'"));
+    assertEquals(0, countRows("Pointers", null));
+  }
+
+  @Test
+  public void testObjectsThatNothingPointsToAnymoreAreCollected() throws Exception {
+    ParseObject child = new ParseObject("Child");
+    ParseObject parent = new ParseObject("TestObject");
+    parent.put("child", child);
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("current", Collections.singletonList(parent), false));
+    assertEquals(1, countRows("ParseObjects", "className = 'Child'"));
+    assertEquals(1, countRows("Pointers", null));
+
+    parent.remove("child");
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("current", Collections.singletonList(parent), false));
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+
+    assertEquals(0, countRows("ParseObjects", "className = 'Child'"));
+    assertEquals(0, countRows("Pointers", null));
+    assertEquals(1, find(new ParseQuery.State.Builder<>("TestObject")).size());
+  }
+
+  //endregion
+
+  //region Quota
+
+  private void pin(String name, String... objectIds) throws ParseException {
+    List<ParseObject> objects = new ArrayList<>();
+    for (String objectId : objectIds) {
+      objects.add(createObject(objectId, 1000, "even"));
+    }
+    ParseTaskUtils.wait(store.pinAllObjectsAsync(name, objects, false));
+  }
+
+  private int countPinned(String name) throws ParseException {
+    return ParseTaskUtils.wait(store.findFromPinAsync(name,
+        new ParseQuery.State.Builder<>("TestObject").build(), null)).size();
+  }
+
+  @Test
+  public void testQuotaEvictsLeastRecentlyUsedPins() throws Exception {
+    // Each pin takes up a row, along with its objects.
+    createStore(new OfflineStore.Options.Builder()
+        .quota(0, 7, Collections.singletonList(""))
+        .build());
+    pin("a", "a1", "a2");
+    pin("b", "b1", "b2");
+    assertEquals(2, countPinned("a"));
+
+    pin("c", "c1", "c2");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(Arrays.asList("a", "c"),
+        queryStrings("SELECT name FROM PinAccess ORDER BY accessedAt"));
+    assertEquals(6, countRows("ParseObjects", null));
+    assertEquals(2, countPinned("a"));
+    assertEquals(0, countPinned("b"));
+    assertEquals(2, countPinned("c"));
+  }
+
+  @Test
+  public void testQuotaKeepsEventuallyPinAndLastUsedPin() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .quota(0, 1, Collections.singletonList(""))
+        .build());
+    pin(EventuallyPin.PIN_NAME, "e1", "e2");
+    pin("a", "a1");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(2, countPinned(EventuallyPin.PIN_NAME));
+    assertEquals(1, countPinned("a"));
+  }
+
+  @Test
+  public void testQuotaKeepsCurrentUserPin() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .quota(0, 6, Collections.singletonList(""))
+        .build());
+    pin(ParseCorePlugins.PIN_CURRENT_USER, "u1");
+    pin("a", "a1", "a2");
+    pin("b", "b1", "b2");
+    pin("c", "c1", "c2");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(1, countPinned(ParseCorePlugins.PIN_CURRENT_USER));
+    assertEquals(0, countPinned("a"));
+    assertEquals(0, countPinned("b"));
+    assertEquals(2, countPinned("c"));
+  }
+
+  @Test
+  public void testQuotaKeepsDefaultPin() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .quota(0, 4, Collections.singletonList(""))
+        .build());
+    pin(ParseObject.DEFAULT_PIN, "d1");
+    pin("a", "a1");
+    pin("b", "b1");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(1, countPinned(ParseObject.DEFAULT_PIN));
+    assertEquals(0, countPinned("a"));
+    assertEquals(1, countPinned("b"));
+  }
+
+  @Test
+  public void testQuotaOnlyEvictsPinsWithEvictablePrefixes() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .quota(0, 1, Collections.singletonList("cache_"))
+        .build());
+    pin("saved", "s1");
+    pin("cache_a", "a1");
+    pin("Cache_b", "b1");
+    pin("cache_c", "c1");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(1, countPinned("saved"));
+    assertEquals(0, countPinned("cache_a"));
+    assertEquals(1, countPinned("Cache_b"));
+    assertEquals(1, countPinned("cache_c"));
+  }
+
+  @Test
+  public void testQuotaOfBytes() throws Exception {
+    createStore(new OfflineStore.Options.Builder()
+        .quota(1, 0, Collections.singletonList(""))
+        .build());
+    pin("a", "a1");
+    pin("b", "b1");
+    ParseTaskUtils.wait(store.enforceQuotaAsync());
+
+    assertEquals(0, countPinned("a"));
+    assertEquals(1, countPinned("b"));
+  }
+
+  //endregion
+
+  //region Upgrade
+
+  @Test
+  public void testUpgradeFromVersion4CopiesDates() throws Exception {
+    Parse.setLocalDatastore(null);
+    // The store has already opened the database to check its indexes.
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    store.clearDatabase(RuntimeEnvironment.application);
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    db.execSQL("CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL, " +
+        "PRIMARY KEY(key, uuid));");
+    JSONObject json = new JSONObject();
+    json.put("className", "TestObject");
+    json.put("objectId", "abc");
+    json.put("createdAt", ParseDateFormat.getInstance().format(new Date(1234)));
+    json.put("__complete", true);
+    ContentValues values = new ContentValues();
+    values.put("uuid", "uuid");
+    values.put("className", "TestObject");
+    values.put("objectId", "abc");
+    values.put("json", json.toString());
+    db.insert("ParseObjects", null, values);
+    db.setVersion(4);
+    db.close();
+
+    OfflineSQLiteOpenHelper helper = new OfflineSQLiteOpenHelper(RuntimeEnvironment.application);
+    ParseSQLiteDatabase upgraded = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+    Cursor cursor = ParseTaskUtils.wait(upgraded.rawQueryAsync(
+        "SELECT createdAt, updatedAt, isComplete FROM ParseObjects WHERE uuid = ?",
+        new String[] { "uuid" }));
+    assertTrue(cursor.moveToFirst());
+    assertEquals(1234, cursor.getLong(0));
+    assertTrue(cursor.isNull(1));
+    assertEquals(1, cursor.getInt(2));
+    cursor.close();
+    ParseTaskUtils.wait(upgraded.closeAsync());
+  }
+
+  @Test
+  public void testUpgradeFromVersion7ConvertsToCompactFormat() throws Exception {
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin",
+        Collections.singletonList(createObject("abc", 1000, "even")), false));
+    Parse.setLocalDatastore(null);
+    store.clearDatabase(RuntimeEnvironment.application);
+    store = null;
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "createdAt INTEGER, updatedAt INTEGER, isComplete INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    db.execSQL("CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL, " +
+        "PRIMARY KEY(key, uuid));");
+    JSONObject json = new JSONObject();
+    json.put("className", "TestObject");
+    json.put("objectId", "abc");
+    json.put("foo", "bar");
+    ContentValues values = new ContentValues();
+    values.put("uuid", "uuid");
+    values.put("className", "TestObject");
+    values.put("objectId", "abc");
+    values.put("json", json.toString());
+    db.insert("ParseObjects", null, values);
+    db.setVersion(7);
+    db.close();
+
+    OfflineSQLiteOpenHelper helper =
+        new OfflineSQLiteOpenHelper(RuntimeEnvironment.application, true);
+    ParseSQLiteDatabase upgraded = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+    Cursor cursor = ParseTaskUtils.wait(upgraded.rawQueryAsync(
+        "SELECT json FROM ParseObjects WHERE uuid = ?", new String[] { "uuid" }));
+    assertTrue(cursor.moveToFirst());
+    assertEquals(Cursor.FIELD_TYPE_BLOB, cursor.getType(0));
+    assertEquals("bar", OfflineBinaryCoder.read(cursor, 0).getString("foo"));
+    cursor.close();
+    ParseTaskUtils.wait(upgraded.closeAsync());
+    store = new OfflineStore(helper);
+  }
+
+  @Test
+  public void testUpgradeFromVersion9RecordsPins() throws Exception {
+    Parse.setLocalDatastore(null);
+    // The store has already opened the database to check its indexes.
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    store.clearDatabase(RuntimeEnvironment.application);
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "createdAt INTEGER, updatedAt INTEGER, isComplete INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    db.execSQL("CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL, " +
+        "PRIMARY KEY(key, uuid));");
+    JSONObject json = new JSONObject();
+    json.put("className", "_Pin");
+    json.put("__operations", new JSONArray().put(new JSONObject().put("_name", "pin")));
+    ContentValues values = new ContentValues();
+    values.put("uuid", "uuid");
+    values.put("className", "_Pin");
+    values.put("json", json.toString());
+    db.insert("ParseObjects", null, values);
+    db.setVersion(9);
+    db.close();
+
+    OfflineSQLiteOpenHelper helper = new OfflineSQLiteOpenHelper(RuntimeEnvironment.application);
+    ParseSQLiteDatabase upgraded = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+    Cursor cursor = ParseTaskUtils.wait(upgraded.rawQueryAsync(
+        "SELECT name, accessedAt FROM PinAccess", new String[0]));
+    assertTrue(cursor.moveToFirst());
+    assertEquals("pin", cursor.getString(0));
+    assertEquals(0, cursor.getLong(1));
+    assertFalse(cursor.moveToNext());
+    cursor.close();
+    ParseTaskUtils.wait(upgraded.closeAsync());
+  }
+
+  @Test
+  public void testUpgradeFromVersion11ForgetsIndexedKeys() throws Exception {
+    Parse.setLocalDatastore(null);
+    // The store has already opened the database to check its indexes.
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    store.clearDatabase(RuntimeEnvironment.application);
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "createdAt INTEGER, updatedAt INTEGER, isComplete INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    db.execSQL("CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL, " +
+        "PRIMARY KEY(key, uuid));");
+    db.execSQL("CREATE TABLE IndexedKeys (className TEXT NOT NULL, key TEXT NOT NULL, " +
+        "PRIMARY KEY(className, key));");
+    db.execSQL("INSERT INTO IndexedKeys (className, key) VALUES ('TestObject', 'location');");
+    db.setVersion(11);
+    db.close();
+
+    OfflineSQLiteOpenHelper helper = new OfflineSQLiteOpenHelper(RuntimeEnvironment.application);
+    ParseSQLiteDatabase upgraded = ParseTaskUtils.wait(helper.getWritableDatabaseAsync());
+    Cursor cursor = ParseTaskUtils.wait(upgraded.rawQueryAsync(
+        "SELECT (SELECT COUNT(*) FROM IndexedKeys), (SELECT COUNT(*) FROM GeoIndex)",
+        new String[0]));
+    assertTrue(cursor.moveToFirst());
+    assertEquals(0, cursor.getInt(0));
+    assertEquals(0, cursor.getInt(1));
+    cursor.close();
+    ParseTaskUtils.wait(upgraded.closeAsync());
+  }
+
+  @Test
+  public void testUpgradeFromVersion12RecordsObjectsWithoutDependencies() throws Exception {
+    Parse.setLocalDatastore(null);
+    // The store has already opened the database to check its indexes.
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    store.clearDatabase(RuntimeEnvironment.application);
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "createdAt INTEGER, updatedAt INTEGER, isComplete INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    db.execSQL("CREATE TABLE Dependencies (key TEXT NOT NULL, uuid TEXT NOT NULL, " +
+        "PRIMARY KEY(key, uuid));");
+    db.execSQL("INSERT INTO ParseObjects (uuid, className) VALUES ('pinned', 'TestObject');");
+    db.execSQL("INSERT INTO ParseObjects (uuid, className) VALUES ('unpinned', 'TestObject');");
+    db.execSQL("INSERT INTO Dependencies (key, uuid) VALUES ('pin', 'pinned');");
+    db.setVersion(12);
+    db.close();
+
+    assertEquals(Arrays.asList("unpinned"), queryStrings("SELECT uuid FROM UnpinnedObjects"));
+  }
+
+  @Test
+  public void testUpgradeFromVersion13RecordsPointers() throws Exception {
+    Parse.setLocalDatastore(null);
+    // The store has already opened the database to check its indexes.
+    ParseTaskUtils.wait(store.buildIndexesTask());
+    store.clearDatabase(RuntimeEnvironment.application);
+
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+        RuntimeEnvironment.application.getDatabasePath("ParseOfflineStore"), null);
+    db.execSQL("CREATE TABLE ParseObjects (uuid TEXT PRIMARY KEY, className TEXT NOT NULL, " +
+        "objectId TEXT, json TEXT, isDeletingEventually INTEGER DEFAULT 0, " +
+        "createdAt INTEGER, updatedAt INTEGER, isComplete INTEGER DEFAULT 0, " +
+        "UNIQUE(className, objectId));");
+    JSONObject pointer = new JSONObject();
+    pointer.put("__type", "OfflineObject");
+    pointer.put("uuid", "child");
+    JSONObject json = new JSONObject();
+    json.put("className", "TestObject");
+    json.put("children", new JSONArray().put(pointer));
+    ContentValues values = new ContentValues();
+    values.put("uuid", "parent");
+    values.put("className", "TestObject");
+    values.put("json", json.toString());
+    db.insert("ParseObjects", null, values);
+    db.execSQL("INSERT INTO ParseObjects (uuid, className) VALUES ('child', 'Child');");
+    db.setVersion(13);
+    db.close();
+
+    assertEquals(Arrays.asList("parent child"),
+        queryStrings("SELECT uuid || ' ' || pointedUUID FROM Pointers"));
+  }
+
+  //endregion
+
+  //region Change notifications
+
+  /**
+   * Keeps the change sets that the store reports, so they can be applied to an observer one at a
+   * time.
+   */
+  private static class ChangeCollector implements OfflineStore.ChangeListener {
+    private final List<OfflineStore.ChangeSet> changes = new ArrayList<>();
+
+    @Override
+    public synchronized void onChange(OfflineStore.ChangeSet changes) {
+      this.changes.add(changes);
+    }
+
+    public synchronized List<OfflineStore.ChangeSet> take() {
+      List<OfflineStore.ChangeSet> taken = new ArrayList<>(changes);
+      changes.clear();
+      return taken;
+    }
+  }
+
+  private ParseQueryObserver<ParseObject> createObserver(
+      ParseQuery.State.Builder<ParseObject> builder) {
+    return new ParseQueryObserver<>(store, builder.build(), Task.<ParseUser>forResult(null),
+        new ObserveCallback<ParseObject>() {
+          @Override
+          public void done(ParseQueryObserver.Changes<ParseObject> changes, ParseException e) {
+            // The changes are checked through the tasks instead.
+          }
+        });
+  }
+
+  /**
+   * Applies the change sets that were reported since the last time, including the ones of the
+   * garbage collection that may have been started, and checks that only one of them changed the
+   * results.
+   */
+  private ParseQueryObserver.Changes<ParseObject> apply(ParseQueryObserver<ParseObject> observer,
+      ChangeCollector collector) throws ParseException {
+    ParseTaskUtils.wait(store.collectGarbageAsync());
+    ParseQueryObserver.Changes<ParseObject> result = null;
+    for (OfflineStore.ChangeSet changes : collector.take()) {
+      ParseQueryObserver.Changes<ParseObject> applied =
+          ParseTaskUtils.wait(observer.applyInBackground(changes));
+      if (applied != null) {
+        assertNull(result);
+        result = applied;
+      }
+    }
+    assertNotNull(result);
+    return result;
+  }
+
+  private static List<String> objectIds(List<ParseObject> objects) {
+    List<String> objectIds = new ArrayList<>();
+    for (ParseObject object : objects) {
+      objectIds.add(object.getObjectId());
+    }
+    return objectIds;
+  }
+
+  @Test
+  public void testChangeListenerIsToldAboutCommittedChanges() throws Exception {
+    ChangeCollector collector = new ChangeCollector();
+    store.addChangeListener(collector);
+    List<ParseObject> objects = pinObjects(3);
+
+    List<OfflineStore.ChangeSet> changes = collector.take();
+    assertEquals(1, changes.size());
+    // The objects and the pin itself, which depends on itself too.
+    assertEquals(4, changes.get(0).updatedUUIDs().size());
+    assertEquals(4, changes.get(0).repinnedUUIDs().size());
+    assertTrue(changes.get(0).deletedUUIDs().isEmpty());
+
+    // Nothing is written, so there's nothing to tell.
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects, false));
+    assertTrue(collector.take().isEmpty());
+
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin", objects.subList(0, 1)));
+    changes = collector.take();
+    assertEquals(1, changes.size());
+    assertEquals(1, changes.get(0).repinnedUUIDs().size());
+    assertEquals(1, changes.get(0).deletedUUIDs().size());
+
+    store.removeChangeListener(collector);
+    objects.get(1).put("foo", "changed");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects.subList(1, 2), false));
+    assertTrue(collector.take().isEmpty());
+  }
+
+  @Test
+  public void testObserverAppliesOnlyTheChangedObjects() throws Exception {
+    List<ParseObject> objects = pinObjects(4);
+    ChangeCollector collector = new ChangeCollector();
+    store.addChangeListener(collector);
+    ParseQueryObserver<ParseObject> observer = createObserver(
+        new ParseQuery.State.Builder<>("TestObject")
+            .fromPin("pin")
+            .whereEqualTo("foo", "even")
+            .orderByAscending("createdAt"));
+
+    ParseQueryObserver.Changes<ParseObject> changes =
+        ParseTaskUtils.wait(observer.applyInBackground(null));
+    assertEquals(Arrays.asList("object0", "object2"), objectIds(changes.getResults()));
+    assertEquals(Arrays.asList("object0", "object2"), objectIds(changes.getInserted()));
+
+    // An object starts matching.
+    objects.get(3).put("foo", "even");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects.subList(3, 4), false));
+    changes = apply(observer, collector);
+    assertEquals(Arrays.asList("object0", "object2", "object3"), objectIds(changes.getResults()));
+    assertEquals(Collections.singletonList("object3"), objectIds(changes.getInserted()));
+    assertTrue(changes.getUpdated().isEmpty());
+    assertTrue(changes.getRemoved().isEmpty());
+
+    // A result is saved with different data, and another one stops matching.
+    objects.get(2).put("bar", 1);
+    objects.get(0).put("foo", "odd");
+    ParseTaskUtils.wait(store.pinAllObjectsAsync("pin", objects.subList(0, 3), false));
+    changes = apply(observer, collector);
+    assertEquals(Arrays.asList("object2", "object3"), objectIds(changes.getResults()));
+    assertTrue(changes.getInserted().isEmpty());
+    assertEquals(Collections.singletonList("object2"), objectIds(changes.getUpdated()));
+    assertEquals(Collections.singletonList("object0"), objectIds(changes.getRemoved()));
+
+    // Objects in other pins aren't results.
+    ParseObject other = createObject("other", 500, "even");
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("other", Collections.singletonList(other), false));
+    for (OfflineStore.ChangeSet otherChanges : collector.take()) {
+      assertNull(ParseTaskUtils.wait(observer.applyInBackground(otherChanges)));
+    }
+
+    // A result is unpinned.
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin", objects.subList(3, 4)));
+    changes = apply(observer, collector);
+    assertEquals(Collections.singletonList("object2"), objectIds(changes.getResults()));
+    assertEquals(Collections.singletonList("object3"), objectIds(changes.getRemoved()));
+
+    // The pin is removed altogether.
+    ParseTaskUtils.wait(store.unpinAllObjectsAsync("pin"));
+    changes = apply(observer, collector);
+    assertTrue(changes.getResults().isEmpty());
+    assertEquals(Collections.singletonList("object2"), objectIds(changes.getRemoved()));
+  }
+
+  @Test
+  public void testObserverRunsQueryWithLimitAgain() throws Exception {
+    pinObjects(4);
+    ChangeCollector collector = new ChangeCollector();
+    store.addChangeListener(collector);
+    ParseQueryObserver<ParseObject> observer = createObserver(
+        new ParseQuery.State.Builder<>("TestObject")
+            .orderByAscending("createdAt")
+            .setLimit(2));
+    ParseTaskUtils.wait(observer.applyInBackground(null));
+
+    ParseObject earliest = createObject("earliest", 500, "odd");
+    ParseTaskUtils.wait(
+        store.pinAllObjectsAsync("pin", Collections.singletonList(earliest), false));
+    ParseQueryObserver.Changes<ParseObject> changes = apply(observer, collector);
+
+    assertEquals(Arrays.asList("earliest", "object0"), objectIds(changes.getResults()));
+    assertEquals(Collections.singletonList("earliest"), objectIds(changes.getInserted()));
+    assertEquals(Collections.singletonList("object1"), objectIds(changes.getRemoved()));
+  }
+
+  //endregion
+}
@@ -18,6 +18,7 @@ import org.robolectric.annotation.Config;
 
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
@@ -67,6 +68,21 @@ public class ParseClientConfigurationTest {
     assertEquals(configuration.server, "http://myserver.com/missingslash/");
   }
 
+  @Test
+  public void testBuilderLocalDataStoreQuota() {
+    Parse.Configuration.Builder builder = new Parse.Configuration.Builder(null);
+    builder.localDataStoreQuota(1024, 10, "cache_");
+    Parse.Configuration configuration = builder.build();
+    assertEquals(1024, configuration.localDataStoreMaxBytes);
+    assertEquals(10, configuration.localDataStoreMaxObjects);
+    assertEquals(Collections.singletonList("cache_"), configuration.localDataStoreEvictablePins);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBuilderLocalDataStoreQuotaWithoutEvictablePins() {
+    new Parse.Configuration.Builder(null).localDataStoreQuota(1024, 10);
+  }
+
   @Test
   public void testConfigureFromManifest() throws Exception {
     Bundle metaData = setupMockMetaData();
@@ -155,6 +155,13 @@ public class ParseCorePluginsTest extends ResetPluginsParseTest {
       return null;
     }
 
+    @Override
+    public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state,
+        ParseUser user, int pageSize, FindPageCallback<T> pageCallback,
+        Task<Void> cancellationToken) {
+      return null;
+    }
+
     @Override
     public <T extends ParseObject> Task<Integer> countAsync(
         ParseQuery.State<T> state, ParseUser user, Task<Void> cancellationToken) {
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
 import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
@@ -33,7 +34,9 @@ import okio.Buffer;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
@@ -54,6 +57,47 @@ public class ParseHttpClientTest {
     doSingleParseHttpClientExecuteWithResponse(
         404, "NOT FOUND", "Error", ParseHttpClient.createClient(new OkHttpClient.Builder()));  }
 
+  @Test
+  public void testParseOkHttpClientExecuteAsyncWithSuccessResponse() throws Exception {
+    ParseHttpClient client = ParseHttpClient.createClient(new OkHttpClient.Builder(), true);
+    assertTrue(client.isAsync());
+    doSingleParseHttpClientExecuteWithResponse(200, "OK", "Success", client);
+  }
+
+  @Test
+  public void testParseOkHttpClientAsyncRaisesDispatcherLimits() {
+    OkHttpClient.Builder builder = new OkHttpClient.Builder();
+    Dispatcher dispatcher = new Dispatcher();
+    builder.dispatcher(dispatcher);
+
+    ParseHttpClient client = ParseHttpClient.createClient(builder, false);
+    assertSame(dispatcher, client.getOkHttpClient().dispatcher());
+
+    client = ParseHttpClient.createClient(builder, true);
+    Dispatcher clientDispatcher = client.getOkHttpClient().dispatcher();
+    assertEquals(
+        Math.max(5, ParseRequest.MAX_POOL_SIZE), clientDispatcher.getMaxRequestsPerHost());
+    assertEquals(Math.max(64, ParseRequest.MAX_POOL_SIZE), clientDispatcher.getMaxRequests());
+    // The app's dispatcher may be shared with its other clients, so it's left alone.
+    assertNotSame(dispatcher, clientDispatcher);
+    assertEquals(5, dispatcher.getMaxRequestsPerHost());
+    assertEquals(64, dispatcher.getMaxRequests());
+  }
+
+  @Test
+  public void testParseOkHttpClientAsyncKeepsHigherDispatcherLimits() {
+    OkHttpClient.Builder builder = new OkHttpClient.Builder();
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(ParseRequest.MAX_POOL_SIZE + 100);
+    dispatcher.setMaxRequestsPerHost(ParseRequest.MAX_POOL_SIZE + 10);
+    builder.dispatcher(dispatcher);
+
+    ParseHttpClient client = ParseHttpClient.createClient(builder, true);
+    Dispatcher clientDispatcher = client.getOkHttpClient().dispatcher();
+    assertEquals(ParseRequest.MAX_POOL_SIZE + 100, clientDispatcher.getMaxRequests());
+    assertEquals(ParseRequest.MAX_POOL_SIZE + 10, clientDispatcher.getMaxRequestsPerHost());
+  }
+
   // TODO(mengyan): Add testParseURLConnectionHttpClientExecuteWithGzipResponse, right now we can
   // not do that since in unit test env, URLConnection does not use OKHttp internally, so there is
   // no transparent ungzip
@@ -96,7 +140,9 @@ public class ParseHttpClientTest {
         .build();
 
     // Execute request
-    ParseHttpResponse parseResponse = client.execute(parseRequest);
+    ParseHttpResponse parseResponse = client.isAsync()
+        ? ParseTaskUtils.wait(client.executeAsync(parseRequest))
+        : client.execute(parseRequest);
 
     RecordedRequest recordedApacheRequest = server.takeRequest();
 
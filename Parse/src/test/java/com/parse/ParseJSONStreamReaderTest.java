@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParseJSONStreamReaderTest {
+
+  // Collects the objectIds of the elements, in order.
+  private static class ObjectIdCollector implements ParseJSONStreamReader.ElementListener {
+    private final List<String> objectIds = new ArrayList<>();
+
+    @Override
+    public void onElement(int index, JSONObject element) throws JSONException {
+      assertEquals(objectIds.size(), index);
+      objectIds.add(element.getString("objectId"));
+    }
+  }
+
+  private static InputStream stream(String json) throws Exception {
+    return new ByteArrayInputStream(json.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void testReadObjectDecodesArrayElements() throws Exception {
+    ObjectIdCollector collector = new ObjectIdCollector();
+    JSONObject json = ParseJSONStreamReader.readObject(
+        stream("{\"trace\":\"serverTrace\",\"results\":[{\"objectId\":\"a\"},{\"objectId\":\"b\"}]}"),
+        "results", collector);
+
+    assertEquals(Arrays.asList("a", "b"), collector.objectIds);
+    assertFalse(json.has("results"));
+    assertEquals("serverTrace", json.getString("trace"));
+  }
+
+  @Test
+  public void testReadObjectReadsValuesLikeJSONObject() throws Exception {
+    String content = "{\"int\":1,\"long\":12345678901,\"double\":1.5,\"exponent\":1e2,"
+        + "\"string\":\"\\u00e9\",\"bool\":true,\"null\":null,\"array\":[1,{\"key\":\"value\"}],"
+        + "\"object\":{\"key\":[]}}";
+    ObjectIdCollector collector = new ObjectIdCollector();
+    JSONObject json = ParseJSONStreamReader.readObject(stream(content), "results", collector);
+    JSONObject expected = new JSONObject(content);
+
+    assertTrue(collector.objectIds.isEmpty());
+    assertEquals(expected.length(), json.length());
+    assertEquals(expected.get("int"), json.get("int"));
+    assertEquals(expected.get("long"), json.get("long"));
+    assertEquals(expected.get("double"), json.get("double"));
+    assertEquals(expected.get("exponent"), json.get("exponent"));
+    assertEquals(expected.get("string"), json.get("string"));
+    assertEquals(expected.get("bool"), json.get("bool"));
+    assertTrue(json.isNull("null"));
+    assertEquals(expected.getJSONArray("array").toString(), json.getJSONArray("array").toString());
+    assertEquals(expected.getJSONObject("object").toString(), json.getJSONObject("object").toString());
+  }
+
+  @Test(expected = JSONException.class)
+  public void testReadObjectWithMalformedJSON() throws Exception {
+    ParseJSONStreamReader.readObject(
+        stream("{\"results\":[{\"objectId\" \"a\"}]}"), "results", new ObjectIdCollector());
+  }
+
+  @Test(expected = JSONException.class)
+  public void testReadObjectWithElementThatIsNotAnObject() throws Exception {
+    ParseJSONStreamReader.readObject(
+        stream("{\"results\":[\"a\"]}"), "results", new ObjectIdCollector());
+  }
+}
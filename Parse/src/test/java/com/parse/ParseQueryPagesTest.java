@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bolts.Continuation;
+import bolts.Task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// For ParseExecutors.main()
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = TestHelper.ROBOLECTRIC_SDK_VERSION)
+public class ParseQueryPagesTest {
+
+  private TestQueryController controller;
+
+  @Before
+  public void setUp() {
+    ParseTestUtils.setTestParseUser();
+    controller = new TestQueryController();
+    ParseCorePlugins.getInstance().registerQueryController(controller);
+  }
+
+  @After
+  public void tearDown() {
+    ShadowLooper.unPauseMainLooper();
+    ParseCorePlugins.getInstance().reset();
+  }
+
+  private static ParseObject createObject(String objectId) {
+    ParseObject.State state = new ParseObject.State.Builder("Test")
+        .objectId(objectId)
+        .build();
+    return ParseObject.from(state);
+  }
+
+  @Test
+  public void testFindInPagesFinishesAfterLastPage() throws Exception {
+    controller.networkResults = Arrays.asList(
+        createObject("a"), createObject("b"), createObject("c"));
+    final List<List<ParseObject>> pages = new ArrayList<>();
+    final AtomicReference<Task<List<ParseObject>>> taskReference = new AtomicReference<>();
+    final List<Boolean> isCompletedAtPages = new ArrayList<>();
+
+    // Keep the pages queued on the UI thread
+    ShadowLooper.pauseMainLooper();
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    Task<List<ParseObject>> task = query.findInBackground(2, new FindPageCallback<ParseObject>() {
+      @Override
+      public void done(List<ParseObject> page) {
+        pages.add(page);
+        isCompletedAtPages.add(taskReference.get().isCompleted());
+      }
+    });
+    taskReference.set(task);
+
+    // The results are in, but the pages haven't been passed yet
+    assertTrue(controller.isPagesPassed);
+    assertFalse(task.isCompleted());
+    assertTrue(pages.isEmpty());
+
+    ShadowLooper.runUiThreadTasks();
+    assertTrue(task.isCompleted());
+    assertEquals(2, pages.size());
+    assertEquals(controller.networkResults.subList(0, 2), pages.get(0));
+    assertEquals(controller.networkResults.subList(2, 3), pages.get(1));
+    assertEquals(Arrays.asList(false, false), isCompletedAtPages);
+  }
+
+  @Test
+  public void testFindInPagesWithCacheThenNetworkOnlyPassesNetworkResults() throws Exception {
+    controller.cachedResults = Collections.singletonList(createObject("cached"));
+    controller.networkResults = Collections.singletonList(createObject("network"));
+    final List<List<ParseObject>> pages = new ArrayList<>();
+    final List<List<ParseObject>> results = new ArrayList<>();
+
+    // Keep the callbacks queued on the UI thread until everything else is done
+    ShadowLooper.pauseMainLooper();
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    query.setCachePolicy(ParseQuery.CachePolicy.CACHE_THEN_NETWORK);
+    query.findInBackground(new FindCallback<ParseObject>() {
+      @Override
+      public void done(List<ParseObject> objects, ParseException e) {
+        results.add(objects);
+      }
+    }, 10, new FindPageCallback<ParseObject>() {
+      @Override
+      public void done(List<ParseObject> page) {
+        pages.add(page);
+      }
+    });
+
+    ShadowLooper.runUiThreadTasks();
+
+    // The callback gets the cached results, and then the results from the network
+    assertEquals(Arrays.asList(controller.cachedResults, controller.networkResults), results);
+    assertEquals(Collections.singletonList(controller.networkResults), pages);
+  }
+
+  /**
+   * Answers queries from the cache or the network right away.
+   */
+  private static class TestQueryController extends AbstractQueryController {
+    private List<ParseObject> cachedResults = Collections.emptyList();
+    private List<ParseObject> networkResults = Collections.emptyList();
+    private boolean isPagesPassed;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state,
+        ParseUser user, Task<Void> cancellationToken) {
+      return Task.forResult((List<T>) (state.cachePolicy() == ParseQuery.CachePolicy.CACHE_ONLY
+          ? cachedResults
+          : networkResults));
+    }
+
+    @Override
+    public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state,
+        ParseUser user, int pageSize, FindPageCallback<T> pageCallback,
+        Task<Void> cancellationToken) {
+      return super.findAsync(state, user, pageSize, pageCallback, cancellationToken)
+          .continueWithTask(new Continuation<List<T>, Task<List<T>>>() {
+        @Override
+        public Task<List<T>> then(Task<List<T>> task) throws Exception {
+          isPagesPassed = true;
+          return task;
+        }
+      });
+    }
+
+    @Override
+    public <T extends ParseObject> Task<Integer> countAsync(ParseQuery.State<T> state,
+        ParseUser user, Task<Void> cancellationToken) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
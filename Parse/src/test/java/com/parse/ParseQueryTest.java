@@ -309,6 +309,29 @@ public class ParseQueryTest {
     assertEquals(ParseObject.DEFAULT_PIN, state.pinName());
   }
 
+  @Test(expected = IllegalStateException.class)
+  public void testCursorRequiresLocalDatastoreQuery() throws Exception {
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    Parse.enableLocalDatastore(null);
+
+    query.cursor();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testObserveRequiresLocalDatastoreQuery() throws Exception {
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    Parse.enableLocalDatastore(null);
+
+    query.observe(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFindInPagesRequiresPositivePageSize() throws Exception {
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+
+    query.findInBackground(0, null);
+  }
+
   @Test
   public void testMaxCacheAge() throws Exception {
     ParseQuery<ParseObject> query = new ParseQuery<>("Test");
@@ -422,6 +445,22 @@ public class ParseQueryTest {
     verifyCondition(query, "key", "$regex", Pattern.quote(value) + "$");
   }
 
+  @Test
+  public void testWhereFullText() throws Exception {
+    ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+
+    query.whereFullText("key", "quick fox");
+
+    // We generate a state to verify the content of the builder
+    ParseQuery.State state = query.getBuilder().build();
+    ParseQuery.QueryConstraints queryConstraints = state.constraints();
+    ParseQuery.KeyConstraints keyConstraints =
+        (ParseQuery.KeyConstraints) queryConstraints.get("key");
+    Map map = (Map) keyConstraints.get("$text");
+    Map search = (Map) map.get("$search");
+    assertEquals("quick fox", search.get("$term"));
+  }
+
   @Test
   public void testWhereExists() throws Exception {
     ParseQuery<ParseObject> query = new ParseQuery<>("Test");
@@ -844,6 +883,13 @@ public class ParseQueryTest {
       })).cast();
     }
 
+    @Override
+    public <T extends ParseObject> Task<List<T>> findAsync(ParseQuery.State<T> state,
+        ParseUser user, int pageSize, FindPageCallback<T> pageCallback,
+        Task<Void> cancellationToken) {
+      return findAsync(state, user, cancellationToken);
+    }
+
     @Override
     public <T extends ParseObject> Task<Integer> countAsync(ParseQuery.State<T> state,
         ParseUser user, Task<Void> cancellationToken) {
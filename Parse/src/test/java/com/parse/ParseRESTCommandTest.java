@@ -19,6 +19,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.skyscreamer.jsonassert.JSONCompareMode;
@@ -27,12 +29,18 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import bolts.Task;
+import bolts.TaskCompletionSource;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doNothing;
@@ -531,4 +539,195 @@ public class ParseRESTCommandTest {
     assertEquals("Error", responseTask.getError().getMessage());
     verify(mockResponseStream, times(1)).close();
   }
+
+  //region testCoalescing
+
+  // Returns a client that only responds once responseLatch is counted down.
+  private static ParseHttpClient mockBlockingParseHttpClient(
+      final CountDownLatch responseLatch, final JSONObject json) throws IOException {
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenAnswer(new Answer<ParseHttpResponse>() {
+      @Override
+      public ParseHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        responseLatch.await();
+        return newMockParseHttpResponse(200, json);
+      }
+    });
+    return client;
+  }
+
+  @Test
+  public void testIdenticalReadsShareOneRequest() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("key", "value");
+    CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mockBlockingParseHttpClient(responseLatch, json);
+
+    Task<JSONObject> first = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client);
+    Task<JSONObject> second = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client);
+    // Reads by different users are never shared
+    Task<JSONObject> otherUser = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "otherSessionToken").executeAsync(client);
+    responseLatch.countDown();
+    ParseTaskUtils.wait(first);
+    ParseTaskUtils.wait(second);
+    ParseTaskUtils.wait(otherUser);
+
+    verify(client, times(2)).execute(any(ParseHttpRequest.class));
+    assertSame(first.getResult(), second.getResult());
+    assertEquals(json, first.getResult(), JSONCompareMode.NON_EXTENSIBLE);
+
+    // Once the request completed, the same read sends a new one
+    ParseTaskUtils.wait(ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client));
+    verify(client, times(3)).execute(any(ParseHttpRequest.class));
+  }
+
+  @Test
+  public void testCancelledReadDoesNotCancelSharedRequest() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("key", "value");
+    CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mockBlockingParseHttpClient(responseLatch, json);
+
+    TaskCompletionSource<Void> cancellationToken = new TaskCompletionSource<>();
+    Task<JSONObject> cancelled = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken")
+        .executeAsync(client, cancellationToken.getTask());
+    Task<JSONObject> other = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client);
+    cancellationToken.setCancelled();
+    responseLatch.countDown();
+    ParseTaskUtils.wait(other);
+
+    assertTrue(cancelled.isCancelled());
+    verify(client, times(1)).execute(any(ParseHttpRequest.class));
+    assertEquals(json, other.getResult(), JSONCompareMode.NON_EXTENSIBLE);
+  }
+
+  @Test
+  public void testSenderCancelledWhileReadIsRunningDoesNotCancelSharedRequest()
+      throws Exception {
+    final JSONObject json = new JSONObject();
+    json.put("key", "value");
+    final CountDownLatch requestLatch = new CountDownLatch(1);
+    final CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mock(ParseHttpClient.class);
+    when(client.execute(any(ParseHttpRequest.class))).thenAnswer(new Answer<ParseHttpResponse>() {
+      @Override
+      public ParseHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        requestLatch.countDown();
+        responseLatch.await();
+        return newMockParseHttpResponse(200, json);
+      }
+    });
+
+    TaskCompletionSource<Void> cancellationToken = new TaskCompletionSource<>();
+    Task<JSONObject> sender = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken")
+        .executeAsync(client, cancellationToken.getTask());
+    requestLatch.await();
+    Task<JSONObject> joiner = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client);
+    // The command that sent the request is cancelled while the other one waits for it
+    cancellationToken.setCancelled();
+    assertTrue(sender.isCancelled());
+    assertFalse(joiner.isCompleted());
+    responseLatch.countDown();
+    ParseTaskUtils.wait(joiner);
+
+    verify(client, times(1)).execute(any(ParseHttpRequest.class));
+    assertEquals(json, joiner.getResult(), JSONCompareMode.NON_EXTENSIBLE);
+  }
+
+  @Test
+  public void testReadsThroughDifferentClientsAreNotShared() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("key", "value");
+    CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mockBlockingParseHttpClient(responseLatch, json);
+    ParseHttpClient otherClient = mockBlockingParseHttpClient(responseLatch, json);
+
+    Task<JSONObject> first = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(client);
+    Task<JSONObject> second = ParseRESTObjectCommand
+        .getObjectCommand("objectId", "Test", "sessionToken").executeAsync(otherClient);
+    responseLatch.countDown();
+    ParseTaskUtils.wait(first);
+    ParseTaskUtils.wait(second);
+
+    verify(client, times(1)).execute(any(ParseHttpRequest.class));
+    verify(otherClient, times(1)).execute(any(ParseHttpRequest.class));
+  }
+
+  @Test
+  public void testProgressIsPassedToEveryCommandSharingARead() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("key", "value");
+    CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mockBlockingParseHttpClient(responseLatch, json);
+    final List<Integer> firstProgress = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> secondProgress = Collections.synchronizedList(new ArrayList<Integer>());
+
+    Task<JSONObject> first = new ProgressReportingObjectCommand().executeAsync(
+        client, null, new ProgressCallback() {
+      @Override
+      public void done(Integer percentDone) {
+        firstProgress.add(percentDone);
+      }
+    });
+    Task<JSONObject> second = new ProgressReportingObjectCommand().executeAsync(
+        client, null, new ProgressCallback() {
+      @Override
+      public void done(Integer percentDone) {
+        secondProgress.add(percentDone);
+      }
+    });
+    responseLatch.countDown();
+    ParseTaskUtils.wait(first);
+    ParseTaskUtils.wait(second);
+
+    verify(client, times(1)).execute(any(ParseHttpRequest.class));
+    assertEquals(Collections.singletonList(100), firstProgress);
+    assertEquals(Collections.singletonList(100), secondProgress);
+  }
+
+  // A fetch that reports its download progress once the response is read.
+  private static class ProgressReportingObjectCommand extends ParseRESTObjectCommand {
+    public ProgressReportingObjectCommand() {
+      super("classes/Test/objectId", ParseHttpRequest.Method.GET, null, "sessionToken");
+    }
+
+    @Override
+    protected Task<JSONObject> onResponseAsync(ParseHttpResponse response,
+        ProgressCallback downloadProgressCallback) {
+      if (downloadProgressCallback != null) {
+        downloadProgressCallback.done(100);
+      }
+      return super.onResponseAsync(response, downloadProgressCallback);
+    }
+  }
+
+  @Test
+  public void testWritesAreNotShared() throws Exception {
+    JSONObject json = new JSONObject();
+    json.put("key", "value");
+    CountDownLatch responseLatch = new CountDownLatch(1);
+    ParseHttpClient client = mockBlockingParseHttpClient(responseLatch, json);
+
+    ParseObject.State state = new ParseObject.State.Builder("Test").objectId("objectId").build();
+    Task<JSONObject> first = ParseRESTObjectCommand
+        .saveObjectCommand(state, json, "sessionToken").executeAsync(client);
+    Task<JSONObject> second = ParseRESTObjectCommand
+        .saveObjectCommand(state, json, "sessionToken").executeAsync(client);
+    responseLatch.countDown();
+    ParseTaskUtils.wait(first);
+    ParseTaskUtils.wait(second);
+
+    verify(client, times(2)).execute(any(ParseHttpRequest.class));
+  }
+
+  //endregion
 }
@@ -19,6 +19,8 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -27,12 +29,14 @@ import java.util.LinkedList;
 import java.util.List;
 
 import bolts.Task;
+import bolts.TaskCompletionSource;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -77,6 +81,67 @@ public class ParseRequestTest {
     verify(mockHttpClient, times(5)).execute(any(ParseHttpRequest.class));
   }
 
+  @Test
+  public void testAsyncRetryLogic() throws Exception {
+    ParseHttpClient mockHttpClient = mock(ParseHttpClient.class);
+    when(mockHttpClient.isAsync()).thenReturn(true);
+    when(mockHttpClient.executeInternalAsync(any(ParseHttpRequest.class)))
+        .thenReturn(Task.<ParseHttpResponse>forError(new IOException()));
+
+    TestParseRequest request = new TestParseRequest(ParseHttpRequest.Method.GET, "http://parse.com");
+    Task<String> task = request.executeAsync(mockHttpClient);
+    task.waitForCompletion();
+
+    verify(mockHttpClient, times(5)).executeInternalAsync(any(ParseHttpRequest.class));
+    verify(mockHttpClient, never()).executeInternal(any(ParseHttpRequest.class));
+    assertTrue(task.isFaulted());
+    assertTrue(task.getError() instanceof ParseException);
+    assertEquals(ParseException.CONNECTION_FAILED, ((ParseException) task.getError()).getCode());
+  }
+
+  @Test
+  public void testAsyncRetrySucceeds() throws Exception {
+    ParseHttpResponse mockResponse = new ParseHttpResponse.Builder()
+        .setStatusCode(200)
+        .setContent(new ByteArrayInputStream(new byte[0]))
+        .build();
+    ParseHttpClient mockHttpClient = mock(ParseHttpClient.class);
+    when(mockHttpClient.isAsync()).thenReturn(true);
+    when(mockHttpClient.executeInternalAsync(any(ParseHttpRequest.class))).thenReturn(
+        Task.<ParseHttpResponse>forError(new IOException()), Task.forResult(mockResponse));
+
+    TestParseRequest request = new TestParseRequest(ParseHttpRequest.Method.GET, "http://parse.com");
+    Task<String> task = request.executeAsync(mockHttpClient);
+    task.waitForCompletion();
+
+    verify(mockHttpClient, times(2)).executeInternalAsync(any(ParseHttpRequest.class));
+    assertFalse(task.isFaulted());
+    assertFalse(task.isCancelled());
+  }
+
+  @Test
+  public void testAsyncCancelBetweenRetries() throws Exception {
+    final TaskCompletionSource<Void> cancellationToken = new TaskCompletionSource<>();
+    ParseHttpClient mockHttpClient = mock(ParseHttpClient.class);
+    when(mockHttpClient.isAsync()).thenReturn(true);
+    when(mockHttpClient.executeInternalAsync(any(ParseHttpRequest.class))).thenAnswer(
+        new Answer<Task<ParseHttpResponse>>() {
+      @Override
+      public Task<ParseHttpResponse> answer(InvocationOnMock invocation) throws Throwable {
+        // Cancel while the request is in flight, so it isn't retried after it fails
+        cancellationToken.setCancelled();
+        return Task.forError(new IOException());
+      }
+    });
+
+    TestParseRequest request = new TestParseRequest(ParseHttpRequest.Method.GET, "http://parse.com");
+    Task<String> task = request.executeAsync(mockHttpClient, cancellationToken.getTask());
+    task.waitForCompletion();
+
+    verify(mockHttpClient, times(1)).executeInternalAsync(any(ParseHttpRequest.class));
+    assertTrue(task.isCancelled());
+  }
+
   // TODO(grantland): Move to ParseFileRequestTest or ParseCountingByteArrayHttpBodyTest
   @Test
   public void testDownloadProgress() throws Exception {
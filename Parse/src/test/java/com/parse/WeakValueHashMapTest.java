@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015-present, Parse, LLC.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.parse;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WeakValueHashMapTest {
+
+  @Test
+  public void testPutGetRemove() {
+    WeakValueHashMap<String, Object> map = new WeakValueHashMap<>();
+    Object value = new Object();
+
+    map.put("key", value);
+    assertSame(value, map.get("key"));
+    assertEquals(1, map.size());
+    assertEquals(1, map.liveCount());
+
+    map.remove("key");
+    assertNull(map.get("key"));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testPutIfAbsent() {
+    WeakValueHashMap<String, Object> map = new WeakValueHashMap<>();
+    Object value = new Object();
+    Object other = new Object();
+
+    assertNull(map.putIfAbsent("key", value));
+    assertSame(value, map.putIfAbsent("key", other));
+    assertSame(value, map.get("key"));
+  }
+
+  @Test
+  public void testClear() {
+    WeakValueHashMap<String, Object> map = new WeakValueHashMap<>();
+    Object value = new Object();
+    map.put("key", value);
+
+    map.clear();
+
+    assertNull(map.get("key"));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testPurgeRemovesCollectedValues() throws Exception {
+    WeakValueHashMap<String, Object> map = new WeakValueHashMap<>();
+    List<Object> kept = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Object value = new Object();
+      map.put("key" + i, value);
+      if (i % 2 == 0) {
+        kept.add(value);
+      }
+    }
+
+    // Collection isn't guaranteed, so give the GC a few chances.
+    for (int i = 0; i < 50 && map.size() > kept.size(); i++) {
+      System.gc();
+      Thread.sleep(10);
+      map.purge();
+    }
+
+    assertEquals(kept.size(), map.size());
+    assertEquals(kept.size(), map.liveCount());
+    assertEquals(100 - kept.size(), map.purgedCount());
+    for (int i = 0; i < 100; i += 2) {
+      assertSame(kept.get(i / 2), map.get("key" + i));
+    }
+  }
+}